@@ -23,17 +23,16 @@
 
 package org.apache.commons.logging;
 
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.WeakHashMap;
 
 import org.apache.commons.logging.internal.JclLogger;
 import org.ops4j.pax.logging.OSGIPaxLoggingManager;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.ops4j.pax.logging.internal.BundleHelper;
+import org.ops4j.pax.logging.internal.FacadeRegistry;
 import org.ops4j.pax.logging.internal.FallbackLogFactory;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 
 /**
@@ -89,31 +88,23 @@ public class LogFactory
 
     private static LogFactory m_instance;
 
-    private static PaxLoggingManager m_paxLogging;
+    private static volatile PaxLoggingManager m_paxLogging;
 
-    private static Map m_loggers;
+    private static final FacadeRegistry<JclLogger> m_loggers = new FacadeRegistry<JclLogger>();
 
     static
     {
         m_instance = new LogFactory();
-        m_loggers = new WeakHashMap();
     }
 
     public static void setBundleContext(BundleContext ctx)
     {
-        synchronized (m_loggers) {
-            m_paxLogging = new OSGIPaxLoggingManager(ctx);
-            Set entrySet = m_loggers.entrySet();
-            Iterator iterator = entrySet.iterator();
-            while (iterator.hasNext())
-            {
-                Map.Entry entry = (Entry) iterator.next();
-                JclLogger logger = (JclLogger) entry.getKey();
-                String name = (String) entry.getValue();
-                logger.setPaxLoggingManager(m_paxLogging, name);
-            }
-            m_paxLogging.open();
+        m_paxLogging = new OSGIPaxLoggingManager(ctx);
+        for (Map.Entry<JclLogger, String> entry : m_loggers.snapshot().entrySet())
+        {
+            entry.getKey().setPaxLoggingManager(m_paxLogging, entry.getValue());
         }
+        m_paxLogging.open();
     }
 
     /**
@@ -243,18 +234,31 @@ public class LogFactory
     public Log getInstance(String name)
         throws LogConfigurationException
     {
-        PaxLogger logger;
-        if (m_paxLogging == null)
+        PaxLoggingManager paxLogging = m_paxLogging;
+        if (paxLogging == null)
         {
-            logger = FallbackLogFactory.createFallbackLog(null, name);
+            JclLogger jclLogger = m_loggers.get(name);
+            if (jclLogger == null)
+            {
+                jclLogger = m_loggers.putIfAbsent(name, name,
+                    new JclLogger(FallbackLogFactory.createFallbackLog(null, name)));
+                paxLogging = m_paxLogging;
+                if (paxLogging != null)
+                {
+                    // the bundle context was set while the logger was created, it may have missed the rebinding
+                    jclLogger.setPaxLoggingManager(paxLogging, name);
+                }
+            }
+            return jclLogger;
         }
-        else
+        // the calling bundle is resolved once, the manager is only asked for the loggers not registered yet
+        Bundle bundle = BundleHelper.getCallerBundle(paxLogging.getBundle());
+        Object key = FacadeRegistry.key(paxLogging, bundle, name);
+        JclLogger jclLogger = m_loggers.get(key);
+        if (jclLogger == null)
         {
-            logger = m_paxLogging.getLogger(name, JclLogger.JCL_FQCN);
-        }
-        JclLogger jclLogger = new JclLogger(logger);
-        synchronized (m_loggers) {
-            m_loggers.put(jclLogger, name);
+            PaxLogger logger = FacadeRegistry.getLogger(paxLogging, bundle, name, JclLogger.JCL_FQCN);
+            jclLogger = m_loggers.putIfAbsent(key, name, new JclLogger(logger));
         }
         return jclLogger;
     }
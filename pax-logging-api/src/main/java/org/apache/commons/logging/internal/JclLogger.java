@@ -21,6 +21,7 @@ import org.apache.commons.logging.Log;
 import org.osgi.framework.BundleContext;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.ops4j.pax.logging.internal.FallbackLogFactory;
 
 public class JclLogger
     implements Log
@@ -220,6 +221,8 @@ public class JclLogger
      */
     public void setPaxLoggingManager( PaxLoggingManager paxLoggingManager, String name )
     {
+        PaxLogger previous = m_delegate;
         m_delegate = paxLoggingManager.getLogger( name, JCL_FQCN );
+        FallbackLogFactory.replay( previous, m_delegate );
     }
 }
@@ -35,16 +35,15 @@ package org.apache.juli.logging;
 
 
 import java.util.Properties;
-import java.util.Set;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.Collections;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.ops4j.pax.logging.OSGIPaxLoggingManager;
 import org.ops4j.pax.logging.PaxLoggingManager;
 import org.ops4j.pax.logging.PaxLogger;
+import org.ops4j.pax.logging.internal.BundleHelper;
 import org.ops4j.pax.logging.internal.DefaultServiceLog;
+import org.ops4j.pax.logging.internal.FacadeRegistry;
 import org.ops4j.pax.logging.internal.FallbackLogFactory;
 import org.apache.juli.logging.internal.JuliLogger;
 
@@ -152,12 +151,11 @@ public class LogFactory {
         "org.apache.commons.logging.LogFactory.HashtableImpl";
 
     private static LogFactory singleton;
-    private static PaxLoggingManager m_paxLogging;
-    private static Map m_loggers;
+    private static volatile PaxLoggingManager m_paxLogging;
+    private static final FacadeRegistry<JuliLogger> m_loggers = new FacadeRegistry<JuliLogger>();
 
     static
     {
-        m_loggers = Collections.synchronizedMap( new WeakHashMap() );
         singleton = new LogFactory();
     }
     /**
@@ -191,17 +189,32 @@ public class LogFactory {
      */
     public Log getInstance(String name)
         throws LogConfigurationException {
-        PaxLogger logger;
-        if( m_paxLogging == null )
+        PaxLoggingManager paxLogging = m_paxLogging;
+        if( paxLogging == null )
         {
-            logger = FallbackLogFactory.createFallbackLog( null, name );
+            JuliLogger juliLogger = m_loggers.get( name );
+            if( juliLogger == null )
+            {
+                juliLogger = m_loggers.putIfAbsent( name, name,
+                                                    new JuliLogger( FallbackLogFactory.createFallbackLog( null, name ) ) );
+                paxLogging = m_paxLogging;
+                if( paxLogging != null )
+                {
+                    // the bundle context was set while the logger was created, it may have missed the rebinding
+                    juliLogger.setPaxLoggingManager( paxLogging, name );
+                }
+            }
+            return juliLogger;
         }
-        else
+        // the calling bundle is resolved once, the manager is only asked for the loggers not registered yet
+        Bundle bundle = BundleHelper.getCallerBundle( paxLogging.getBundle() );
+        Object key = FacadeRegistry.key( paxLogging, bundle, name );
+        JuliLogger juliLogger = m_loggers.get( key );
+        if( juliLogger == null )
         {
-            logger = m_paxLogging.getLogger( name, JuliLogger.JULI_FQCN );
+            PaxLogger logger = FacadeRegistry.getLogger( paxLogging, bundle, name, JuliLogger.JULI_FQCN );
+            juliLogger = m_loggers.putIfAbsent( key, name, new JuliLogger( logger ) );
         }
-        JuliLogger juliLogger = new JuliLogger( logger );
-        m_loggers.put( juliLogger, name );
         return juliLogger;
     }
 
@@ -380,14 +393,9 @@ public class LogFactory {
     public static void setBundleContext( BundleContext bundleContext )
     {
         m_paxLogging = new OSGIPaxLoggingManager( bundleContext );
-        Set entrySet = m_loggers.entrySet();
-        Iterator iterator = entrySet.iterator();
-        while ( iterator.hasNext() )
+        for( Map.Entry<JuliLogger, String> entry : m_loggers.snapshot().entrySet() )
         {
-            Map.Entry entry = (Map.Entry) iterator.next();
-            JuliLogger logger = (JuliLogger) entry.getKey();
-            String name = (String) entry.getValue();
-            logger.setPaxLoggingManager( m_paxLogging, name );
+            entry.getKey().setPaxLoggingManager( m_paxLogging, entry.getValue() );
         }
         m_paxLogging.open();
     }
@@ -19,6 +19,7 @@ package org.apache.juli.logging.internal;
 
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.ops4j.pax.logging.internal.FallbackLogFactory;
 import org.apache.juli.logging.Log;
 
 public class JuliLogger
@@ -194,6 +195,8 @@ public class JuliLogger
      */
     public void setPaxLoggingManager( PaxLoggingManager paxLoggingManager, String name )
     {
+        PaxLogger previous = m_delegate;
         m_delegate = paxLoggingManager.getLogger( name, JULI_FQCN );
+        FallbackLogFactory.replay( previous, m_delegate );
     }
 }
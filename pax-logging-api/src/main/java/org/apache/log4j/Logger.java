@@ -19,19 +19,17 @@ package org.apache.log4j;
 
 import org.apache.log4j.internal.MessageFormatter;
 import org.apache.log4j.spi.LoggerFactory;
+import org.ops4j.pax.logging.internal.BundleHelper;
 import org.ops4j.pax.logging.internal.DefaultServiceLog;
+import org.ops4j.pax.logging.internal.FacadeRegistry;
 import org.ops4j.pax.logging.internal.FallbackLogFactory;
 import org.ops4j.pax.logging.OSGIPaxLoggingManager;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.WeakHashMap;
 
 /**
  * This is the central class in the log4j package. Most logging
@@ -61,33 +59,25 @@ public class Logger extends Category
 
     private static final String LOG4J_FQCN = Logger.class.getName();
 
-    private static PaxLoggingManager m_paxLogging;
-    private static Map m_loggers;
-
-    static
-    {
-        m_loggers = Collections.synchronizedMap( new WeakHashMap() );
-    }
+    private static volatile PaxLoggingManager m_paxLogging;
+    private static final FacadeRegistry<Logger> m_loggers = new FacadeRegistry<Logger>();
 
     public static void setBundleContext( BundleContext ctx )
     {
         m_paxLogging = new OSGIPaxLoggingManager( ctx );
         // We need to instruct all loggers to ensure the SimplePaxLoggingManager is replaced.
-        Set entrySet = m_loggers.entrySet();
-        Iterator iterator = entrySet.iterator();
-        while( iterator.hasNext() )
+        for( Map.Entry<Logger, String> entry : m_loggers.snapshot().entrySet() )
         {
-            Map.Entry entry = (Entry) iterator.next();
-            Logger logger = (Logger) entry.getKey();
-            String name = (String) entry.getValue();
-            logger.setPaxLoggingManager( m_paxLogging, name );
+            entry.getKey().setPaxLoggingManager( m_paxLogging, entry.getValue() );
         }
         m_paxLogging.open();
     }
 
     private void setPaxLoggingManager( PaxLoggingManager loggingManager, String name )
     {
+        PaxLogger previous = m_delegate;
         m_delegate = loggingManager.getLogger( name, LOG4J_FQCN );
+        FallbackLogFactory.replay( previous, m_delegate );
     }
 
     /**
@@ -127,17 +117,32 @@ public class Logger extends Category
      */
     public static Logger getLogger( String name )
     {
-        PaxLogger paxLogger;
-        if( m_paxLogging == null )
+        PaxLoggingManager paxLogging = m_paxLogging;
+        if( paxLogging == null )
         {
-            paxLogger = FallbackLogFactory.createFallbackLog( null, name );
+            Logger logger = m_loggers.get( name );
+            if( logger == null )
+            {
+                logger = m_loggers.putIfAbsent( name, name,
+                                                new Logger( FallbackLogFactory.createFallbackLog( null, name ) ) );
+                paxLogging = m_paxLogging;
+                if( paxLogging != null )
+                {
+                    // the bundle context was set while the logger was created, it may have missed the rebinding
+                    logger.setPaxLoggingManager( paxLogging, name );
+                }
+            }
+            return logger;
         }
-        else
+        // the calling bundle is resolved once, the manager is only asked for the loggers not registered yet
+        Bundle bundle = BundleHelper.getCallerBundle( paxLogging.getBundle() );
+        Object key = FacadeRegistry.key( paxLogging, bundle, name );
+        Logger logger = m_loggers.get( key );
+        if( logger == null )
         {
-            paxLogger = m_paxLogging.getLogger( name, LOG4J_FQCN );
+            PaxLogger paxLogger = FacadeRegistry.getLogger( paxLogging, bundle, name, LOG4J_FQCN );
+            logger = m_loggers.putIfAbsent( key, name, new Logger( paxLogger ) );
         }
-        Logger logger = new Logger( paxLogger );
-        m_loggers.put( logger, name );
         return logger;
     }
 
@@ -16,19 +16,22 @@
 
 package org.apache.log4j.internal;
 
+import org.ops4j.pax.logging.internal.ParameterFormatter;
+
 /**
  * Formats messages according to very simple rules.
  * See {@link #format(String, Object)} and
  * {@link #format(String, Object, Object)} for more details.
+ * <p>
+ * The formatting is delegated to {@link ParameterFormatter}, so the Log4J API follows the same substitution
+ * and escaping rules as SLF4J.
+ * </p>
  *
  * @author Ceki G&uuml;lc&uuml;
  */
 public class MessageFormatter
 {
 
-    static final char DELIM_START = '{';
-    static final char DELIM_STOP = '}';
-
     /**
      * Performs single argument substitution for the 'messagePattern' passed as
      * parameter.
@@ -46,46 +49,10 @@ public class MessageFormatter
      */
     public static String format( String messagePattern, Object argument )
     {
-        int j = messagePattern.indexOf( DELIM_START );
-        int len = messagePattern.length();
-        char escape = 'x';
-
-        // if there are no { characters or { is the last character of the messsage
-        // then we just return messagePattern
-        if( j == -1 || ( j + 1 == len ) )
-        {
-            return messagePattern;
-        }
-        else
-        {
-            if( j + 1 == len )
-            {
-            }
-
-            char delimStop = messagePattern.charAt( j + 1 );
-            if( j > 0 )
-            {
-                escape = messagePattern.charAt( j - 1 );
-            }
-            if( ( delimStop != DELIM_STOP ) || ( escape == '\\' ) )
-            {
-                // invalid DELIM_START/DELIM_STOP pair or espace character is
-                // present
-                return messagePattern;
-            }
-            else
-            {
-                StringBuffer sbuf = new StringBuffer( len + 20 );
-                sbuf.append( messagePattern.substring( 0, j ) );
-                sbuf.append( argument );
-                sbuf.append( messagePattern.substring( j + 2 ) );
-                return sbuf.toString();
-            }
-        }
+        return ParameterFormatter.format( messagePattern, argument );
     }
 
     /**
-     * /**
      * Performs a two argument substitution for the 'messagePattern' passed as
      * parameter.
      * <p>
@@ -103,51 +70,6 @@ public class MessageFormatter
      */
     public static String format( final String messagePattern, Object arg1, Object arg2 )
     {
-        int i = 0;
-        int patternLength = messagePattern.length();
-        StringBuffer sbuf = new StringBuffer( patternLength + 50 );
-
-        for( int L = 0; L < 2; L++ )
-        {
-            int j = messagePattern.indexOf( DELIM_START, i );
-
-            if( j == -1 || ( j + 1 == patternLength ) )
-            {
-                // no more variables
-                if( i == 0 )
-                { // this is a simple string
-                    return messagePattern;
-                }
-                else
-                { // add the tail string which contains no variables and return the result.
-                    sbuf.append( messagePattern.substring( i, patternLength ) );
-                    return sbuf.toString();
-                }
-            }
-            else
-            {
-                char delimStop = messagePattern.charAt( j + 1 );
-                if( delimStop != DELIM_STOP )
-                {
-                    // invalid DELIM_START/DELIM_STOP pair
-                    sbuf.append( messagePattern.substring( i, patternLength ) );
-                    return sbuf.toString();
-                }
-                sbuf.append( messagePattern.substring( i, j ) );
-                if( L == 0 )
-                {
-                    sbuf.append( arg1 );
-                }
-                else
-                {
-                    sbuf.append( arg2 );
-                }
-                i = j + 2;
-            }
-        }
-        // append the characters following the second {} pair.
-        String remainder = messagePattern.substring( i, patternLength );
-        sbuf.append( remainder );
-        return sbuf.toString();
+        return ParameterFormatter.format( messagePattern, arg1, arg2 );
     }
 }
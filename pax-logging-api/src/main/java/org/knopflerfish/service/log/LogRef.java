@@ -90,17 +90,19 @@ public class LogRef implements ServiceListener, LogService {
     private final static String logServiceFilter = "(|" + "(objectClass="
             + LOG_CLASS_KF + ")(objectClass=" + LOG_CLASS_OSGI + "))";
 
-    // Date formater used then sending entries to System.out
+    // Date formater used then sending entries to System.out, guarded by
+    // its own monitor since SimpleDateFormat is not thread safe
     private static SimpleDateFormat simpleDateFormat = null;
 
     // Handle to the framework
-    private BundleContext bc;
+    private volatile BundleContext bc;
 
-    // Service reference for the current log service
-    private ServiceReference logSR;
+    // The current log service and its reference, replaced as a whole by the
+    // service listener so that the logging path never has to lock
+    private volatile Tracked tracked;
 
-    // The current log service
-    private org.osgi.service.log.LogService log;
+    // Serializes the service listener and close, never taken when logging
+    private final Object trackLock = new Object();
 
     // If true and no log service, print on System.out
     private boolean useOut;
@@ -109,7 +111,7 @@ public class LogRef implements ServiceListener, LogService {
     private long bundleId;
 
     // If true warn about using closed LogRef object
-    private boolean doWarnIfClosed;
+    private volatile boolean doWarnIfClosed;
 
     /**
      * * Create new LogRef object for a given bundle. *
@@ -153,53 +155,164 @@ public class LogRef implements ServiceListener, LogService {
         useOut = out;
         bundleId = bc.getBundle().getBundleId();
         try {
+            // Add the listener before looking up, so that a log service
+            // registered in between is not missed.
             bc.addServiceListener(this, logServiceFilter);
         } catch (InvalidSyntaxException e) {
             error("Failed to register log service listener (filter="
                     + logServiceFilter + ")", e);
         }
+        synchronized (trackLock) {
+            if (tracked == null) {
+                tracked = lookup(null);
+            }
+        }
     }
 
     /**
-     * * Service listener entry point. Releases the log service object if * one
-     * has been fetched. * *
+     * * Service listener entry point. Fetches a log service when one is *
+     * registered and none is in use, and releases the log service object *
+     * in use when it is unregistered, switching to another one if available. *
      * 
      * @param evt
      *            Service event
      */
     public void serviceChanged(ServiceEvent evt) {
-        if (evt.getServiceReference() == logSR
-                && evt.getType() == ServiceEvent.UNREGISTERING) {
-            ungetLogService();
+        ServiceReference sr = evt.getServiceReference();
+        synchronized (trackLock) {
+            if (bc == null) {
+                return;
+            }
+            Tracked current = tracked;
+            switch (evt.getType()) {
+            case ServiceEvent.REGISTERED:
+                // Prefer the Knopflerfish extended log service, it knows the
+                // log level.
+                if (current == null || (current.kfLog == null && isKnopflerfish(sr))) {
+                    Tracked replacement = get(sr);
+                    if (replacement != null) {
+                        tracked = replacement;
+                        if (current != null) {
+                            bc.ungetService(current.sr);
+                        }
+                    }
+                }
+                break;
+            case ServiceEvent.UNREGISTERING:
+                if (current != null && current.sr.equals(sr)) {
+                    ungetLogService();
+                    tracked = lookup(sr);
+                }
+                break;
+            default:
+                break;
+            }
         }
     }
 
     /**
-     * * Unget the log service. Note that this method is synchronized on * the
-     * same object as the internal method that calls the actual log * service.
-     * This ensures that the log service is not removed by * this method while a
-     * log message is generated.
+     * * Unget the log service. Must be called while holding the tracking *
+     * lock. A log call that already picked up the service may still *
+     * complete on it, the same as for any service that goes away while *
+     * it is being used.
      */
-    private synchronized void ungetLogService() {
+    private void ungetLogService() {
         doWarnIfClosed = doDebug();
-        if (log != null) {
-            bc.ungetService(logSR);
-            logSR = null;
-            log = null;
+        Tracked current = tracked;
+        if (current != null) {
+            tracked = null;
+            bc.ungetService(current.sr);
+        }
+    }
+
+    /**
+     * * Finds the best log service, preferring the Knopflerfish extended log *
+     * service over a standard OSGi log service. Must be called while *
+     * holding the tracking lock, and never from the logging path. *
+     * 
+     * @param exclude
+     *            a reference to skip because it is being unregistered, *
+     *            or <code>null</code>
+     * @return the log service, or <code>null</code> if there is none
+     */
+    private Tracked lookup(ServiceReference exclude) {
+        Tracked found = lookup(LOG_CLASS_KF, exclude);
+        if (found == null) {
+            // No service implementing the Knopflerfish extended log, try to
+            // look for a standard OSGi log service.
+            found = lookup(LOG_CLASS_OSGI, exclude);
+        }
+        return found;
+    }
+
+    private Tracked lookup(String clazz, ServiceReference exclude) {
+        ServiceReference[] refs;
+        try {
+            refs = bc.getServiceReferences(clazz, null);
+        } catch (InvalidSyntaxException e) {
+            return null;
+        } catch (IllegalStateException e) {
+            // Our bundle is stopping
+            return null;
+        }
+        if (refs == null) {
+            return null;
+        }
+        ServiceReference best = null;
+        for (int i = 0; i < refs.length; i++) {
+            if (refs[i].equals(exclude)) {
+                continue;
+            }
+            // Highest ranking, then lowest service id
+            if (best == null || refs[i].compareTo(best) > 0) {
+                best = refs[i];
+            }
+        }
+        return best == null ? null : get(best);
+    }
+
+    private Tracked get(ServiceReference sr) {
+        Object service;
+        try {
+            service = bc.getService(sr);
+        } catch (IllegalStateException e) {
+            return null;
         }
+        if (!(service instanceof org.osgi.service.log.LogService)) {
+            if (service != null) {
+                bc.ungetService(sr);
+            }
+            return null;
+        }
+        return new Tracked(sr, (org.osgi.service.log.LogService) service);
+    }
+
+    private static boolean isKnopflerfish(ServiceReference sr) {
+        String[] classes = (String[]) sr.getProperty("objectClass");
+        if (classes != null) {
+            for (int i = 0; i < classes.length; i++) {
+                if (LOG_CLASS_KF.equals(classes[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
      * * Close this LogRef object. Ungets the log service if active.
      */
     public void close() {
-        ungetLogService();
-        bc.removeServiceListener(this);
-        bc = null;
+        synchronized (trackLock) {
+            ungetLogService();
+            bc.removeServiceListener(this);
+            bc = null;
+        }
     }
 
     /**
-     * * Sends a message to the log if possible. * *
+     * * Sends a message to the log if possible. Does not lock, and returns *
+     * at once if the log service will throw the message away anyway. * *
      * 
      * @param msg
      *            Human readable string describing the condition. *
@@ -212,55 +325,50 @@ public class LogRef implements ServiceListener, LogService {
      * @param e
      *            The exception that reflects the condition.
      */
-    protected synchronized void doLog(String msg, int level,
+    protected void doLog(String msg, int level,
             ServiceReference sr, Throwable e) {
-        if (bc != null && log == null) {
-            logSR = bc.getServiceReference(LOG_CLASS_KF);
-            if (logSR == null) {
-                // No service implementing the Knopflerfish extended log, try to
-                // look for a standard OSGi log service.
-                logSR = bc.getServiceReference(LOG_CLASS_OSGI);
-            }
-            if (logSR != null) {
-                log = (org.osgi.service.log.LogService) bc.getService(logSR);
+        Tracked current = tracked;
+        if (current != null) {
+            if (current.kfLog != null && level > current.kfLog.getLogLevel()) {
+                return;
             }
-            if (log == null) {
-                // Failed to get log service clear the service reference.
-                logSR = null;
-            }
-        }
-        if (log != null) {
-            log.log(sr, level, msg, e);
+            current.log.log(sr, level, msg, e);
         } else if (useOut || doWarnIfClosed) {
             if (bc == null) {
                 System.err.println("WARNING! Bundle #" + bundleId
                         + " called closed LogRef object");
             }
-            // No log service and request for messages on System.out
-            System.out.print(LogUtil.fromLevel(level, 8));
-            System.out.print(" ");
-            if (simpleDateFormat == null) {
-                simpleDateFormat = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
+            // No log service and request for messages on System.out. The
+            // line is built first and printed with a single call, so that
+            // lines from concurrent threads do not interleave.
+            StringBuffer line = new StringBuffer(80);
+            line.append(LogUtil.fromLevel(level, 8));
+            line.append(" ");
+            synchronized (LogRef.class) {
+                if (simpleDateFormat == null) {
+                    simpleDateFormat = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
+                }
+                line.append(simpleDateFormat.format(new Date()));
             }
-            System.out.print(simpleDateFormat.format(new Date()));
-            System.out.print(" ");
-            System.out.print(getBundleName());
-            System.out.print(" - ");
+            line.append(" ");
+            line.append(getBundleName());
+            line.append(" - ");
             if (sr != null) {
-                System.out.print("[");
-                System.out.print(sr);
-                System.out.print("] ");
+                line.append("[");
+                line.append(sr);
+                line.append("] ");
             }
-            System.out.print(msg);
+            line.append(msg);
+            if (e != null) {
+                line.append(" (");
+                line.append(e);
+                line.append(")");
+            }
+            System.out.println(line);
             if (e != null) {
-                System.out.print(" (");
-                System.out.print(e);
-                System.out.print(")");
-
-                System.out.println();
                 e.printStackTrace();
+                System.out.println();
             }
-            System.out.println();
         }
     }
 
@@ -272,8 +380,9 @@ public class LogRef implements ServiceListener, LogService {
      * @return the current severity log level for this bundle.
      */
     public int getLogLevel() {
-        if (log != null && (log instanceof LogService)) {
-            return ((LogService) log).getLogLevel();
+        Tracked current = tracked;
+        if (current != null && current.kfLog != null) {
+            return current.kfLog.getLogLevel();
         }
         return LOG_DEBUG;
     }
@@ -611,4 +720,23 @@ public class LogRef implements ServiceListener, LogService {
         return bundleName.toString();
     }
 
+    /**
+     * * Immutable pair of a log service and its reference.
+     */
+    private static final class Tracked {
+        final ServiceReference sr;
+
+        final org.osgi.service.log.LogService log;
+
+        // The same service if it implements the Knopflerfish extended log
+        // service, otherwise null
+        final LogService kfLog;
+
+        Tracked(ServiceReference sr, org.osgi.service.log.LogService log) {
+            this.sr = sr;
+            this.log = log;
+            this.kfLog = log instanceof LogService ? (LogService) log : null;
+        }
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging;
+
+import java.util.List;
+
+/**
+ * Reads the entries of a {@link PaxLogReaderService} one batch after the other, each batch starting after the last
+ * entry of the previous one.
+ *
+ * <pre>
+ * LogCursor cursor = new LogCursor( reader );
+ * while( running )
+ * {
+ *     for( PaxLogEntry entry : cursor.next( 100, 1000 ) )
+ *     {
+ *         show( entry );
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public class LogCursor
+{
+
+    private final PaxLogReaderService m_reader;
+    private long m_position;
+    private long m_missed;
+
+    /**
+     * Creates a cursor positioned after the latest entry, which reads the entries logged from now on.
+     */
+    public LogCursor( PaxLogReaderService reader )
+    {
+        this( reader, reader.getLastSequence() );
+    }
+
+    /**
+     * @param reader   the reader service
+     * @param position the sequence of the last entry already read, 0 to read all entries still available
+     */
+    public LogCursor( PaxLogReaderService reader, long position )
+    {
+        m_reader = reader;
+        m_position = position;
+    }
+
+    /**
+     * Returns the next entries and moves the cursor after them.
+     *
+     * @param max     the maximum number of entries
+     * @param timeout how many milliseconds to wait for an entry if there is none yet
+     * @return the entries, oldest first, empty if none has been logged within the timeout
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public List<PaxLogEntry> next( int max, long timeout )
+        throws InterruptedException
+    {
+        LogEntryBatch batch = m_reader.getEntries( m_position, max, timeout );
+        m_position = batch.getLastSequence();
+        m_missed += batch.getMissed();
+        return batch.getEntries();
+    }
+
+    /**
+     * @return the sequence of the last entry read
+     */
+    public long getPosition()
+    {
+        return m_position;
+    }
+
+    /**
+     * @return the number of entries which have been dropped before the cursor read them, since it was created
+     */
+    public long getMissed()
+    {
+        return m_missed;
+    }
+}
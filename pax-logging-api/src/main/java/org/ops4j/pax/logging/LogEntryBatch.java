@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging;
+
+import java.util.List;
+
+/**
+ * The entries returned by {@link PaxLogReaderService#getEntries(long, int, long)}.
+ */
+public class LogEntryBatch
+{
+
+    private final List<PaxLogEntry> m_entries;
+    private final long m_lastSequence;
+    private final long m_missed;
+
+    /**
+     * @param entries      the entries, oldest first
+     * @param lastSequence the sequence of the last entry, or the position read from if there are no entries
+     * @param missed       the number of entries after the position which have been dropped before they were read
+     */
+    public LogEntryBatch( List<PaxLogEntry> entries, long lastSequence, long missed )
+    {
+        m_entries = entries;
+        m_lastSequence = lastSequence;
+        m_missed = missed;
+    }
+
+    /**
+     * @return the entries, oldest first, with consecutive sequence numbers
+     */
+    public List<PaxLogEntry> getEntries()
+    {
+        return m_entries;
+    }
+
+    /**
+     * @return the position to read the following entries from
+     */
+    public long getLastSequence()
+    {
+        return m_lastSequence;
+    }
+
+    /**
+     * @return the number of entries between the position and the first entry which are no longer available
+     */
+    public long getMissed()
+    {
+        return m_missed;
+    }
+}
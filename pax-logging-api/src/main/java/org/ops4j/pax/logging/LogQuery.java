@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.osgi.service.log.LogService;
+
+/**
+ * The criteria of a {@link PaxLogReaderService#getLog(LogQuery)} query. An event matches if it matches all criteria
+ * that have been set.
+ *
+ * <pre>
+ * new LogQuery().from( start ).minimumLevel( LogService.LOG_WARNING ).bundle( "org.example" ).limit( 100 )
+ * </pre>
+ */
+public class LogQuery
+{
+
+    private long m_from = Long.MIN_VALUE;
+    private long m_to = Long.MAX_VALUE;
+    private int m_maxSyslogLevel = Integer.MAX_VALUE;
+    private String m_bundle;
+    private String m_loggerPrefix;
+    private final Map<String, String> m_mdc = new HashMap<String, String>();
+    private int m_limit = 1000;
+
+    /**
+     * @param from the first timestamp, in milliseconds since the epoch, inclusive
+     */
+    public LogQuery from( long from )
+    {
+        m_from = from;
+        return this;
+    }
+
+    /**
+     * @param to the last timestamp, in milliseconds since the epoch, exclusive
+     */
+    public LogQuery to( long to )
+    {
+        m_to = to;
+        return this;
+    }
+
+    /**
+     * @param level the least severe level to match, one of the {@link LogService} levels
+     */
+    public LogQuery minimumLevel( int level )
+    {
+        m_maxSyslogLevel = toSyslog( level );
+        return this;
+    }
+
+    /**
+     * @param bundle the symbolic name or the id of the bundle that logged the events
+     */
+    public LogQuery bundle( String bundle )
+    {
+        m_bundle = bundle;
+        return this;
+    }
+
+    /**
+     * @param prefix the beginning of the logger names, like a package name
+     */
+    public LogQuery loggerPrefix( String prefix )
+    {
+        m_loggerPrefix = prefix;
+        return this;
+    }
+
+    /**
+     * Adds an MDC entry the events must have.
+     */
+    public LogQuery mdc( String key, String value )
+    {
+        m_mdc.put( key, value );
+        return this;
+    }
+
+    /**
+     * @param limit the maximum number of events returned, 1000 by default
+     */
+    public LogQuery limit( int limit )
+    {
+        m_limit = limit;
+        return this;
+    }
+
+    public long getFrom()
+    {
+        return m_from;
+    }
+
+    public long getTo()
+    {
+        return m_to;
+    }
+
+    /**
+     * @return the syslog level of the least severe level to match, {@link Integer#MAX_VALUE} for any level
+     */
+    public int getMaxSyslogLevel()
+    {
+        return m_maxSyslogLevel;
+    }
+
+    public String getBundle()
+    {
+        return m_bundle;
+    }
+
+    public String getLoggerPrefix()
+    {
+        return m_loggerPrefix;
+    }
+
+    public Map<String, String> getMdc()
+    {
+        return m_mdc;
+    }
+
+    public int getLimit()
+    {
+        return m_limit;
+    }
+
+    /**
+     * @return true if the event was logged within the time range
+     */
+    public boolean matchesTime( long timeStamp )
+    {
+        return timeStamp >= m_from && timeStamp < m_to;
+    }
+
+    public boolean matches( PaxLoggingEvent event )
+    {
+        if( !matchesTime( event.getTimeStamp() ) )
+        {
+            return false;
+        }
+        PaxLevel level = event.getLevel();
+        if( m_maxSyslogLevel != Integer.MAX_VALUE && ( level == null
+                                                       || level.getSyslogEquivalent() > m_maxSyslogLevel ) )
+        {
+            return false;
+        }
+        if( m_loggerPrefix != null && ( event.getLoggerName() == null
+                                        || !event.getLoggerName().startsWith( m_loggerPrefix ) ) )
+        {
+            return false;
+        }
+        if( m_bundle == null && m_mdc.isEmpty() )
+        {
+            return true;
+        }
+        Map properties = event.getProperties();
+        if( properties == null )
+        {
+            return false;
+        }
+        if( m_bundle != null && !m_bundle.equals( properties.get( "bundle.name" ) )
+            && !m_bundle.equals( String.valueOf( properties.get( "bundle.id" ) ) ) )
+        {
+            return false;
+        }
+        for( Iterator<Map.Entry<String, String>> it = m_mdc.entrySet().iterator(); it.hasNext(); )
+        {
+            Map.Entry<String, String> entry = it.next();
+            Object value = properties.get( entry.getKey() );
+            if( value == null || !value.toString().equals( entry.getValue() ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the syslog level of a {@link LogService} level
+     */
+    public static int toSyslog( int level )
+    {
+        switch( level )
+        {
+            case LogService.LOG_ERROR:
+                return 3;
+            case LogService.LOG_WARNING:
+                return 4;
+            case LogService.LOG_INFO:
+                return 6;
+            default:
+                return 7;
+        }
+    }
+}
@@ -17,12 +17,13 @@
  */
 package org.ops4j.pax.logging;
 
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ops4j.pax.logging.internal.BundleHelper;
+import org.ops4j.pax.logging.internal.BundleLoggingManager;
+import org.ops4j.pax.logging.internal.DefaultServiceLog;
 import org.ops4j.pax.logging.internal.TrackingLogger;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -30,21 +31,24 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
 public class OSGIPaxLoggingManager extends ServiceTracker
-        implements PaxLoggingManager
+        implements BundleLoggingManager
 {
 
-    private PaxLoggingService m_service;
+    private volatile PaxLoggingService m_service;
+
+    // orders the loggers switching to a new service with the service being removed
+    private final Object m_switchLock = new Object();
 
     private BundleContext m_context;
 
-    private Map m_loggers;
+    private ConcurrentMap<LoggerKey, TrackingLogger> m_loggers;
 
     private ServiceReference m_logServiceRef;
 
     public OSGIPaxLoggingManager(BundleContext context)
     {
         super(context, PaxLoggingService.class.getName(), null);
-        m_loggers = new HashMap();
+        m_loggers = new ConcurrentHashMap<LoggerKey, TrackingLogger>();
         m_context = context;
         // retrieve the service if any exist at this point.
         ServiceReference ref = context.getServiceReference(PaxLoggingService.class.getName());
@@ -57,55 +61,78 @@ public class OSGIPaxLoggingManager extends ServiceTracker
     public Object addingService(ServiceReference reference)
     {
         m_logServiceRef = reference;
-        m_service = (PaxLoggingService) m_context.getService(reference);
-        synchronized (m_loggers) {
-            Collection values = m_loggers.values();
-            Iterator iterator = values.iterator();
-            while (iterator.hasNext())
+        final PaxLoggingService service = (PaxLoggingService) m_context.getService(reference);
+        m_service = service;
+        // let the fallback output written so far come out before the service takes over
+        DefaultServiceLog.drain(new Runnable()
+        {
+            public void run()
             {
-                TrackingLogger logger = (TrackingLogger) iterator.next();
-                logger.added(m_service);
+                synchronized (m_switchLock)
+                {
+                    if (m_service != service)
+                    {
+                        // removed or replaced in the meantime
+                        return;
+                    }
+                    Iterator<TrackingLogger> iterator = m_loggers.values().iterator();
+                    while (iterator.hasNext())
+                    {
+                        iterator.next().added(service);
+                    }
+                }
             }
-        }
-        return m_service;
+        });
+        return service;
     }
 
     public void removedService(ServiceReference reference, Object service)
     {
-        m_service = null;
         if (m_logServiceRef == null) {
             m_context.ungetService(m_logServiceRef);
             m_logServiceRef = null;
         }
 
-        synchronized (m_loggers) {
-            Collection values = m_loggers.values();
-            Iterator iterator = values.iterator();
+        synchronized (m_switchLock)
+        {
+            m_service = null;
+            Iterator<TrackingLogger> iterator = m_loggers.values().iterator();
             while (iterator.hasNext())
             {
-                TrackingLogger logger = (TrackingLogger) iterator.next();
-                logger.removed();
+                iterator.next().removed();
             }
         }
     }
 
     public PaxLogger getLogger(String category, String fqcn)
+    {
+        return getLogger(BundleHelper.getCallerBundle(m_context.getBundle()), category, fqcn);
+    }
+
+    public PaxLogger getLogger(Bundle bundle, String category, String fqcn)
     {
         if (fqcn == null)
         {
             fqcn = PaxLogger.class.getName();
         }
-        Bundle bundle = BundleHelper.getCallerBundle(m_context.getBundle());
-        String key = fqcn + "#" + category + "#" + (bundle != null ? Long.toString(bundle.getBundleId()) : "0");
-        synchronized (m_loggers) {
-            TrackingLogger logger = (TrackingLogger) m_loggers.get(key);
-            if (logger == null)
+        LoggerKey key = new LoggerKey(fqcn, category, bundle != null ? bundle.getBundleId() : 0);
+        TrackingLogger logger = m_loggers.get(key);
+        if (logger == null)
+        {
+            PaxLoggingService service = m_service;
+            logger = new TrackingLogger(service, category, bundle, fqcn);
+            TrackingLogger existing = m_loggers.putIfAbsent(key, logger);
+            if (existing != null)
             {
-                logger = new TrackingLogger(m_service, category, bundle, fqcn);
-                m_loggers.put(key, logger);
+                return existing;
+            }
+            if (m_service != service)
+            {
+                // the service changed while the logger was registered
+                logger.added(m_service);
             }
-            return logger;
         }
+        return logger;
     }
 
     public PaxLoggingService getPaxLoggingService()
@@ -127,4 +154,37 @@ public class OSGIPaxLoggingManager extends ServiceTracker
     {
         return m_context.getBundle();
     }
+
+    private static final class LoggerKey
+    {
+
+        private final String m_fqcn;
+        private final String m_category;
+        private final long m_bundleId;
+
+        private LoggerKey(String fqcn, String category, long bundleId)
+        {
+            m_fqcn = fqcn;
+            m_category = category;
+            m_bundleId = bundleId;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof LoggerKey))
+            {
+                return false;
+            }
+            LoggerKey other = (LoggerKey) o;
+            return m_bundleId == other.m_bundleId && m_fqcn.equals(other.m_fqcn)
+                && (m_category == null ? other.m_category == null : m_category.equals(other.m_category));
+        }
+
+        public int hashCode()
+        {
+            int hash = m_fqcn.hashCode();
+            hash = 31 * hash + (m_category != null ? m_category.hashCode() : 0);
+            return 31 * hash + (int) (m_bundleId ^ (m_bundleId >>> 32));
+        }
+    }
 }
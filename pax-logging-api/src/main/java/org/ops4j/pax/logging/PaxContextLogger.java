@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging;
+
+import java.util.Map;
+
+/**
+ * A logger which can log a message with a given context instead of the {@link PaxContext} of the calling thread,
+ * for instance to replay messages logged by other threads before the Pax Logging Service was available.
+ */
+public interface PaxContextLogger extends PaxLogger
+{
+
+    int LEVEL_FATAL = LEVEL_ERROR + 1;
+
+    /**
+     * Logs a message with the given context. The context of the calling thread is neither used nor changed.
+     *
+     * @param level   one of the LEVEL constants
+     * @param message the message
+     * @param t       the throwable, or null
+     * @param fqcn    the fully qualified class name of the logging facade
+     * @param context the context of the message, or null for an empty one
+     */
+    void log( int level, String message, Throwable t, String fqcn, Map<String, Object> context );
+}
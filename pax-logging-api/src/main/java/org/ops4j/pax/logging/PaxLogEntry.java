@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging;
+
+import org.osgi.service.log.LogEntry;
+
+/**
+ * A {@link LogEntry} of the {@link PaxLogReaderService}, numbered in the order in which the entries were logged.
+ */
+public interface PaxLogEntry extends LogEntry
+{
+
+    /**
+     * @return the sequence number of the entry, starting with 1 when the logging service starts, and increasing by
+     *         one with every entry
+     */
+    long getSequence();
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging;
+
+import java.util.List;
+
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.osgi.service.log.LogReaderService;
+
+/**
+ * A {@link LogReaderService} that can be queried, and read incrementally.
+ *
+ * <p>
+ * The LogReaderService of Pax Logging is registered under this interface as well. With the
+ * <code>pax.logging.store.dir</code> configuration property set, the events are kept in a store on disk and the
+ * queries cover that store; otherwise they cover the entries kept in memory, like {@link #getLog()}. The logger
+ * name, the thread and the MDC of the entries are only kept with the store, the queries of the entries in memory
+ * do not match them.
+ * </p>
+ */
+public interface PaxLogReaderService extends LogReaderService
+{
+
+    /**
+     * @param query the criteria
+     * @return the matching events, oldest first, at most as many as the limit of the query
+     */
+    List<PaxLoggingEvent> getLog( LogQuery query );
+
+    /**
+     * @return the sequence of the latest entry, 0 if there is none yet
+     * @see PaxLogEntry#getSequence()
+     */
+    long getLastSequence();
+
+    /**
+     * Returns the entries logged after an entry, without copying the entries before it. The service keeps the
+     * recent entries only, <code>pax.logging.entries.size</code> of them; the entries after the given one which
+     * are no longer kept are counted as missed.
+     *
+     * @param after   the sequence of the last entry the caller has read, 0 to start with the oldest entry kept
+     * @param max     the maximum number of entries returned
+     * @param timeout how many milliseconds to wait if no entry has been logged after the given one yet, 0 to
+     *                return immediately
+     * @return the entries
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @see LogCursor
+     */
+    LogEntryBatch getEntries( long after, int max, long timeout )
+        throws InterruptedException;
+
+}
@@ -17,40 +17,28 @@
  */
 package org.ops4j.pax.logging.avalon;
 
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.Collections;
 import org.apache.avalon.framework.logger.Logger;
 import org.ops4j.pax.logging.OSGIPaxLoggingManager;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.ops4j.pax.logging.internal.BundleHelper;
+import org.ops4j.pax.logging.internal.FacadeRegistry;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 
 public class AvalonLogFactory
 {
 
-    private static PaxLoggingManager m_paxLogging;
-    private static Map m_loggers;
-
-    static
-    {
-        m_loggers = Collections.synchronizedMap( new WeakHashMap() );
-    }
+    private static volatile PaxLoggingManager m_paxLogging;
+    private static final FacadeRegistry<AvalonLogger> m_loggers = new FacadeRegistry<AvalonLogger>();
 
     public static void setBundleContext( BundleContext context )
     {
         m_paxLogging = new OSGIPaxLoggingManager( context );
-        Set entrySet = m_loggers.entrySet();
-        Iterator iterator = entrySet.iterator();
-        while( iterator.hasNext() )
+        for( Map.Entry<AvalonLogger, String> entry : m_loggers.snapshot().entrySet() )
         {
-            Map.Entry entry = (Entry) iterator.next();
-            AvalonLogger logger = (AvalonLogger) entry.getKey();
-            String name = (String) entry.getValue();
-            logger.setPaxLoggingManager( m_paxLogging, name );
+            entry.getKey().setPaxLoggingManager( m_paxLogging, entry.getValue() );
         }
         m_paxLogging.open();
     }
@@ -78,9 +66,16 @@ public class AvalonLogFactory
         {
             newName = parent.getName() + "." + name;
         }
-        PaxLogger logger = m_paxLogging.getLogger( newName, AvalonLogger.AVALON_FQCN );
-        AvalonLogger avalonLogger = new AvalonLogger( logger );
-        m_loggers.put( avalonLogger, newName );
+        // the calling bundle is resolved once, the manager is only asked for the loggers not registered yet
+        PaxLoggingManager paxLogging = m_paxLogging;
+        Bundle bundle = BundleHelper.getCallerBundle( paxLogging.getBundle() );
+        Object key = FacadeRegistry.key( paxLogging, bundle, newName );
+        AvalonLogger avalonLogger = m_loggers.get( key );
+        if( avalonLogger == null )
+        {
+            PaxLogger logger = FacadeRegistry.getLogger( paxLogging, bundle, newName, AvalonLogger.AVALON_FQCN );
+            avalonLogger = m_loggers.putIfAbsent( key, newName, new AvalonLogger( logger ) );
+        }
         return avalonLogger;
     }
 
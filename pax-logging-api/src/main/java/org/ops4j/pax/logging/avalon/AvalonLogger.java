@@ -20,6 +20,7 @@ package org.ops4j.pax.logging.avalon;
 import org.apache.avalon.framework.logger.Logger;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.ops4j.pax.logging.internal.FallbackLogFactory;
 
 public class AvalonLogger
     implements Logger
@@ -141,6 +142,8 @@ public class AvalonLogger
 
     void setPaxLoggingManager( PaxLoggingManager paxLoggingManager, String name )
     {
+        PaxLogger previous = m_delegate;
         m_delegate = paxLoggingManager.getLogger( name, AVALON_FQCN );
+        FallbackLogFactory.replay( previous, m_delegate );
     }
 }
@@ -77,5 +77,6 @@ public class Activator
         org.apache.log4j.MDC.dispose();
         org.ops4j.pax.logging.avalon.AvalonLogFactory.dispose();
         org.apache.juli.logging.LogFactory.dispose();
+        FallbackLogWriter.closeInstance();
     }
 }
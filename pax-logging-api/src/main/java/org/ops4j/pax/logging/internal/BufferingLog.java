@@ -17,30 +17,62 @@
  */
 package org.ops4j.pax.logging.internal;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Bundle;
 import org.ops4j.pax.logging.PaxContext;
+import org.ops4j.pax.logging.PaxContextLogger;
 import org.ops4j.pax.logging.PaxLogger;
 
 /**
  * Experimental fallback strategy for non-availability.
+ * <p>
+ * Messages are kept in a bounded ring, sized by the "org.ops4j.pax.logging.bufferingLogFallback.size" system
+ * property (1000 per logger by default). The ring is allocated with the first message and grows up to that size.
+ * When the ring is full the oldest messages are discarded and a summary of how many were lost is emitted in front
+ * of the replayed messages.
+ * </p>
+ * <p>
+ * Each buffered message records the time and the thread it was logged from, as well as a copy of the context
+ * at that moment. On replay the copy, together with the {@link #TIMESTAMP_KEY} and {@link #THREAD_KEY} entries,
+ * is passed with the message to destinations implementing {@link PaxContextLogger}. Other destinations get it
+ * installed as their context for the time of the call.
+ * </p>
  */
 public class BufferingLog implements PaxLogger
 {
 
+    /**
+     * Context key holding the time, in milliseconds, at which a replayed message was originally logged.
+     */
+    public static final String TIMESTAMP_KEY = "buffered.timestamp";
+
+    /**
+     * Context key holding the name of the thread that originally logged a replayed message.
+     */
+    public static final String THREAD_KEY = "buffered.thread";
+
+    private static final String CAPACITY_PROPERTY = "org.ops4j.pax.logging.bufferingLogFallback.size";
+
+    private static final int DEFAULT_CAPACITY = 1000;
+
+    private static final int CAPACITY = Math.max( 1, Integer.getInteger( CAPACITY_PROPERTY, DEFAULT_CAPACITY ) );
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final AtomicInteger BUFFERED = new AtomicInteger();
+
     private static class LogType
     {
 
-        private static final int TRACE_INT = 0;
-        private static final int DEBUG_INT = 1;
-        private static final int INFO_INT = 2;
-        private static final int WARN_INT = 3;
-        private static final int ERROR_INT = 4;
-        private static final int FATAL_INT = 5;
+        private static final int TRACE_INT = PaxContextLogger.LEVEL_TRACE;
+        private static final int DEBUG_INT = PaxContextLogger.LEVEL_DEBUG;
+        private static final int INFO_INT = PaxContextLogger.LEVEL_INFO;
+        private static final int WARN_INT = PaxContextLogger.LEVEL_WARNING;
+        private static final int ERROR_INT = PaxContextLogger.LEVEL_ERROR;
+        private static final int FATAL_INT = PaxContextLogger.LEVEL_FATAL;
 
         private static LogType trace = new LogType( TRACE_INT );
         private static LogType debug = new LogType( DEBUG_INT );
@@ -62,29 +94,121 @@ public class BufferingLog implements PaxLogger
         }
     }
 
-    private final List m_queue;
+    private LogPackage[] m_ring;
     private final String m_fqcn;
+    private final String m_categoryName;
+    private int m_head;
+    private int m_size;
+    private long m_dropped;
     private PaxContext m_context = new PaxContext();
 
     public BufferingLog( Bundle bundle, String categoryName )
     {
         m_fqcn = getClass().getName();
-        m_queue = new ArrayList();
+        m_categoryName = categoryName;
+    }
+
+    /**
+     * @return the number of messages a logger holds at most.
+     */
+    static int getCapacity()
+    {
+        return CAPACITY;
+    }
+
+    /**
+     * @return the number of messages currently held by all buffering loggers.
+     */
+    public static int getBufferedCount()
+    {
+        return BUFFERED.get();
+    }
+
+    /**
+     * @return the number of messages held by this logger.
+     */
+    public synchronized int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * @return the number of messages this logger had to discard since the last flush.
+     */
+    public synchronized long getDroppedCount()
+    {
+        return m_dropped;
     }
 
     void flush( PaxLogger destination )
     {
-        Iterator iterator = m_queue.iterator();
-        while( iterator.hasNext() )
+        LogPackage[] batch;
+        long dropped;
+        synchronized( this )
+        {
+            batch = new LogPackage[ m_size ];
+            for( int i = 0; i < m_size; i++ )
+            {
+                batch[ i ] = m_ring[ ( m_head + i ) % m_ring.length ];
+            }
+            BUFFERED.addAndGet( -m_size );
+            dropped = m_dropped;
+            // loggers are usually flushed once, the ring is allocated again if they are not
+            m_ring = null;
+            m_head = 0;
+            m_size = 0;
+            m_dropped = 0;
+        }
+        if( dropped == 0 && batch.length == 0 )
+        {
+            return;
+        }
+
+        if( dropped > 0 )
+        {
+            replay( destination, LogType.WARN_INT, "Buffering log for [" + m_categoryName + "] overflowed, "
+                                                   + dropped + " early messages were discarded.",
+                    null, m_fqcn, null );
+        }
+        for( int i = 0; i < batch.length; i++ )
+        {
+            LogPackage pack = batch[ i ];
+            Map<String, Object> snapshot = pack.getContext();
+            Hashtable<String, Object> context = snapshot != null
+                                                ? new Hashtable<String, Object>( snapshot )
+                                                : new Hashtable<String, Object>();
+            context.put( TIMESTAMP_KEY, Long.valueOf( pack.getTimestamp() ) );
+            context.put( THREAD_KEY, pack.getThreadName() );
+            replay( destination, pack.getType().getType(), pack.getMessage(), pack.getException(), pack.getFqcn(),
+                    context );
+        }
+    }
+
+    /**
+     * Logs a message with the given context, passing it along if the destination is a {@link PaxContextLogger},
+     * and otherwise installing it as the context of the destination for the time of the call.
+     */
+    static void replay( PaxLogger destination, int level, String message, Throwable throwable, String fqcn,
+                        Map<String, Object> context )
+    {
+        if( destination instanceof PaxContextLogger )
+        {
+            ( (PaxContextLogger) destination ).log( level, message, throwable, fqcn, context );
+            return;
+        }
+        PaxContext live = destination.getPaxContext();
+        Map<String, Object> saved = live.getCopyOfContextMap();
+        if( context != null )
+        {
+            live.setContextMap( context );
+        }
+        else
+        {
+            live.clear();
+        }
+        try
         {
-            LogPackage pack = (LogPackage) iterator.next();
-            String fqcn = pack.getFqcn();
-            Throwable throwable = pack.getException();
-            String message = pack.getMessage();
-            getPaxContext().putAll( pack.getContext() );
-            LogType logType = pack.getType();
-            int logTypeAsInt = logType.getType();
-            switch( logTypeAsInt )
+            switch( level )
             {
                 case LogType.DEBUG_INT:
                     destination.debug( message, throwable, fqcn );
@@ -105,7 +229,52 @@ public class BufferingLog implements PaxLogger
                     destination.fatal( message, throwable, fqcn );
                     break;
             }
-            getPaxContext().clear();
+        }
+        finally
+        {
+            if( saved != null )
+            {
+                live.setContextMap( saved );
+            }
+            else
+            {
+                live.clear();
+            }
+        }
+    }
+
+    private void enqueue( String fqcn, LogType type, String message, Throwable t )
+    {
+        LogPackage p = new LogPackage( fqcn, type, message, t, getPaxContext().getCopyOfContextMap() );
+        synchronized( this )
+        {
+            if( m_ring == null )
+            {
+                m_ring = new LogPackage[ Math.min( INITIAL_CAPACITY, CAPACITY ) ];
+            }
+            else if( m_size == m_ring.length && m_ring.length < CAPACITY )
+            {
+                LogPackage[] grown = new LogPackage[ Math.min( m_ring.length * 2, CAPACITY ) ];
+                for( int i = 0; i < m_size; i++ )
+                {
+                    grown[ i ] = m_ring[ ( m_head + i ) % m_ring.length ];
+                }
+                m_ring = grown;
+                m_head = 0;
+            }
+            if( m_size == m_ring.length )
+            {
+                // overwrite the oldest entry
+                m_ring[ m_head ] = p;
+                m_head = ( m_head + 1 ) % m_ring.length;
+                m_dropped++;
+            }
+            else
+            {
+                m_ring[ ( m_head + m_size ) % m_ring.length ] = p;
+                m_size++;
+                BUFFERED.incrementAndGet();
+            }
         }
     }
 
@@ -141,74 +310,62 @@ public class BufferingLog implements PaxLogger
 
     public void trace( String message, Throwable t )
     {
-        LogPackage p = new LogPackage( m_fqcn, LogType.trace, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( m_fqcn, LogType.trace, message, t );
     }
 
     public void debug( String message, Throwable t )
     {
-        LogPackage p = new LogPackage( m_fqcn, LogType.debug, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( m_fqcn, LogType.debug, message, t );
     }
 
     public void inform( String message, Throwable t )
     {
-        LogPackage p = new LogPackage( m_fqcn, LogType.info, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( m_fqcn, LogType.info, message, t );
     }
 
     public void warn( String message, Throwable t )
     {
-        LogPackage p = new LogPackage( m_fqcn, LogType.warn, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( m_fqcn, LogType.warn, message, t );
     }
 
     public void error( String message, Throwable t )
     {
-        LogPackage p = new LogPackage( m_fqcn, LogType.error, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( m_fqcn, LogType.error, message, t );
     }
 
     public void fatal( String message, Throwable t )
     {
-        LogPackage p = new LogPackage( m_fqcn, LogType.fatal, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( m_fqcn, LogType.fatal, message, t );
     }
 
     public void trace( String message, Throwable t, String fqcn )
     {
-        LogPackage p = new LogPackage( fqcn, LogType.trace, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( fqcn, LogType.trace, message, t );
     }
 
     public void debug( String message, Throwable t, String fqcn )
     {
-        LogPackage p = new LogPackage( fqcn, LogType.debug, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( fqcn, LogType.debug, message, t );
     }
 
     public void inform( String message, Throwable t, String fqcn )
     {
-        LogPackage p = new LogPackage( fqcn, LogType.info, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( fqcn, LogType.info, message, t );
     }
 
     public void warn( String message, Throwable t, String fqcn )
     {
-        LogPackage p = new LogPackage( fqcn, LogType.warn, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( fqcn, LogType.warn, message, t );
     }
 
     public void error( String message, Throwable t, String fqcn )
     {
-        LogPackage p = new LogPackage( fqcn, LogType.error, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( fqcn, LogType.error, message, t );
     }
 
     public void fatal( String message, Throwable t, String fqcn )
     {
-        LogPackage p = new LogPackage( fqcn, LogType.fatal, message, t, getPaxContext().getContext() );
-        m_queue.add( p );
+        enqueue( fqcn, LogType.fatal, message, t );
     }
 
     public int getLogLevel()
@@ -233,17 +390,20 @@ public class BufferingLog implements PaxLogger
         private final LogType m_type;
         private final String m_message;
         private final Throwable m_exception;
-        private final Map m_context;
+        private final Map<String, Object> m_context;
+        private final long m_timestamp;
+        private final String m_threadName;
 
-        public LogPackage( String fqcn, LogType type, String message, Throwable exception, Map context )
+        public LogPackage( String fqcn, LogType type, String message, Throwable exception,
+                           Map<String, Object> context )
         {
             m_fqcn = fqcn;
             m_type = type;
             m_message = message;
             m_exception = exception;
             m_context = context;
-            if (m_exception != null)
-                m_exception.fillInStackTrace();
+            m_timestamp = System.currentTimeMillis();
+            m_threadName = Thread.currentThread().getName();
         }
 
         public String getFqcn() {
@@ -265,9 +425,19 @@ public class BufferingLog implements PaxLogger
             return m_type;
         }
 
-        public Map getContext()
+        public Map<String, Object> getContext()
         {
             return m_context;
         }
+
+        public long getTimestamp()
+        {
+            return m_timestamp;
+        }
+
+        public String getThreadName()
+        {
+            return m_threadName;
+        }
     }
 }
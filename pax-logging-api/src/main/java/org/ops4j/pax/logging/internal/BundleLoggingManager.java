@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.internal;
+
+import org.ops4j.pax.logging.PaxLogger;
+import org.ops4j.pax.logging.PaxLoggingManager;
+import org.osgi.framework.Bundle;
+
+/**
+ * A {@link PaxLoggingManager} which takes the calling bundle from the facades, which have already determined it. It
+ * is kept out of the exported interface, which other implementations of the manager may not have, see
+ * {@link FacadeRegistry#getLogger(PaxLoggingManager, Bundle, String, String)}.
+ */
+public interface BundleLoggingManager extends PaxLoggingManager
+{
+
+    /**
+     * Same as {@link #getLogger(String, String)}, for a calling bundle the caller has already determined.
+     *
+     * @param bundle   the calling bundle
+     * @param category the name of the logger
+     * @param fqcn     the fully qualified class name of the logging facade
+     *
+     * @return the logger
+     */
+    PaxLogger getLogger( Bundle bundle, String category, String fqcn );
+}
@@ -17,6 +17,9 @@
  */
 package org.ops4j.pax.logging.internal;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 import org.ops4j.pax.logging.FqcnIgnoringPaxLogger;
 import org.osgi.framework.Bundle;
 import org.ops4j.pax.logging.PaxLogger;
@@ -29,6 +32,9 @@ import org.ops4j.pax.logging.PaxContext;
  * is set to on of the following: TRACE, DEBUG, INFO, WARN, ERROR, FATAL, or NONE, prior to this class is loaded,
  * OR by calling the static method <code>DefaultServiceLog.setLogLevel( String <b>level</b> )</code>, where
  * <b>level</b> is one of the same strings.
+ * <p>
+ * If the "org.ops4j.pax.logging.DefaultServiceLog.async" system property is set to true, the output is handed
+ * to the {@link FallbackLogWriter} instead of being printed by the logging thread.
  */
 public class DefaultServiceLog extends FqcnIgnoringPaxLogger
 {
@@ -43,6 +49,8 @@ public class DefaultServiceLog extends FqcnIgnoringPaxLogger
 
     public static int level;
 
+    private static final boolean ASYNC = Boolean.getBoolean( "org.ops4j.pax.logging.DefaultServiceLog.async" );
+
     private Bundle m_bundle;
     private String m_categoryName;
     private PaxContext m_context=new PaxContext();
@@ -154,6 +162,12 @@ public class DefaultServiceLog extends FqcnIgnoringPaxLogger
 
     private void output( String message, Throwable t )
     {
+        if( ASYNC )
+        {
+            FallbackLogWriter.getInstance().offer( render( message, t ) );
+            return;
+        }
+
         // Might be [null] if used by standard test cases.
         if( m_bundle != null )
         {
@@ -171,6 +185,56 @@ public class DefaultServiceLog extends FqcnIgnoringPaxLogger
         }
     }
 
+    private String render( String message, Throwable t )
+    {
+        StringBuilder line = new StringBuilder( 128 );
+        if( m_bundle != null )
+        {
+            line.append( m_bundle.getSymbolicName() );
+        }
+        line.append( "[" ).append( m_categoryName ).append( "] : " ).append( message );
+        if( t != null )
+        {
+            StringWriter trace = new StringWriter();
+            t.printStackTrace( new PrintWriter( trace ) );
+            line.append( System.getProperty( "line.separator", "\n" ) );
+            // the writer terminates every line itself
+            int end = trace.getBuffer().length();
+            while( end > 0 && Character.isWhitespace( trace.getBuffer().charAt( end - 1 ) ) )
+            {
+                end--;
+            }
+            line.append( trace.getBuffer(), 0, end );
+        }
+        return line.toString();
+    }
+
+    /**
+     * Runs a task once the asynchronous output written so far has reached the console, so that it is not
+     * interleaved with the output of a Pax Logging Service that is taking over. The caller does not wait: if
+     * there is output to wait for, the task runs on a thread of its own.
+     *
+     * @param then the task to run
+     */
+    public static void drain( final Runnable then )
+    {
+        if( !ASYNC || !FallbackLogWriter.hasInstance() )
+        {
+            then.run();
+            return;
+        }
+        Thread thread = new Thread( "PaxLogging-FallbackDrain" )
+        {
+            public void run()
+            {
+                FallbackLogWriter.drainInstance( 5000 );
+                then.run();
+            }
+        };
+        thread.setDaemon( true );
+        thread.start();
+    }
+
     private static void convertLevel( String levelName )
     {
         if( "TRACE".equals( levelName ) )
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.internal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ops4j.pax.logging.PaxLogger;
+import org.ops4j.pax.logging.PaxLoggingManager;
+import org.osgi.framework.Bundle;
+
+/**
+ * Registry of the logger objects handed out by a logging facade, such as the SLF4J or Log4J API.
+ * <p>
+ * The registry maps a key to the canonical facade logger for that key, so that repeated lookups return the
+ * same instance instead of creating a new one. Lookups do not lock. Loggers are only weakly referenced, a
+ * logger nobody uses any more is removed the next time the registry is modified.
+ * </p>
+ * <p>
+ * Before the facade is bound to a bundle context the logger name is used as key. Afterwards the key is the
+ * manager, the calling bundle and the name, see {@link #key(PaxLoggingManager, Bundle, String)}. The facade resolves the calling bundle
+ * once per lookup and only asks the {@link PaxLoggingManager} for a logger when there is
+ * none registered yet. Each logger is registered with its name, so the facade can rebind all live loggers when the
+ * bundle context changes, see {@link #snapshot()}.
+ * </p>
+ *
+ * @param <F> the type of facade logger
+ */
+public class FacadeRegistry<F>
+{
+
+    private final ConcurrentMap<Object, Ref<F>> m_loggers = new ConcurrentHashMap<Object, Ref<F>>();
+    private final ReferenceQueue<F> m_queue = new ReferenceQueue<F>();
+
+    /**
+     * @param manager the manager the logger is bound to
+     * @param bundle  the calling bundle, or <code>null</code>
+     * @param name    the name of the logger
+     *
+     * @return the key of the logger of that name for that bundle
+     */
+    public static Object key( PaxLoggingManager manager, Bundle bundle, String name )
+    {
+        return new BundleKey( manager, bundle != null ? bundle.getBundleId() : 0, name );
+    }
+
+    /**
+     * Asks a manager for the logger of a calling bundle the facade has already determined, if the manager takes it.
+     *
+     * @param manager the manager
+     * @param bundle  the calling bundle, or <code>null</code>
+     * @param name    the name of the logger
+     * @param fqcn    the fully qualified class name of the logging facade
+     *
+     * @return the logger of the manager
+     */
+    public static PaxLogger getLogger( PaxLoggingManager manager, Bundle bundle, String name, String fqcn )
+    {
+        if( manager instanceof BundleLoggingManager )
+        {
+            return ( (BundleLoggingManager) manager ).getLogger( bundle, name, fqcn );
+        }
+        return manager.getLogger( name, fqcn );
+    }
+
+    /**
+     * @param key the key the logger was registered with
+     *
+     * @return the registered logger, or <code>null</code> if there is none
+     */
+    public F get( Object key )
+    {
+        Ref<F> ref = m_loggers.get( key );
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Registers a logger unless another live logger is already registered for the key.
+     *
+     * @param key    the key to register the logger with
+     * @param name   the name of the logger
+     * @param logger the logger
+     *
+     * @return the logger that is registered for the key after the call, which is either the given logger or the
+     *         one that was registered before
+     */
+    public F putIfAbsent( Object key, String name, F logger )
+    {
+        expunge();
+        Ref<F> ref = new Ref<F>( key, name, logger, m_queue );
+        while( true )
+        {
+            Ref<F> existing = m_loggers.putIfAbsent( key, ref );
+            if( existing == null )
+            {
+                return logger;
+            }
+            F current = existing.get();
+            if( current != null )
+            {
+                return current;
+            }
+            if( m_loggers.replace( key, existing, ref ) )
+            {
+                return logger;
+            }
+        }
+    }
+
+    /**
+     * @return the live loggers, with the name of each
+     */
+    public Map<F, String> snapshot()
+    {
+        expunge();
+        Map<F, String> result = new IdentityHashMap<F, String>();
+        Iterator<Ref<F>> iterator = m_loggers.values().iterator();
+        while( iterator.hasNext() )
+        {
+            Ref<F> ref = iterator.next();
+            F logger = ref.get();
+            if( logger != null )
+            {
+                result.put( logger, ref.m_name );
+            }
+        }
+        return result;
+    }
+
+    private void expunge()
+    {
+        Ref<?> ref;
+        while( ( ref = (Ref<?>) m_queue.poll() ) != null )
+        {
+            m_loggers.remove( ref.m_key, ref );
+        }
+    }
+
+    private static final class BundleKey
+    {
+
+        private final PaxLoggingManager m_manager;
+        private final long m_bundleId;
+        private final String m_name;
+
+        private BundleKey( PaxLoggingManager manager, long bundleId, String name )
+        {
+            m_manager = manager;
+            m_bundleId = bundleId;
+            m_name = name;
+        }
+
+        public boolean equals( Object o )
+        {
+            if( !( o instanceof BundleKey ) )
+            {
+                return false;
+            }
+            BundleKey other = (BundleKey) o;
+            return m_manager == other.m_manager && m_bundleId == other.m_bundleId
+                   && ( m_name == null ? other.m_name == null : m_name.equals( other.m_name ) );
+        }
+
+        public int hashCode()
+        {
+            int hash = System.identityHashCode( m_manager );
+            hash = 31 * hash + ( m_name != null ? m_name.hashCode() : 0 );
+            return 31 * hash + (int) ( m_bundleId ^ ( m_bundleId >>> 32 ) );
+        }
+    }
+
+    private static final class Ref<F> extends WeakReference<F>
+    {
+
+        private final Object m_key;
+        private final String m_name;
+
+        private Ref( Object key, String name, F logger, ReferenceQueue<F> queue )
+        {
+            super( logger, queue );
+            m_key = key;
+            m_name = name;
+        }
+    }
+}
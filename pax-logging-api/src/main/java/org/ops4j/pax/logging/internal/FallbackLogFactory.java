@@ -37,4 +37,27 @@ public class FallbackLogFactory
             return new DefaultServiceLog( bundle, categoryName );
         }
     }
+
+    /**
+     * Hands the messages collected by a fallback logger over to the logger that replaces it. Messages buffered
+     * by a {@link BufferingLog} are replayed once the destination is backed by a Pax Logging Service.
+     *
+     * @param fallback    the logger that is being replaced, may be any kind of logger
+     * @param destination the replacement
+     */
+    public static void replay( PaxLogger fallback, PaxLogger destination )
+    {
+        if( !( fallback instanceof BufferingLog ) )
+        {
+            return;
+        }
+        if( destination instanceof TrackingLogger )
+        {
+            ( (TrackingLogger) destination ).replayWhenAvailable( (BufferingLog) fallback );
+        }
+        else
+        {
+            ( (BufferingLog) fallback ).flush( destination );
+        }
+    }
 }
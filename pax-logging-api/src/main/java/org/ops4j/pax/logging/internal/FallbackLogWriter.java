@@ -0,0 +1,356 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.internal;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the output of {@link DefaultServiceLog} from a background thread.
+ * <p>
+ * Logging threads only queue the rendered lines. The writer thread encodes as many queued lines as fit into a
+ * direct buffer and hands the whole batch to the channel in one write, so the console (or the file named by the
+ * "org.ops4j.pax.logging.DefaultServiceLog.file" system property) is locked once per batch instead of once per
+ * print call. The console gets each batch in a single write to the current {@link System#out}.
+ * </p>
+ * <p>
+ * The memory held by queued lines is bounded by the "org.ops4j.pax.logging.DefaultServiceLog.bufferSize" system
+ * property, in bytes. Lines that do not fit are dropped and counted, and the count is reported in the output.
+ * </p>
+ * <p>
+ * {@link #close()} writes what is still queued, ends the thread and closes the file.
+ * </p>
+ */
+public class FallbackLogWriter
+    implements Runnable
+{
+
+    static final String FILE_PROPERTY = "org.ops4j.pax.logging.DefaultServiceLog.file";
+
+    static final String BUFFER_SIZE_PROPERTY = "org.ops4j.pax.logging.DefaultServiceLog.bufferSize";
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 100 );
+
+    private static final String LINE_SEPARATOR = System.getProperty( "line.separator", "\n" );
+
+    private static FallbackLogWriter m_instance;
+
+    private final ConcurrentLinkedQueue<String> m_queue = new ConcurrentLinkedQueue<String>();
+    private final AtomicLong m_pendingBytes = new AtomicLong();
+    private final AtomicLong m_enqueued = new AtomicLong();
+    private final AtomicLong m_dropped = new AtomicLong();
+    private final long m_maxPendingBytes;
+    private final String m_fileName;
+    private final ByteBuffer m_batch = ByteBuffer.allocateDirect( BATCH_SIZE );
+    private final CharsetEncoder m_encoder;
+
+    private volatile long m_written;
+    private volatile boolean m_flushRequested;
+    private volatile boolean m_idle;
+    private volatile boolean m_closed;
+    private volatile Thread m_thread;
+    private WritableByteChannel m_channel;
+    private byte[] m_console;
+
+    FallbackLogWriter( long maxPendingBytes, String fileName )
+    {
+        m_maxPendingBytes = maxPendingBytes;
+        m_fileName = fileName;
+        m_encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput( CodingErrorAction.REPLACE )
+            .onUnmappableCharacter( CodingErrorAction.REPLACE );
+    }
+
+    /**
+     * @return the shared writer, started on first use.
+     */
+    public static synchronized FallbackLogWriter getInstance()
+    {
+        if( m_instance == null )
+        {
+            long size = Long.getLong( BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE ).longValue();
+            m_instance = new FallbackLogWriter( size, System.getProperty( FILE_PROPERTY ) );
+            m_instance.start();
+        }
+        return m_instance;
+    }
+
+    /**
+     * Waits until everything queued so far has been written, if a writer has been started at all.
+     *
+     * @param timeoutMillis the longest time to wait
+     */
+    public static void drainInstance( long timeoutMillis )
+    {
+        FallbackLogWriter writer;
+        synchronized( FallbackLogWriter.class )
+        {
+            writer = m_instance;
+        }
+        if( writer != null )
+        {
+            writer.drain( timeoutMillis );
+        }
+    }
+
+    /**
+     * Closes the shared writer, if one has been started, after everything queued so far has been written. The
+     * next use starts a new one.
+     */
+    public static void closeInstance()
+    {
+        FallbackLogWriter writer;
+        synchronized( FallbackLogWriter.class )
+        {
+            writer = m_instance;
+            m_instance = null;
+        }
+        if( writer != null )
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return true if the shared writer has been started.
+     */
+    static synchronized boolean hasInstance()
+    {
+        return m_instance != null;
+    }
+
+    void start()
+    {
+        Thread thread = new Thread( this, "PaxLogging-FallbackLogWriter" );
+        thread.setDaemon( true );
+        m_thread = thread;
+        thread.start();
+    }
+
+    /**
+     * Queues one line of output.
+     *
+     * @param line the line, without line terminator
+     *
+     * @return false if the line was dropped because the memory bound was reached
+     */
+    public boolean offer( String line )
+    {
+        if( m_closed )
+        {
+            m_dropped.incrementAndGet();
+            return false;
+        }
+        // a char never encodes to more than a few bytes, two is a good estimate for the memory held
+        long size = 2L * ( line.length() + LINE_SEPARATOR.length() );
+        if( m_pendingBytes.addAndGet( size ) > m_maxPendingBytes )
+        {
+            m_pendingBytes.addAndGet( -size );
+            m_dropped.incrementAndGet();
+            return false;
+        }
+        m_queue.offer( line );
+        m_enqueued.incrementAndGet();
+        if( m_idle )
+        {
+            LockSupport.unpark( m_thread );
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of lines dropped because the memory bound was reached.
+     */
+    public long getDroppedCount()
+    {
+        return m_dropped.get();
+    }
+
+    /**
+     * Waits until all lines queued before the call have reached the channel.
+     *
+     * @param timeoutMillis the longest time to wait
+     */
+    public void drain( long timeoutMillis )
+    {
+        long target = m_enqueued.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while( m_written < target && System.currentTimeMillis() < deadline )
+        {
+            m_flushRequested = true;
+            LockSupport.unpark( m_thread );
+            LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( 1 ) );
+        }
+    }
+
+    /**
+     * Writes the lines queued so far, stops the writer thread and closes the file. Lines offered afterwards are
+     * dropped.
+     */
+    public void close()
+    {
+        m_closed = true;
+        Thread thread = m_thread;
+        if( thread == null )
+        {
+            return;
+        }
+        LockSupport.unpark( thread );
+        try
+        {
+            thread.join( 5000 );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run()
+    {
+        long reportedDrops = 0;
+        long appended = 0;
+        while( true )
+        {
+            String line = m_queue.poll();
+            if( line == null )
+            {
+                long dropped = m_dropped.get();
+                if( dropped != reportedDrops )
+                {
+                    append( "[" + ( dropped - reportedDrops ) + " messages dropped by the fallback log writer]" );
+                    reportedDrops = dropped;
+                    continue;
+                }
+                flushBatch();
+                m_written = appended;
+                if( m_closed )
+                {
+                    break;
+                }
+                m_idle = true;
+                if( m_queue.isEmpty() && !m_closed )
+                {
+                    LockSupport.parkNanos( this, IDLE_PARK_NANOS );
+                }
+                m_idle = false;
+                continue;
+            }
+            append( line );
+            m_pendingBytes.addAndGet( -2L * ( line.length() + LINE_SEPARATOR.length() ) );
+            appended++;
+            if( m_flushRequested )
+            {
+                m_flushRequested = false;
+                flushBatch();
+                m_written = appended;
+            }
+        }
+        if( m_channel != null )
+        {
+            try
+            {
+                m_channel.close();
+            }
+            catch( IOException e )
+            {
+                // nowhere left to report to
+            }
+            m_channel = null;
+        }
+    }
+
+    private void append( String line )
+    {
+        encode( CharBuffer.wrap( line ) );
+        encode( CharBuffer.wrap( LINE_SEPARATOR ) );
+    }
+
+    private void encode( CharBuffer chars )
+    {
+        m_encoder.reset();
+        while( true )
+        {
+            CoderResult result = m_encoder.encode( chars, m_batch, true );
+            if( result.isOverflow() )
+            {
+                flushBatch();
+            }
+            else
+            {
+                break;
+            }
+        }
+    }
+
+    private void flushBatch()
+    {
+        if( m_batch.position() == 0 )
+        {
+            return;
+        }
+        m_batch.flip();
+        try
+        {
+            if( m_fileName == null )
+            {
+                // the console may be redirected at any time, so always write to the current stream, in one call: a
+                // channel over a PrintStream would lock it and copy through a heap array once per 8 KiB
+                if( m_console == null )
+                {
+                    m_console = new byte[BATCH_SIZE];
+                }
+                int length = m_batch.remaining();
+                m_batch.get( m_console, 0, length );
+                System.out.write( m_console, 0, length );
+                System.out.flush();
+            }
+            else
+            {
+                if( m_channel == null )
+                {
+                    m_channel = new FileOutputStream( m_fileName, true ).getChannel();
+                }
+                while( m_batch.hasRemaining() )
+                {
+                    m_channel.write( m_batch );
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            // nowhere left to report to
+        }
+        m_batch.clear();
+    }
+}
@@ -0,0 +1,602 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.internal;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The parameter formatting engine shared by all the logging facades.
+ * <p>
+ * Substitution follows the SLF4J rules: every <code>{}</code> pair is a formatting anchor, a single
+ * <code>\</code> in front of the anchor escapes it and a double <code>\\</code> escapes the escape character.
+ * </p>
+ * <p>
+ * The anchor positions of a message pattern are parsed once and cached by the identity of the pattern
+ * string, which for the usual case of a constant format string means the pattern is never scanned again.
+ * The text is assembled in a {@link StringBuilder} that is confined to the calling thread and reused
+ * between calls, so that formatting a message only allocates the resulting {@link String}. Builders
+ * that have grown beyond {@link #MAX_REUSABLE_CAPACITY} are dropped after use so that one huge message does
+ * not pin memory for the lifetime of the thread.
+ * </p>
+ */
+public final class ParameterFormatter
+{
+
+    /**
+     * Builders with a larger capacity than this are not kept for reuse.
+     */
+    public static final int MAX_REUSABLE_CAPACITY = 2048;
+
+    static final char DELIM_START = '{';
+    static final String DELIM_STR = "{}";
+    private static final char ESCAPE_CHAR = '\\';
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final int CACHE_SIZE = 256;
+    private static final int CACHE_MASK = CACHE_SIZE - 1;
+
+    private static final int ANCHOR = 0;
+    private static final int DOUBLE_ESCAPED_ANCHOR = 1;
+    private static final int ESCAPED_DELIMITER = 2;
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * Direct mapped cache of parsed patterns, indexed by identity hash code. Entries are immutable, so
+     * racing writers only cost a re-parse, never a wrong result.
+     */
+    private static final Anchors[] CACHE = new Anchors[CACHE_SIZE];
+
+    private static final ThreadLocal<Buffer> BUFFERS = new ThreadLocal<Buffer>()
+    {
+        @Override
+        protected Buffer initialValue()
+        {
+            return new Buffer();
+        }
+    };
+
+    private ParameterFormatter()
+    {
+    }
+
+    /**
+     * Formats a message pattern with one argument.
+     *
+     * @param messagePattern the pattern, may be <code>null</code>
+     * @param arg            the argument for the first anchor
+     *
+     * @return the formatted message
+     */
+    public static String format( String messagePattern, Object arg )
+    {
+        return format( messagePattern, 1, arg, null, null );
+    }
+
+    /**
+     * Formats a message pattern with two arguments.
+     *
+     * @param messagePattern the pattern, may be <code>null</code>
+     * @param arg1           the argument for the first anchor
+     * @param arg2           the argument for the second anchor
+     *
+     * @return the formatted message
+     */
+    public static String format( String messagePattern, Object arg1, Object arg2 )
+    {
+        return format( messagePattern, 2, arg1, arg2, null );
+    }
+
+    /**
+     * Formats a message pattern with any number of arguments.
+     *
+     * @param messagePattern the pattern, may be <code>null</code>
+     * @param argArray       the arguments, may be <code>null</code>
+     *
+     * @return the formatted message
+     */
+    public static String arrayFormat( String messagePattern, Object[] argArray )
+    {
+        if( argArray == null )
+        {
+            return messagePattern;
+        }
+        return format( messagePattern, argArray.length, null, null, argArray );
+    }
+
+    /**
+     * Formats a message pattern directly into the given {@link Appendable}.
+     *
+     * @param out            where the formatted message is written to
+     * @param messagePattern the pattern, may be <code>null</code>
+     * @param argArray       the arguments, may be <code>null</code>
+     *
+     * @throws IOException if the appendable fails
+     */
+    public static void formatTo( Appendable out, String messagePattern, Object[] argArray )
+        throws IOException
+    {
+        if( argArray == null )
+        {
+            argArray = NO_ARGS;
+        }
+        if( out instanceof StringBuilder )
+        {
+            appendTo( (StringBuilder) out, messagePattern, argArray.length, null, null, argArray );
+            return;
+        }
+        Buffer buffer = BUFFERS.get();
+        StringBuilder sbuf = buffer.acquire();
+        try
+        {
+            appendTo( sbuf, messagePattern, argArray.length, null, null, argArray );
+            out.append( sbuf );
+        }
+        finally
+        {
+            buffer.release( sbuf );
+        }
+    }
+
+    /**
+     * Returns the throwable that SLF4J semantics attach to the event: the last argument if it is a
+     * {@link Throwable} that has not been consumed by an anchor of the pattern.
+     *
+     * @param messagePattern the pattern, may be <code>null</code>
+     * @param arg            the only argument
+     *
+     * @return the throwable or <code>null</code>
+     */
+    public static Throwable getThrowable( String messagePattern, Object arg )
+    {
+        return throwableCandidate( messagePattern, 1, arg );
+    }
+
+    /**
+     * @see #getThrowable(String, Object)
+     */
+    public static Throwable getThrowable( String messagePattern, Object arg1, Object arg2 )
+    {
+        return throwableCandidate( messagePattern, 2, arg2 );
+    }
+
+    /**
+     * @see #getThrowable(String, Object)
+     */
+    public static Throwable getThrowable( String messagePattern, Object[] argArray )
+    {
+        if( argArray == null || argArray.length == 0 )
+        {
+            return null;
+        }
+        return throwableCandidate( messagePattern, argArray.length, argArray[ argArray.length - 1 ] );
+    }
+
+    private static Throwable throwableCandidate( String messagePattern, int argCount, Object last )
+    {
+        if( !( last instanceof Throwable ) )
+        {
+            return null;
+        }
+        if( messagePattern == null || anchors( messagePattern ).m_count < argCount )
+        {
+            return (Throwable) last;
+        }
+        return null;
+    }
+
+    private static String format( String messagePattern, int argCount, Object arg1, Object arg2, Object[] argArray )
+    {
+        if( messagePattern == null )
+        {
+            return null;
+        }
+        Anchors anchors = anchors( messagePattern );
+        if( anchors.m_ops.length == 0 || argCount == 0 )
+        {
+            return messagePattern;
+        }
+        Buffer buffer = BUFFERS.get();
+        StringBuilder sbuf = buffer.acquire();
+        try
+        {
+            appendTo( sbuf, messagePattern, anchors, argCount, arg1, arg2, argArray );
+            return sbuf.toString();
+        }
+        finally
+        {
+            buffer.release( sbuf );
+        }
+    }
+
+    private static void appendTo( StringBuilder sbuf, String messagePattern, int argCount, Object arg1, Object arg2,
+                                  Object[] argArray )
+    {
+        if( messagePattern == null )
+        {
+            sbuf.append( (String) null );
+            return;
+        }
+        appendTo( sbuf, messagePattern, anchors( messagePattern ), argCount, arg1, arg2, argArray );
+    }
+
+    private static void appendTo( StringBuilder sbuf, String messagePattern, Anchors anchors, int argCount,
+                                  Object arg1, Object arg2, Object[] argArray )
+    {
+        int[] ops = anchors.m_ops;
+        int cursor = 0;
+        int consumed = 0;
+        for( int i = 0; i < ops.length && consumed < argCount; i++ )
+        {
+            int position = ops[ i ] >>> 2;
+            switch( ops[ i ] & 3 )
+            {
+                case ESCAPED_DELIMITER:
+                    // drop the escape character, keep the '{' as literal text
+                    sbuf.append( messagePattern, cursor, position - 1 );
+                    cursor = position;
+                    break;
+                case DOUBLE_ESCAPED_ANCHOR:
+                    // consume one of the two escape characters
+                    sbuf.append( messagePattern, cursor, position - 1 );
+                    appendArgument( sbuf, argument( consumed++, arg1, arg2, argArray ) );
+                    cursor = position + 2;
+                    break;
+                default:
+                    sbuf.append( messagePattern, cursor, position );
+                    appendArgument( sbuf, argument( consumed++, arg1, arg2, argArray ) );
+                    cursor = position + 2;
+                    break;
+            }
+        }
+        sbuf.append( messagePattern, cursor, messagePattern.length() );
+    }
+
+    private static Object argument( int index, Object arg1, Object arg2, Object[] argArray )
+    {
+        if( argArray != null )
+        {
+            return argArray[ index ];
+        }
+        return index == 0 ? arg1 : arg2;
+    }
+
+    private static Anchors anchors( String messagePattern )
+    {
+        int slot = System.identityHashCode( messagePattern ) & CACHE_MASK;
+        Anchors anchors = CACHE[ slot ];
+        if( anchors == null || anchors.m_pattern != messagePattern )
+        {
+            anchors = parse( messagePattern );
+            CACHE[ slot ] = anchors;
+        }
+        return anchors;
+    }
+
+    private static Anchors parse( String messagePattern )
+    {
+        int[] ops = new int[ 4 ];
+        int size = 0;
+        int count = 0;
+        int i = 0;
+        int j;
+        while( ( j = messagePattern.indexOf( DELIM_STR, i ) ) != -1 )
+        {
+            int op;
+            if( isEscapedDelimiter( messagePattern, j ) )
+            {
+                if( isDoubleEscaped( messagePattern, j ) )
+                {
+                    op = DOUBLE_ESCAPED_ANCHOR;
+                    count++;
+                    i = j + 2;
+                }
+                else
+                {
+                    op = ESCAPED_DELIMITER;
+                    i = j + 1;
+                }
+            }
+            else
+            {
+                op = ANCHOR;
+                count++;
+                i = j + 2;
+            }
+            if( size == ops.length )
+            {
+                int[] grown = new int[ size * 2 ];
+                System.arraycopy( ops, 0, grown, 0, size );
+                ops = grown;
+            }
+            ops[ size++ ] = ( j << 2 ) | op;
+        }
+        int[] trimmed = new int[ size ];
+        System.arraycopy( ops, 0, trimmed, 0, size );
+        return new Anchors( messagePattern, trimmed, count );
+    }
+
+    private static boolean isEscapedDelimiter( String messagePattern, int delimiterStartIndex )
+    {
+        return delimiterStartIndex > 0 && messagePattern.charAt( delimiterStartIndex - 1 ) == ESCAPE_CHAR;
+    }
+
+    private static boolean isDoubleEscaped( String messagePattern, int delimiterStartIndex )
+    {
+        return delimiterStartIndex >= 2 && messagePattern.charAt( delimiterStartIndex - 2 ) == ESCAPE_CHAR;
+    }
+
+    /**
+     * Appends a single argument the way SLF4J does, rendering arrays element by element.
+     *
+     * @param sbuf the builder to append to
+     * @param o    the argument
+     */
+    public static void appendArgument( StringBuilder sbuf, Object o )
+    {
+        if( o == null )
+        {
+            sbuf.append( "null" );
+        }
+        else if( o instanceof String )
+        {
+            sbuf.append( (String) o );
+        }
+        else if( !o.getClass().isArray() )
+        {
+            safeObjectAppend( sbuf, o );
+        }
+        else
+        {
+            deeplyAppendParameter( sbuf, o, null );
+        }
+    }
+
+    private static void deeplyAppendParameter( StringBuilder sbuf, Object o, Map<Object[], Object> seenMap )
+    {
+        if( o == null )
+        {
+            sbuf.append( "null" );
+            return;
+        }
+        if( !o.getClass().isArray() )
+        {
+            safeObjectAppend( sbuf, o );
+        }
+        else if( o instanceof boolean[] )
+        {
+            boolean[] a = (boolean[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else if( o instanceof byte[] )
+        {
+            byte[] a = (byte[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else if( o instanceof char[] )
+        {
+            char[] a = (char[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else if( o instanceof short[] )
+        {
+            short[] a = (short[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else if( o instanceof int[] )
+        {
+            int[] a = (int[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else if( o instanceof long[] )
+        {
+            long[] a = (long[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else if( o instanceof float[] )
+        {
+            float[] a = (float[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else if( o instanceof double[] )
+        {
+            double[] a = (double[]) o;
+            sbuf.append( '[' );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                sbuf.append( a[ i ] );
+            }
+            sbuf.append( ']' );
+        }
+        else
+        {
+            // only nested object arrays need cycle detection, so the map is created lazily
+            if( seenMap == null )
+            {
+                seenMap = new IdentityHashMap<Object[], Object>();
+            }
+            objectArrayAppend( sbuf, (Object[]) o, seenMap );
+        }
+    }
+
+    private static void objectArrayAppend( StringBuilder sbuf, Object[] a, Map<Object[], Object> seenMap )
+    {
+        sbuf.append( '[' );
+        if( !seenMap.containsKey( a ) )
+        {
+            seenMap.put( a, null );
+            for( int i = 0; i < a.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    sbuf.append( ", " );
+                }
+                deeplyAppendParameter( sbuf, a[ i ], seenMap );
+            }
+            // allow repeats in siblings
+            seenMap.remove( a );
+        }
+        else
+        {
+            sbuf.append( "..." );
+        }
+        sbuf.append( ']' );
+    }
+
+    private static void safeObjectAppend( StringBuilder sbuf, Object o )
+    {
+        try
+        {
+            sbuf.append( o.toString() );
+        }
+        catch( Throwable t )
+        {
+            System.err.println( "PaxLogging: Failed toString() invocation on an object of type ["
+                                + o.getClass().getName() + "]" );
+            t.printStackTrace();
+            sbuf.append( "[FAILED toString()]" );
+        }
+    }
+
+    /**
+     * The parsed form of a message pattern. Each entry of <code>ops</code> holds the position of a
+     * <code>{}</code> pair shifted left by two, and the kind of the pair in the two low bits.
+     */
+    private static final class Anchors
+    {
+
+        private final String m_pattern;
+        private final int[] m_ops;
+        private final int m_count;
+
+        private Anchors( String pattern, int[] ops, int count )
+        {
+            m_pattern = pattern;
+            m_ops = ops;
+            m_count = count;
+        }
+    }
+
+    /**
+     * The per thread builder. An argument whose <code>toString()</code> logs itself re-enters the
+     * formatter while the builder is in use, in which case a temporary builder is handed out.
+     */
+    private static final class Buffer
+    {
+
+        private StringBuilder m_builder = new StringBuilder( INITIAL_CAPACITY );
+        private boolean m_inUse;
+
+        private StringBuilder acquire()
+        {
+            if( m_inUse )
+            {
+                return new StringBuilder( INITIAL_CAPACITY );
+            }
+            m_inUse = true;
+            return m_builder;
+        }
+
+        private void release( StringBuilder sbuf )
+        {
+            if( sbuf != m_builder )
+            {
+                return;
+            }
+            if( sbuf.capacity() > MAX_REUSABLE_CAPACITY )
+            {
+                m_builder = new StringBuilder( INITIAL_CAPACITY );
+            }
+            else
+            {
+                sbuf.setLength( 0 );
+            }
+            m_inUse = false;
+        }
+    }
+}
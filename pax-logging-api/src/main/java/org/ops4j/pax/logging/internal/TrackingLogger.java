@@ -17,21 +17,26 @@
  */
 package org.ops4j.pax.logging.internal;
 
-import org.ops4j.pax.logging.PaxLogger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import org.ops4j.pax.logging.PaxContext;
+import org.ops4j.pax.logging.PaxContextLogger;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingService;
 import org.osgi.framework.Bundle;
 
 public class TrackingLogger
-        implements PaxLogger
+        implements PaxContextLogger
 {
 
-    private PaxLoggingService m_service;
+    private volatile PaxLoggingService m_service;
     private String m_category;
     private Bundle m_bundle;
-    private PaxLogger m_delegate;
+    private volatile PaxLogger m_delegate;
     private String m_fqcn;
+    private List<BufferingLog> m_pending;
 
     public TrackingLogger( PaxLoggingService service, String category, Bundle bundle, String fqcn )
     {
@@ -141,16 +146,58 @@ public class TrackingLogger
         return m_delegate.getName();
     }
 
+    public void log( int level, String message, Throwable t, String fqcn, Map<String, Object> context )
+    {
+        BufferingLog.replay( m_delegate, level, message, t, fqcn, context );
+    }
+
     public void added( PaxLoggingService service )
     {
-        m_service = service;
-        if( m_service != null )
+        PaxLogger delegate = service != null
+                             ? service.getLogger( m_bundle, m_category, m_fqcn )
+                             : new DefaultServiceLog( m_bundle, m_category );
+        synchronized( this )
         {
-            m_delegate = m_service.getLogger( m_bundle, m_category, m_fqcn );
+            // the delegate goes first, a logger with a service never logs to the fallback
+            m_delegate = delegate;
+            m_service = service;
+            if( service != null )
+            {
+                replayPending();
+            }
         }
-        else
+    }
+
+    /**
+     * Replays the messages of a buffering fallback logger into this logger, either now if the service is
+     * available, or as soon as it has been added.
+     *
+     * @param buffer the fallback logger this logger replaces
+     */
+    synchronized void replayWhenAvailable( BufferingLog buffer )
+    {
+        if( m_service == null )
+        {
+            if( m_pending == null )
+            {
+                m_pending = new ArrayList<BufferingLog>();
+            }
+            m_pending.add( buffer );
+            return;
+        }
+        buffer.flush( this );
+    }
+
+    private void replayPending()
+    {
+        List<BufferingLog> pending = m_pending;
+        m_pending = null;
+        if( pending != null )
         {
-            m_delegate = new DefaultServiceLog( m_bundle, m_category );
+            for( BufferingLog buffer : pending )
+            {
+                buffer.flush( this );
+            }
         }
     }
 
@@ -160,13 +207,18 @@ public class TrackingLogger
      */
     public void removed()
     {
-        m_service = null;
-        m_delegate = new DefaultServiceLog( m_bundle, m_category );
+        PaxLogger delegate = new DefaultServiceLog( m_bundle, m_category );
+        synchronized( this )
+        {
+            m_delegate = delegate;
+            m_service = null;
+        }
     }
     
     public PaxContext getPaxContext() {
-        if (m_service != null) {
-            return m_service.getPaxContext();
+        PaxLoggingService service = m_service;
+        if (service != null) {
+            return service.getPaxContext();
         } else {
             return m_delegate.getPaxContext();
         }
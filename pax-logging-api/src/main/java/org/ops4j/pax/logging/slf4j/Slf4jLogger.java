@@ -19,10 +19,10 @@ package org.ops4j.pax.logging.slf4j;
 
 import org.slf4j.spi.LocationAwareLogger;
 import org.slf4j.Marker;
-import org.slf4j.helpers.FormattingTuple;
-import org.slf4j.helpers.MessageFormatter;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.ops4j.pax.logging.internal.FallbackLogFactory;
+import org.ops4j.pax.logging.internal.ParameterFormatter;
 
 public class Slf4jLogger
     implements LocationAwareLogger
@@ -87,8 +87,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isTraceEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
-            m_delegate.trace( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.trace( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
         }
     }
 
@@ -107,8 +107,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isTraceEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
-            m_delegate.trace( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.trace( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
         }
     }
 
@@ -126,8 +126,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isTraceEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
-            m_delegate.trace( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.trace( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
         }
     }
 
@@ -185,9 +185,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isTraceEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
             setMDCMarker( marker );
-            m_delegate.trace( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.trace( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
             resetMDCMarker();
         }
     }
@@ -206,9 +206,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isTraceEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
             setMDCMarker( marker );
-            m_delegate.trace( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.trace( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
             resetMDCMarker();
         }
     }
@@ -226,9 +226,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isTraceEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
             setMDCMarker( marker );
-            m_delegate.trace( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.trace( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
             resetMDCMarker();
         }
     }
@@ -289,8 +289,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isDebugEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
-            m_delegate.debug( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.debug( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
         }
     }
 
@@ -309,8 +309,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isDebugEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
-            m_delegate.debug( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.debug( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
         }
     }
 
@@ -328,8 +328,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isDebugEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
-            m_delegate.debug( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.debug( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
         }
     }
 
@@ -387,9 +387,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isDebugEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
             setMDCMarker( marker );
-            m_delegate.debug( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.debug( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
             resetMDCMarker();
         }
     }
@@ -408,9 +408,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isDebugEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
             setMDCMarker( marker );
-            m_delegate.debug( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.debug( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
             resetMDCMarker();
         }
     }
@@ -428,9 +428,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isDebugEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
             setMDCMarker( marker );
-            m_delegate.debug( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.debug( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
             resetMDCMarker();
         }
     }
@@ -491,8 +491,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isInfoEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
-            m_delegate.inform( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.inform( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
         }
     }
 
@@ -511,8 +511,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isInfoEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
-            m_delegate.inform( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.inform( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
         }
     }
 
@@ -530,8 +530,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isInfoEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
-            m_delegate.inform( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.inform( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
         }
     }
 
@@ -589,9 +589,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isInfoEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
             setMDCMarker( marker );
-            m_delegate.inform( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.inform( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
             resetMDCMarker();
         }
     }
@@ -610,9 +610,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isInfoEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
             setMDCMarker( marker );
-            m_delegate.inform( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.inform( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
             resetMDCMarker();
         }
     }
@@ -630,9 +630,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isInfoEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
             setMDCMarker( marker );
-            m_delegate.inform( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.inform( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
             resetMDCMarker();
         }
     }
@@ -693,8 +693,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isWarnEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
-            m_delegate.warn( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.warn( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
         }
     }
 
@@ -712,8 +712,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isWarnEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
-            m_delegate.warn( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.warn( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
         }
     }
 
@@ -732,8 +732,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isWarnEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
-            m_delegate.warn( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.warn( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
         }
     }
 
@@ -791,9 +791,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isWarnEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
             setMDCMarker( marker );
-            m_delegate.warn( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.warn( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
             resetMDCMarker();
         }
     }
@@ -812,9 +812,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isWarnEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
             setMDCMarker( marker );
-            m_delegate.warn( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.warn( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
             resetMDCMarker();
         }
     }
@@ -832,9 +832,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isWarnEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
             setMDCMarker( marker );
-            m_delegate.warn( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.warn( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
             resetMDCMarker();
         }
     }
@@ -895,8 +895,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isErrorEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
-            m_delegate.error( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.error( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
         }
     }
 
@@ -915,8 +915,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isErrorEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
-            m_delegate.error( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.error( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
         }
     }
 
@@ -934,8 +934,8 @@ public class Slf4jLogger
     {
         if( m_delegate.isErrorEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
-            m_delegate.error( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.error( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
         }
     }
 
@@ -993,9 +993,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isErrorEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg );
             setMDCMarker( marker );
-            m_delegate.error( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.error( ParameterFormatter.format( format, arg ),
+                    ParameterFormatter.getThrowable( format, arg ) );
             resetMDCMarker();
         }
     }
@@ -1014,9 +1014,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isErrorEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.format( format, arg1, arg2 );
             setMDCMarker( marker );
-            m_delegate.error( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.error( ParameterFormatter.format( format, arg1, arg2 ),
+                    ParameterFormatter.getThrowable( format, arg1, arg2 ) );
             resetMDCMarker();
         }
     }
@@ -1034,9 +1034,9 @@ public class Slf4jLogger
     {
         if( m_delegate.isErrorEnabled() )
         {
-            FormattingTuple tuple = MessageFormatter.arrayFormat( format, argArray );
             setMDCMarker( marker );
-            m_delegate.error( tuple.getMessage(), tuple.getThrowable() );
+            m_delegate.error( ParameterFormatter.arrayFormat( format, argArray ),
+                    ParameterFormatter.getThrowable( format, argArray ) );
             resetMDCMarker();
         }
     }
@@ -1080,36 +1080,31 @@ public class Slf4jLogger
            case(TRACE_INT):
                if( m_delegate.isTraceEnabled() )
                {
-                   FormattingTuple tuple = MessageFormatter.arrayFormat( message, argArray );
-                   m_delegate.trace( tuple.getMessage(), t, fqcn );
+                   m_delegate.trace( ParameterFormatter.arrayFormat( message, argArray ), t, fqcn );
                }
                break;
            case(DEBUG_INT):
                if( m_delegate.isDebugEnabled() )
                {
-                   FormattingTuple tuple = MessageFormatter.arrayFormat( message, argArray );
-                   m_delegate.debug( tuple.getMessage(), t, fqcn );
+                   m_delegate.debug( ParameterFormatter.arrayFormat( message, argArray ), t, fqcn );
                }
                break;
            case(INFO_INT):
                if( m_delegate.isInfoEnabled() )
                {
-                   FormattingTuple tuple = MessageFormatter.arrayFormat( message, argArray );
-                   m_delegate.inform( tuple.getMessage(), t, fqcn );
+                   m_delegate.inform( ParameterFormatter.arrayFormat( message, argArray ), t, fqcn );
                }
                break;
            case(WARN_INT):
                if( m_delegate.isWarnEnabled() )
                {
-                   FormattingTuple tuple = MessageFormatter.arrayFormat( message, argArray );
-                   m_delegate.warn( tuple.getMessage(), t, fqcn );
+                   m_delegate.warn( ParameterFormatter.arrayFormat( message, argArray ), t, fqcn );
                }
                break;
            case(ERROR_INT):
                if( m_delegate.isErrorEnabled() )
                {
-                   FormattingTuple tuple = MessageFormatter.arrayFormat( message, argArray );
-                   m_delegate.error( tuple.getMessage(), t, fqcn );
+                   m_delegate.error( ParameterFormatter.arrayFormat( message, argArray ), t, fqcn );
                }
                break;
            default:
@@ -1120,7 +1115,9 @@ public class Slf4jLogger
 
     void setPaxLoggingManager( PaxLoggingManager loggingManager, String name )
     {
+        PaxLogger previous = m_delegate;
         m_delegate = loggingManager.getLogger( name, SLF4J_FQCN );
+        FallbackLogFactory.replay( previous, m_delegate );
     }
 
     /**
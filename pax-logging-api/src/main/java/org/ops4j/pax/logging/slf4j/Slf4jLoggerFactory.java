@@ -17,16 +17,15 @@
  */
 package org.ops4j.pax.logging.slf4j;
 
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.WeakHashMap;
 
 import org.ops4j.pax.logging.OSGIPaxLoggingManager;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingManager;
+import org.ops4j.pax.logging.internal.BundleHelper;
+import org.ops4j.pax.logging.internal.FacadeRegistry;
 import org.ops4j.pax.logging.internal.FallbackLogFactory;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
@@ -35,30 +34,18 @@ public class Slf4jLoggerFactory
         implements ILoggerFactory
 {
 
-    private static PaxLoggingManager m_paxLogging;
-    private static Map m_loggers;
-
-    static
-    {
-        m_loggers = new WeakHashMap();
-    }
+    private static volatile PaxLoggingManager m_paxLogging;
+    private static final FacadeRegistry<Slf4jLogger> m_loggers = new FacadeRegistry<Slf4jLogger>();
 
     public static void setBundleContext(BundleContext context)
     {
-        synchronized (m_loggers) {
-            m_paxLogging = new OSGIPaxLoggingManager(context);
-            // We need to instruct all loggers to ensure the SimplePaxLoggingManager is replaced.
-            Set entrySet = m_loggers.entrySet();
-            Iterator iterator = entrySet.iterator();
-            while (iterator.hasNext())
-            {
-                Map.Entry entry = (Entry) iterator.next();
-                String name = (String) entry.getValue();
-                Slf4jLogger logger = (Slf4jLogger) entry.getKey();
-                logger.setPaxLoggingManager(m_paxLogging, name);
-            }
-            m_paxLogging.open();
+        m_paxLogging = new OSGIPaxLoggingManager(context);
+        // We need to instruct all loggers to ensure the SimplePaxLoggingManager is replaced.
+        for (Map.Entry<Slf4jLogger, String> entry : m_loggers.snapshot().entrySet())
+        {
+            entry.getKey().setPaxLoggingManager(m_paxLogging, entry.getValue());
         }
+        m_paxLogging.open();
     }
 
     /**
@@ -82,21 +69,31 @@ public class Slf4jLoggerFactory
      */
     public Logger getLogger(String name)
     {
-        PaxLogger paxLogger;
-        if (m_paxLogging == null)
+        PaxLoggingManager paxLogging = m_paxLogging;
+        if (paxLogging == null)
         {
-            paxLogger = FallbackLogFactory.createFallbackLog(null, name);
+            Slf4jLogger logger = m_loggers.get(name);
+            if (logger == null)
+            {
+                logger = m_loggers.putIfAbsent(name, name,
+                    new Slf4jLogger(name, FallbackLogFactory.createFallbackLog(null, name)));
+                paxLogging = m_paxLogging;
+                if (paxLogging != null)
+                {
+                    // the bundle context was set while the logger was created, it may have missed the rebinding
+                    logger.setPaxLoggingManager(paxLogging, name);
+                }
+            }
+            return logger;
         }
-        else
+        // the calling bundle is resolved once, the manager is only asked for the loggers not registered yet
+        Bundle bundle = BundleHelper.getCallerBundle(paxLogging.getBundle());
+        Object key = FacadeRegistry.key(paxLogging, bundle, name);
+        Slf4jLogger logger = m_loggers.get(key);
+        if (logger == null)
         {
-            paxLogger = m_paxLogging.getLogger(name, Slf4jLogger.SLF4J_FQCN);
-        }
-        Slf4jLogger logger = new Slf4jLogger(name, paxLogger);
-        if (m_paxLogging == null) {
-            // just add the logger which PaxLoggingManager need to be replaced.
-            synchronized (m_loggers) {
-                m_loggers.put(logger, name);
-            }
+            PaxLogger paxLogger = FacadeRegistry.getLogger(paxLogging, bundle, name, Slf4jLogger.SLF4J_FQCN);
+            logger = m_loggers.putIfAbsent(key, name, new Slf4jLogger(name, paxLogger));
         }
         return logger;
     }
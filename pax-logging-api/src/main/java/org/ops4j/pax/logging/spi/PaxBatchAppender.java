@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi;
+
+import java.util.List;
+
+/**
+ * A {@link PaxAppender} that receives the events in batches.
+ *
+ * <p>
+ * The logging service buffers the events of such an appender and delivers them from a background thread, either
+ * when {@link #BATCH_SIZE_PROPERTY} events are pending or when the oldest pending event has waited
+ * {@link #BATCH_LATENCY_PROPERTY} milliseconds. The events of a batch are immutable snapshots which stay valid after
+ * the call returns. The single event {@link #doAppend(PaxLoggingEvent)} is not called by the logging service.
+ * </p>
+ * <p>
+ * The appender is registered like any other appender, under the {@link PaxAppender} or the {@link PaxBatchAppender}
+ * interface, and the batch properties are read from its service properties.
+ * </p>
+ */
+public interface PaxBatchAppender extends PaxAppender
+{
+
+    /**
+     * Service property with the maximum number of events in a batch, 100 by default.
+     */
+    String BATCH_SIZE_PROPERTY = "org.ops4j.pax.logging.appender.batch.size";
+
+    /**
+     * Service property with the maximum number of milliseconds an event waits for its batch, 500 by default.
+     */
+    String BATCH_LATENCY_PROPERTY = "org.ops4j.pax.logging.appender.batch.latency";
+
+    /**
+     * Service property with the maximum number of pending events, 10000 by default. Events that arrive while the
+     * buffer is full are dropped.
+     */
+    String BATCH_CAPACITY_PROPERTY = "org.ops4j.pax.logging.appender.batch.capacity";
+
+    /**
+     * Log a batch of events in <code>Appender</code> specific way.
+     *
+     * @param events The events, in the order in which they occurred.
+     */
+    void doAppend( List<PaxLoggingEvent> events );
+
+    /**
+     * Called whenever the delivery has caught up with the logging threads, that is when no further events are
+     * pending after a batch, and before {@link #close()}.
+     */
+    void flush();
+
+    /**
+     * Called after the last batch, when the logging service stops delivering to this appender.
+     */
+    void close();
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link PaxLayout} that can write the representation of an event as UTF-8 bytes, without creating a string.
+ * Appenders which write bytes should prefer {@link #encode(PaxLoggingEvent, ByteBuffer)} over
+ * {@link #doLayout(PaxLoggingEvent)}.
+ */
+public interface PaxEncodingLayout extends PaxLayout {
+
+    /**
+     * Writes the UTF-8 representation of a logging event into a buffer, from its position on. If the buffer has not
+     * enough room, the bytes written so far are copied to a larger buffer which is returned instead; callers keep
+     * the returned buffer for the next event.
+     *
+     * @param event  the logging event
+     * @param buffer the buffer
+     * @return the buffer holding the representation, with its position after the last byte written
+     */
+    ByteBuffer encode(PaxLoggingEvent event, ByteBuffer buffer);
+
+}
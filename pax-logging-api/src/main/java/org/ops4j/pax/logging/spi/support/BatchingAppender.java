@@ -0,0 +1,387 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ops4j.pax.logging.PaxLoggingService;
+import org.ops4j.pax.logging.spi.PaxAppender;
+import org.ops4j.pax.logging.spi.PaxBatchAppender;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Buffers the events of a {@link PaxBatchAppender} and delivers them in batches from a thread of its own.
+ *
+ * <p>
+ * The appender proxies of the backends track this in place of the batch appender service, so that the logging
+ * threads only take a {@link PaxLoggingEventSnapshot} of the event and put it into a bounded buffer. Events that
+ * arrive while the buffer is full are dropped and counted, the logging threads never wait for the appender.
+ * </p>
+ * <p>
+ * All proxies tracking the same service share one instance, see {@link #acquire} and {@link #release}, so that the
+ * service gets its batches from a single thread, one after the other. The service is only closed once it is
+ * unregistered, a reconfiguration that replaces the proxies leaves it open.
+ * </p>
+ */
+public class BatchingAppender
+    implements PaxAppender
+{
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final int DEFAULT_LATENCY = 500;
+
+    private static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * How long {@link #close()} waits for the pending events to be delivered.
+     */
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    /**
+     * Queued by {@link #close()} behind the pending events.
+     */
+    private static final Object CLOSE = new Object();
+
+    /**
+     * The instances shared by the proxies, by service reference. Also guards the reference counts and the closing of
+     * the instances.
+     */
+    private static final Map<ServiceReference, BatchingAppender> SHARED = new HashMap<ServiceReference, BatchingAppender>();
+
+    private final PaxBatchAppender m_appender;
+    private final int m_batchSize;
+    private final long m_latency;
+    private final BlockingQueue<Object> m_queue;
+    private final AtomicLong m_dropped = new AtomicLong();
+    private final Thread m_thread;
+    private volatile boolean m_closeAppender = true;
+    private volatile boolean m_closed;
+    private int m_references;
+    private boolean m_unregistered;
+
+    /**
+     * @param appender  the batch appender
+     * @param name      the name of the appender, used to name the delivery thread
+     * @param batchSize the maximum number of events in a batch
+     * @param latency   the maximum number of milliseconds an event waits for its batch
+     * @param capacity  the maximum number of pending events
+     */
+    public BatchingAppender( PaxBatchAppender appender, String name, int batchSize, long latency, int capacity )
+    {
+        this( appender, name, batchSize, latency, capacity, null );
+    }
+
+    /**
+     * @param predecessor the instance this one takes over from, which is still delivering its last events, or null
+     */
+    private BatchingAppender( PaxBatchAppender appender, String name, int batchSize, long latency, int capacity,
+                              final BatchingAppender predecessor )
+    {
+        if( batchSize < 1 || latency < 0 || capacity < batchSize )
+        {
+            throw new IllegalArgumentException( "invalid batch settings for appender " + name + ": size " + batchSize
+                                                + ", latency " + latency + ", capacity " + capacity );
+        }
+        m_appender = appender;
+        m_batchSize = batchSize;
+        m_latency = latency;
+        m_queue = new ArrayBlockingQueue<Object>( capacity );
+        m_thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                if( predecessor != null )
+                {
+                    predecessor.awaitDelivered();
+                }
+                deliver();
+            }
+        }, "PaxBatchAppender-" + name );
+        m_thread.setDaemon( true );
+        m_thread.start();
+    }
+
+    /**
+     * Returns the instance shared by all proxies tracking the appender service, created with the batch settings of
+     * its service properties on first use. Each call must be matched by a call to {@link #release}.
+     *
+     * @param reference the reference of the appender service
+     * @param appender  the appender service
+     * @return the batching appender
+     */
+    public static BatchingAppender acquire( ServiceReference reference, PaxBatchAppender appender )
+    {
+        synchronized( SHARED )
+        {
+            BatchingAppender shared = SHARED.get( reference );
+            if( shared == null || shared.m_closed )
+            {
+                shared = create( reference, appender, shared );
+                SHARED.put( reference, shared );
+            }
+            shared.m_references++;
+            return shared;
+        }
+    }
+
+    /**
+     * Releases an instance returned by {@link #acquire}. The last release delivers the pending events and ends the
+     * delivery thread, and closes the appender service as well if it is unregistered.
+     *
+     * @param unregistered true if the appender service is unregistered, false if it is only no longer tracked
+     */
+    public void release( boolean unregistered )
+    {
+        synchronized( SHARED )
+        {
+            m_unregistered |= unregistered;
+            if( --m_references > 0 || m_closed )
+            {
+                return;
+            }
+            m_closeAppender = m_unregistered;
+            m_closed = true;
+        }
+        awaitClosed();
+    }
+
+    private static BatchingAppender create( ServiceReference reference, PaxBatchAppender appender,
+                                            BatchingAppender predecessor )
+    {
+        Object name = reference.getProperty( PaxLoggingService.APPENDER_NAME_PROPERTY );
+        return new BatchingAppender( appender, String.valueOf( name ),
+                                     getInt( reference, PaxBatchAppender.BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE ),
+                                     getInt( reference, PaxBatchAppender.BATCH_LATENCY_PROPERTY, DEFAULT_LATENCY ),
+                                     getInt( reference, PaxBatchAppender.BATCH_CAPACITY_PROPERTY, DEFAULT_CAPACITY ),
+                                     predecessor );
+    }
+
+    private static int getInt( ServiceReference reference, String key, int defaultValue )
+    {
+        Object value = reference.getProperty( key );
+        if( value instanceof Number )
+        {
+            return ( (Number) value ).intValue();
+        }
+        if( value != null )
+        {
+            try
+            {
+                return Integer.parseInt( value.toString().trim() );
+            }
+            catch( NumberFormatException e )
+            {
+                System.err.println( "PaxLogging: Ignoring invalid value [" + value + "] of " + key );
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Queues a snapshot of the event for the next batch.
+     *
+     * @param event the event
+     */
+    public void doAppend( PaxLoggingEvent event )
+    {
+        if( m_closed || !m_queue.offer( PaxLoggingEventSnapshot.of( event ) ) )
+        {
+            m_dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of events that were dropped because the buffer was full or the appender closed
+     */
+    public long getDroppedCount()
+    {
+        return m_dropped.get();
+    }
+
+    /**
+     * @return the batch appender
+     */
+    public PaxBatchAppender getAppender()
+    {
+        return m_appender;
+    }
+
+    /**
+     * Delivers the pending events, flushes and closes the appender. Waits a few seconds at most for the delivery,
+     * after that the remaining events are delivered in the background.
+     */
+    public void close()
+    {
+        synchronized( SHARED )
+        {
+            if( m_closed )
+            {
+                return;
+            }
+            m_closed = true;
+        }
+        awaitClosed();
+    }
+
+    private void awaitClosed()
+    {
+        if( Thread.currentThread() == m_thread )
+        {
+            // the appender closes itself while delivering, the delivery loop ends with the current batch
+            return;
+        }
+        try
+        {
+            if( m_queue.offer( CLOSE, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS ) )
+            {
+                m_thread.join( CLOSE_TIMEOUT );
+            }
+            else
+            {
+                System.err.println( "PaxLogging: Timed out closing batch appender " + m_thread.getName() );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliver()
+    {
+        List<PaxLoggingEvent> batch = new ArrayList<PaxLoggingEvent>( m_batchSize );
+        long reported = 0;
+        try
+        {
+            Object next;
+            do
+            {
+                next = m_queue.take();
+                long deadline = System.currentTimeMillis() + m_latency;
+                while( next instanceof PaxLoggingEvent )
+                {
+                    batch.add( (PaxLoggingEvent) next );
+                    if( batch.size() >= m_batchSize )
+                    {
+                        break;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    next = wait > 0 ? m_queue.poll( wait, TimeUnit.MILLISECONDS ) : m_queue.poll();
+                }
+                deliver( batch );
+                reported = reportDropped( reported );
+                if( m_queue.isEmpty() || next == CLOSE )
+                {
+                    flush();
+                }
+            }
+            while( next != CLOSE && !( m_closed && m_queue.isEmpty() ) );
+        }
+        catch( InterruptedException e )
+        {
+            deliver( batch );
+            flush();
+        }
+        if( m_closeAppender )
+        {
+            try
+            {
+                m_appender.close();
+            }
+            catch( Throwable t )
+            {
+                report( "close", t );
+            }
+        }
+        synchronized( SHARED )
+        {
+            SHARED.values().remove( this );
+        }
+    }
+
+    /**
+     * Waits for the delivery thread to end, so that the appender never gets batches from two threads at once.
+     */
+    private void awaitDelivered()
+    {
+        try
+        {
+            m_thread.join();
+        }
+        catch( InterruptedException e )
+        {
+            // nobody interrupts the delivery threads, deliver anyway
+        }
+    }
+
+    private void deliver( List<PaxLoggingEvent> batch )
+    {
+        if( batch.isEmpty() )
+        {
+            return;
+        }
+        try
+        {
+            m_appender.doAppend( Collections.unmodifiableList( new ArrayList<PaxLoggingEvent>( batch ) ) );
+        }
+        catch( Throwable t )
+        {
+            report( "append to", t );
+        }
+        batch.clear();
+    }
+
+    private void flush()
+    {
+        try
+        {
+            m_appender.flush();
+        }
+        catch( Throwable t )
+        {
+            report( "flush", t );
+        }
+    }
+
+    private long reportDropped( long reported )
+    {
+        long dropped = m_dropped.get();
+        if( dropped != reported )
+        {
+            System.err.println( "PaxLogging: Batch appender " + m_thread.getName() + " dropped " + ( dropped - reported )
+                                + " events, its buffer was full" );
+        }
+        return dropped;
+    }
+
+    private void report( String action, Throwable t )
+    {
+        System.err.println( "PaxLogging: Failed to " + action + " batch appender " + m_thread.getName() );
+        t.printStackTrace();
+    }
+}
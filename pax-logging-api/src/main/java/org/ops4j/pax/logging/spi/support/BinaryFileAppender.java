@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.ops4j.pax.logging.spi.PaxBatchAppender;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Appends the events to a file in the compact binary format of {@link BinaryLogWriter}.
+ *
+ * <p>
+ * Register an instance as a {@link PaxBatchAppender} service, with the name used in the configuration of the
+ * backend, and it receives the events of all three backends. The events are encoded on the delivery thread of the
+ * batches, the logging threads only take snapshots of them. The files are read with {@link BinaryLogReader}, or
+ * rendered as text with the pax-logging-decoder tool.
+ * </p>
+ */
+public class BinaryFileAppender
+    implements PaxBatchAppender
+{
+
+    private final File m_file;
+    private volatile BinaryLogWriter m_writer;
+
+    /**
+     * @param file   the file
+     * @param append whether to add to the file if it exists, or to replace it
+     * @throws IOException if the file can not be opened
+     */
+    public BinaryFileAppender( File file, boolean append )
+        throws IOException
+    {
+        m_file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if( parent != null && !parent.exists() )
+        {
+            parent.mkdirs();
+        }
+        m_writer = new BinaryLogWriter( new BufferedOutputStream( new FileOutputStream( file, append ), 65536 ) );
+    }
+
+    public void doAppend( PaxLoggingEvent event )
+    {
+        BinaryLogWriter writer = m_writer;
+        if( writer == null )
+        {
+            return;
+        }
+        try
+        {
+            writer.write( event );
+            writer.flush();
+        }
+        catch( IOException e )
+        {
+            failed( e );
+        }
+    }
+
+    public void doAppend( List<PaxLoggingEvent> events )
+    {
+        BinaryLogWriter writer = m_writer;
+        if( writer == null )
+        {
+            return;
+        }
+        try
+        {
+            for( PaxLoggingEvent event : events )
+            {
+                writer.write( event );
+            }
+        }
+        catch( IOException e )
+        {
+            failed( e );
+        }
+    }
+
+    public void flush()
+    {
+        BinaryLogWriter writer = m_writer;
+        if( writer == null )
+        {
+            return;
+        }
+        try
+        {
+            writer.flush();
+        }
+        catch( IOException e )
+        {
+            failed( e );
+        }
+    }
+
+    public synchronized void close()
+    {
+        BinaryLogWriter writer = m_writer;
+        m_writer = null;
+        if( writer == null )
+        {
+            return;
+        }
+        try
+        {
+            writer.close();
+        }
+        catch( IOException e )
+        {
+            System.err.println( "PaxLogging: Failed to close binary log " + m_file + ": " + e );
+        }
+    }
+
+    private void failed( IOException e )
+    {
+        System.err.println( "PaxLogging: Failed to write to binary log " + m_file + ", closing it: " + e );
+        close();
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Reads the events written by {@link BinaryLogWriter}.
+ *
+ * <p>
+ * A record that has been cut off, as the last one of a file that was being written when the process died, ends the
+ * stream like the end of the file does. Records of unknown types are skipped.
+ * </p>
+ */
+public class BinaryLogReader
+{
+
+    private final InputStream m_in;
+    private final List<String> m_dictionary = new ArrayList<String>();
+    private byte[] m_record = new byte[256];
+    private int m_length;
+    private int m_position;
+    private long m_lastTimeStamp;
+    private boolean m_segment;
+
+    /**
+     * @param in the stream, preferably buffered
+     */
+    public BinaryLogReader( InputStream in )
+    {
+        m_in = in;
+    }
+
+    /**
+     * @return the next event, or null at the end of the stream
+     * @throws IOException if the stream is not in the binary format or can not be read
+     */
+    public PaxLoggingEvent read()
+        throws IOException
+    {
+        while( readRecord() )
+        {
+            int type = readByte();
+            if( type == BinaryLogWriter.SEGMENT )
+            {
+                startSegment();
+            }
+            else if( !m_segment )
+            {
+                throw new IOException( "Not a binary log, the stream does not start with a segment" );
+            }
+            else if( type == BinaryLogWriter.EVENT )
+            {
+                return readEvent();
+            }
+        }
+        return null;
+    }
+
+    public void close()
+        throws IOException
+    {
+        m_in.close();
+    }
+
+    private void startSegment()
+        throws IOException
+    {
+        for( int i = 0; i < BinaryLogWriter.MAGIC.length; i++ )
+        {
+            if( readByte() != BinaryLogWriter.MAGIC[i] )
+            {
+                throw new IOException( "Not a binary log, bad segment header" );
+            }
+        }
+        int version = readByte();
+        if( version > BinaryLogWriter.VERSION )
+        {
+            throw new IOException( "Unsupported binary log version " + version );
+        }
+        m_segment = true;
+        m_dictionary.clear();
+        m_lastTimeStamp = 0;
+    }
+
+    private PaxLoggingEvent readEvent()
+        throws IOException
+    {
+        int flags = readByte();
+        long delta = readVarLong();
+        long timeStamp = m_lastTimeStamp + ( ( delta >>> 1 ) ^ -( delta & 1 ) );
+        m_lastTimeStamp = timeStamp;
+        int levelInt = (int) readVarLong();
+        int syslog = (int) readVarLong();
+        String levelName = readString();
+        Level level = levelName == null && levelInt == 0 ? null : new Level( levelInt, syslog, levelName );
+        String loggerName = readString();
+        String threadName = readString();
+        String fqcn = readString();
+        String message = readString();
+        String rendered = ( flags & BinaryLogWriter.RENDERED ) != 0 ? readString() : message;
+        LocationInfo location = null;
+        if( ( flags & BinaryLogWriter.LOCATION ) != 0 )
+        {
+            location = new LocationInfo( readString(), readString(), readString(), readString() );
+        }
+        String[] throwable = null;
+        if( ( flags & BinaryLogWriter.THROWABLE ) != 0 )
+        {
+            throwable = new String[(int) readVarLong()];
+            for( int i = 0; i < throwable.length; i++ )
+            {
+                throwable[i] = readString();
+            }
+        }
+        Map<String, String> properties = Collections.emptyMap();
+        if( ( flags & BinaryLogWriter.PROPERTIES ) != 0 )
+        {
+            int count = (int) readVarLong();
+            properties = new LinkedHashMap<String, String>();
+            for( int i = 0; i < count; i++ )
+            {
+                properties.put( readString(), readString() );
+            }
+            properties = Collections.unmodifiableMap( properties );
+        }
+        return new Event( level, loggerName, threadName, fqcn, message, rendered, timeStamp, location,
+                          ( flags & BinaryLogWriter.LOCATION_EXISTS ) != 0, throwable, properties );
+    }
+
+    /**
+     * @return false at the end of the stream, or if the last record has been cut off
+     */
+    private boolean readRecord()
+        throws IOException
+    {
+        long length = 0;
+        for( int shift = 0; ; shift += 7 )
+        {
+            int b = m_in.read();
+            if( b < 0 )
+            {
+                return false;
+            }
+            if( shift > 28 )
+            {
+                throw new IOException( "Corrupt binary log, bad record length" );
+            }
+            length |= (long) ( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 )
+            {
+                break;
+            }
+        }
+        if( length > Integer.MAX_VALUE )
+        {
+            throw new IOException( "Corrupt binary log, bad record length " + length );
+        }
+        if( length > m_record.length )
+        {
+            m_record = new byte[(int) Math.max( length, m_record.length * 2L )];
+        }
+        int read = 0;
+        while( read < length )
+        {
+            int n = m_in.read( m_record, read, (int) length - read );
+            if( n < 0 )
+            {
+                return false;
+            }
+            read += n;
+        }
+        m_length = (int) length;
+        m_position = 0;
+        return true;
+    }
+
+    private int readByte()
+        throws IOException
+    {
+        if( m_position >= m_length )
+        {
+            throw new EOFException( "Corrupt binary log, record too short" );
+        }
+        return m_record[m_position++] & 0xFF;
+    }
+
+    private long readVarLong()
+        throws IOException
+    {
+        long value = 0;
+        for( int shift = 0; shift < 64; shift += 7 )
+        {
+            int b = readByte();
+            value |= (long) ( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Corrupt binary log, bad varint" );
+    }
+
+    private String readString()
+        throws IOException
+    {
+        long tag = readVarLong();
+        if( tag == BinaryLogWriter.NULL )
+        {
+            return null;
+        }
+        if( tag == BinaryLogWriter.LITERAL )
+        {
+            return readUtf8();
+        }
+        if( tag == BinaryLogWriter.DEFINE )
+        {
+            String value = readUtf8();
+            m_dictionary.add( value );
+            return value;
+        }
+        long number = tag - BinaryLogWriter.REFERENCE;
+        if( number >= m_dictionary.size() )
+        {
+            throw new IOException( "Corrupt binary log, unknown string " + number );
+        }
+        return m_dictionary.get( (int) number );
+    }
+
+    private String readUtf8()
+        throws IOException
+    {
+        long length = readVarLong();
+        if( length > m_length - m_position )
+        {
+            throw new EOFException( "Corrupt binary log, string too long" );
+        }
+        try
+        {
+            String value = new String( m_record, m_position, (int) length, "UTF-8" );
+            m_position += (int) length;
+            return value;
+        }
+        catch( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static final class Event
+        implements PaxLoggingEvent
+    {
+
+        private final PaxLevel m_level;
+        private final String m_loggerName;
+        private final String m_threadName;
+        private final String m_fqnOfLoggerClass;
+        private final String m_message;
+        private final String m_renderedMessage;
+        private final long m_timeStamp;
+        private final PaxLocationInfo m_location;
+        private final boolean m_locationExists;
+        private final String[] m_throwableStrRep;
+        private final Map m_properties;
+
+        Event( PaxLevel level, String loggerName, String threadName, String fqnOfLoggerClass, String message,
+               String renderedMessage, long timeStamp, PaxLocationInfo location, boolean locationExists,
+               String[] throwableStrRep, Map properties )
+        {
+            m_level = level;
+            m_loggerName = loggerName;
+            m_threadName = threadName;
+            m_fqnOfLoggerClass = fqnOfLoggerClass;
+            m_message = message;
+            m_renderedMessage = renderedMessage;
+            m_timeStamp = timeStamp;
+            m_location = location;
+            m_locationExists = locationExists;
+            m_throwableStrRep = throwableStrRep;
+            m_properties = properties;
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return m_location;
+        }
+
+        public PaxLevel getLevel()
+        {
+            return m_level;
+        }
+
+        public String getLoggerName()
+        {
+            return m_loggerName;
+        }
+
+        public String getMessage()
+        {
+            return m_message;
+        }
+
+        public String getRenderedMessage()
+        {
+            return m_renderedMessage;
+        }
+
+        public String getThreadName()
+        {
+            return m_threadName;
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return m_throwableStrRep == null ? null : (String[]) m_throwableStrRep.clone();
+        }
+
+        public boolean locationInformationExists()
+        {
+            return m_locationExists;
+        }
+
+        public long getTimeStamp()
+        {
+            return m_timeStamp;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return m_fqnOfLoggerClass;
+        }
+
+        public Map getProperties()
+        {
+            return m_properties;
+        }
+    }
+
+    private static final class Level
+        implements PaxLevel
+    {
+
+        private final int m_int;
+        private final int m_syslog;
+        private final String m_name;
+
+        Level( int value, int syslog, String name )
+        {
+            m_int = value;
+            m_syslog = syslog;
+            m_name = name;
+        }
+
+        public boolean isGreaterOrEqual( PaxLevel r )
+        {
+            return m_int >= r.toInt();
+        }
+
+        public int toInt()
+        {
+            return m_int;
+        }
+
+        public int getSyslogEquivalent()
+        {
+            return m_syslog;
+        }
+
+        public String toString()
+        {
+            return m_name;
+        }
+    }
+
+    private static final class LocationInfo
+        implements PaxLocationInfo
+    {
+
+        private final String m_className;
+        private final String m_methodName;
+        private final String m_fileName;
+        private final String m_lineNumber;
+
+        LocationInfo( String className, String methodName, String fileName, String lineNumber )
+        {
+            m_className = className;
+            m_methodName = methodName;
+            m_fileName = fileName;
+            m_lineNumber = lineNumber;
+        }
+
+        public String getFileName()
+        {
+            return m_fileName;
+        }
+
+        public String getClassName()
+        {
+            return m_className;
+        }
+
+        public String getLineNumber()
+        {
+            return m_lineNumber;
+        }
+
+        public String getMethodName()
+        {
+            return m_methodName;
+        }
+    }
+}
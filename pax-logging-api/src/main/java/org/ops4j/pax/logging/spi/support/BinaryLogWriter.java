@@ -0,0 +1,387 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Writes events in the compact binary format read by {@link BinaryLogReader}.
+ *
+ * <p>
+ * The stream is a sequence of records, each one prefixed with its length as a varint. A record starts with its
+ * type: a segment record with the {@link #MAGIC} and the format version starts every stream, and every stream
+ * appended to an existing one, and resets the state of the decoder; an event record holds one event.
+ * </p>
+ * <p>
+ * Strings that repeat, like logger, thread and bundle names, levels, stack frames and property keys, are written
+ * once per segment and referenced by number afterwards. Timestamps are written as the difference to the previous
+ * event. Messages are written as they are, the events do not carry the format strings and the arguments they have
+ * been rendered from.
+ * </p>
+ * <pre>
+ * record    := varint(length) ( segment | event )
+ * segment   := 0 MAGIC version
+ * event     := 1 flags zigzag(time delta) varint(level) varint(syslog level) string(level name)
+ *              string(logger) string(thread) string(fqcn) string(message) [ string(rendered message) ]
+ *              [ string(class) string(method) string(file) string(line) ]
+ *              [ varint(count) string(line)* ] [ varint(count) ( string(key) string(value) )* ]
+ * string    := 0 (null) | 1 utf8 (not in the dictionary) | 2 utf8 (the next dictionary entry)
+ *              | varint(3 + number of a dictionary entry)
+ * utf8      := varint(length) bytes
+ * </pre>
+ * <p>
+ * Instances are thread safe.
+ * </p>
+ */
+public class BinaryLogWriter
+{
+
+    /**
+     * The bytes that follow the type of a segment record.
+     */
+    public static final byte[] MAGIC = { 'P', 'A', 'X', 'L', 'O', 'G' };
+
+    public static final int VERSION = 1;
+
+    static final int SEGMENT = 0;
+    static final int EVENT = 1;
+
+    static final int LOCATION = 1;
+    static final int THROWABLE = 2;
+    static final int PROPERTIES = 4;
+    static final int RENDERED = 8;
+    static final int LOCATION_EXISTS = 16;
+
+    static final int NULL = 0;
+    static final int LITERAL = 1;
+    static final int DEFINE = 2;
+    static final int REFERENCE = 3;
+
+    /**
+     * Bounds the dictionary of a segment, the strings that do not fit are written as they are.
+     */
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private final OutputStream m_out;
+    private final Map<String, Integer> m_dictionary = new HashMap<String, Integer>();
+    private final Buffer m_record = new Buffer();
+    private final Buffer m_length = new Buffer();
+    private long m_lastTimeStamp;
+
+    /**
+     * Starts a segment on the stream. The stream may already contain segments, the new one does not depend on them.
+     *
+     * @param out the stream, preferably buffered
+     * @throws IOException if the segment record can not be written
+     */
+    public BinaryLogWriter( OutputStream out )
+        throws IOException
+    {
+        m_out = out;
+        startSegment();
+    }
+
+    /**
+     * Starts another segment, so that the following events can be decoded without the ones before.
+     *
+     * @throws IOException if the segment record can not be written
+     */
+    public synchronized void startSegment()
+        throws IOException
+    {
+        m_dictionary.clear();
+        m_lastTimeStamp = 0;
+        m_record.writeByte( SEGMENT );
+        m_record.write( MAGIC );
+        m_record.writeByte( VERSION );
+        flushRecord();
+    }
+
+    public synchronized void write( PaxLoggingEvent event )
+        throws IOException
+    {
+        Buffer r = m_record;
+        PaxLocationInfo location = event.locationInformationExists() ? event.getLocationInformation() : null;
+        String[] throwable = event.getThrowableStrRep();
+        Map properties = event.getProperties();
+        String message = event.getMessage();
+        String rendered = event.getRenderedMessage();
+        boolean renderedDiffers = rendered == null ? message != null : !rendered.equals( message );
+
+        int flags = 0;
+        if( location != null )
+        {
+            flags |= LOCATION;
+        }
+        if( event.locationInformationExists() )
+        {
+            flags |= LOCATION_EXISTS;
+        }
+        if( throwable != null && throwable.length > 0 )
+        {
+            flags |= THROWABLE;
+        }
+        if( properties != null && !properties.isEmpty() )
+        {
+            flags |= PROPERTIES;
+        }
+        if( renderedDiffers )
+        {
+            flags |= RENDERED;
+        }
+        r.writeByte( EVENT );
+        r.writeByte( flags );
+        long timeStamp = event.getTimeStamp();
+        long delta = timeStamp - m_lastTimeStamp;
+        m_lastTimeStamp = timeStamp;
+        r.writeVarLong( ( delta << 1 ) ^ ( delta >> 63 ) );
+        PaxLevel level = event.getLevel();
+        if( level == null )
+        {
+            r.writeVarLong( 0 );
+            r.writeVarLong( 0 );
+            writeString( null, false );
+        }
+        else
+        {
+            r.writeVarLong( level.toInt() & 0xFFFFFFFFL );
+            r.writeVarLong( level.getSyslogEquivalent() & 0xFFFFFFFFL );
+            writeString( level.toString(), true );
+        }
+        writeString( event.getLoggerName(), true );
+        writeString( event.getThreadName(), true );
+        writeString( event.getFQNOfLoggerClass(), true );
+        writeString( message, false );
+        if( renderedDiffers )
+        {
+            writeString( rendered, false );
+        }
+        if( location != null )
+        {
+            writeString( location.getClassName(), true );
+            writeString( location.getMethodName(), true );
+            writeString( location.getFileName(), true );
+            writeString( location.getLineNumber(), true );
+        }
+        if( ( flags & THROWABLE ) != 0 )
+        {
+            r.writeVarLong( throwable.length );
+            for( int i = 0; i < throwable.length; i++ )
+            {
+                // the first line carries the message of the exception, the others are mostly stack frames
+                writeString( throwable[i], i > 0 );
+            }
+        }
+        if( ( flags & PROPERTIES ) != 0 )
+        {
+            r.writeVarLong( properties.size() );
+            for( Iterator it = properties.entrySet().iterator(); it.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) it.next();
+                String key = String.valueOf( entry.getKey() );
+                Object value = entry.getValue();
+                writeString( key, true );
+                writeString( value == null ? null : value.toString(), key.startsWith( "bundle." ) );
+            }
+        }
+        flushRecord();
+    }
+
+    public synchronized void flush()
+        throws IOException
+    {
+        m_out.flush();
+    }
+
+    public synchronized void close()
+        throws IOException
+    {
+        m_out.close();
+    }
+
+    private void writeString( String value, boolean shared )
+    {
+        Buffer r = m_record;
+        if( value == null )
+        {
+            r.writeByte( NULL );
+            return;
+        }
+        if( shared )
+        {
+            Integer number = m_dictionary.get( value );
+            if( number != null )
+            {
+                r.writeVarLong( REFERENCE + number );
+                return;
+            }
+            if( m_dictionary.size() < MAX_DICTIONARY_SIZE )
+            {
+                m_dictionary.put( value, m_dictionary.size() );
+                r.writeByte( DEFINE );
+                r.writeUtf8( value );
+                return;
+            }
+        }
+        r.writeByte( LITERAL );
+        r.writeUtf8( value );
+    }
+
+    private void flushRecord()
+        throws IOException
+    {
+        m_length.reset();
+        m_length.writeVarLong( m_record.size() );
+        m_length.writeTo( m_out );
+        m_record.writeTo( m_out );
+        m_record.reset();
+    }
+
+    /**
+     * A growable byte array, reused for every record.
+     */
+    private static final class Buffer
+    {
+
+        private byte[] m_bytes = new byte[256];
+        private int m_size;
+
+        void writeByte( int b )
+        {
+            ensure( 1 );
+            m_bytes[m_size++] = (byte) b;
+        }
+
+        void write( byte[] bytes )
+        {
+            ensure( bytes.length );
+            System.arraycopy( bytes, 0, m_bytes, m_size, bytes.length );
+            m_size += bytes.length;
+        }
+
+        void writeVarLong( long value )
+        {
+            ensure( 10 );
+            while( ( value & ~0x7FL ) != 0 )
+            {
+                m_bytes[m_size++] = (byte) ( ( value & 0x7F ) | 0x80 );
+                value >>>= 7;
+            }
+            m_bytes[m_size++] = (byte) value;
+        }
+
+        /**
+         * Writes the UTF-8 bytes of the string, prefixed with their number, without allocating.
+         */
+        void writeUtf8( String s )
+        {
+            int length = s.length();
+            int utf8Length = 0;
+            for( int i = 0; i < length; i++ )
+            {
+                char c = s.charAt( i );
+                if( c < 0x80 )
+                {
+                    utf8Length++;
+                }
+                else if( c < 0x800 )
+                {
+                    utf8Length += 2;
+                }
+                else if( Character.isHighSurrogate( c ) && i + 1 < length
+                         && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+                {
+                    utf8Length += 4;
+                    i++;
+                }
+                else
+                {
+                    utf8Length += 3;
+                }
+            }
+            writeVarLong( utf8Length );
+            ensure( utf8Length );
+            byte[] b = m_bytes;
+            int p = m_size;
+            for( int i = 0; i < length; i++ )
+            {
+                char c = s.charAt( i );
+                if( c < 0x80 )
+                {
+                    b[p++] = (byte) c;
+                }
+                else if( c < 0x800 )
+                {
+                    b[p++] = (byte) ( 0xC0 | ( c >> 6 ) );
+                    b[p++] = (byte) ( 0x80 | ( c & 0x3F ) );
+                }
+                else if( Character.isHighSurrogate( c ) && i + 1 < length
+                         && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+                {
+                    int cp = Character.toCodePoint( c, s.charAt( ++i ) );
+                    b[p++] = (byte) ( 0xF0 | ( cp >> 18 ) );
+                    b[p++] = (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+                    b[p++] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                    b[p++] = (byte) ( 0x80 | ( cp & 0x3F ) );
+                }
+                else
+                {
+                    // lone surrogates end up as the replacement character when decoded
+                    b[p++] = (byte) ( 0xE0 | ( c >> 12 ) );
+                    b[p++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                    b[p++] = (byte) ( 0x80 | ( c & 0x3F ) );
+                }
+            }
+            m_size = p;
+        }
+
+        int size()
+        {
+            return m_size;
+        }
+
+        void reset()
+        {
+            m_size = 0;
+        }
+
+        void writeTo( OutputStream out )
+            throws IOException
+        {
+            out.write( m_bytes, 0, m_size );
+        }
+
+        private void ensure( int n )
+        {
+            if( m_size + n > m_bytes.length )
+            {
+                byte[] bytes = new byte[Math.max( m_bytes.length * 2, m_size + n )];
+                System.arraycopy( m_bytes, 0, bytes, 0, m_size );
+                m_bytes = bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Extracts the events recorded by a {@link BlackBoxRecorder}, also from the file of a process that died.
+ *
+ * <p>
+ * The reader first looks for complete records after the end of the last record the header points to, then takes
+ * the complete records of the last lap of the ring, oldest first. Wherever there is no complete record, because it
+ * was still being written or has been partly overwritten, the reader moves on byte by byte until the stamp of the
+ * next record.
+ * </p>
+ */
+public class BlackBoxReader
+{
+
+    private final byte[] m_ring;
+    private final int m_capacity;
+    private final long m_end;
+
+    /**
+     * Reads the ring file into memory.
+     *
+     * @param file the ring file
+     * @throws IOException if the file is not a black box recording or can not be read
+     */
+    public BlackBoxReader( File file )
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            if( raf.length() < BlackBoxRecorder.HEADER_SIZE )
+            {
+                throw new IOException( "Not a black box recording: " + file );
+            }
+            byte[] magic = new byte[BlackBoxRecorder.MAGIC.length];
+            raf.readFully( magic );
+            for( int i = 0; i < magic.length; i++ )
+            {
+                if( magic[i] != BlackBoxRecorder.MAGIC[i] )
+                {
+                    throw new IOException( "Not a black box recording: " + file );
+                }
+            }
+            int version = raf.read();
+            if( version > BlackBoxRecorder.VERSION )
+            {
+                throw new IOException( "Unsupported black box version " + version );
+            }
+            raf.seek( BlackBoxRecorder.CAPACITY_OFFSET );
+            m_capacity = raf.readInt();
+            raf.seek( BlackBoxRecorder.END_OFFSET );
+            long end = raf.readLong();
+            if( m_capacity <= 0 || raf.length() < BlackBoxRecorder.HEADER_SIZE + (long) m_capacity )
+            {
+                throw new IOException( "Truncated black box recording: " + file );
+            }
+            m_ring = new byte[m_capacity];
+            raf.seek( BlackBoxRecorder.HEADER_SIZE );
+            raf.readFully( m_ring );
+            m_end = end;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param maxBytes the maximum number of bytes of the records to extract, counted from the last one
+     * @return the events, oldest first
+     * @throws IOException if a record can not be decoded
+     */
+    public List<PaxLoggingEvent> read( long maxBytes )
+        throws IOException
+    {
+        // records completed after the header has been updated for the last time
+        long end = m_end;
+        for( long position = m_end; position < m_end + m_capacity; )
+        {
+            int size = recordSize( position );
+            if( size > 0 )
+            {
+                position += size;
+                end = position;
+            }
+            else
+            {
+                position++;
+            }
+        }
+        List<PaxLoggingEvent> events = new ArrayList<PaxLoggingEvent>();
+        for( long position = Math.max( 0, end - m_capacity ); position < end; )
+        {
+            int size = recordSize( position );
+            if( size == 0 || position + size > end )
+            {
+                position++;
+                continue;
+            }
+            if( end - position - size < maxBytes )
+            {
+                byte[] payload = new byte[size - BlackBoxRecorder.RECORD_OVERHEAD];
+                get( position + 8, payload );
+                PaxLoggingEvent event = new BinaryLogReader( new ByteArrayInputStream( payload ) ).read();
+                if( event != null )
+                {
+                    events.add( event );
+                }
+            }
+            position += size;
+        }
+        return events;
+    }
+
+    /**
+     * @return the size of the complete record at the position, or 0 if there is none
+     */
+    private int recordSize( long position )
+    {
+        if( getInt( position + 4 ) != BlackBoxRecorder.stamp( position ) )
+        {
+            return 0;
+        }
+        int length = getInt( position );
+        int size = length + BlackBoxRecorder.RECORD_OVERHEAD;
+        if( length < 0 || size > m_capacity / 4 || getInt( position + 8 + length ) != length )
+        {
+            return 0;
+        }
+        return size;
+    }
+
+    private int getInt( long position )
+    {
+        int value = 0;
+        for( int i = 0; i < 4; i++ )
+        {
+            value = ( value << 8 ) | ( m_ring[(int) ( ( position + i ) % m_capacity )] & 0xFF );
+        }
+        return value;
+    }
+
+    private void get( long position, byte[] bytes )
+    {
+        int offset = (int) ( position % m_capacity );
+        int first = Math.min( bytes.length, m_capacity - offset );
+        System.arraycopy( m_ring, offset, bytes, 0, first );
+        System.arraycopy( m_ring, 0, bytes, first, bytes.length - first );
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ops4j.pax.logging.spi.PaxAppender;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Records the recent events into a fixed size, memory-mapped ring file, to find out what happened before the
+ * process died.
+ *
+ * <p>
+ * The events are written on the logging thread, straight into the mapped file, so they are in the page cache of the
+ * operating system as soon as the call returns: they survive the process being killed or crashing, not the machine
+ * going down. {@link BlackBoxReader} extracts them afterwards, and the pax-logging-decoder tool renders them with
+ * <code>-b</code>. The recording of the previous run is moved to a file with the suffix <code>.prev</code> when a
+ * recorder opens its file.
+ * </p>
+ * <p>
+ * Recording takes no lock: every event is encoded with the {@link BinaryLogWriter} of the logging thread, then the
+ * thread reserves the room for its record with an atomic increment and copies it. An event is written with all its
+ * strings, so that it can be decoded when the records before it have been overwritten. Events larger than a quarter
+ * of the ring are dropped.
+ * </p>
+ * <pre>
+ * header  := MAGIC version(1) pad(1) int(capacity) long(end of the last record written) pad(48)
+ * record  := int(length) int(stamp) payload int(length)
+ * </pre>
+ * <p>
+ * The records are written to the ring at their position modulo the capacity; the stamp is derived from the position,
+ * so that the remains of older records are told apart. The length at the start of a record is written last, a
+ * record with a valid start is complete.
+ * </p>
+ */
+public class BlackBoxRecorder
+    implements PaxAppender
+{
+
+    static final byte[] MAGIC = { 'P', 'A', 'X', 'B', 'B', 'X' };
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    static final int CAPACITY_OFFSET = 8;
+
+    static final int END_OFFSET = 16;
+
+    /**
+     * The length, the stamp and the trailing length.
+     */
+    static final int RECORD_OVERHEAD = 12;
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private final File m_file;
+    private final int m_capacity;
+    private final MappedByteBuffer m_buffer;
+    private final AtomicLong m_position = new AtomicLong();
+    private final AtomicLong m_end = new AtomicLong();
+    private final ThreadLocal<Recorder> m_recorders = new ThreadLocal<Recorder>();
+    private volatile boolean m_closed;
+
+    /**
+     * @param file     the ring file
+     * @param capacity the number of bytes of the ring, without the header
+     * @throws IOException if the file can not be mapped
+     */
+    public BlackBoxRecorder( File file, int capacity )
+        throws IOException
+    {
+        if( capacity < 1024 )
+        {
+            throw new IllegalArgumentException( "The capacity of the black box must be at least 1024 bytes" );
+        }
+        m_file = file;
+        m_capacity = capacity;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if( parent != null && !parent.exists() )
+        {
+            parent.mkdirs();
+        }
+        if( file.exists() )
+        {
+            File previous = new File( file.getPath() + ".prev" );
+            previous.delete();
+            if( !file.renameTo( previous ) )
+            {
+                throw new IOException( "Unable to keep the previous recording of " + file );
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            raf.setLength( HEADER_SIZE + capacity );
+            m_buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity );
+        }
+        finally
+        {
+            // the mapping stays valid
+            raf.close();
+        }
+        m_buffer.put( MAGIC );
+        m_buffer.put( (byte) VERSION );
+        m_buffer.putInt( CAPACITY_OFFSET, capacity );
+        m_buffer.putLong( END_OFFSET, 0 );
+    }
+
+    public void doAppend( PaxLoggingEvent event )
+    {
+        if( m_closed )
+        {
+            return;
+        }
+        Recorder recorder = m_recorders.get();
+        if( recorder == null )
+        {
+            recorder = new Recorder();
+            m_recorders.set( recorder );
+        }
+        try
+        {
+            recorder.record( event );
+        }
+        catch( IOException e )
+        {
+            // not thrown by the in-memory stream
+            throw new IllegalStateException( e.getMessage() );
+        }
+    }
+
+    /**
+     * Writes the mapped file to the disk, so that the recording also survives the machine going down, and stops
+     * recording.
+     */
+    public void close()
+    {
+        m_closed = true;
+        m_buffer.force();
+    }
+
+    /**
+     * @return the ring file
+     */
+    public File getFile()
+    {
+        return m_file;
+    }
+
+    static int stamp( long position )
+    {
+        return (int) ( position ^ ( position >>> 32 ) ) ^ 0x5AFEB0C5;
+    }
+
+    /**
+     * Encodes and copies the records of a thread.
+     */
+    private class Recorder
+    {
+
+        private final Bytes m_bytes = new Bytes();
+        private final BinaryLogWriter m_writer;
+        private final ByteBuffer m_view = m_buffer.duplicate();
+
+        Recorder()
+        {
+            try
+            {
+                m_writer = new BinaryLogWriter( m_bytes );
+            }
+            catch( IOException e )
+            {
+                throw new IllegalStateException( e.getMessage() );
+            }
+        }
+
+        void record( PaxLoggingEvent event )
+            throws IOException
+        {
+            m_bytes.reset();
+            m_writer.startSegment();
+            m_writer.write( event );
+            int length = m_bytes.size();
+            int size = length + RECORD_OVERHEAD;
+            if( size > m_capacity / 4 )
+            {
+                return;
+            }
+            long start = m_position.getAndAdd( size );
+            put( start + 8, m_bytes.bytes(), 0, length );
+            putInt( start + 8 + length, length );
+            putInt( start + 4, stamp( start ) );
+            putInt( start, length );
+
+            long end = start + size;
+            long published = m_end.get();
+            while( end > published )
+            {
+                if( m_end.compareAndSet( published, end ) )
+                {
+                    publish( end );
+                    return;
+                }
+                published = m_end.get();
+            }
+        }
+
+        /**
+         * Writes the end of the last record to the header. A thread which published a later end may have written
+         * its header before this one, so the header is written again until the end it holds is still the latest.
+         */
+        private void publish( long end )
+        {
+            while( true )
+            {
+                m_view.putLong( END_OFFSET, end );
+                // the compare and set also orders the write above before the next check of the end
+                if( m_end.compareAndSet( end, end ) )
+                {
+                    return;
+                }
+                end = m_end.get();
+            }
+        }
+
+        private void putInt( long position, int value )
+        {
+            int offset = (int) ( position % m_capacity );
+            if( offset + 4 <= m_capacity )
+            {
+                m_view.putInt( HEADER_SIZE + offset, value );
+            }
+            else
+            {
+                byte[] bytes = { (byte) ( value >>> 24 ), (byte) ( value >>> 16 ), (byte) ( value >>> 8 ),
+                                 (byte) value };
+                put( position, bytes, 0, 4 );
+            }
+        }
+
+        private void put( long position, byte[] bytes, int offset, int length )
+        {
+            int ringOffset = (int) ( position % m_capacity );
+            int first = Math.min( length, m_capacity - ringOffset );
+            m_view.position( HEADER_SIZE + ringOffset );
+            m_view.put( bytes, offset, first );
+            if( first < length )
+            {
+                m_view.position( HEADER_SIZE );
+                m_view.put( bytes, offset + first, length - first );
+            }
+        }
+    }
+
+    /**
+     * A byte array stream whose bytes can be read without a copy.
+     */
+    private static class Bytes
+        extends ByteArrayOutputStream
+    {
+
+        Bytes()
+        {
+            super( 512 );
+        }
+
+        byte[] bytes()
+        {
+            return buf;
+        }
+    }
+}
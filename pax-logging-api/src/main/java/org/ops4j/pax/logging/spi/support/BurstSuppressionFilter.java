@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.util.Map;
+
+import org.ops4j.pax.logging.spi.PaxFilter;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link PaxFilter} which suppresses bursts of similar events, see {@link BurstSuppressor}.
+ *
+ * <p>
+ * Register an instance as a PaxFilter service and refer to it from the configuration of the backend, like the other
+ * Pax filters. The events it suppresses are denied, the others are passed on to the next filter. The summaries are
+ * logged through SLF4J, with the logger and the level of the last suppressed event. Call {@link #close()} when
+ * unregistering the service, so that the events suppressed since the last summary are reported.
+ * </p>
+ */
+public class BurstSuppressionFilter
+    implements PaxFilter, BurstSuppressor.Reporter
+{
+
+    private final BurstSuppressor.Key m_key;
+    private final BurstSuppressor m_suppressor;
+
+    /**
+     * Suppresses the events of each logger beyond the default rates.
+     */
+    public BurstSuppressionFilter()
+    {
+        this( "logger", BurstSuppressor.DEFAULT_RATE, BurstSuppressor.DEFAULT_BURST,
+              BurstSuppressor.DEFAULT_SUMMARY_INTERVAL );
+    }
+
+    /**
+     * @param key             the properties which make events similar, see {@link BurstSuppressor.Key}
+     * @param rate            the number of events per second each key may log in the long run
+     * @param burst           the number of events each key may log at once
+     * @param summaryInterval how many milliseconds apart the suppressed events are reported
+     */
+    public BurstSuppressionFilter( String key, double rate, int burst, long summaryInterval )
+    {
+        m_key = new BurstSuppressor.Key( key );
+        m_suppressor = new BurstSuppressor( rate, burst, summaryInterval, BurstSuppressor.DEFAULT_MAX_KEYS );
+    }
+
+    public int doFilter( PaxLoggingEvent event )
+    {
+        if( BurstSuppressor.isReporting() )
+        {
+            return NEUTRAL;
+        }
+        long now = System.currentTimeMillis();
+        m_suppressor.report( this, now );
+        return m_suppressor.permit( keyOf( event ), event, now ) ? NEUTRAL : DENY;
+    }
+
+    /**
+     * Logs the summaries of the events suppressed since the last ones right away.
+     */
+    public void close()
+    {
+        m_suppressor.flush( this );
+    }
+
+    public void suppressed( Object sample, long count )
+    {
+        PaxLoggingEvent event = (PaxLoggingEvent) sample;
+        Logger logger = LoggerFactory.getLogger( event.getLoggerName() );
+        String message = BurstSuppressor.summary( count );
+        PaxLevel level = event.getLevel();
+        int syslog = level == null ? 6 : level.getSyslogEquivalent();
+        if( syslog <= 3 )
+        {
+            logger.error( message );
+        }
+        else if( syslog == 4 )
+        {
+            logger.warn( message );
+        }
+        else if( syslog <= 6 )
+        {
+            logger.info( message );
+        }
+        else
+        {
+            logger.debug( message );
+        }
+    }
+
+    private Object keyOf( PaxLoggingEvent event )
+    {
+        Object[] values = new Object[m_key.size()];
+        for( int i = 0; i < values.length; i++ )
+        {
+            switch( m_key.getKind( i ) )
+            {
+                case BurstSuppressor.Key.LOGGER:
+                    values[i] = event.getLoggerName();
+                    break;
+                case BurstSuppressor.Key.LEVEL:
+                    PaxLevel level = event.getLevel();
+                    values[i] = level == null ? null : Integer.valueOf( level.toInt() );
+                    break;
+                case BurstSuppressor.Key.MESSAGE:
+                    values[i] = event.getMessage();
+                    break;
+                default:
+                    Map properties = event.getProperties();
+                    values[i] = properties == null ? null : properties.get( m_key.getMdcKey( i ) );
+                    break;
+            }
+        }
+        return m_key.of( values );
+    }
+}
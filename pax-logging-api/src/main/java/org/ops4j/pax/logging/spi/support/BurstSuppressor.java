@@ -0,0 +1,378 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of similar events, with a token bucket per key, and counts the events it suppresses.
+ *
+ * <p>
+ * This is the state shared by the burst suppression filters of the backends: the log4j
+ * <code>org.apache.log4j.filter.BurstSuppressionFilter</code>, the Logback <code>BurstSuppressionTurboFilter</code>,
+ * the Log4j v2 <code>BurstSuppression</code> filter and the {@link BurstSuppressionFilter} for {@link
+ * org.ops4j.pax.logging.spi.PaxFilter} services. What makes events similar is the {@link Key}: their logger, level,
+ * message (the format string, where the backend has one) or MDC values, in any combination.
+ * </p>
+ * <p>
+ * Each key may log <code>burst</code> events at once, and <code>rate</code> events per second in the long run. The
+ * buckets are kept in striped tables, each with a lock of its own, which forget the least recently used keys beyond
+ * <code>maxKeys</code>. Every <code>summaryInterval</code> milliseconds, one of the threads going through the filter
+ * reports the number of events suppressed since the last report for each key to a {@link Reporter}, with the last
+ * suppressed event; the filters log it as <code>Suppressed N similar messages</code> with its logger and level.
+ * </p>
+ * <p>
+ * The counts of the forgotten keys are kept until the next report. As the reports are made by the events going
+ * through the filter, the filters {@link #flush(Reporter) flush} what is left to report when they are stopped.
+ * </p>
+ */
+public class BurstSuppressor
+{
+
+    public static final double DEFAULT_RATE = 10;
+
+    public static final int DEFAULT_BURST = 100;
+
+    public static final long DEFAULT_SUMMARY_INTERVAL = 30000;
+
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    private static final int STRIPES = 16;
+
+    /**
+     * Set while reporting, so that the filters let the summaries through.
+     */
+    private static final ThreadLocal<Boolean> REPORTING = new ThreadLocal<Boolean>();
+
+    private final double m_rate;
+    private final double m_burst;
+    private final long m_summaryInterval;
+    private final Stripe[] m_stripes;
+    private final AtomicLong m_nextReport;
+
+    /**
+     * @param rate            the number of events per second each key may log in the long run
+     * @param burst           the number of events each key may log at once
+     * @param summaryInterval how many milliseconds apart the suppressed events are reported
+     * @param maxKeys         the number of keys kept, the least recently used ones are forgotten beyond that
+     */
+    public BurstSuppressor( double rate, int burst, long summaryInterval, int maxKeys )
+    {
+        if( rate <= 0 || burst < 1 )
+        {
+            throw new IllegalArgumentException( "The rate must be positive and the burst at least 1" );
+        }
+        m_rate = rate / 1000;
+        m_burst = burst;
+        m_summaryInterval = summaryInterval;
+        m_stripes = new Stripe[STRIPES];
+        for( int i = 0; i < STRIPES; i++ )
+        {
+            m_stripes[i] = new Stripe( Math.max( 1, maxKeys / STRIPES ) );
+        }
+        m_nextReport = new AtomicLong( System.currentTimeMillis() + summaryInterval );
+    }
+
+    /**
+     * Takes a token from the bucket of a key.
+     *
+     * @param key    what makes events similar, see {@link Key#of(Object[])}
+     * @param sample the event, or what the reporter needs of it, kept if the event is suppressed
+     * @param now    the current time in milliseconds
+     * @return false if the event is to be suppressed
+     */
+    public boolean permit( Object key, Object sample, long now )
+    {
+        int hash = key == null ? 0 : key.hashCode();
+        Stripe stripe = m_stripes[( hash ^ ( hash >>> 16 ) ) & ( STRIPES - 1 )];
+        synchronized( stripe )
+        {
+            Bucket bucket = stripe.get( key );
+            if( bucket == null )
+            {
+                bucket = new Bucket( m_burst, now );
+                stripe.put( key, bucket );
+            }
+            else if( now > bucket.refilled )
+            {
+                bucket.tokens = Math.min( m_burst, bucket.tokens + ( now - bucket.refilled ) * m_rate );
+                bucket.refilled = now;
+            }
+            if( bucket.tokens >= 1 )
+            {
+                bucket.tokens -= 1;
+                return true;
+            }
+            bucket.suppressed++;
+            bucket.sample = sample;
+            return false;
+        }
+    }
+
+    /**
+     * Reports the suppressed events if the summary interval has elapsed since the last report. Only one of the
+     * threads calling at that time reports.
+     *
+     * @param reporter the reporter
+     * @param now      the current time in milliseconds
+     */
+    public void report( Reporter reporter, long now )
+    {
+        long next = m_nextReport.get();
+        if( now < next || !m_nextReport.compareAndSet( next, now + m_summaryInterval ) )
+        {
+            return;
+        }
+        reportAll( reporter );
+    }
+
+    /**
+     * Reports the suppressed events right away, whether the summary interval has elapsed or not. The filters call it
+     * when they are stopped, so that the events suppressed since the last report are not left unreported.
+     *
+     * @param reporter the reporter
+     */
+    public void flush( Reporter reporter )
+    {
+        m_nextReport.set( System.currentTimeMillis() + m_summaryInterval );
+        reportAll( reporter );
+    }
+
+    private void reportAll( Reporter reporter )
+    {
+        List<Object> samples = new ArrayList<Object>();
+        List<Long> counts = new ArrayList<Long>();
+        for( int i = 0; i < STRIPES; i++ )
+        {
+            Stripe stripe = m_stripes[i];
+            synchronized( stripe )
+            {
+                for( Bucket bucket : stripe.m_evicted )
+                {
+                    samples.add( bucket.sample );
+                    counts.add( bucket.suppressed );
+                }
+                stripe.m_evicted.clear();
+                for( Iterator<Bucket> it = stripe.values().iterator(); it.hasNext(); )
+                {
+                    Bucket bucket = it.next();
+                    if( bucket.suppressed > 0 )
+                    {
+                        samples.add( bucket.sample );
+                        counts.add( bucket.suppressed );
+                        bucket.suppressed = 0;
+                        bucket.sample = null;
+                    }
+                }
+            }
+        }
+        REPORTING.set( Boolean.TRUE );
+        try
+        {
+            for( int i = 0; i < samples.size(); i++ )
+            {
+                reporter.suppressed( samples.get( i ), counts.get( i ) );
+            }
+        }
+        finally
+        {
+            REPORTING.remove();
+        }
+    }
+
+    /**
+     * @return true if the current thread is reporting, the filters let the events of reports through
+     */
+    public static boolean isReporting()
+    {
+        return REPORTING.get() != null;
+    }
+
+    /**
+     * @return the message of a summary
+     */
+    public static String summary( long count )
+    {
+        return "Suppressed " + count + " similar messages";
+    }
+
+    /**
+     * Receives the summaries of the suppressed events.
+     */
+    public interface Reporter
+    {
+
+        /**
+         * @param sample the last event suppressed, as given to {@link BurstSuppressor#permit(Object, Object, long)}
+         * @param count  the number of events suppressed since the last report
+         */
+        void suppressed( Object sample, long count );
+    }
+
+    /**
+     * Which properties of the events make up their key, parsed from a comma separated list of <code>logger</code>,
+     * <code>level</code>, <code>message</code> and <code>mdc:</code> followed by the name of an MDC entry.
+     */
+    public static class Key
+    {
+
+        public static final int LOGGER = 0;
+
+        public static final int LEVEL = 1;
+
+        public static final int MESSAGE = 2;
+
+        public static final int MDC = 3;
+
+        private final int[] m_kinds;
+        private final String[] m_mdcKeys;
+
+        /**
+         * @param spec the properties, like <code>logger,message</code>
+         * @throws IllegalArgumentException if a property is not known
+         */
+        public Key( String spec )
+        {
+            String[] parts = spec.split( "," );
+            m_kinds = new int[parts.length];
+            m_mdcKeys = new String[parts.length];
+            for( int i = 0; i < parts.length; i++ )
+            {
+                String part = parts[i].trim();
+                if( "logger".equalsIgnoreCase( part ) )
+                {
+                    m_kinds[i] = LOGGER;
+                }
+                else if( "level".equalsIgnoreCase( part ) )
+                {
+                    m_kinds[i] = LEVEL;
+                }
+                else if( "message".equalsIgnoreCase( part ) )
+                {
+                    m_kinds[i] = MESSAGE;
+                }
+                else if( part.startsWith( "mdc:" ) && part.length() > 4 )
+                {
+                    m_kinds[i] = MDC;
+                    m_mdcKeys[i] = part.substring( 4 );
+                }
+                else
+                {
+                    throw new IllegalArgumentException( "Unknown key property: " + part );
+                }
+            }
+        }
+
+        /**
+         * @return the number of properties
+         */
+        public int size()
+        {
+            return m_kinds.length;
+        }
+
+        /**
+         * @return {@link #LOGGER}, {@link #LEVEL}, {@link #MESSAGE} or {@link #MDC}
+         */
+        public int getKind( int index )
+        {
+            return m_kinds[index];
+        }
+
+        /**
+         * @return the name of the MDC entry of an {@link #MDC} property
+         */
+        public String getMdcKey( int index )
+        {
+            return m_mdcKeys[index];
+        }
+
+        /**
+         * @param values the values of the properties of an event, in order
+         * @return the key of the event
+         */
+        public Object of( Object[] values )
+        {
+            return values.length == 1 ? values[0] : Arrays.asList( values );
+        }
+    }
+
+    private static final class Bucket
+    {
+
+        double tokens;
+        long refilled;
+        long suppressed;
+        Object sample;
+
+        Bucket( double tokens, long refilled )
+        {
+            this.tokens = tokens;
+            this.refilled = refilled;
+        }
+    }
+
+    /**
+     * The buckets of a part of the keys, least recently used first, and the buckets forgotten with events left to
+     * report.
+     */
+    private final class Stripe
+        extends LinkedHashMap<Object, Bucket>
+    {
+
+        private final int m_maxKeys;
+        private final List<Bucket> m_evicted = new ArrayList<Bucket>();
+
+        Stripe( int maxKeys )
+        {
+            super( 16, 0.75f, true );
+            m_maxKeys = maxKeys;
+        }
+
+        protected boolean removeEldestEntry( Map.Entry<Object, Bucket> eldest )
+        {
+            if( size() <= m_maxKeys )
+            {
+                return false;
+            }
+            Bucket bucket = eldest.getValue();
+            if( bucket.suppressed > 0 )
+            {
+                if( m_evicted.size() < m_maxKeys )
+                {
+                    m_evicted.add( bucket );
+                }
+                else
+                {
+                    // too many keys come and go between two reports: count them with the last one kept and have
+                    // the next event report them
+                    Bucket last = m_evicted.get( m_evicted.size() - 1 );
+                    last.suppressed += bucket.suppressed;
+                    m_nextReport.set( 0 );
+                }
+            }
+            return true;
+        }
+    }
+}
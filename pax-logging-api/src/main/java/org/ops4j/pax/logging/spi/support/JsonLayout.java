@@ -0,0 +1,369 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.ops4j.pax.logging.spi.PaxEncodingLayout;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Lays events out as JSON objects, one per line.
+ *
+ * <pre>
+ * {"timestamp":1400000000000,"level":"INFO","logger":"org.example.Foo","thread":"main","message":"hello",
+ *  "location":{"class":"org.example.Foo","method":"bar","file":"Foo.java","line":"42"},
+ *  "bundle":{"id":"12","name":"org.example","version":"1.0.0"},"mdc":{"user":"alice"},
+ *  "exception":["java.lang.Exception: boom","\tat org.example.Foo.bar(Foo.java:42)"]}
+ * </pre>
+ *
+ * <p>
+ * The timestamp is in milliseconds since the epoch. The location is expensive to compute and only written when the
+ * layout is asked to, the bundle, MDC and exception members only when the event has some. The bytes are written
+ * straight into the buffer passed to {@link #encode(PaxLoggingEvent, ByteBuffer)}, the member names are encoded once.
+ * </p>
+ */
+public class JsonLayout
+    implements PaxEncodingLayout
+{
+
+    private static final byte[] TIMESTAMP = ascii( "{\"timestamp\":" );
+    private static final byte[] LEVEL = ascii( ",\"level\":" );
+    private static final byte[] LOGGER = ascii( ",\"logger\":" );
+    private static final byte[] THREAD = ascii( ",\"thread\":" );
+    private static final byte[] MESSAGE = ascii( ",\"message\":" );
+    private static final byte[] LOCATION = ascii( ",\"location\":{\"class\":" );
+    private static final byte[] METHOD = ascii( ",\"method\":" );
+    private static final byte[] FILE = ascii( ",\"file\":" );
+    private static final byte[] LINE = ascii( ",\"line\":" );
+    private static final byte[] BUNDLE = ascii( ",\"bundle\":{" );
+    private static final byte[] MDC = ascii( ",\"mdc\":{" );
+    private static final byte[] EXCEPTION = ascii( ",\"exception\":[" );
+    private static final byte[] NULL = ascii( "null" );
+    private static final byte[] HEX = ascii( "0123456789abcdef" );
+
+    private static final String BUNDLE_PREFIX = "bundle.";
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    private final ThreadLocal<ByteBuffer> m_buffers = new ThreadLocal<ByteBuffer>();
+    private final boolean m_locationInfo;
+
+    public JsonLayout()
+    {
+        this( false );
+    }
+
+    /**
+     * @param locationInfo whether to write the location of the events which have it
+     */
+    public JsonLayout( boolean locationInfo )
+    {
+        m_locationInfo = locationInfo;
+    }
+
+    public ByteBuffer encode( PaxLoggingEvent event, ByteBuffer buffer )
+    {
+        ByteBuffer b = put( buffer, TIMESTAMP );
+        b = putLong( b, event.getTimeStamp() );
+        PaxLevel level = event.getLevel();
+        b = putMember( b, LEVEL, level == null ? null : level.toString() );
+        b = putMember( b, LOGGER, event.getLoggerName() );
+        b = putMember( b, THREAD, event.getThreadName() );
+        b = putMember( b, MESSAGE, event.getRenderedMessage() );
+        if( m_locationInfo )
+        {
+            PaxLocationInfo location = event.getLocationInformation();
+            if( location != null )
+            {
+                b = putMember( b, LOCATION, location.getClassName() );
+                b = putMember( b, METHOD, location.getMethodName() );
+                b = putMember( b, FILE, location.getFileName() );
+                b = putMember( b, LINE, location.getLineNumber() );
+                b = put( b, '}' );
+            }
+        }
+        Map properties = event.getProperties();
+        if( properties != null && !properties.isEmpty() )
+        {
+            b = putProperties( b, properties, BUNDLE, true );
+            b = putProperties( b, properties, MDC, false );
+        }
+        String[] throwable = event.getThrowableStrRep();
+        if( throwable != null && throwable.length > 0 )
+        {
+            b = put( b, EXCEPTION );
+            for( int i = 0; i < throwable.length; i++ )
+            {
+                if( i > 0 )
+                {
+                    b = put( b, ',' );
+                }
+                b = putString( b, throwable[i] );
+            }
+            b = put( b, ']' );
+        }
+        b = put( b, '}' );
+        return put( b, '\n' );
+    }
+
+    /**
+     * Creates the string of the event from its bytes, for the appenders that only take strings.
+     */
+    public String doLayout( PaxLoggingEvent event )
+    {
+        ByteBuffer buffer = m_buffers.get();
+        if( buffer == null )
+        {
+            buffer = ByteBuffer.allocate( INITIAL_CAPACITY );
+        }
+        buffer.clear();
+        buffer = encode( event, buffer );
+        m_buffers.set( buffer );
+        try
+        {
+            return new String( buffer.array(), buffer.arrayOffset(), buffer.position(), "UTF-8" );
+        }
+        catch( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    public String getContentType()
+    {
+        return "application/json";
+    }
+
+    public String getHeader()
+    {
+        return null;
+    }
+
+    public String getFooter()
+    {
+        return null;
+    }
+
+    /**
+     * Writes the bundle attributes, or the other properties, as a JSON object, if there are any.
+     */
+    private static ByteBuffer putProperties( ByteBuffer buffer, Map properties, byte[] name, boolean bundle )
+    {
+        ByteBuffer b = buffer;
+        boolean first = true;
+        for( Iterator it = properties.entrySet().iterator(); it.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) it.next();
+            String key = String.valueOf( entry.getKey() );
+            if( key.startsWith( BUNDLE_PREFIX ) != bundle )
+            {
+                continue;
+            }
+            b = first ? put( b, name ) : put( b, ',' );
+            first = false;
+            if( bundle )
+            {
+                b = putString( b, key, BUNDLE_PREFIX.length() );
+            }
+            else
+            {
+                b = putString( b, key );
+            }
+            b = put( b, ':' );
+            Object value = entry.getValue();
+            b = value == null ? put( b, NULL ) : putString( b, value.toString() );
+        }
+        return first ? b : put( b, '}' );
+    }
+
+    private static ByteBuffer putMember( ByteBuffer buffer, byte[] name, String value )
+    {
+        return putString( put( buffer, name ), value );
+    }
+
+    static ByteBuffer putString( ByteBuffer buffer, String s )
+    {
+        return putString( buffer, s, 0 );
+    }
+
+    /**
+     * Writes a JSON string, escaped and encoded as UTF-8, or null.
+     */
+    static ByteBuffer putString( ByteBuffer buffer, String s, int start )
+    {
+        if( s == null )
+        {
+            return put( buffer, NULL );
+        }
+        int length = s.length();
+        // the common case of plain ASCII takes at most one byte per char, plus the quotes
+        ByteBuffer b = ensure( buffer, length - start + 2 );
+        b.put( (byte) '"' );
+        for( int i = start; i < length; i++ )
+        {
+            char c = s.charAt( i );
+            if( c >= 0x20 && c < 0x80 && c != '"' && c != '\\' )
+            {
+                if( !b.hasRemaining() )
+                {
+                    b = ensure( b, length - i + 1 );
+                }
+                b.put( (byte) c );
+                continue;
+            }
+            b = ensure( b, 12 + length - i );
+            switch( c )
+            {
+                case '"':
+                    b.put( (byte) '\\' ).put( (byte) '"' );
+                    break;
+                case '\\':
+                    b.put( (byte) '\\' ).put( (byte) '\\' );
+                    break;
+                case '\n':
+                    b.put( (byte) '\\' ).put( (byte) 'n' );
+                    break;
+                case '\r':
+                    b.put( (byte) '\\' ).put( (byte) 'r' );
+                    break;
+                case '\t':
+                    b.put( (byte) '\\' ).put( (byte) 't' );
+                    break;
+                case '\b':
+                    b.put( (byte) '\\' ).put( (byte) 'b' );
+                    break;
+                case '\f':
+                    b.put( (byte) '\\' ).put( (byte) 'f' );
+                    break;
+                default:
+                    if( c < 0x20 )
+                    {
+                        putUnicodeEscape( b, c );
+                    }
+                    else if( c < 0x800 )
+                    {
+                        b.put( (byte) ( 0xC0 | ( c >> 6 ) ) );
+                        b.put( (byte) ( 0x80 | ( c & 0x3F ) ) );
+                    }
+                    else if( Character.isHighSurrogate( c ) && i + 1 < length
+                             && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+                    {
+                        int cp = Character.toCodePoint( c, s.charAt( ++i ) );
+                        b.put( (byte) ( 0xF0 | ( cp >> 18 ) ) );
+                        b.put( (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) ) );
+                        b.put( (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) ) );
+                        b.put( (byte) ( 0x80 | ( cp & 0x3F ) ) );
+                    }
+                    else if( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE )
+                    {
+                        // a lone surrogate has no UTF-8 encoding, JSON can carry it escaped
+                        putUnicodeEscape( b, c );
+                    }
+                    else
+                    {
+                        b.put( (byte) ( 0xE0 | ( c >> 12 ) ) );
+                        b.put( (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) ) );
+                        b.put( (byte) ( 0x80 | ( c & 0x3F ) ) );
+                    }
+            }
+        }
+        return put( b, '"' );
+    }
+
+    private static void putUnicodeEscape( ByteBuffer b, char c )
+    {
+        b.put( (byte) '\\' ).put( (byte) 'u' );
+        b.put( HEX[( c >> 12 ) & 0xF] ).put( HEX[( c >> 8 ) & 0xF] );
+        b.put( HEX[( c >> 4 ) & 0xF] ).put( HEX[c & 0xF] );
+    }
+
+    static ByteBuffer putLong( ByteBuffer buffer, long value )
+    {
+        ByteBuffer b = ensure( buffer, 20 );
+        if( value < 0 )
+        {
+            if( value == Long.MIN_VALUE )
+            {
+                return put( b, ascii( Long.toString( value ) ) );
+            }
+            b.put( (byte) '-' );
+            value = -value;
+        }
+        int start = b.position();
+        do
+        {
+            b.put( (byte) ( '0' + (int) ( value % 10 ) ) );
+            value /= 10;
+        }
+        while( value != 0 );
+        // the digits have been written from the lowest, reverse them
+        for( int i = start, j = b.position() - 1; i < j; i++, j-- )
+        {
+            byte digit = b.get( i );
+            b.put( i, b.get( j ) );
+            b.put( j, digit );
+        }
+        return b;
+    }
+
+    private static ByteBuffer put( ByteBuffer buffer, byte[] bytes )
+    {
+        ByteBuffer b = ensure( buffer, bytes.length );
+        b.put( bytes );
+        return b;
+    }
+
+    private static ByteBuffer put( ByteBuffer buffer, char c )
+    {
+        ByteBuffer b = ensure( buffer, 1 );
+        b.put( (byte) c );
+        return b;
+    }
+
+    /**
+     * @return the buffer, or a copy with twice the capacity at least if it has not room for the given bytes
+     */
+    static ByteBuffer ensure( ByteBuffer buffer, int n )
+    {
+        if( buffer.remaining() >= n )
+        {
+            return buffer;
+        }
+        int capacity = Math.max( buffer.capacity() * 2, buffer.position() + n );
+        ByteBuffer larger = buffer.isDirect() ? ByteBuffer.allocateDirect( capacity ) : ByteBuffer.allocate( capacity );
+        buffer.flip();
+        larger.put( buffer );
+        return larger;
+    }
+
+    private static byte[] ascii( String s )
+    {
+        byte[] bytes = new byte[s.length()];
+        for( int i = 0; i < bytes.length; i++ )
+        {
+            bytes[i] = (byte) s.charAt( i );
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,671 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ops4j.pax.logging.LogQuery;
+import org.ops4j.pax.logging.spi.PaxBatchAppender;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Keeps the events in time partitioned segment files, and answers {@link LogQuery queries} on them.
+ *
+ * <p>
+ * The events of every partition, an hour by default, go to a segment file of their own, named after the start of
+ * the partition. The events of a segment are written in blocks of up to {@link #DEFAULT_BLOCK_SIZE} events, each
+ * block in the format of {@link BinaryLogWriter}. An index file next to the segment has an entry per block with the
+ * time range, the most severe level and a bit mask of the bundles of its events, so that a query only reads the
+ * blocks which may hold matching events. Events which arrive late, after the segment of a later partition has been
+ * started, are added to the current segment; the index entries cover them.
+ * </p>
+ * <p>
+ * {@link #flush()} writes the pending block, so that the delivered events survive a crash, even if the block is not
+ * full. The blocks of a segment are merged into full blocks once the segment is closed, see {@link #compact()}.
+ * Segments older than the retention time are deleted, as well as the oldest segments while the store holds more
+ * than its maximum number of bytes.
+ * </p>
+ * <p>
+ * Instances are thread safe.
+ * </p>
+ */
+public class LogStore
+    implements PaxBatchAppender
+{
+
+    public static final long DEFAULT_PARTITION = 60L * 60L * 1000L;
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    public static final long DEFAULT_RETENTION = 7L * 24L * 60L * 60L * 1000L;
+
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+
+    private static final String PREFIX = "segment-";
+
+    private static final String DATA_SUFFIX = ".log";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * offset, length, first and last timestamp, number of events, most severe level, bundle mask
+     */
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 8 + 8 + 4 + 4 + 8;
+
+    private final File m_dir;
+    private final long m_partitionMillis;
+    private final int m_blockSize;
+    private final long m_retentionMillis;
+    private final long m_maxBytes;
+
+    private long m_partition = Long.MIN_VALUE;
+    private RandomAccessFile m_data;
+    private RandomAccessFile m_index;
+    private long m_dataEnd;
+
+    private ByteArrayOutputStream m_blockBytes;
+    private BinaryLogWriter m_blockWriter;
+    private Block m_block;
+
+    private boolean m_closed;
+
+    /**
+     * Opens a store with the default partition, block size, retention and maximum size.
+     *
+     * @param dir the directory of the segment files
+     * @throws IOException if the current segment can not be opened
+     */
+    public LogStore( File dir )
+        throws IOException
+    {
+        this( dir, DEFAULT_PARTITION, DEFAULT_BLOCK_SIZE, DEFAULT_RETENTION, DEFAULT_MAX_BYTES );
+    }
+
+    /**
+     * @param dir             the directory of the segment files
+     * @param partitionMillis the time span of a segment
+     * @param blockSize       the number of events of a block
+     * @param retentionMillis how long the segments are kept, after their time span has ended
+     * @param maxBytes        the maximum size of all segments
+     * @throws IOException if the current segment can not be opened
+     */
+    public LogStore( File dir, long partitionMillis, int blockSize, long retentionMillis, long maxBytes )
+        throws IOException
+    {
+        if( partitionMillis <= 0 || blockSize <= 0 )
+        {
+            throw new IllegalArgumentException( "The partition and the block size must be positive" );
+        }
+        m_dir = dir;
+        m_partitionMillis = partitionMillis;
+        m_blockSize = blockSize;
+        m_retentionMillis = retentionMillis;
+        m_maxBytes = maxBytes;
+        if( !dir.exists() && !dir.mkdirs() )
+        {
+            throw new IOException( "Unable to create the log store directory " + dir );
+        }
+        long[] partitions = partitions();
+        if( partitions.length > 0 )
+        {
+            openSegment( partitions[partitions.length - 1] );
+        }
+        enforceRetention();
+    }
+
+    public void doAppend( PaxLoggingEvent event )
+    {
+        doAppend( Collections.singletonList( event ) );
+    }
+
+    public synchronized void doAppend( List<PaxLoggingEvent> events )
+    {
+        if( m_closed )
+        {
+            return;
+        }
+        try
+        {
+            for( PaxLoggingEvent event : events )
+            {
+                append( event );
+            }
+        }
+        catch( IOException e )
+        {
+            failed( e );
+        }
+    }
+
+    /**
+     * Writes the pending block to the current segment.
+     */
+    public synchronized void flush()
+    {
+        if( m_closed )
+        {
+            return;
+        }
+        try
+        {
+            writeBlock();
+        }
+        catch( IOException e )
+        {
+            failed( e );
+        }
+    }
+
+    public synchronized void close()
+    {
+        if( m_closed )
+        {
+            return;
+        }
+        try
+        {
+            writeBlock();
+            closeSegment();
+        }
+        catch( IOException e )
+        {
+            System.err.println( "PaxLogging: Failed to close the log store " + m_dir + ": " + e );
+        }
+        m_closed = true;
+    }
+
+    /**
+     * @param query the criteria
+     * @return the first events which match the query, up to its limit, in the order in which they were stored
+     * @throws IOException if a segment can not be read
+     */
+    public synchronized List<PaxLoggingEvent> query( LogQuery query )
+        throws IOException
+    {
+        List<PaxLoggingEvent> result = new ArrayList<PaxLoggingEvent>();
+        int limit = query.getLimit();
+        long bundleBit = query.getBundle() == null ? 0 : bundleBit( query.getBundle() );
+        long[] partitions = partitions();
+        for( int i = 0; i < partitions.length && result.size() < limit; i++ )
+        {
+            // a segment only holds events before the end of its partition, late ones may be older than its start
+            if( partitions[i] + m_partitionMillis <= query.getFrom() )
+            {
+                continue;
+            }
+            File data = dataFile( partitions[i] );
+            List<Block> blocks = readIndex( indexFile( partitions[i] ) );
+            RandomAccessFile file = null;
+            try
+            {
+                for( Block block : blocks )
+                {
+                    if( result.size() >= limit )
+                    {
+                        break;
+                    }
+                    if( !block.mayMatch( query, bundleBit ) )
+                    {
+                        continue;
+                    }
+                    if( file == null )
+                    {
+                        file = new RandomAccessFile( data, "r" );
+                    }
+                    byte[] bytes = new byte[block.length];
+                    file.seek( block.offset );
+                    file.readFully( bytes );
+                    read( bytes, query, result );
+                }
+            }
+            finally
+            {
+                if( file != null )
+                {
+                    file.close();
+                }
+            }
+        }
+        if( m_block != null && result.size() < limit && m_block.mayMatch( query, bundleBit ) )
+        {
+            m_blockWriter.flush();
+            read( m_blockBytes.toByteArray(), query, result );
+        }
+        return result;
+    }
+
+    /**
+     * Merges the blocks of the closed segments which are less than half full on average, so that queries read
+     * fewer and larger blocks. Called whenever a segment is closed.
+     *
+     * @throws IOException if a segment can not be rewritten
+     */
+    public synchronized void compact()
+        throws IOException
+    {
+        long[] partitions = partitions();
+        for( int i = 0; i < partitions.length; i++ )
+        {
+            if( partitions[i] != m_partition )
+            {
+                compact( partitions[i] );
+            }
+        }
+    }
+
+    private void append( PaxLoggingEvent event )
+        throws IOException
+    {
+        long partition = partition( event.getTimeStamp() );
+        if( partition > m_partition )
+        {
+            roll( partition );
+        }
+        if( m_block == null )
+        {
+            m_blockBytes = new ByteArrayOutputStream( 64 * 1024 );
+            m_blockWriter = new BinaryLogWriter( m_blockBytes );
+            m_block = new Block();
+        }
+        m_blockWriter.write( event );
+        m_block.add( event );
+        if( m_block.count >= m_blockSize )
+        {
+            writeBlock();
+        }
+    }
+
+    private void roll( long partition )
+        throws IOException
+    {
+        writeBlock();
+        long previous = m_partition;
+        closeSegment();
+        openSegment( partition );
+        if( previous != Long.MIN_VALUE )
+        {
+            compact( previous );
+        }
+        enforceRetention();
+    }
+
+    private void openSegment( long partition )
+        throws IOException
+    {
+        List<Block> blocks = readIndex( indexFile( partition ) );
+        m_data = new RandomAccessFile( dataFile( partition ), "rw" );
+        m_index = new RandomAccessFile( indexFile( partition ), "rw" );
+        m_partition = partition;
+        // drop what was written after the last complete index entry, a block without an entry is not visible
+        m_dataEnd = blocks.isEmpty() ? 0 : blocks.get( blocks.size() - 1 ).end();
+        m_data.setLength( m_dataEnd );
+        m_index.setLength( (long) blocks.size() * INDEX_ENTRY_SIZE );
+        m_index.seek( m_index.length() );
+    }
+
+    private void closeSegment()
+        throws IOException
+    {
+        if( m_data == null )
+        {
+            return;
+        }
+        try
+        {
+            m_data.close();
+        }
+        finally
+        {
+            m_index.close();
+            m_data = null;
+            m_index = null;
+        }
+    }
+
+    private void writeBlock()
+        throws IOException
+    {
+        if( m_block == null )
+        {
+            return;
+        }
+        m_blockWriter.flush();
+        byte[] bytes = m_blockBytes.toByteArray();
+        Block block = m_block;
+        m_block = null;
+        m_blockWriter = null;
+        m_blockBytes = null;
+
+        m_data.seek( m_dataEnd );
+        m_data.write( bytes );
+        block.offset = m_dataEnd;
+        block.length = bytes.length;
+        m_dataEnd += bytes.length;
+        m_index.write( block.toBytes() );
+    }
+
+    private void compact( long partition )
+        throws IOException
+    {
+        File indexFile = indexFile( partition );
+        List<Block> blocks = readIndex( indexFile );
+        long count = 0;
+        for( Block block : blocks )
+        {
+            count += block.count;
+        }
+        if( blocks.size() < 2 || count / blocks.size() >= m_blockSize / 2 )
+        {
+            return;
+        }
+        File dataFile = dataFile( partition );
+        File tempData = new File( m_dir, dataFile.getName() + TEMP_SUFFIX );
+        File tempIndex = new File( m_dir, indexFile.getName() + TEMP_SUFFIX );
+        RandomAccessFile in = new RandomAccessFile( dataFile, "r" );
+        DataOutputStream data = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( tempData ), 65536 ) );
+        DataOutputStream index = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempIndex ) ) );
+        try
+        {
+            ByteArrayOutputStream bytes = null;
+            BinaryLogWriter writer = null;
+            Block merged = null;
+            long offset = 0;
+            for( Block block : blocks )
+            {
+                byte[] source = new byte[block.length];
+                in.seek( block.offset );
+                in.readFully( source );
+                BinaryLogReader reader = new BinaryLogReader( new ByteArrayInputStream( source ) );
+                PaxLoggingEvent event;
+                while( ( event = reader.read() ) != null )
+                {
+                    if( merged == null )
+                    {
+                        bytes = new ByteArrayOutputStream( 64 * 1024 );
+                        writer = new BinaryLogWriter( bytes );
+                        merged = new Block();
+                    }
+                    writer.write( event );
+                    merged.add( event );
+                    if( merged.count >= m_blockSize )
+                    {
+                        offset = writeBlock( writer, bytes, merged, offset, data, index );
+                        merged = null;
+                    }
+                }
+            }
+            if( merged != null )
+            {
+                writeBlock( writer, bytes, merged, offset, data, index );
+            }
+        }
+        finally
+        {
+            in.close();
+            data.close();
+            index.close();
+        }
+        // the index is replaced first: a crash in between leaves a data file with blocks no index entry points to
+        if( !indexFile.delete() || !tempIndex.renameTo( indexFile ) )
+        {
+            throw new IOException( "Unable to replace " + indexFile );
+        }
+        if( !dataFile.delete() || !tempData.renameTo( dataFile ) )
+        {
+            throw new IOException( "Unable to replace " + dataFile );
+        }
+    }
+
+    private static long writeBlock( BinaryLogWriter writer, ByteArrayOutputStream bytes, Block block, long offset,
+                                    DataOutputStream data, DataOutputStream index )
+        throws IOException
+    {
+        writer.flush();
+        block.offset = offset;
+        block.length = bytes.size();
+        bytes.writeTo( data );
+        index.write( block.toBytes() );
+        return offset + block.length;
+    }
+
+    private void enforceRetention()
+    {
+        long[] partitions = partitions();
+        long oldest = System.currentTimeMillis() - m_retentionMillis;
+        long total = 0;
+        for( int i = 0; i < partitions.length; i++ )
+        {
+            total += dataFile( partitions[i] ).length() + indexFile( partitions[i] ).length();
+        }
+        for( int i = 0; i < partitions.length && partitions[i] != m_partition; i++ )
+        {
+            if( partitions[i] + m_partitionMillis >= oldest && total <= m_maxBytes )
+            {
+                break;
+            }
+            total -= dataFile( partitions[i] ).length() + indexFile( partitions[i] ).length();
+            deleteSegment( partitions[i] );
+        }
+    }
+
+    private void deleteSegment( long partition )
+    {
+        // the index goes first, a data file without index is not visible to queries
+        File index = indexFile( partition );
+        File data = dataFile( partition );
+        if( !index.delete() && index.exists() || !data.delete() && data.exists() )
+        {
+            System.err.println( "PaxLogging: Unable to delete the log store segment " + data );
+        }
+    }
+
+    private void read( byte[] bytes, LogQuery query, List<PaxLoggingEvent> result )
+        throws IOException
+    {
+        BinaryLogReader reader = new BinaryLogReader( new ByteArrayInputStream( bytes ) );
+        PaxLoggingEvent event;
+        while( result.size() < query.getLimit() && ( event = reader.read() ) != null )
+        {
+            if( query.matches( event ) )
+            {
+                result.add( event );
+            }
+        }
+    }
+
+    private void failed( IOException e )
+    {
+        System.err.println( "PaxLogging: Failed to write to the log store " + m_dir + ", closing it: " + e );
+        m_block = null;
+        close();
+    }
+
+    private long partition( long timeStamp )
+    {
+        long remainder = timeStamp % m_partitionMillis;
+        return remainder < 0 ? timeStamp - remainder - m_partitionMillis : timeStamp - remainder;
+    }
+
+    /**
+     * @return the start of the partitions of the segments in the directory, in ascending order
+     */
+    private long[] partitions()
+    {
+        String[] names = m_dir.list();
+        if( names == null )
+        {
+            return new long[0];
+        }
+        long[] partitions = new long[names.length];
+        int count = 0;
+        for( int i = 0; i < names.length; i++ )
+        {
+            String name = names[i];
+            if( name.startsWith( PREFIX ) && name.endsWith( INDEX_SUFFIX ) )
+            {
+                try
+                {
+                    partitions[count] = Long.parseLong(
+                        name.substring( PREFIX.length(), name.length() - INDEX_SUFFIX.length() ) );
+                    count++;
+                }
+                catch( NumberFormatException ignore )
+                {
+                    // not one of ours
+                }
+            }
+        }
+        long[] result = Arrays.copyOf( partitions, count );
+        Arrays.sort( result );
+        return result;
+    }
+
+    private File dataFile( long partition )
+    {
+        return new File( m_dir, PREFIX + partition + DATA_SUFFIX );
+    }
+
+    private File indexFile( long partition )
+    {
+        return new File( m_dir, PREFIX + partition + INDEX_SUFFIX );
+    }
+
+    private static List<Block> readIndex( File file )
+        throws IOException
+    {
+        List<Block> blocks = new ArrayList<Block>();
+        if( !file.exists() )
+        {
+            return blocks;
+        }
+        long entries = file.length() / INDEX_ENTRY_SIZE;
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            for( long i = 0; i < entries; i++ )
+            {
+                Block block = new Block();
+                block.offset = in.readLong();
+                block.length = in.readInt();
+                block.minTimeStamp = in.readLong();
+                block.maxTimeStamp = in.readLong();
+                block.count = in.readInt();
+                block.minSyslog = in.readInt();
+                block.bundles = in.readLong();
+                blocks.add( block );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return blocks;
+    }
+
+    private static long bundleBit( String bundle )
+    {
+        return 1L << ( bundle.hashCode() & 63 );
+    }
+
+    /**
+     * The index entry of a block.
+     */
+    private static class Block
+    {
+
+        long offset;
+        int length;
+        long minTimeStamp = Long.MAX_VALUE;
+        long maxTimeStamp = Long.MIN_VALUE;
+        int count;
+        int minSyslog = Integer.MAX_VALUE;
+        long bundles;
+
+        void add( PaxLoggingEvent event )
+        {
+            long timeStamp = event.getTimeStamp();
+            minTimeStamp = Math.min( minTimeStamp, timeStamp );
+            maxTimeStamp = Math.max( maxTimeStamp, timeStamp );
+            PaxLevel level = event.getLevel();
+            if( level != null )
+            {
+                minSyslog = Math.min( minSyslog, level.getSyslogEquivalent() );
+            }
+            Map properties = event.getProperties();
+            if( properties != null )
+            {
+                Object name = properties.get( "bundle.name" );
+                if( name != null )
+                {
+                    bundles |= bundleBit( name.toString() );
+                }
+                Object id = properties.get( "bundle.id" );
+                if( id != null )
+                {
+                    bundles |= bundleBit( id.toString() );
+                }
+            }
+            count++;
+        }
+
+        boolean mayMatch( LogQuery query, long bundleBit )
+        {
+            return maxTimeStamp >= query.getFrom() && minTimeStamp < query.getTo()
+                   && minSyslog <= query.getMaxSyslogLevel() && ( bundles & bundleBit ) == bundleBit;
+        }
+
+        long end()
+        {
+            return offset + length;
+        }
+
+        byte[] toBytes()
+            throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( INDEX_ENTRY_SIZE );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeLong( offset );
+            out.writeInt( length );
+            out.writeLong( minTimeStamp );
+            out.writeLong( maxTimeStamp );
+            out.writeInt( count );
+            out.writeInt( minSyslog );
+            out.writeLong( bundles );
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ops4j.pax.logging.PaxLogger;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * An immutable, serializable copy of a {@link PaxLoggingEvent}.
+ *
+ * <p>
+ * The events the backends pass to the appenders are views over their own events, which are only valid during the
+ * call. A snapshot takes what it needs from the event when it is created, on the logging thread, so it can be kept
+ * and used from other threads afterwards. The backends create one snapshot per event, see
+ * {@link #of(Object, PaxLoggingEvent)}, and pass it to all appenders, layouts and filters.
+ * </p>
+ * <p>
+ * The location and the throwable are only taken from the event when they are first asked for, as computing the
+ * location walks the stack of the logging thread. They are only available while the event is appended, on the
+ * logging thread: appenders which keep the events beyond the call take them with {@link #of(PaxLoggingEvent)},
+ * which captures what is left before the backend moves on. The levels of the backends are shared instances.
+ * </p>
+ */
+public final class PaxLoggingEventSnapshot
+    implements PaxLoggingEvent, Serializable
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The snapshot of the event the current thread appends, shared by the appenders of the event.
+     */
+    private static final ThreadLocal<PaxLoggingEventSnapshot> CURRENT = new ThreadLocal<PaxLoggingEventSnapshot>();
+
+    private final PaxLevel m_level;
+    private final String m_loggerName;
+    private final String m_message;
+    private final String m_renderedMessage;
+    private final String m_threadName;
+    private final long m_timeStamp;
+    private final String m_fqnOfLoggerClass;
+    private final Map m_properties;
+
+    private PaxLocationInfo m_location;
+    private String[] m_throwableStrRep;
+
+    /**
+     * The view of the event the location and the throwable are taken from, until they are.
+     */
+    private transient PaxLoggingEvent m_source;
+
+    /**
+     * Identifies the event of the backend while it is appended, to share the snapshot between its appenders.
+     */
+    private transient Object m_key;
+
+    private PaxLoggingEventSnapshot( Object key, PaxLoggingEvent event )
+    {
+        m_key = key;
+        m_source = event;
+        PaxLevel level = event.getLevel();
+        m_level = level == null ? null : Level.valueOf( level );
+        m_loggerName = event.getLoggerName();
+        m_message = event.getMessage();
+        m_renderedMessage = event.getRenderedMessage();
+        m_threadName = event.getThreadName();
+        m_timeStamp = event.getTimeStamp();
+        m_fqnOfLoggerClass = event.getFQNOfLoggerClass();
+        Map properties = event.getProperties();
+        m_properties = properties == null || properties.isEmpty()
+                       ? Collections.EMPTY_MAP
+                       : Collections.unmodifiableMap( new HashMap( properties ) );
+    }
+
+    /**
+     * Takes a copy of an event to keep beyond the call of the appender. It has to be called on the logging thread.
+     *
+     * @param event the event
+     * @return an immutable copy of the event, or the event itself if it is one already, with its location and
+     *         throwable
+     */
+    public static PaxLoggingEventSnapshot of( PaxLoggingEvent event )
+    {
+        PaxLoggingEventSnapshot snapshot = event instanceof PaxLoggingEventSnapshot
+                                           ? (PaxLoggingEventSnapshot) event
+                                           : new PaxLoggingEventSnapshot( null, event );
+        snapshot.capture();
+        return snapshot;
+    }
+
+    /**
+     * Returns the snapshot of an event of a backend. It is taken once and shared by the filters, layouts and
+     * appenders of the event on the current thread, until {@link #clear()} is called after the event has been
+     * appended.
+     *
+     * @param key   the event of the backend, or an object that identifies it for as long as it is appended
+     * @param event a view of the event
+     * @return the snapshot of the event
+     */
+    public static PaxLoggingEventSnapshot of( Object key, PaxLoggingEvent event )
+    {
+        PaxLoggingEventSnapshot current = CURRENT.get();
+        if( current != null && current.isSnapshotOf( key, event ) )
+        {
+            return current;
+        }
+        current = new PaxLoggingEventSnapshot( key, event );
+        CURRENT.set( current );
+        return current;
+    }
+
+    /**
+     * @param key the event of the backend, as given to {@link #of(Object, PaxLoggingEvent)}
+     * @return true if the snapshot of the event is shared on the current thread, by the appender it goes through
+     */
+    public static boolean isShared( Object key )
+    {
+        PaxLoggingEventSnapshot current = CURRENT.get();
+        return current != null && current.m_key == key;
+    }
+
+    /**
+     * Forgets the snapshot shared on the current thread, so that it no longer holds on to the event of the backend.
+     * The location and the throwable of the snapshot are no longer available unless they have been taken.
+     */
+    public static void clear()
+    {
+        PaxLoggingEventSnapshot current = CURRENT.get();
+        if( current != null )
+        {
+            current.m_key = null;
+            current.m_source = null;
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Takes the location and the throwable from the event, if that has not been done yet.
+     */
+    private void capture()
+    {
+        PaxLoggingEvent source = m_source;
+        if( source != null )
+        {
+            PaxLocationInfo location = source.getLocationInformation();
+            m_location = location == null ? null : new LocationInfo( location );
+            String[] lines = source.getThrowableStrRep();
+            m_throwableStrRep = lines == null || lines.length == 0 ? null : (String[]) lines.clone();
+            m_source = null;
+        }
+    }
+
+    /**
+     * The backends reuse their events and messages, so the key alone does not tell the events apart.
+     */
+    private boolean isSnapshotOf( Object key, PaxLoggingEvent event )
+    {
+        if( m_key != key || m_timeStamp != event.getTimeStamp() )
+        {
+            return false;
+        }
+        PaxLevel level = event.getLevel();
+        if( level == null ? m_level != null
+                          : m_level == null || m_level.toInt() != level.toInt()
+                            || m_level.getSyslogEquivalent() != level.getSyslogEquivalent() )
+        {
+            return false;
+        }
+        String loggerName = event.getLoggerName();
+        return m_loggerName == null ? loggerName == null : m_loggerName.equals( loggerName );
+    }
+
+    public PaxLocationInfo getLocationInformation()
+    {
+        capture();
+        return m_location;
+    }
+
+    public PaxLevel getLevel()
+    {
+        return m_level;
+    }
+
+    public String getLoggerName()
+    {
+        return m_loggerName;
+    }
+
+    public String getMessage()
+    {
+        return m_message;
+    }
+
+    public String getRenderedMessage()
+    {
+        return m_renderedMessage;
+    }
+
+    public String getThreadName()
+    {
+        return m_threadName;
+    }
+
+    public String[] getThrowableStrRep()
+    {
+        capture();
+        return m_throwableStrRep == null ? null : (String[]) m_throwableStrRep.clone();
+    }
+
+    public boolean locationInformationExists()
+    {
+        capture();
+        return m_location != null;
+    }
+
+    public long getTimeStamp()
+    {
+        return m_timeStamp;
+    }
+
+    public String getFQNOfLoggerClass()
+    {
+        return m_fqnOfLoggerClass;
+    }
+
+    public Map getProperties()
+    {
+        return m_properties;
+    }
+
+    private void writeObject( ObjectOutputStream out )
+        throws IOException
+    {
+        capture();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * The level of the snapshots. The levels of the backends are shared instances, other levels are copied.
+     */
+    private static final class Level
+        implements PaxLevel, Serializable
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        // this data comes from the log4j level class
+        private static final int SYSLOG_DEBUG = 7;
+        private static final int SYSLOG_INFO = 6;
+        private static final int SYSLOG_WARN = 4;
+        private static final int SYSLOG_ERROR = 3;
+        private static final int SYSLOG_OFF = 0;
+
+        /**
+         * The levels of log4j, followed by the ones of logback and log4j2, which map theirs to the levels of
+         * {@link PaxLogger}. Levels that only differ in the name come in the order of their names in the backends.
+         */
+        private static final Level[] LEVELS = {
+            new Level( Integer.MAX_VALUE, SYSLOG_OFF, "OFF" ),
+            new Level( 50000, SYSLOG_OFF, "FATAL" ),
+            new Level( 40000, SYSLOG_ERROR, "ERROR" ),
+            new Level( 30000, SYSLOG_WARN, "WARN" ),
+            new Level( 20000, SYSLOG_INFO, "INFO" ),
+            new Level( 10000, SYSLOG_DEBUG, "DEBUG" ),
+            new Level( 5000, SYSLOG_DEBUG, "TRACE" ),
+            new Level( Integer.MIN_VALUE, SYSLOG_DEBUG, "ALL" ),
+            new Level( PaxLogger.LEVEL_ERROR, SYSLOG_OFF, "OFF" ),
+            new Level( PaxLogger.LEVEL_ERROR, SYSLOG_ERROR, "ERROR" ),
+            new Level( PaxLogger.LEVEL_ERROR, SYSLOG_ERROR, "FATAL" ),
+            new Level( PaxLogger.LEVEL_WARNING, SYSLOG_WARN, "WARN" ),
+            new Level( PaxLogger.LEVEL_INFO, SYSLOG_INFO, "INFO" ),
+            new Level( PaxLogger.LEVEL_DEBUG, SYSLOG_DEBUG, "DEBUG" ),
+            new Level( PaxLogger.LEVEL_TRACE, SYSLOG_DEBUG, "TRACE" ),
+            new Level( PaxLogger.LEVEL_TRACE, SYSLOG_DEBUG, "ALL" )
+        };
+
+        private final int m_int;
+        private final int m_syslog;
+        private final String m_name;
+
+        private Level( int value, int syslog, String name )
+        {
+            m_int = value;
+            m_syslog = syslog;
+            m_name = name;
+        }
+
+        static Level valueOf( PaxLevel level )
+        {
+            if( level instanceof Level )
+            {
+                return (Level) level;
+            }
+            return valueOf( level.toInt(), level.getSyslogEquivalent(), level.toString() );
+        }
+
+        /**
+         * @return the level of a backend with the given numbers, the one of the given name among them if there are
+         *         several, or a new level if no backend has one
+         */
+        private static Level valueOf( int value, int syslog, String name )
+        {
+            Level found = null;
+            for( Level level : LEVELS )
+            {
+                if( level.m_int == value && level.m_syslog == syslog )
+                {
+                    if( level.m_name.equals( name ) )
+                    {
+                        return level;
+                    }
+                    if( found == null )
+                    {
+                        found = level;
+                    }
+                }
+            }
+            return found != null ? found : new Level( value, syslog, name );
+        }
+
+        public boolean isGreaterOrEqual( PaxLevel r )
+        {
+            if( r instanceof Level )
+            {
+                return m_int >= ( (Level) r ).m_int;
+            }
+            // fallback case: the syslog numbers are portable
+            return m_syslog <= r.getSyslogEquivalent();
+        }
+
+        public int toInt()
+        {
+            return m_int;
+        }
+
+        public int getSyslogEquivalent()
+        {
+            return m_syslog;
+        }
+
+        public String toString()
+        {
+            return m_name;
+        }
+
+        private Object readResolve()
+            throws ObjectStreamException
+        {
+            return valueOf( m_int, m_syslog, m_name );
+        }
+    }
+
+    private static final class LocationInfo
+        implements PaxLocationInfo, Serializable
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String m_fileName;
+        private final String m_className;
+        private final String m_lineNumber;
+        private final String m_methodName;
+
+        private LocationInfo( String fileName, String className, String lineNumber, String methodName )
+        {
+            m_fileName = fileName;
+            m_className = className;
+            m_lineNumber = lineNumber;
+            m_methodName = methodName;
+        }
+
+        private LocationInfo( PaxLocationInfo location )
+        {
+            this( location.getFileName(), location.getClassName(), location.getLineNumber(),
+                  location.getMethodName() );
+        }
+
+        public String getFileName()
+        {
+            return m_fileName;
+        }
+
+        public String getClassName()
+        {
+            return m_className;
+        }
+
+        public String getLineNumber()
+        {
+            return m_lineNumber;
+        }
+
+        public String getMethodName()
+        {
+            return m_methodName;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.ops4j.pax.logging.spi.PaxBatchAppender;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Sends the events to a syslog collector over TCP, as RFC 5424 messages framed with octet counting (RFC 6587).
+ *
+ * <p>
+ * Register an instance as a {@link PaxBatchAppender} service and it receives the events of all three backends, in
+ * batches, on the delivery thread of the logging service; that thread does all the network I/O, the logging threads
+ * never wait for the collector. Each batch is framed into one buffer and written to the socket channel at once.
+ * </p>
+ * <p>
+ * When the collector can not be reached, the batches are spooled to files in a local directory, up to a maximum
+ * number of bytes, beyond which the oldest spool files are dropped. The appender connects again after a delay that
+ * doubles with every failed attempt, from {@link #setMinBackoff(long) one second} up to
+ * {@link #setMaxBackoff(long) a minute}, when a batch or a flush comes along; once connected, it sends the spool
+ * before the new events. Spool files left by a previous run are sent as well. Events are sent at least once: a batch
+ * that failed is spooled as a whole, even if the collector received part of it.
+ * </p>
+ * <p>
+ * The socket channel does not block: a collector that stops reading keeps a batch from being written for
+ * {@link #setWriteTimeout(long) ten seconds} at most, then the appender disconnects and spools as if the collector
+ * could not be reached.
+ * </p>
+ */
+public class SyslogTcpAppender
+    implements PaxBatchAppender
+{
+
+    public static final int DEFAULT_PORT = 601;
+
+    public static final long DEFAULT_SPOOL_SIZE = 64L * 1024L * 1024L;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static final String SPOOL_PREFIX = "spool-";
+
+    private static final String SPOOL_SUFFIX = ".syslog";
+
+    private static final long SPOOL_FILE_SIZE = 1024L * 1024L;
+
+    private final InetSocketAddress m_address;
+    private final File m_spoolDir;
+    private final long m_spoolSize;
+    private String m_hostName;
+    private String m_appName = "pax-logging";
+    private int m_facility = 1;
+    private long m_minBackoff = 1000;
+    private long m_maxBackoff = 60000;
+    private int m_connectTimeout = 5000;
+    private long m_writeTimeout = 10000;
+
+    private final SimpleDateFormat m_timeFormat = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
+    private final Date m_date = new Date();
+    private ByteBuffer m_buffer = ByteBuffer.allocate( 64 * 1024 );
+    private SocketChannel m_channel;
+    private Selector m_selector;
+    private long m_backoff;
+    private long m_nextAttempt;
+    private FileOutputStream m_spool;
+    private File m_spoolFile;
+    private long m_spoolSequence;
+    private long m_dropped;
+    private boolean m_closed;
+
+    /**
+     * @param host      the host of the collector
+     * @param port      the port of the collector, usually {@link #DEFAULT_PORT}
+     * @param spoolDir  the directory of the spool files
+     * @param spoolSize the maximum number of bytes of the spool files
+     */
+    public SyslogTcpAppender( String host, int port, File spoolDir, long spoolSize )
+    {
+        m_address = new InetSocketAddress( host, port );
+        m_spoolDir = spoolDir;
+        m_spoolSize = spoolSize;
+        m_timeFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        try
+        {
+            m_hostName = InetAddress.getLocalHost().getHostName();
+        }
+        catch( IOException e )
+        {
+            m_hostName = "-";
+        }
+        long[] spooled = spoolSequences();
+        m_spoolSequence = spooled.length == 0 ? 0 : spooled[spooled.length - 1];
+    }
+
+    /**
+     * @param hostName the HOSTNAME of the messages, the name of the local host by default
+     */
+    public synchronized void setHostName( String hostName )
+    {
+        m_hostName = hostName;
+    }
+
+    /**
+     * @param appName the APP-NAME of the messages, <code>pax-logging</code> by default
+     */
+    public synchronized void setAppName( String appName )
+    {
+        m_appName = appName;
+    }
+
+    /**
+     * @param facility the facility code of the messages, 1 (user-level) by default
+     */
+    public synchronized void setFacility( int facility )
+    {
+        m_facility = facility;
+    }
+
+    /**
+     * @param minBackoff how many milliseconds to wait before connecting again after the first failure
+     */
+    public synchronized void setMinBackoff( long minBackoff )
+    {
+        m_minBackoff = minBackoff;
+    }
+
+    /**
+     * @param maxBackoff the longest time to wait before connecting again, in milliseconds
+     */
+    public synchronized void setMaxBackoff( long maxBackoff )
+    {
+        m_maxBackoff = maxBackoff;
+    }
+
+    /**
+     * @param connectTimeout how many milliseconds to wait for a connection, 5 seconds by default
+     */
+    public synchronized void setConnectTimeout( int connectTimeout )
+    {
+        m_connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @param writeTimeout how many milliseconds to wait for a batch or a spool file to be written, 10 seconds by
+     *                     default
+     */
+    public synchronized void setWriteTimeout( long writeTimeout )
+    {
+        m_writeTimeout = writeTimeout;
+    }
+
+    public void doAppend( PaxLoggingEvent event )
+    {
+        doAppend( Collections.singletonList( event ) );
+    }
+
+    public synchronized void doAppend( List<PaxLoggingEvent> events )
+    {
+        if( m_closed )
+        {
+            return;
+        }
+        m_buffer.clear();
+        for( PaxLoggingEvent event : events )
+        {
+            frame( event );
+        }
+        m_buffer.flip();
+        if( connect() )
+        {
+            try
+            {
+                write( m_buffer );
+                return;
+            }
+            catch( IOException e )
+            {
+                disconnected( e );
+                m_buffer.rewind();
+            }
+        }
+        spool( m_buffer );
+    }
+
+    /**
+     * Sends the spooled events if the collector can be reached again.
+     */
+    public synchronized void flush()
+    {
+        if( !m_closed && m_channel == null && hasSpool() )
+        {
+            connect();
+        }
+    }
+
+    public synchronized void close()
+    {
+        m_closed = true;
+        closeChannel();
+        closeSpool();
+    }
+
+    /**
+     * @return the number of bytes of spool files dropped because the spool was full
+     */
+    public synchronized long getDroppedBytes()
+    {
+        return m_dropped;
+    }
+
+    /**
+     * @return true if connected, after the spool has been sent
+     */
+    private boolean connect()
+    {
+        if( m_channel != null )
+        {
+            return true;
+        }
+        if( System.currentTimeMillis() < m_nextAttempt )
+        {
+            return false;
+        }
+        try
+        {
+            SocketChannel channel = SocketChannel.open();
+            Selector selector = null;
+            try
+            {
+                channel.socket().connect( m_address, m_connectTimeout );
+                channel.configureBlocking( false );
+                selector = Selector.open();
+                channel.register( selector, SelectionKey.OP_WRITE );
+            }
+            catch( IOException e )
+            {
+                if( selector != null )
+                {
+                    selector.close();
+                }
+                channel.close();
+                throw e;
+            }
+            m_channel = channel;
+            m_selector = selector;
+            replay();
+            m_backoff = 0;
+            return true;
+        }
+        catch( IOException e )
+        {
+            disconnected( e );
+            return false;
+        }
+    }
+
+    private void disconnected( IOException e )
+    {
+        if( m_backoff == 0 )
+        {
+            System.err.println( "PaxLogging: Unable to send to the syslog collector " + m_address + ", spooling: "
+                                + e );
+        }
+        closeChannel();
+        m_backoff = m_backoff == 0 ? m_minBackoff : Math.min( m_backoff * 2, m_maxBackoff );
+        m_nextAttempt = System.currentTimeMillis() + m_backoff;
+    }
+
+    private void closeChannel()
+    {
+        if( m_channel != null )
+        {
+            try
+            {
+                m_selector.close();
+                m_channel.close();
+            }
+            catch( IOException ignore )
+            {
+                // nothing more to do
+            }
+            m_channel = null;
+            m_selector = null;
+        }
+    }
+
+    private void write( ByteBuffer buffer )
+        throws IOException
+    {
+        long deadline = System.currentTimeMillis() + m_writeTimeout;
+        while( buffer.hasRemaining() )
+        {
+            if( m_channel.write( buffer ) == 0 )
+            {
+                awaitWritable( deadline );
+            }
+        }
+    }
+
+    /**
+     * Waits until the socket takes more bytes, as the collector reads them.
+     *
+     * @throws SocketTimeoutException if the deadline has passed
+     */
+    private void awaitWritable( long deadline )
+        throws IOException
+    {
+        long remaining = deadline - System.currentTimeMillis();
+        if( remaining <= 0 )
+        {
+            throw new SocketTimeoutException( "Timed out after " + m_writeTimeout + " ms" );
+        }
+        m_selector.select( remaining );
+        m_selector.selectedKeys().clear();
+    }
+
+    /**
+     * Sends the spool files, oldest first, and deletes them once sent.
+     */
+    private void replay()
+        throws IOException
+    {
+        closeSpool();
+        long[] sequences = spoolSequences();
+        for( int i = 0; i < sequences.length; i++ )
+        {
+            File file = spoolFile( sequences[i] );
+            FileInputStream in = new FileInputStream( file );
+            try
+            {
+                FileChannel channel = in.getChannel();
+                long position = 0;
+                long size = channel.size();
+                long deadline = System.currentTimeMillis() + m_writeTimeout;
+                while( position < size )
+                {
+                    long written = channel.transferTo( position, size - position, m_channel );
+                    if( written == 0 )
+                    {
+                        awaitWritable( deadline );
+                    }
+                    position += written;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            if( !file.delete() )
+            {
+                throw new IOException( "Unable to delete the spool file " + file );
+            }
+        }
+    }
+
+    private void spool( ByteBuffer buffer )
+    {
+        try
+        {
+            if( m_spool == null || m_spoolFile.length() >= SPOOL_FILE_SIZE )
+            {
+                closeSpool();
+                if( !m_spoolDir.exists() )
+                {
+                    m_spoolDir.mkdirs();
+                }
+                m_spoolFile = spoolFile( ++m_spoolSequence );
+                m_spool = new FileOutputStream( m_spoolFile );
+            }
+            m_spool.getChannel().write( buffer );
+            m_spool.flush();
+            trimSpool();
+        }
+        catch( IOException e )
+        {
+            System.err.println( "PaxLogging: Unable to spool the syslog messages to " + m_spoolDir + ": " + e );
+            closeSpool();
+        }
+    }
+
+    private void trimSpool()
+    {
+        long[] sequences = spoolSequences();
+        long total = 0;
+        for( int i = 0; i < sequences.length; i++ )
+        {
+            total += spoolFile( sequences[i] ).length();
+        }
+        for( int i = 0; i < sequences.length - 1 && total > m_spoolSize; i++ )
+        {
+            File file = spoolFile( sequences[i] );
+            long length = file.length();
+            if( file.delete() )
+            {
+                total -= length;
+                m_dropped += length;
+            }
+        }
+    }
+
+    private void closeSpool()
+    {
+        if( m_spool != null )
+        {
+            try
+            {
+                m_spool.close();
+            }
+            catch( IOException ignore )
+            {
+                // nothing more to do
+            }
+            m_spool = null;
+            m_spoolFile = null;
+        }
+    }
+
+    private boolean hasSpool()
+    {
+        return spoolSequences().length > 0;
+    }
+
+    private File spoolFile( long sequence )
+    {
+        return new File( m_spoolDir, SPOOL_PREFIX + sequence + SPOOL_SUFFIX );
+    }
+
+    /**
+     * @return the sequence numbers of the spool files, in ascending order
+     */
+    private long[] spoolSequences()
+    {
+        String[] names = m_spoolDir.list();
+        if( names == null )
+        {
+            return new long[0];
+        }
+        long[] sequences = new long[names.length];
+        int count = 0;
+        for( int i = 0; i < names.length; i++ )
+        {
+            if( names[i].startsWith( SPOOL_PREFIX ) && names[i].endsWith( SPOOL_SUFFIX ) )
+            {
+                try
+                {
+                    sequences[count] = Long.parseLong(
+                        names[i].substring( SPOOL_PREFIX.length(), names[i].length() - SPOOL_SUFFIX.length() ) );
+                    count++;
+                }
+                catch( NumberFormatException ignore )
+                {
+                    // not one of ours
+                }
+            }
+        }
+        long[] result = Arrays.copyOf( sequences, count );
+        Arrays.sort( result );
+        return result;
+    }
+
+    /**
+     * Adds the octet counted RFC 5424 message of an event to the buffer.
+     */
+    private void frame( PaxLoggingEvent event )
+    {
+        PaxLevel level = event.getLevel();
+        int severity = level == null ? 7 : Math.max( 0, Math.min( 7, level.getSyslogEquivalent() ) );
+        m_date.setTime( event.getTimeStamp() );
+        StringBuilder message = new StringBuilder( 256 );
+        message.append( '<' ).append( m_facility * 8 + severity ).append( ">1 " );
+        message.append( m_timeFormat.format( m_date ) ).append( ' ' );
+        appendHeaderField( message, m_hostName, 255 );
+        appendHeaderField( message, m_appName, 48 );
+        message.append( "- - - " );
+        message.append( '[' ).append( event.getThreadName() ).append( "] " );
+        message.append( event.getLoggerName() ).append( " - " ).append( event.getRenderedMessage() );
+        String[] throwable = event.getThrowableStrRep();
+        if( throwable != null )
+        {
+            for( int i = 0; i < throwable.length; i++ )
+            {
+                message.append( '\n' ).append( throwable[i] );
+            }
+        }
+        byte[] bytes = message.toString().getBytes( UTF_8 );
+        byte[] length = ( bytes.length + " " ).getBytes( UTF_8 );
+        if( m_buffer.remaining() < length.length + bytes.length )
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( Math.max( m_buffer.capacity() * 2,
+                                                               m_buffer.position() + length.length + bytes.length ) );
+            m_buffer.flip();
+            buffer.put( m_buffer );
+            m_buffer = buffer;
+        }
+        m_buffer.put( length );
+        m_buffer.put( bytes );
+    }
+
+    /**
+     * Appends a header field, which is printable US-ASCII without spaces, or "-" if empty.
+     */
+    private static void appendHeaderField( StringBuilder message, String value, int maxLength )
+    {
+        int start = message.length();
+        for( int i = 0; value != null && i < value.length() && i < maxLength; i++ )
+        {
+            char c = value.charAt( i );
+            if( c > ' ' && c < 127 )
+            {
+                message.append( c );
+            }
+        }
+        if( message.length() == start )
+        {
+            message.append( '-' );
+        }
+        message.append( ' ' );
+    }
+}
@@ -25,8 +25,8 @@
 package org.slf4j.helpers;
 
 import java.text.MessageFormat;
-import java.util.HashMap;
-import java.util.Map;
+
+import org.ops4j.pax.logging.internal.ParameterFormatter;
 
 // contributors: lizongbo: proposed special treatment of array parameter values
 // Joern Huxhorn: pointed out double[] omission, suggested deep array copy
@@ -99,7 +99,6 @@ final public class MessageFormatter {
   static final char DELIM_START = '{';
   static final char DELIM_STOP = '}';
   static final String DELIM_STR = "{}";
-  private static final char ESCAPE_CHAR = '\\';
 
   /**
    * Performs single argument substitution for the 'messagePattern' passed as
@@ -168,6 +167,9 @@ final public class MessageFormatter {
    * Same principle as the {@link #format(String, Object)} and
    * {@link #format(String, Object, Object)} methods except that any number of
    * arguments can be passed in an array.
+   * <p>
+   * The substitution itself is done by the engine shared with the other
+   * facades, see {@link ParameterFormatter}.
    * 
    * @param messagePattern
    *          The message pattern which will be parsed and formatted
@@ -179,7 +181,8 @@ final public class MessageFormatter {
   final public static FormattingTuple arrayFormat(final String messagePattern,
       final Object[] argArray) {
 
-    Throwable throwableCandidate = getThrowableCandidate(argArray);
+    Throwable throwableCandidate = ParameterFormatter.getThrowable(
+        messagePattern, argArray);
 
     if (messagePattern == null) {
       return new FormattingTuple(null, argArray, throwableCandidate);
@@ -189,235 +192,7 @@ final public class MessageFormatter {
       return new FormattingTuple(messagePattern);
     }
 
-    int i = 0;
-    int j;
-    // use string builder for better multicore performance 
-    StringBuilder sbuf = new StringBuilder(messagePattern.length() + 50);
-
-    int L;
-    for (L = 0; L < argArray.length; L++) {
-
-      j = messagePattern.indexOf(DELIM_STR, i);
-
-      if (j == -1) {
-        // no more variables
-        if (i == 0) { // this is a simple string
-          return new FormattingTuple(messagePattern, argArray,
-              throwableCandidate);
-        } else { // add the tail string which contains no variables and return
-          // the result.
-          sbuf.append(messagePattern.substring(i, messagePattern.length()));
-          return new FormattingTuple(sbuf.toString(), argArray,
-              throwableCandidate);
-        }
-      } else {
-        if (isEscapedDelimeter(messagePattern, j)) {
-          if (!isDoubleEscaped(messagePattern, j)) {
-            L--; // DELIM_START was escaped, thus should not be incremented
-            sbuf.append(messagePattern.substring(i, j - 1));
-            sbuf.append(DELIM_START);
-            i = j + 1;
-          } else {
-            // The escape character preceding the delimiter start is
-            // itself escaped: "abc x:\\{}"
-            // we have to consume one backward slash
-            sbuf.append(messagePattern.substring(i, j - 1));
-            deeplyAppendParameter(sbuf, argArray[L], new HashMap<Object[], Object>());
-            i = j + 2;
-          }
-        } else {
-          // normal case
-          sbuf.append(messagePattern.substring(i, j));
-          deeplyAppendParameter(sbuf, argArray[L], new HashMap<Object[], Object>());
-          i = j + 2;
-        }
-      }
-    }
-    // append the characters following the last {} pair.
-    sbuf.append(messagePattern.substring(i, messagePattern.length()));
-    if (L < argArray.length - 1) {
-      return new FormattingTuple(sbuf.toString(), argArray, throwableCandidate);
-    } else {
-      return new FormattingTuple(sbuf.toString(), argArray, null);
-    }
-  }
-
-  final static boolean isEscapedDelimeter(String messagePattern,
-      int delimeterStartIndex) {
-
-    if (delimeterStartIndex == 0) {
-      return false;
-    }
-    char potentialEscape = messagePattern.charAt(delimeterStartIndex - 1);
-    if (potentialEscape == ESCAPE_CHAR) {
-      return true;
-    } else {
-      return false;
-    }
-  }
-
-  final static boolean isDoubleEscaped(String messagePattern,
-      int delimeterStartIndex) {
-    if (delimeterStartIndex >= 2
-        && messagePattern.charAt(delimeterStartIndex - 2) == ESCAPE_CHAR) {
-      return true;
-    } else {
-      return false;
-    }
-  }
-
-  // special treatment of array values was suggested by 'lizongbo'
-  private static void deeplyAppendParameter(StringBuilder sbuf, Object o,
-      Map<Object[], Object> seenMap) {
-    if (o == null) {
-      sbuf.append("null");
-      return;
-    }
-    if (!o.getClass().isArray()) {
-      safeObjectAppend(sbuf, o);
-    } else {
-      // check for primitive array types because they
-      // unfortunately cannot be cast to Object[]
-      if (o instanceof boolean[]) {
-        booleanArrayAppend(sbuf, (boolean[]) o);
-      } else if (o instanceof byte[]) {
-        byteArrayAppend(sbuf, (byte[]) o);
-      } else if (o instanceof char[]) {
-        charArrayAppend(sbuf, (char[]) o);
-      } else if (o instanceof short[]) {
-        shortArrayAppend(sbuf, (short[]) o);
-      } else if (o instanceof int[]) {
-        intArrayAppend(sbuf, (int[]) o);
-      } else if (o instanceof long[]) {
-        longArrayAppend(sbuf, (long[]) o);
-      } else if (o instanceof float[]) {
-        floatArrayAppend(sbuf, (float[]) o);
-      } else if (o instanceof double[]) {
-        doubleArrayAppend(sbuf, (double[]) o);
-      } else {
-        objectArrayAppend(sbuf, (Object[]) o, seenMap);
-      }
-    }
-  }
-
-  private static void safeObjectAppend(StringBuilder sbuf, Object o) {
-    try {
-      String oAsString = o.toString();
-      sbuf.append(oAsString);
-    } catch (Throwable t) {
-      System.err
-          .println("SLF4J: Failed toString() invocation on an object of type ["
-              + o.getClass().getName() + "]");
-      t.printStackTrace();
-      sbuf.append("[FAILED toString()]");
-    }
-
-  }
-
-  private static void objectArrayAppend(StringBuilder sbuf, Object[] a,
-      Map<Object[], Object> seenMap) {
-    sbuf.append('[');
-    if (!seenMap.containsKey(a)) {
-      seenMap.put(a, null);
-      final int len = a.length;
-      for (int i = 0; i < len; i++) {
-        deeplyAppendParameter(sbuf, a[i], seenMap);
-        if (i != len - 1)
-          sbuf.append(", ");
-      }
-      // allow repeats in siblings
-      seenMap.remove(a);
-    } else {
-      sbuf.append("...");
-    }
-    sbuf.append(']');
-  }
-
-  private static void booleanArrayAppend(StringBuilder sbuf, boolean[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
-  }
-
-  private static void byteArrayAppend(StringBuilder sbuf, byte[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
-  }
-
-  private static void charArrayAppend(StringBuilder sbuf, char[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
-  }
-
-  private static void shortArrayAppend(StringBuilder sbuf, short[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
-  }
-
-  private static void intArrayAppend(StringBuilder sbuf, int[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
-  }
-
-  private static void longArrayAppend(StringBuilder sbuf, long[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
-  }
-
-  private static void floatArrayAppend(StringBuilder sbuf, float[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
-  }
-
-  private static void doubleArrayAppend(StringBuilder sbuf, double[] a) {
-    sbuf.append('[');
-    final int len = a.length;
-    for (int i = 0; i < len; i++) {
-      sbuf.append(a[i]);
-      if (i != len - 1)
-        sbuf.append(", ");
-    }
-    sbuf.append(']');
+    return new FormattingTuple(ParameterFormatter.arrayFormat(messagePattern,
+        argArray), argArray, throwableCandidate);
   }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.FqcnIgnoringPaxLogger;
+import org.ops4j.pax.logging.PaxContext;
+import org.ops4j.pax.logging.PaxContextLogger;
+
+public class BufferingLogTest extends TestCase
+{
+
+    public void testReplayKeepsOrderAndCapturedContext()
+        throws Exception
+    {
+        BufferingLog log = new BufferingLog( null, "test" );
+        log.getPaxContext().put( "key", "first" );
+        log.inform( "one", null );
+        log.getPaxContext().put( "key", "second" );
+        log.warn( "two", null );
+        assertEquals( 2, log.size() );
+
+        RecordingLogger destination = new RecordingLogger();
+        destination.getPaxContext().put( "live", "value" );
+        log.flush( destination );
+
+        assertEquals( 0, log.size() );
+        assertEquals( 2, destination.m_messages.size() );
+        assertEquals( "info:one", destination.m_messages.get( 0 ) );
+        assertEquals( "warn:two", destination.m_messages.get( 1 ) );
+        Map<String, Object> first = destination.m_contexts.get( 0 );
+        assertEquals( "first", first.get( "key" ) );
+        assertNull( first.get( "live" ) );
+        assertEquals( Thread.currentThread().getName(), first.get( BufferingLog.THREAD_KEY ) );
+        assertNotNull( first.get( BufferingLog.TIMESTAMP_KEY ) );
+        assertEquals( "second", destination.m_contexts.get( 1 ).get( "key" ) );
+
+        // the context of the replaying thread is restored
+        assertEquals( "value", destination.getPaxContext().get( "live" ) );
+        assertNull( destination.getPaxContext().get( "key" ) );
+    }
+
+    public void testOverflowDiscardsOldestAndReportsSummary()
+    {
+        BufferingLog log = new BufferingLog( null, "test" );
+        int before = BufferingLog.getBufferedCount();
+        int capacity = BufferingLog.getCapacity();
+        for( int i = 0; i < capacity + 5; i++ )
+        {
+            log.debug( "message " + i, null );
+        }
+        assertEquals( capacity, log.size() );
+        assertEquals( 5, log.getDroppedCount() );
+        assertEquals( before + capacity, BufferingLog.getBufferedCount() );
+
+        RecordingLogger destination = new RecordingLogger();
+        log.flush( destination );
+        assertEquals( capacity + 1, destination.m_messages.size() );
+        assertTrue( destination.m_messages.get( 0 ).startsWith( "warn:" ) );
+        assertEquals( "debug:message 5", destination.m_messages.get( 1 ) );
+        assertEquals( before, BufferingLog.getBufferedCount() );
+        assertEquals( 0, log.getDroppedCount() );
+    }
+
+    public void testContextIsPassedWithEachMessage()
+        throws Exception
+    {
+        BufferingLog log = new BufferingLog( null, "test" );
+        log.getPaxContext().put( "key", "first" );
+        log.inform( "one", null );
+        log.getPaxContext().clear();
+        log.fatal( "two", null );
+
+        ContextRecordingLogger destination = new ContextRecordingLogger();
+        destination.getPaxContext().put( "live", "value" );
+        log.flush( destination );
+
+        assertEquals( 2, destination.m_messages.size() );
+        assertEquals( PaxContextLogger.LEVEL_INFO + ":one", destination.m_messages.get( 0 ) );
+        assertEquals( PaxContextLogger.LEVEL_FATAL + ":two", destination.m_messages.get( 1 ) );
+        assertEquals( "first", destination.m_contexts.get( 0 ).get( "key" ) );
+        assertNull( destination.m_contexts.get( 1 ).get( "key" ) );
+        assertNotNull( destination.m_contexts.get( 1 ).get( BufferingLog.THREAD_KEY ) );
+        // the live context was never touched
+        assertEquals( 2, destination.m_live.size() );
+        for( Map<String, Object> live : destination.m_live )
+        {
+            assertEquals( 1, live.size() );
+            assertEquals( "value", live.get( "live" ) );
+        }
+    }
+
+    private static class ContextRecordingLogger extends RecordingLogger
+        implements PaxContextLogger
+    {
+
+        private final List<Map<String, Object>> m_live = new ArrayList<Map<String, Object>>();
+
+        public void log( int level, String message, Throwable t, String fqcn, Map<String, Object> context )
+        {
+            m_messages.add( level + ":" + message );
+            m_contexts.add( context );
+            m_live.add( getPaxContext().getCopyOfContextMap() );
+        }
+    }
+
+    private static class RecordingLogger extends FqcnIgnoringPaxLogger
+    {
+
+        final List<String> m_messages = new ArrayList<String>();
+        final List<Map<String, Object>> m_contexts = new ArrayList<Map<String, Object>>();
+        private final PaxContext m_context = new PaxContext();
+
+        private void record( String level, String message )
+        {
+            m_messages.add( level + ":" + message );
+            m_contexts.add( m_context.getCopyOfContextMap() );
+        }
+
+        public void trace( String message, Throwable t, String fqcn )
+        {
+            record( "trace", message );
+        }
+
+        public void debug( String message, Throwable t, String fqcn )
+        {
+            record( "debug", message );
+        }
+
+        public void inform( String message, Throwable t, String fqcn )
+        {
+            record( "info", message );
+        }
+
+        public void warn( String message, Throwable t, String fqcn )
+        {
+            record( "warn", message );
+        }
+
+        public void error( String message, Throwable t, String fqcn )
+        {
+            record( "error", message );
+        }
+
+        public void fatal( String message, Throwable t, String fqcn )
+        {
+            record( "fatal", message );
+        }
+
+        public boolean isTraceEnabled()
+        {
+            return true;
+        }
+
+        public boolean isDebugEnabled()
+        {
+            return true;
+        }
+
+        public boolean isWarnEnabled()
+        {
+            return true;
+        }
+
+        public boolean isInfoEnabled()
+        {
+            return true;
+        }
+
+        public boolean isErrorEnabled()
+        {
+            return true;
+        }
+
+        public boolean isFatalEnabled()
+        {
+            return true;
+        }
+
+        public void trace( String message, Throwable t )
+        {
+            record( "trace", message );
+        }
+
+        public void debug( String message, Throwable t )
+        {
+            record( "debug", message );
+        }
+
+        public void inform( String message, Throwable t )
+        {
+            record( "info", message );
+        }
+
+        public void warn( String message, Throwable t )
+        {
+            record( "warn", message );
+        }
+
+        public void error( String message, Throwable t )
+        {
+            record( "error", message );
+        }
+
+        public void fatal( String message, Throwable t )
+        {
+            record( "fatal", message );
+        }
+
+        public int getLogLevel()
+        {
+            return LEVEL_TRACE;
+        }
+
+        public String getName()
+        {
+            return "recording";
+        }
+
+        public PaxContext getPaxContext()
+        {
+            return m_context;
+        }
+    }
+}
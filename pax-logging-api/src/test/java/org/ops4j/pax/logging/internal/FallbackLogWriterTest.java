@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.internal;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class FallbackLogWriterTest extends TestCase
+{
+
+    private File m_file;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "fallback", ".log" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        m_file.delete();
+    }
+
+    public void testLinesAreWrittenInOrder()
+        throws Exception
+    {
+        FallbackLogWriter writer = new FallbackLogWriter( 1024 * 1024, m_file.getAbsolutePath() );
+        writer.start();
+        for( int i = 0; i < 5000; i++ )
+        {
+            assertTrue( writer.offer( "line " + i ) );
+        }
+        writer.drain( 10000 );
+        writer.close();
+
+        List<String> lines = readLines();
+        assertEquals( 5000, lines.size() );
+        for( int i = 0; i < 5000; i++ )
+        {
+            assertEquals( "line " + i, lines.get( i ) );
+        }
+    }
+
+    public void testMemoryBoundDropsLines()
+        throws Exception
+    {
+        // not started, so nothing is consumed while the queue fills up
+        FallbackLogWriter writer = new FallbackLogWriter( 100, m_file.getAbsolutePath() );
+        int accepted = 0;
+        for( int i = 0; i < 100; i++ )
+        {
+            if( writer.offer( "0123456789" ) )
+            {
+                accepted++;
+            }
+        }
+        assertTrue( accepted > 0 );
+        assertEquals( 100 - accepted, writer.getDroppedCount() );
+    }
+
+    public void testCloseWritesQueuedLinesAndStops()
+        throws Exception
+    {
+        List<Thread> before = Arrays.asList( threads() );
+        FallbackLogWriter writer = new FallbackLogWriter( 1024 * 1024, m_file.getAbsolutePath() );
+        writer.start();
+        for( int i = 0; i < 1000; i++ )
+        {
+            writer.offer( "line " + i );
+        }
+        writer.close();
+        assertEquals( 1000, readLines().size() );
+        assertFalse( writer.offer( "too late" ) );
+        assertEquals( 1, writer.getDroppedCount() );
+        for( Thread thread : threads() )
+        {
+            assertTrue( before.contains( thread ) || !"PaxLogging-FallbackLogWriter".equals( thread.getName() ) );
+        }
+    }
+
+    public void testRedirectedConsoleGetsTheLines()
+        throws Exception
+    {
+        PrintStream out = System.out;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        System.setOut( new PrintStream( console, true ) );
+        try
+        {
+            FallbackLogWriter writer = new FallbackLogWriter( 1024 * 1024, null );
+            writer.start();
+            writer.offer( "redirected" );
+            writer.close();
+        }
+        finally
+        {
+            System.setOut( out );
+        }
+        assertEquals( "redirected" + System.getProperty( "line.separator" ), console.toString() );
+    }
+
+    private static Thread[] threads()
+    {
+        Thread[] threads = new Thread[ Thread.activeCount() + 10 ];
+        int count = Thread.enumerate( threads );
+        Thread[] result = new Thread[ count ];
+        System.arraycopy( threads, 0, result, 0, count );
+        return result;
+    }
+
+    private List<String> readLines()
+        throws Exception
+    {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader( new FileReader( m_file ) );
+        try
+        {
+            String line;
+            while( ( line = reader.readLine() ) != null )
+            {
+                lines.add( line );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.internal;
+
+import junit.framework.TestCase;
+
+public class ParameterFormatterTest extends TestCase
+{
+
+    public void testSingleArgument()
+    {
+        assertEquals( "Hi there.", ParameterFormatter.format( "Hi {}.", "there" ) );
+        assertEquals( "Hi null.", ParameterFormatter.format( "Hi {}.", null ) );
+        assertEquals( "No anchor", ParameterFormatter.format( "No anchor", "x" ) );
+        assertNull( ParameterFormatter.format( null, "x" ) );
+    }
+
+    public void testTwoArguments()
+    {
+        assertEquals( "Hi Alice. My name is Bob.",
+                      ParameterFormatter.format( "Hi {}. My name is {}.", "Alice", "Bob" ) );
+        assertEquals( "Set {1,2,3} is not equal to 1,2.",
+                      ParameterFormatter.format( "Set {1,2,3} is not equal to {}.", "1,2", "unused" ) );
+    }
+
+    public void testEscaping()
+    {
+        assertEquals( "Set {} is not equal to 1,2.",
+                      ParameterFormatter.format( "Set \\{} is not equal to {}.", "1,2" ) );
+        assertEquals( "File name is C:\\file.zip.",
+                      ParameterFormatter.format( "File name is C:\\\\{}.", "file.zip" ) );
+    }
+
+    public void testArrays()
+    {
+        assertEquals( "a [1, 2] b [x, [y, z]]",
+                      ParameterFormatter.arrayFormat( "a {} b {}",
+                                                      new Object[]{ new int[]{ 1, 2 }, new Object[]{ "x", new String[]{ "y", "z" } } } ) );
+        Object[] cyclic = new Object[ 1 ];
+        cyclic[ 0 ] = cyclic;
+        assertEquals( "[[...]]", ParameterFormatter.format( "{}", cyclic ) );
+    }
+
+    public void testFewerArgumentsThanAnchors()
+    {
+        assertEquals( "1 {} {}", ParameterFormatter.arrayFormat( "{} {} {}", new Object[]{ "1" } ) );
+    }
+
+    public void testThrowableCandidate()
+    {
+        Exception e = new Exception();
+        assertSame( e, ParameterFormatter.getThrowable( "no anchor", e ) );
+        assertNull( ParameterFormatter.getThrowable( "anchor {}", e ) );
+        assertSame( e, ParameterFormatter.getThrowable( "anchor {}", "x", e ) );
+        assertNull( ParameterFormatter.getThrowable( "anchor {}", e, "x" ) );
+        assertSame( e, ParameterFormatter.getThrowable( "{} {}", new Object[]{ "a", "b", e } ) );
+    }
+
+    public void testFormatToAppendable()
+        throws Exception
+    {
+        StringBuffer out = new StringBuffer( "> " );
+        ParameterFormatter.formatTo( out, "{} + {}", new Object[]{ 1, 2 } );
+        assertEquals( "> 1 + 2", out.toString() );
+    }
+
+    public void testReentrantToString()
+    {
+        Object nested = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                return ParameterFormatter.format( "inner {}", "value" );
+            }
+        };
+        assertEquals( "outer inner value end", ParameterFormatter.format( "outer {} {}", nested, "end" ) );
+    }
+
+    public void testLargeMessagesAreNotRetained()
+    {
+        StringBuilder large = new StringBuilder();
+        for( int i = 0; i < ParameterFormatter.MAX_REUSABLE_CAPACITY * 2; i++ )
+        {
+            large.append( 'x' );
+        }
+        assertEquals( large.length() + 2, ParameterFormatter.format( "[{}]", large ).length() );
+        assertEquals( "[small]", ParameterFormatter.format( "[{}]", "small" ) );
+    }
+}
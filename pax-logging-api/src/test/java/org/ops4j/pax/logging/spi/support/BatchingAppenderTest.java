@@ -0,0 +1,329 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.PaxLoggingService;
+import org.ops4j.pax.logging.spi.PaxBatchAppender;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.osgi.framework.ServiceReference;
+
+public class BatchingAppenderTest extends TestCase
+{
+
+    public void testBatchesAreLimitedInSize()
+        throws Exception
+    {
+        RecordingAppender recorder = new RecordingAppender();
+        BatchingAppender appender = new BatchingAppender( recorder, "test", 10, 60000, 100 );
+        for( int i = 0; i < 25; i++ )
+        {
+            appender.doAppend( new MutableEvent( "message " + i ) );
+        }
+        appender.close();
+        assertTrue( recorder.closed );
+        assertEquals( 25, recorder.events.size() );
+        for( int size : recorder.batchSizes )
+        {
+            assertTrue( size <= 10 );
+        }
+        for( int i = 0; i < 25; i++ )
+        {
+            assertEquals( "message " + i, recorder.events.get( i ).getMessage() );
+        }
+    }
+
+    public void testPartialBatchIsDeliveredAfterLatency()
+        throws Exception
+    {
+        RecordingAppender recorder = new RecordingAppender();
+        BatchingAppender appender = new BatchingAppender( recorder, "test", 100, 50, 1000 );
+        appender.doAppend( new MutableEvent( "single" ) );
+        long timeout = System.currentTimeMillis() + 5000;
+        // the batch is flushed right after it was delivered
+        while( ( recorder.size() == 0 || recorder.flushes == 0 ) && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, recorder.size() );
+        assertTrue( recorder.flushes > 0 );
+        appender.close();
+    }
+
+    public void testEventsAreSnapshots()
+        throws Exception
+    {
+        RecordingAppender recorder = new RecordingAppender();
+        BatchingAppender appender = new BatchingAppender( recorder, "test", 100, 60000, 1000 );
+        MutableEvent event = new MutableEvent( "before" );
+        appender.doAppend( event );
+        event.message = "after";
+        appender.close();
+        assertEquals( "before", recorder.events.get( 0 ).getMessage() );
+    }
+
+    public void testEventsAreDroppedWhenBufferIsFull()
+        throws Exception
+    {
+        BlockingAppender recorder = new BlockingAppender();
+        BatchingAppender appender = new BatchingAppender( recorder, "test", 1, 0, 2 );
+        appender.doAppend( new MutableEvent( "blocks the delivery" ) );
+        recorder.awaitBlocked();
+        for( int i = 0; i < 10; i++ )
+        {
+            appender.doAppend( new MutableEvent( "message " + i ) );
+        }
+        assertEquals( 8, appender.getDroppedCount() );
+        recorder.release();
+        appender.close();
+        assertEquals( 3, recorder.size() );
+    }
+
+    public void testServiceStaysOpenAcrossReconfigurations()
+        throws Exception
+    {
+        RecordingAppender recorder = new RecordingAppender();
+        ServiceReference reference = reference( "shared" );
+        BatchingAppender first = BatchingAppender.acquire( reference, recorder );
+        first.doAppend( new MutableEvent( "before" ) );
+
+        // the proxy of the new configuration tracks the service before the old proxy is closed
+        BatchingAppender second = BatchingAppender.acquire( reference, recorder );
+        assertSame( first, second );
+        first.release( false );
+        second.doAppend( new MutableEvent( "after" ) );
+
+        // the last proxy is closed before the next configuration tracks the service
+        second.release( false );
+        assertFalse( recorder.closed );
+        BatchingAppender third = BatchingAppender.acquire( reference, recorder );
+        assertNotSame( second, third );
+        third.doAppend( new MutableEvent( "again" ) );
+
+        third.release( true );
+        assertTrue( recorder.closed );
+        assertEquals( 3, recorder.size() );
+        assertEquals( "before", recorder.events.get( 0 ).getMessage() );
+        assertEquals( "after", recorder.events.get( 1 ).getMessage() );
+        assertEquals( "again", recorder.events.get( 2 ).getMessage() );
+    }
+
+    private static ServiceReference reference( final String name )
+    {
+        return (ServiceReference) Proxy.newProxyInstance( ServiceReference.class.getClassLoader(),
+                                                          new Class[]{ ServiceReference.class },
+                                                          new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                if( method.getName().equals( "getProperty" ) )
+                {
+                    return PaxLoggingService.APPENDER_NAME_PROPERTY.equals( args[0] ) ? name : null;
+                }
+                if( method.getName().equals( "hashCode" ) )
+                {
+                    return System.identityHashCode( proxy );
+                }
+                if( method.getName().equals( "equals" ) )
+                {
+                    return proxy == args[0];
+                }
+                return null;
+            }
+        } );
+    }
+
+    private static class RecordingAppender
+        implements PaxBatchAppender
+    {
+
+        final List<PaxLoggingEvent> events = Collections.synchronizedList( new ArrayList<PaxLoggingEvent>() );
+        final List<Integer> batchSizes = Collections.synchronizedList( new ArrayList<Integer>() );
+        volatile int flushes;
+        volatile boolean closed;
+
+        public void doAppend( List<PaxLoggingEvent> batch )
+        {
+            batchSizes.add( batch.size() );
+            events.addAll( batch );
+        }
+
+        public void doAppend( PaxLoggingEvent event )
+        {
+            fail( "single events are not delivered to batch appenders" );
+        }
+
+        public void flush()
+        {
+            flushes++;
+        }
+
+        public void close()
+        {
+            closed = true;
+        }
+
+        int size()
+        {
+            return events.size();
+        }
+    }
+
+    private static class BlockingAppender extends RecordingAppender
+    {
+
+        private final Object m_lock = new Object();
+        private boolean m_blocked;
+        private boolean m_released;
+
+        public void doAppend( List<PaxLoggingEvent> batch )
+        {
+            super.doAppend( batch );
+            synchronized( m_lock )
+            {
+                m_blocked = true;
+                m_lock.notifyAll();
+                while( !m_released )
+                {
+                    try
+                    {
+                        m_lock.wait();
+                    }
+                    catch( InterruptedException e )
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+
+        void awaitBlocked()
+            throws InterruptedException
+        {
+            synchronized( m_lock )
+            {
+                while( !m_blocked )
+                {
+                    m_lock.wait();
+                }
+            }
+        }
+
+        void release()
+        {
+            synchronized( m_lock )
+            {
+                m_released = true;
+                m_lock.notifyAll();
+            }
+        }
+    }
+
+    private static class MutableEvent
+        implements PaxLoggingEvent
+    {
+
+        String message;
+
+        MutableEvent( String message )
+        {
+            this.message = message;
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return null;
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return true;
+                }
+
+                public int toInt()
+                {
+                    return 20000;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return 6;
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return "test";
+        }
+
+        public String getMessage()
+        {
+            return message;
+        }
+
+        public String getRenderedMessage()
+        {
+            return message;
+        }
+
+        public String getThreadName()
+        {
+            return Thread.currentThread().getName();
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return null;
+        }
+
+        public boolean locationInformationExists()
+        {
+            return false;
+        }
+
+        public long getTimeStamp()
+        {
+            return 0;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return null;
+        }
+
+        public Map getProperties()
+        {
+            return null;
+        }
+    }
+}
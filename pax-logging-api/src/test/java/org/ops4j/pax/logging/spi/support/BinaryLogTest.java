@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+public class BinaryLogTest extends TestCase
+{
+
+    public void testRoundTrip()
+        throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryLogWriter writer = new BinaryLogWriter( bytes );
+        Event first = new Event( 1400000000000L, "org.example.Foo", "first \u00e9\u20ac\ud83d\ude00" );
+        first.location = true;
+        first.throwable = new String[]{ "java.lang.Exception: boom", "\tat Foo.bar(Foo.java:1)" };
+        Event second = new Event( 1399999999000L, "org.example.Bar", "second" );
+        second.rendered = "second, rendered";
+        writer.write( first );
+        writer.write( second );
+        writer.write( first );
+        writer.close();
+
+        BinaryLogReader reader = new BinaryLogReader( new ByteArrayInputStream( bytes.toByteArray() ) );
+        assertEvent( first, reader.read() );
+        assertEvent( second, reader.read() );
+        assertEvent( first, reader.read() );
+        assertNull( reader.read() );
+    }
+
+    public void testRepeatedStringsAreWrittenOnce()
+        throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryLogWriter writer = new BinaryLogWriter( bytes );
+        writer.write( new Event( 1400000000000L, "org.example.some.rather.long.LoggerName", "message" ) );
+        int first = bytes.size();
+        writer.write( new Event( 1400000000001L, "org.example.some.rather.long.LoggerName", "message" ) );
+        int second = bytes.size() - first;
+        assertTrue( "second record takes " + second + " bytes", second < 40 );
+    }
+
+    public void testAppendedSegmentsAndCutOffRecord()
+        throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BinaryLogWriter( bytes ).write( new Event( 1000, "first", "one" ) );
+        new BinaryLogWriter( bytes ).write( new Event( 2000, "second", "two" ) );
+        BinaryLogWriter writer = new BinaryLogWriter( bytes );
+        writer.write( new Event( 3000, "third", "three" ) );
+        byte[] cut = new byte[bytes.size() - 1];
+        System.arraycopy( bytes.toByteArray(), 0, cut, 0, cut.length );
+
+        BinaryLogReader reader = new BinaryLogReader( new ByteArrayInputStream( cut ) );
+        PaxLoggingEvent event = reader.read();
+        assertEquals( "first", event.getLoggerName() );
+        assertEquals( 1000, event.getTimeStamp() );
+        event = reader.read();
+        assertEquals( "second", event.getLoggerName() );
+        assertEquals( 2000, event.getTimeStamp() );
+        assertNull( reader.read() );
+    }
+
+    private static void assertEvent( Event expected, PaxLoggingEvent actual )
+    {
+        assertEquals( expected.timeStamp, actual.getTimeStamp() );
+        assertEquals( expected.loggerName, actual.getLoggerName() );
+        assertEquals( expected.message, actual.getMessage() );
+        assertEquals( expected.getRenderedMessage(), actual.getRenderedMessage() );
+        assertEquals( "main", actual.getThreadName() );
+        assertEquals( "INFO", actual.getLevel().toString() );
+        assertEquals( 20000, actual.getLevel().toInt() );
+        assertEquals( 6, actual.getLevel().getSyslogEquivalent() );
+        assertEquals( expected.getProperties(), actual.getProperties() );
+        assertEquals( expected.location, actual.locationInformationExists() );
+        if( expected.location )
+        {
+            assertEquals( "Foo.java", actual.getLocationInformation().getFileName() );
+            assertEquals( "bar", actual.getLocationInformation().getMethodName() );
+            assertEquals( "42", actual.getLocationInformation().getLineNumber() );
+        }
+        else
+        {
+            assertNull( actual.getLocationInformation() );
+        }
+        if( expected.throwable == null )
+        {
+            assertNull( actual.getThrowableStrRep() );
+        }
+        else
+        {
+            assertEquals( expected.throwable.length, actual.getThrowableStrRep().length );
+            assertEquals( expected.throwable[1], actual.getThrowableStrRep()[1] );
+        }
+    }
+
+    private static class Event
+        implements PaxLoggingEvent
+    {
+
+        final long timeStamp;
+        final String loggerName;
+        final String message;
+        String rendered;
+        boolean location;
+        String[] throwable;
+
+        Event( long timeStamp, String loggerName, String message )
+        {
+            this.timeStamp = timeStamp;
+            this.loggerName = loggerName;
+            this.message = message;
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return new PaxLocationInfo()
+            {
+                public String getFileName()
+                {
+                    return "Foo.java";
+                }
+
+                public String getClassName()
+                {
+                    return "Foo";
+                }
+
+                public String getLineNumber()
+                {
+                    return "42";
+                }
+
+                public String getMethodName()
+                {
+                    return "bar";
+                }
+            };
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return toInt() >= r.toInt();
+                }
+
+                public int toInt()
+                {
+                    return 20000;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return 6;
+                }
+
+                public String toString()
+                {
+                    return "INFO";
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return loggerName;
+        }
+
+        public String getMessage()
+        {
+            return message;
+        }
+
+        public String getRenderedMessage()
+        {
+            return rendered == null ? message : rendered;
+        }
+
+        public String getThreadName()
+        {
+            return "main";
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return throwable;
+        }
+
+        public boolean locationInformationExists()
+        {
+            return location;
+        }
+
+        public long getTimeStamp()
+        {
+            return timeStamp;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return "org.example.Logger";
+        }
+
+        public Map getProperties()
+        {
+            Map<String, String> properties = new HashMap<String, String>();
+            properties.put( "bundle.id", "12" );
+            properties.put( "bundle.name", "org.example" );
+            properties.put( "user", "alice" );
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+public class BlackBoxRecorderTest extends TestCase
+{
+
+    private File m_file;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "blackbox", ".bin" );
+        m_file.delete();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        m_file.delete();
+        new File( m_file.getPath() + ".prev" ).delete();
+    }
+
+    public void testRingKeepsTheLatestEvents()
+        throws Exception
+    {
+        BlackBoxRecorder recorder = new BlackBoxRecorder( m_file, 4096 );
+        for( int i = 0; i < 1000; i++ )
+        {
+            recorder.doAppend( new Event( 1400000000000L + i, 7, "org.example.Foo", "bundle1", "message " + i ) );
+        }
+        // read without closing, like after a crash
+        List<PaxLoggingEvent> events = new BlackBoxReader( m_file ).read( Long.MAX_VALUE );
+        assertTrue( events.size() > 10 );
+        assertTrue( events.size() < 1000 );
+        for( int i = 0; i < events.size(); i++ )
+        {
+            int number = 1000 - events.size() + i;
+            PaxLoggingEvent event = events.get( i );
+            assertEquals( "message " + number, event.getMessage() );
+            assertEquals( 1400000000000L + number, event.getTimeStamp() );
+            assertEquals( 7, event.getLevel().getSyslogEquivalent() );
+            assertEquals( "org.example.Foo", event.getLoggerName() );
+            assertEquals( "bundle1", event.getProperties().get( "bundle.name" ) );
+        }
+
+        List<PaxLoggingEvent> last = new BlackBoxReader( m_file ).read( 200 );
+        assertTrue( last.size() < events.size() );
+        assertEquals( "message 999", last.get( last.size() - 1 ).getMessage() );
+        recorder.close();
+    }
+
+    public void testConcurrentRecording()
+        throws Exception
+    {
+        final BlackBoxRecorder recorder = new BlackBoxRecorder( m_file, 1 << 20 );
+        Thread[] threads = new Thread[4];
+        for( int t = 0; t < threads.length; t++ )
+        {
+            final String logger = "logger" + t;
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    for( int i = 0; i < 500; i++ )
+                    {
+                        recorder.doAppend( new Event( i, 6, logger, "bundle1", "message " + i ) );
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for( Thread thread : threads )
+        {
+            thread.join();
+        }
+        recorder.close();
+        assertEquals( 2000, new BlackBoxReader( m_file ).read( Long.MAX_VALUE ).size() );
+
+        // the header points to the end of the last record, whichever thread published its record last
+        RandomAccessFile raf = new RandomAccessFile( m_file, "r" );
+        long end = 0;
+        for( int i = 0; i < 2000; i++ )
+        {
+            raf.seek( BlackBoxRecorder.HEADER_SIZE + end );
+            end += raf.readInt() + BlackBoxRecorder.RECORD_OVERHEAD;
+        }
+        raf.seek( BlackBoxRecorder.END_OFFSET );
+        assertEquals( end, raf.readLong() );
+        raf.close();
+    }
+
+    public void testUnfinishedRecordIsSkipped()
+        throws Exception
+    {
+        BlackBoxRecorder recorder = new BlackBoxRecorder( m_file, 4096 );
+        for( int i = 0; i < 3; i++ )
+        {
+            recorder.doAppend( new Event( 1000 + i, 6, "org.example.Foo", "bundle1", "message " + i ) );
+        }
+        recorder.close();
+        // what a thread killed while writing the second record leaves behind: the third one is complete, the header
+        // still points to the end of the first one
+        RandomAccessFile raf = new RandomAccessFile( m_file, "rw" );
+        raf.seek( BlackBoxRecorder.HEADER_SIZE );
+        long second = raf.readInt() + BlackBoxRecorder.RECORD_OVERHEAD;
+        raf.seek( BlackBoxRecorder.HEADER_SIZE + second );
+        raf.writeLong( 0 );
+        raf.seek( BlackBoxRecorder.END_OFFSET );
+        raf.writeLong( second );
+        raf.close();
+
+        List<PaxLoggingEvent> events = new BlackBoxReader( m_file ).read( Long.MAX_VALUE );
+        assertEquals( 2, events.size() );
+        assertEquals( "message 0", events.get( 0 ).getMessage() );
+        assertEquals( "message 2", events.get( 1 ).getMessage() );
+    }
+
+    public void testPreviousRecordingIsKept()
+        throws Exception
+    {
+        BlackBoxRecorder recorder = new BlackBoxRecorder( m_file, 4096 );
+        recorder.doAppend( new Event( 1000, 3, "org.example.Foo", "bundle1", "before the crash" ) );
+        recorder = new BlackBoxRecorder( m_file, 4096 );
+        assertTrue( new BlackBoxReader( m_file ).read( Long.MAX_VALUE ).isEmpty() );
+        List<PaxLoggingEvent> events = new BlackBoxReader( new File( m_file.getPath() + ".prev" ) ).read( 4096 );
+        assertEquals( 1, events.size() );
+        assertEquals( "before the crash", events.get( 0 ).getMessage() );
+        recorder.close();
+    }
+
+    private static class Event
+        implements PaxLoggingEvent
+    {
+
+        final long timeStamp;
+        final int syslog;
+        final String logger;
+        final String message;
+        final Map<String, String> properties = new HashMap<String, String>();
+
+        Event( long timeStamp, int syslog, String logger, String bundle, String message )
+        {
+            this.timeStamp = timeStamp;
+            this.syslog = syslog;
+            this.logger = logger;
+            this.message = message;
+            properties.put( "bundle.name", bundle );
+            properties.put( "bundle.id", bundle.substring( "bundle".length() ) );
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return null;
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return toInt() >= r.toInt();
+                }
+
+                public int toInt()
+                {
+                    return syslog == 3 ? 40000 : syslog == 6 ? 20000 : 10000;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return syslog;
+                }
+
+                public String toString()
+                {
+                    return syslog == 3 ? "ERROR" : syslog == 6 ? "INFO" : "DEBUG";
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return logger;
+        }
+
+        public String getMessage()
+        {
+            return message;
+        }
+
+        public String getRenderedMessage()
+        {
+            return message;
+        }
+
+        public String getThreadName()
+        {
+            return "main";
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return null;
+        }
+
+        public boolean locationInformationExists()
+        {
+            return false;
+        }
+
+        public long getTimeStamp()
+        {
+            return timeStamp;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return null;
+        }
+
+        public Map getProperties()
+        {
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BurstSuppressorTest extends TestCase
+{
+
+    public void testBurstThenRate()
+        throws Exception
+    {
+        BurstSuppressor suppressor = new BurstSuppressor( 10, 5, 1000, 100 );
+        long now = System.currentTimeMillis();
+        for( int i = 0; i < 5; i++ )
+        {
+            assertTrue( suppressor.permit( "a", "sample", now ) );
+        }
+        assertFalse( suppressor.permit( "a", "sample", now ) );
+        // other keys have buckets of their own
+        assertTrue( suppressor.permit( "b", "sample", now ) );
+        // 10 per second: one token every 100 ms
+        assertFalse( suppressor.permit( "a", "sample", now + 50 ) );
+        assertTrue( suppressor.permit( "a", "sample", now + 150 ) );
+        assertFalse( suppressor.permit( "a", "sample", now + 150 ) );
+        // the bucket holds the burst at most
+        for( int i = 0; i < 5; i++ )
+        {
+            assertTrue( suppressor.permit( "a", "sample", now + 60000 ) );
+        }
+        assertFalse( suppressor.permit( "a", "sample", now + 60000 ) );
+    }
+
+    public void testSummaries()
+        throws Exception
+    {
+        BurstSuppressor suppressor = new BurstSuppressor( 1, 1, 1000, 100 );
+        long now = System.currentTimeMillis();
+        suppressor.permit( "a", "first a", now );
+        suppressor.permit( "a", "second a", now );
+        suppressor.permit( "a", "third a", now );
+        suppressor.permit( "b", "first b", now );
+
+        final List<String> reports = new ArrayList<String>();
+        BurstSuppressor.Reporter reporter = new BurstSuppressor.Reporter()
+        {
+            public void suppressed( Object sample, long count )
+            {
+                assertTrue( BurstSuppressor.isReporting() );
+                reports.add( sample + " " + count );
+            }
+        };
+        suppressor.report( reporter, now );
+        assertTrue( reports.isEmpty() );
+
+        suppressor.report( reporter, now + 1000 );
+        assertEquals( 1, reports.size() );
+        assertEquals( "third a 2", reports.get( 0 ) );
+        assertFalse( BurstSuppressor.isReporting() );
+
+        // reported once, and not again until the next interval
+        suppressor.permit( "a", "fourth a", now + 1000 );
+        suppressor.report( reporter, now + 1500 );
+        assertEquals( 1, reports.size() );
+        suppressor.report( reporter, now + 2000 );
+        assertEquals( 1, reports.size() );
+        assertEquals( "Suppressed 2 similar messages", BurstSuppressor.summary( 2 ) );
+    }
+
+    public void testKeys()
+        throws Exception
+    {
+        BurstSuppressor.Key key = new BurstSuppressor.Key( "logger, message,mdc:bundle.name" );
+        assertEquals( 3, key.size() );
+        assertEquals( BurstSuppressor.Key.LOGGER, key.getKind( 0 ) );
+        assertEquals( BurstSuppressor.Key.MESSAGE, key.getKind( 1 ) );
+        assertEquals( BurstSuppressor.Key.MDC, key.getKind( 2 ) );
+        assertEquals( "bundle.name", key.getMdcKey( 2 ) );
+        assertEquals( key.of( new Object[]{ "a", "b", null } ), key.of( new Object[]{ "a", "b", null } ) );
+        assertFalse( key.of( new Object[]{ "a", "b", null } ).equals( key.of( new Object[]{ "a", "c", null } ) ) );
+        assertEquals( "a", new BurstSuppressor.Key( "level" ).of( new Object[]{ "a" } ) );
+        try
+        {
+            new BurstSuppressor.Key( "logger,thread" );
+            fail();
+        }
+        catch( IllegalArgumentException expected )
+        {
+            // thread is not a key property
+        }
+    }
+
+    public void testLeastRecentlyUsedKeysAreForgotten()
+        throws Exception
+    {
+        BurstSuppressor suppressor = new BurstSuppressor( 0.001, 1, 1000, 16 );
+        long now = System.currentTimeMillis();
+        assertTrue( suppressor.permit( "a", "sample", now ) );
+        assertFalse( suppressor.permit( "a", "sample", now ) );
+        for( int i = 0; i < 1000; i++ )
+        {
+            suppressor.permit( "key" + i, "sample", now );
+        }
+        assertTrue( suppressor.permit( "a", "sample", now ) );
+    }
+
+    public void testForgottenKeysAreReported()
+        throws Exception
+    {
+        BurstSuppressor suppressor = new BurstSuppressor( 0.001, 1, 1000, 16 );
+        long now = System.currentTimeMillis();
+        suppressor.permit( "a", "first a", now );
+        suppressor.permit( "a", "second a", now );
+        suppressor.permit( "a", "third a", now );
+        for( int i = 0; i < 1000; i++ )
+        {
+            suppressor.permit( "key" + i, "sample", now );
+        }
+        final List<String> reports = new ArrayList<String>();
+        suppressor.report( new BurstSuppressor.Reporter()
+        {
+            public void suppressed( Object sample, long count )
+            {
+                reports.add( sample + " " + count );
+            }
+        }, now + 1000 );
+        assertEquals( 1, reports.size() );
+        assertEquals( "third a 2", reports.get( 0 ) );
+    }
+
+    public void testFlushReportsRightAway()
+        throws Exception
+    {
+        BurstSuppressor suppressor = new BurstSuppressor( 1, 1, 60000, 100 );
+        long now = System.currentTimeMillis();
+        suppressor.permit( "a", "first a", now );
+        suppressor.permit( "a", "second a", now );
+
+        final List<String> reports = new ArrayList<String>();
+        BurstSuppressor.Reporter reporter = new BurstSuppressor.Reporter()
+        {
+            public void suppressed( Object sample, long count )
+            {
+                assertTrue( BurstSuppressor.isReporting() );
+                reports.add( sample + " " + count );
+            }
+        };
+        suppressor.report( reporter, now );
+        assertTrue( reports.isEmpty() );
+        suppressor.flush( reporter );
+        assertEquals( 1, reports.size() );
+        assertEquals( "second a 1", reports.get( 0 ) );
+        // nothing is reported twice
+        suppressor.flush( reporter );
+        assertEquals( 1, reports.size() );
+    }
+
+    public void testConcurrentPermits()
+        throws Exception
+    {
+        final BurstSuppressor suppressor = new BurstSuppressor( 0.001, 1000, 1000, 100 );
+        final long now = System.currentTimeMillis();
+        final int[] permitted = new int[8];
+        Thread[] threads = new Thread[permitted.length];
+        for( int t = 0; t < threads.length; t++ )
+        {
+            final int id = t;
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    for( int i = 0; i < 10000; i++ )
+                    {
+                        if( suppressor.permit( "key", "sample", now ) )
+                        {
+                            permitted[id]++;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        int total = 0;
+        for( int t = 0; t < threads.length; t++ )
+        {
+            threads[t].join();
+            total += permitted[t];
+        }
+        assertEquals( 1000, total );
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+public class JsonLayoutTest extends TestCase
+{
+
+    public void testLayout()
+    {
+        Event event = new Event( "hello \"world\"\n\\ \u0001 \u00e9\u20ac\ud83d\ude00" );
+        event.properties.put( "bundle.id", "12" );
+        event.properties.put( "bundle.name", "org.example" );
+        event.properties.put( "user", "alice" );
+        event.throwable = new String[]{ "java.lang.Exception: boom", "\tat Foo.bar(Foo.java:42)" };
+        assertEquals( "{\"timestamp\":1400000000000,\"level\":\"INFO\",\"logger\":\"org.example.Foo\","
+                      + "\"thread\":\"main\",\"message\":\"hello \\\"world\\\"\\n\\\\ \\u0001 \u00e9\u20ac\ud83d\ude00\","
+                      + "\"location\":{\"class\":\"Foo\",\"method\":\"bar\",\"file\":\"Foo.java\",\"line\":\"42\"},"
+                      + "\"bundle\":{\"id\":\"12\",\"name\":\"org.example\"},\"mdc\":{\"user\":\"alice\"},"
+                      + "\"exception\":[\"java.lang.Exception: boom\",\"\\tat Foo.bar(Foo.java:42)\"]}\n",
+                      new JsonLayout( true ).doLayout( event ) );
+    }
+
+    public void testMinimalEvent()
+    {
+        Event event = new Event( null );
+        assertEquals( "{\"timestamp\":1400000000000,\"level\":\"INFO\",\"logger\":\"org.example.Foo\","
+                      + "\"thread\":\"main\",\"message\":null}\n",
+                      new JsonLayout().doLayout( event ) );
+    }
+
+    public void testEncodeGrowsTheBuffer()
+        throws Exception
+    {
+        Event event = new Event( "a message which does not fit into the buffer" );
+        JsonLayout layout = new JsonLayout();
+        ByteBuffer small = ByteBuffer.allocate( 8 );
+        small.put( (byte) '[' );
+        ByteBuffer result = layout.encode( event, small );
+        assertNotSame( small, result );
+        assertEquals( "[" + layout.doLayout( event ),
+                      new String( result.array(), 0, result.position(), "UTF-8" ) );
+
+        ByteBuffer direct = layout.encode( event, ByteBuffer.allocateDirect( 4 ) );
+        assertTrue( direct.isDirect() );
+        assertEquals( result.position() - 1, direct.position() );
+    }
+
+    private static class Event
+        implements PaxLoggingEvent
+    {
+
+        final String message;
+        final Map<String, String> properties = new LinkedHashMap<String, String>();
+        String[] throwable;
+
+        Event( String message )
+        {
+            this.message = message;
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return new PaxLocationInfo()
+            {
+                public String getFileName()
+                {
+                    return "Foo.java";
+                }
+
+                public String getClassName()
+                {
+                    return "Foo";
+                }
+
+                public String getLineNumber()
+                {
+                    return "42";
+                }
+
+                public String getMethodName()
+                {
+                    return "bar";
+                }
+            };
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return toInt() >= r.toInt();
+                }
+
+                public int toInt()
+                {
+                    return 20000;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return 6;
+                }
+
+                public String toString()
+                {
+                    return "INFO";
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return "org.example.Foo";
+        }
+
+        public String getMessage()
+        {
+            return message;
+        }
+
+        public String getRenderedMessage()
+        {
+            return message;
+        }
+
+        public String getThreadName()
+        {
+            return "main";
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return throwable;
+        }
+
+        public boolean locationInformationExists()
+        {
+            return true;
+        }
+
+        public long getTimeStamp()
+        {
+            return 1400000000000L;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return null;
+        }
+
+        public Map getProperties()
+        {
+            return properties;
+        }
+    }
+}
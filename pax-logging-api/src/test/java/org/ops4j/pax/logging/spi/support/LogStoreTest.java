@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.LogQuery;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.osgi.service.log.LogService;
+
+public class LogStoreTest extends TestCase
+{
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private File m_dir;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_dir = File.createTempFile( "logstore", "" );
+        m_dir.delete();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        File[] files = m_dir.listFiles();
+        if( files != null )
+        {
+            for( File file : files )
+            {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    public void testQuery()
+        throws Exception
+    {
+        long start = ( System.currentTimeMillis() / HOUR - 3 ) * HOUR;
+        LogStore store = new LogStore( m_dir, HOUR, 4, LogStore.DEFAULT_RETENTION, LogStore.DEFAULT_MAX_BYTES );
+        List<PaxLoggingEvent> events = new ArrayList<PaxLoggingEvent>();
+        for( int i = 0; i < 30; i++ )
+        {
+            Event event = new Event( start + i * 6L * 60L * 1000L, i % 10 == 0 ? 3 : 7,
+                                     i % 2 == 0 ? "org.example.Foo" : "com.acme.Bar", "bundle" + ( i % 3 ), "m" + i );
+            event.properties.put( "user", i < 15 ? "alice" : "bob" );
+            events.add( event );
+        }
+        store.doAppend( events );
+
+        assertEquals( 30, store.query( new LogQuery() ).size() );
+        assertEquals( 10, store.query( new LogQuery().from( start + HOUR ).to( start + 2 * HOUR ) ).size() );
+        assertMessages( store.query( new LogQuery().minimumLevel( LogService.LOG_ERROR ) ), "m0", "m10", "m20" );
+        assertMessages( store.query( new LogQuery().bundle( "bundle1" ).loggerPrefix( "com.acme" ).mdc( "user", "bob" ) ),
+                        "m19", "m25" );
+        assertMessages( store.query( new LogQuery().bundle( "1" ).from( start + 2 * HOUR ).limit( 2 ) ), "m22", "m25" );
+
+        store.flush();
+        store.close();
+        assertEquals( 3, m_dir.list().length / 2 );
+
+        store = new LogStore( m_dir, HOUR, 4, LogStore.DEFAULT_RETENTION, LogStore.DEFAULT_MAX_BYTES );
+        store.doAppend( new Event( start + 29L * 6L * 60L * 1000L + 1, 6, "org.example.Foo", "bundle0", "m30" ) );
+        assertMessages( store.query( new LogQuery().from( start + 29L * 6L * 60L * 1000L ) ), "m29", "m30" );
+        store.close();
+    }
+
+    public void testCompaction()
+        throws Exception
+    {
+        long start = ( System.currentTimeMillis() / HOUR - 3 ) * HOUR;
+        LogStore store = new LogStore( m_dir, HOUR, 100, LogStore.DEFAULT_RETENTION, LogStore.DEFAULT_MAX_BYTES );
+        for( int i = 0; i < 20; i++ )
+        {
+            store.doAppend( new Event( start + i, 6, "org.example.Foo", "bundle0", "m" + i ) );
+            store.flush();
+        }
+        File index = new File( m_dir, "segment-" + start + ".idx" );
+        assertEquals( 20 * 44, index.length() );
+        store.doAppend( new Event( start + HOUR, 6, "org.example.Foo", "bundle0", "last" ) );
+        assertEquals( 44, index.length() );
+        assertEquals( 21, store.query( new LogQuery() ).size() );
+        store.close();
+    }
+
+    public void testRetention()
+        throws Exception
+    {
+        long now = System.currentTimeMillis();
+        LogStore store = new LogStore( m_dir, HOUR, 10, 24 * HOUR, LogStore.DEFAULT_MAX_BYTES );
+        store.doAppend( new Event( now - 72 * HOUR, 6, "org.example.Foo", "bundle0", "old" ) );
+        store.doAppend( new Event( now - 2 * HOUR, 6, "org.example.Foo", "bundle0", "recent" ) );
+        store.doAppend( new Event( now, 6, "org.example.Foo", "bundle0", "now" ) );
+        assertMessages( store.query( new LogQuery() ), "recent", "now" );
+        store.close();
+
+        store = new LogStore( m_dir, HOUR, 10, 24 * HOUR, 1 );
+        assertMessages( store.query( new LogQuery() ), "now" );
+        store.close();
+    }
+
+    private static void assertMessages( List<PaxLoggingEvent> events, String... messages )
+    {
+        List<String> actual = new ArrayList<String>();
+        for( PaxLoggingEvent event : events )
+        {
+            actual.add( event.getMessage() );
+        }
+        assertEquals( Arrays.asList( messages ), actual );
+    }
+
+    private static class Event
+        implements PaxLoggingEvent
+    {
+
+        final long timeStamp;
+        final int syslog;
+        final String logger;
+        final String message;
+        final Map<String, String> properties = new HashMap<String, String>();
+
+        Event( long timeStamp, int syslog, String logger, String bundle, String message )
+        {
+            this.timeStamp = timeStamp;
+            this.syslog = syslog;
+            this.logger = logger;
+            this.message = message;
+            properties.put( "bundle.name", bundle );
+            properties.put( "bundle.id", bundle.substring( "bundle".length() ) );
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return null;
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return toInt() >= r.toInt();
+                }
+
+                public int toInt()
+                {
+                    return syslog == 3 ? 40000 : syslog == 6 ? 20000 : 10000;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return syslog;
+                }
+
+                public String toString()
+                {
+                    return syslog == 3 ? "ERROR" : syslog == 6 ? "INFO" : "DEBUG";
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return logger;
+        }
+
+        public String getMessage()
+        {
+            return message;
+        }
+
+        public String getRenderedMessage()
+        {
+            return message;
+        }
+
+        public String getThreadName()
+        {
+            return "main";
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return null;
+        }
+
+        public boolean locationInformationExists()
+        {
+            return false;
+        }
+
+        public long getTimeStamp()
+        {
+            return timeStamp;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return null;
+        }
+
+        public Map getProperties()
+        {
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+public class PaxLoggingEventSnapshotTest extends TestCase
+{
+
+    protected void tearDown()
+        throws Exception
+    {
+        PaxLoggingEventSnapshot.clear();
+    }
+
+    public void testSnapshotIsSharedPerEvent()
+    {
+        Object key = new Object();
+        Event event = new Event();
+        PaxLoggingEventSnapshot first = PaxLoggingEventSnapshot.of( key, event );
+        assertSame( first, PaxLoggingEventSnapshot.of( key, new Event() ) );
+        assertNotSame( first, PaxLoggingEventSnapshot.of( new Object(), event ) );
+    }
+
+    public void testReusedKeysAreToldApart()
+    {
+        Object key = new Object();
+        PaxLoggingEventSnapshot first = PaxLoggingEventSnapshot.of( key, new Event() );
+        Event other = new Event();
+        other.loggerName = "other";
+        PaxLoggingEventSnapshot second = PaxLoggingEventSnapshot.of( key, other );
+        assertNotSame( first, second );
+        Event warning = new Event();
+        warning.level = 30000;
+        warning.syslog = 4;
+        assertNotSame( second, PaxLoggingEventSnapshot.of( key, warning ) );
+    }
+
+    public void testClearAfterAppend()
+    {
+        Object key = new Object();
+        PaxLoggingEventSnapshot first = PaxLoggingEventSnapshot.of( key, new Event() );
+        PaxLoggingEventSnapshot.clear();
+        assertNotSame( first, PaxLoggingEventSnapshot.of( key, new Event() ) );
+    }
+
+    public void testLevelsAreShared()
+    {
+        PaxLoggingEventSnapshot first = PaxLoggingEventSnapshot.of( new Event() );
+        PaxLoggingEventSnapshot second = PaxLoggingEventSnapshot.of( new Event() );
+        assertSame( first.getLevel(), second.getLevel() );
+        assertEquals( 20000, first.getLevel().toInt() );
+        assertEquals( "INFO", first.getLevel().toString() );
+    }
+
+    public void testUnknownLevelsAreCopied()
+    {
+        Event event = new Event();
+        event.level = 15000;
+        PaxLoggingEventSnapshot first = PaxLoggingEventSnapshot.of( event );
+        PaxLoggingEventSnapshot second = PaxLoggingEventSnapshot.of( event );
+        assertNotSame( first.getLevel(), second.getLevel() );
+        assertEquals( 15000, first.getLevel().toInt() );
+        assertEquals( 6, first.getLevel().getSyslogEquivalent() );
+    }
+
+    public void testLocationAndThrowableAreTakenOnTheLoggingThread()
+    {
+        Event event = new Event();
+        PaxLoggingEventSnapshot snapshot = PaxLoggingEventSnapshot.of( event );
+        assertEquals( 1, event.locationCalls );
+        assertEquals( 1, event.throwableCalls );
+        assertTrue( snapshot.locationInformationExists() );
+
+        assertEquals( "Foo.java", snapshot.getLocationInformation().getFileName() );
+        event.throwable[0] = "changed";
+        assertEquals( "java.lang.Exception", snapshot.getThrowableStrRep()[0] );
+        assertEquals( 1, event.locationCalls );
+        assertEquals( 1, event.throwableCalls );
+    }
+
+    public void testSharedSnapshotsTakeTheLocationWhenAskedFor()
+    {
+        Object key = new Object();
+        Event event = new Event();
+        PaxLoggingEventSnapshot snapshot = PaxLoggingEventSnapshot.of( key, event );
+        assertTrue( PaxLoggingEventSnapshot.isShared( key ) );
+        assertEquals( 0, event.locationCalls );
+        assertEquals( 0, event.throwableCalls );
+
+        assertEquals( "Foo.java", snapshot.getLocationInformation().getFileName() );
+        assertEquals( "java.lang.Exception", snapshot.getThrowableStrRep()[0] );
+        assertEquals( 1, event.locationCalls );
+        assertEquals( 1, event.throwableCalls );
+
+        // what is not taken during the append is not available afterwards
+        Event other = new Event();
+        PaxLoggingEventSnapshot unused = PaxLoggingEventSnapshot.of( new Object(), other );
+        PaxLoggingEventSnapshot.clear();
+        assertFalse( PaxLoggingEventSnapshot.isShared( key ) );
+        assertNull( unused.getLocationInformation() );
+        assertEquals( 0, other.locationCalls );
+    }
+
+    public void testSerialization()
+        throws Exception
+    {
+        Event event = new Event();
+        PaxLoggingEventSnapshot snapshot = PaxLoggingEventSnapshot.of( event );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( bytes );
+        out.writeObject( snapshot );
+        out.close();
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        PaxLoggingEventSnapshot copy = (PaxLoggingEventSnapshot) in.readObject();
+
+        assertEquals( "message", copy.getRenderedMessage() );
+        assertEquals( "value", copy.getProperties().get( "key" ) );
+        assertEquals( "Foo.java", copy.getLocationInformation().getFileName() );
+        assertEquals( "java.lang.Exception", copy.getThrowableStrRep()[0] );
+        assertSame( snapshot.getLevel(), copy.getLevel() );
+    }
+
+    private static class Event
+        implements PaxLoggingEvent
+    {
+
+        final String[] throwable = { "java.lang.Exception", "\tat Foo.bar(Foo.java:1)" };
+        String loggerName = "test";
+        int level = 20000;
+        int syslog = 6;
+        int locationCalls;
+        int throwableCalls;
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            locationCalls++;
+            return new PaxLocationInfo()
+            {
+                public String getFileName()
+                {
+                    return "Foo.java";
+                }
+
+                public String getClassName()
+                {
+                    return "Foo";
+                }
+
+                public String getLineNumber()
+                {
+                    return "1";
+                }
+
+                public String getMethodName()
+                {
+                    return "bar";
+                }
+            };
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return toInt() >= r.toInt();
+                }
+
+                public int toInt()
+                {
+                    return level;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return syslog;
+                }
+
+                public String toString()
+                {
+                    return "INFO";
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return loggerName;
+        }
+
+        public String getMessage()
+        {
+            return "message";
+        }
+
+        public String getRenderedMessage()
+        {
+            return "message";
+        }
+
+        public String getThreadName()
+        {
+            return "main";
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            throwableCalls++;
+            return throwable;
+        }
+
+        public boolean locationInformationExists()
+        {
+            return locationCalls > 0;
+        }
+
+        public long getTimeStamp()
+        {
+            return 42;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return null;
+        }
+
+        public Map getProperties()
+        {
+            return Collections.singletonMap( "key", "value" );
+        }
+    }
+}
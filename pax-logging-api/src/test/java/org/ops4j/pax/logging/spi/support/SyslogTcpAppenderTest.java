@@ -0,0 +1,374 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.spi.support;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+public class SyslogTcpAppenderTest extends TestCase
+{
+
+    private File m_spoolDir;
+    private Collector m_collector;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_spoolDir = File.createTempFile( "syslog", "spool" );
+        m_spoolDir.delete();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        if( m_collector != null )
+        {
+            m_collector.close();
+        }
+        File[] files = m_spoolDir.listFiles();
+        for( int i = 0; files != null && i < files.length; i++ )
+        {
+            files[i].delete();
+        }
+        m_spoolDir.delete();
+    }
+
+    public void testFramesBatchAsRfc5424()
+        throws Exception
+    {
+        m_collector = new Collector( 0 );
+        SyslogTcpAppender appender = new SyslogTcpAppender( "localhost", m_collector.getPort(), m_spoolDir, 1 << 20 );
+        appender.setHostName( "my host" );
+        appender.setAppName( "karaf" );
+        appender.setFacility( 16 );
+        appender.doAppend( Arrays.<PaxLoggingEvent>asList(
+            new Event( 1400000000123L, 3, "org.example.Foo", "caf\u00e9 failed", new String[]{ "java.lang.Exception",
+                                                                                              "\tat Foo.bar" } ),
+            new Event( 1400000000124L, 6, "org.example.Bar", "started", null ) ) );
+
+        assertEquals( "<131>1 2014-05-13T16:53:20.123Z myhost karaf - - - [main] org.example.Foo - caf\u00e9 failed"
+                      + "\njava.lang.Exception\n\tat Foo.bar", m_collector.take() );
+        assertEquals( "<134>1 2014-05-13T16:53:20.124Z myhost karaf - - - [main] org.example.Bar - started",
+                      m_collector.take() );
+        appender.close();
+    }
+
+    public void testSpoolsWhileTheCollectorIsDown()
+        throws Exception
+    {
+        ServerSocket free = new ServerSocket( 0 );
+        int port = free.getLocalPort();
+        free.close();
+
+        SyslogTcpAppender appender = new SyslogTcpAppender( "localhost", port, m_spoolDir, 1 << 20 );
+        appender.setMinBackoff( 1 );
+        appender.doAppend( batch( 0, 5 ) );
+        appender.doAppend( batch( 5, 5 ) );
+        assertTrue( m_spoolDir.list().length > 0 );
+
+        m_collector = new Collector( port );
+        Thread.sleep( 50 );
+        appender.flush();
+        appender.doAppend( batch( 10, 5 ) );
+        for( int i = 0; i < 15; i++ )
+        {
+            assertTrue( m_collector.take().endsWith( "message " + i ) );
+        }
+        assertEquals( 0, m_spoolDir.list().length );
+        appender.close();
+    }
+
+    public void testSpoolOfPreviousRunIsSent()
+        throws Exception
+    {
+        ServerSocket free = new ServerSocket( 0 );
+        int port = free.getLocalPort();
+        free.close();
+
+        SyslogTcpAppender appender = new SyslogTcpAppender( "localhost", port, m_spoolDir, 1 << 20 );
+        appender.doAppend( batch( 0, 3 ) );
+        appender.close();
+
+        m_collector = new Collector( port );
+        appender = new SyslogTcpAppender( "localhost", port, m_spoolDir, 1 << 20 );
+        appender.doAppend( batch( 3, 1 ) );
+        for( int i = 0; i < 4; i++ )
+        {
+            assertTrue( m_collector.take().endsWith( "message " + i ) );
+        }
+        appender.close();
+    }
+
+    public void testSpoolIsBounded()
+        throws Exception
+    {
+        ServerSocket free = new ServerSocket( 0 );
+        int port = free.getLocalPort();
+        free.close();
+
+        SyslogTcpAppender appender = new SyslogTcpAppender( "localhost", port, m_spoolDir, 2L * 1024 * 1024 );
+        char[] chars = new char[1000];
+        Arrays.fill( chars, 'x' );
+        String big = new String( chars );
+        List<PaxLoggingEvent> events = new ArrayList<PaxLoggingEvent>();
+        for( int i = 0; i < 1000; i++ )
+        {
+            events.add( new Event( i, 6, "org.example.Foo", big, null ) );
+        }
+        for( int i = 0; i < 5; i++ )
+        {
+            appender.doAppend( events );
+        }
+        long total = 0;
+        File[] files = m_spoolDir.listFiles();
+        for( int i = 0; i < files.length; i++ )
+        {
+            total += files[i].length();
+        }
+        assertTrue( total <= 2L * 1024 * 1024 );
+        assertTrue( appender.getDroppedBytes() > 0 );
+        appender.close();
+    }
+
+    public void testSpoolsWhenTheCollectorStopsReading()
+        throws Exception
+    {
+        // accepts the connection, never reads
+        ServerSocket stuck = new ServerSocket( 0 );
+        try
+        {
+            SyslogTcpAppender appender = new SyslogTcpAppender( "localhost", stuck.getLocalPort(), m_spoolDir,
+                                                                64L * 1024 * 1024 );
+            appender.setWriteTimeout( 200 );
+            char[] chars = new char[1000];
+            Arrays.fill( chars, 'x' );
+            String big = new String( chars );
+            List<PaxLoggingEvent> events = new ArrayList<PaxLoggingEvent>();
+            for( int i = 0; i < 1000; i++ )
+            {
+                events.add( new Event( i, 6, "org.example.Foo", big, null ) );
+            }
+            long start = System.currentTimeMillis();
+            for( int i = 0; i < 50 && m_spoolDir.list() == null; i++ )
+            {
+                appender.doAppend( events );
+            }
+            assertTrue( System.currentTimeMillis() - start < 10000 );
+            assertTrue( m_spoolDir.list().length > 0 );
+            appender.close();
+        }
+        finally
+        {
+            stuck.close();
+        }
+    }
+
+    private static List<PaxLoggingEvent> batch( int first, int count )
+    {
+        List<PaxLoggingEvent> events = new ArrayList<PaxLoggingEvent>();
+        for( int i = first; i < first + count; i++ )
+        {
+            events.add( new Event( i, 6, "org.example.Foo", "message " + i, null ) );
+        }
+        return events;
+    }
+
+    /**
+     * An in-process collector, which reads octet counted messages.
+     */
+    private static class Collector
+        extends Thread
+    {
+
+        private final ServerSocket m_server;
+        private final BlockingQueue<String> m_messages = new LinkedBlockingQueue<String>();
+
+        Collector( int port )
+            throws IOException
+        {
+            m_server = new ServerSocket( port );
+            setDaemon( true );
+            start();
+        }
+
+        int getPort()
+        {
+            return m_server.getLocalPort();
+        }
+
+        String take()
+            throws InterruptedException
+        {
+            String message = m_messages.poll( 5, TimeUnit.SECONDS );
+            assertNotNull( "no message received", message );
+            return message;
+        }
+
+        void close()
+            throws IOException
+        {
+            m_server.close();
+        }
+
+        public void run()
+        {
+            try
+            {
+                while( true )
+                {
+                    Socket socket = m_server.accept();
+                    DataInputStream in = new DataInputStream( socket.getInputStream() );
+                    try
+                    {
+                        while( true )
+                        {
+                            int length = 0;
+                            int c = in.read();
+                            if( c < 0 )
+                            {
+                                break;
+                            }
+                            while( c != ' ' )
+                            {
+                                length = length * 10 + c - '0';
+                                c = in.read();
+                            }
+                            byte[] bytes = new byte[length];
+                            in.readFully( bytes );
+                            m_messages.add( new String( bytes, "UTF-8" ) );
+                        }
+                    }
+                    finally
+                    {
+                        socket.close();
+                    }
+                }
+            }
+            catch( IOException e )
+            {
+                // closed
+            }
+        }
+    }
+
+    private static class Event
+        implements PaxLoggingEvent
+    {
+
+        final long timeStamp;
+        final int syslog;
+        final String logger;
+        final String message;
+        final String[] throwable;
+
+        Event( long timeStamp, int syslog, String logger, String message, String[] throwable )
+        {
+            this.timeStamp = timeStamp;
+            this.syslog = syslog;
+            this.logger = logger;
+            this.message = message;
+            this.throwable = throwable;
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return null;
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return toInt() >= r.toInt();
+                }
+
+                public int toInt()
+                {
+                    return syslog == 3 ? 40000 : 20000;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return syslog;
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return logger;
+        }
+
+        public String getMessage()
+        {
+            return message;
+        }
+
+        public String getRenderedMessage()
+        {
+            return message;
+        }
+
+        public String getThreadName()
+        {
+            return "main";
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return throwable;
+        }
+
+        public boolean locationInformationExists()
+        {
+            return false;
+        }
+
+        public long getTimeStamp()
+        {
+            return timeStamp;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return null;
+        }
+
+        public Map getProperties()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.decoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.ops4j.pax.logging.spi.support.BinaryLogReader;
+import org.ops4j.pax.logging.spi.support.BlackBoxReader;
+
+/**
+ * Renders binary log files as text.
+ *
+ * <pre>
+ * java -jar pax-logging-decoder.jar [-p pattern] file...
+ * java -jar pax-logging-decoder.jar -b [-m megabytes] [-p pattern] file...
+ * </pre>
+ *
+ * The files are rendered in the given order to the standard output, the standard input is read if no file is
+ * given. With <code>-b</code>, the files are black box recordings, of which the last megabytes given with
+ * <code>-m</code> are rendered, all of them by default.
+ */
+public class Main
+{
+
+    public static final String DEFAULT_PATTERN = "%d{ISO8601} | %-5.5p | %-16.16t | %-32.32c{1} | %X{bundle.id} - %X{bundle.name} - %X{bundle.version} | %m%n";
+
+    public static void main( String[] args )
+        throws IOException
+    {
+        String pattern = DEFAULT_PATTERN;
+        boolean blackBox = false;
+        long maxBytes = Long.MAX_VALUE;
+        List<String> files = new ArrayList<String>();
+        for( int i = 0; i < args.length; i++ )
+        {
+            if( "-p".equals( args[i] ) && i + 1 < args.length )
+            {
+                pattern = args[++i];
+            }
+            else if( "-b".equals( args[i] ) )
+            {
+                blackBox = true;
+            }
+            else if( "-m".equals( args[i] ) && i + 1 < args.length )
+            {
+                maxBytes = (long) ( Double.parseDouble( args[++i] ) * 1024 * 1024 );
+            }
+            else if( "-h".equals( args[i] ) || "-p".equals( args[i] ) || "-m".equals( args[i] ) )
+            {
+                System.err.println( "Usage: java -jar pax-logging-decoder.jar [-p pattern] file..." );
+                System.err.println( "       java -jar pax-logging-decoder.jar -b [-m megabytes] [-p pattern] file..." );
+                System.err.println( "Default pattern: " + DEFAULT_PATTERN );
+                System.exit( 1 );
+            }
+            else
+            {
+                files.add( args[i] );
+            }
+        }
+        PatternRenderer renderer = new PatternRenderer( pattern );
+        Writer out = new BufferedWriter( new OutputStreamWriter( System.out ) );
+        try
+        {
+            if( files.isEmpty() && !blackBox )
+            {
+                decode( new BufferedInputStream( System.in ), renderer, out );
+            }
+            for( String file : files )
+            {
+                if( blackBox )
+                {
+                    decodeBlackBox( new File( file ), maxBytes, renderer, out );
+                }
+                else
+                {
+                    decode( new BufferedInputStream( new FileInputStream( file ) ), renderer, out );
+                }
+            }
+        }
+        finally
+        {
+            out.flush();
+        }
+    }
+
+    /**
+     * Renders the events of a binary log and closes it.
+     *
+     * @param in       the binary log
+     * @param renderer the renderer
+     * @param out      where to write the text to
+     * @throws IOException if the log is not in the binary format, or can not be read or written
+     */
+    public static void decode( InputStream in, PatternRenderer renderer, Writer out )
+        throws IOException
+    {
+        BinaryLogReader reader = new BinaryLogReader( in );
+        try
+        {
+            PaxLoggingEvent event;
+            while( ( event = reader.read() ) != null )
+            {
+                out.write( renderer.render( event ) );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Renders the events of a black box recording.
+     *
+     * @param file     the ring file
+     * @param maxBytes the maximum number of bytes of the records to render, counted from the last one
+     * @param renderer the renderer
+     * @param out      where to write the text to
+     * @throws IOException if the file is not a black box recording, or can not be read or written
+     */
+    public static void decodeBlackBox( File file, long maxBytes, PatternRenderer renderer, Writer out )
+        throws IOException
+    {
+        for( PaxLoggingEvent event : new BlackBoxReader( file ).read( maxBytes ) )
+        {
+            out.write( renderer.render( event ) );
+        }
+    }
+}
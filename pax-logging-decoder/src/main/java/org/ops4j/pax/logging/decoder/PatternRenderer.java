@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.decoder;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Renders events with a log4j style conversion pattern.
+ *
+ * <p>
+ * The supported conversions are <code>%d{format}</code>, <code>%p</code>, <code>%c{precision}</code>,
+ * <code>%C{precision}</code>, <code>%M</code>, <code>%F</code>, <code>%L</code>, <code>%l</code>, <code>%t</code>,
+ * <code>%m</code>, <code>%X{key}</code>, <code>%X</code>, <code>%n</code> and <code>%%</code>, with the usual
+ * minimum and maximum width modifiers. The date format is a <code>SimpleDateFormat</code> pattern or one of
+ * ISO8601, ABSOLUTE and DATE. The stack trace of an event follows the rendered pattern.
+ * </p>
+ */
+public class PatternRenderer
+{
+
+    private static final String LINE_SEP = System.getProperty( "line.separator" );
+
+    private final List<Part> m_parts = new ArrayList<Part>();
+
+    public PatternRenderer( String pattern )
+    {
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while( i < pattern.length() )
+        {
+            char c = pattern.charAt( i++ );
+            if( c != '%' || i >= pattern.length() )
+            {
+                literal.append( c );
+                continue;
+            }
+            if( pattern.charAt( i ) == '%' )
+            {
+                literal.append( '%' );
+                i++;
+                continue;
+            }
+            if( literal.length() > 0 )
+            {
+                m_parts.add( new Part( literal.toString() ) );
+                literal.setLength( 0 );
+            }
+            boolean leftAlign = false;
+            if( pattern.charAt( i ) == '-' )
+            {
+                leftAlign = true;
+                i++;
+            }
+            int min = 0;
+            while( i < pattern.length() && Character.isDigit( pattern.charAt( i ) ) )
+            {
+                min = min * 10 + pattern.charAt( i++ ) - '0';
+            }
+            int max = Integer.MAX_VALUE;
+            if( i < pattern.length() && pattern.charAt( i ) == '.' )
+            {
+                i++;
+                max = 0;
+                while( i < pattern.length() && Character.isDigit( pattern.charAt( i ) ) )
+                {
+                    max = max * 10 + pattern.charAt( i++ ) - '0';
+                }
+            }
+            if( i >= pattern.length() )
+            {
+                throw new IllegalArgumentException( "Incomplete conversion at the end of " + pattern );
+            }
+            char conversion = pattern.charAt( i++ );
+            String option = null;
+            if( i < pattern.length() && pattern.charAt( i ) == '{' )
+            {
+                int end = pattern.indexOf( '}', i );
+                if( end < 0 )
+                {
+                    throw new IllegalArgumentException( "Unclosed option in " + pattern );
+                }
+                option = pattern.substring( i + 1, end );
+                i = end + 1;
+            }
+            if( "dpcCMFLltmXn".indexOf( conversion ) < 0 )
+            {
+                throw new IllegalArgumentException( "Unsupported conversion %" + conversion + " in " + pattern );
+            }
+            m_parts.add( new Part( conversion, option, leftAlign, min, max ) );
+        }
+        if( literal.length() > 0 )
+        {
+            m_parts.add( new Part( literal.toString() ) );
+        }
+    }
+
+    public String render( PaxLoggingEvent event )
+    {
+        StringBuilder sb = new StringBuilder();
+        for( Part part : m_parts )
+        {
+            part.render( event, sb );
+        }
+        String[] throwable = event.getThrowableStrRep();
+        if( throwable != null )
+        {
+            for( String line : throwable )
+            {
+                sb.append( line ).append( LINE_SEP );
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Part
+    {
+
+        private final char m_conversion;
+        private final String m_text;
+        private final boolean m_leftAlign;
+        private final int m_min;
+        private final int m_max;
+        private final int m_precision;
+        private final SimpleDateFormat m_dateFormat;
+
+        Part( String literal )
+        {
+            this( (char) 0, literal, false, 0, Integer.MAX_VALUE );
+        }
+
+        Part( char conversion, String option, boolean leftAlign, int min, int max )
+        {
+            m_conversion = conversion;
+            m_text = option;
+            m_leftAlign = leftAlign;
+            m_min = min;
+            m_max = max;
+            int precision = 0;
+            if( ( conversion == 'c' || conversion == 'C' ) && option != null )
+            {
+                precision = Integer.parseInt( option.trim() );
+            }
+            m_precision = precision;
+            m_dateFormat = conversion == 'd' ? dateFormat( option ) : null;
+        }
+
+        private static SimpleDateFormat dateFormat( String option )
+        {
+            if( option == null || "ISO8601".equals( option ) )
+            {
+                return new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss,SSS" );
+            }
+            if( "ABSOLUTE".equals( option ) )
+            {
+                return new SimpleDateFormat( "HH:mm:ss,SSS" );
+            }
+            if( "DATE".equals( option ) )
+            {
+                return new SimpleDateFormat( "dd MMM yyyy HH:mm:ss,SSS" );
+            }
+            return new SimpleDateFormat( option );
+        }
+
+        void render( PaxLoggingEvent event, StringBuilder sb )
+        {
+            if( m_conversion == 0 )
+            {
+                sb.append( m_text );
+                return;
+            }
+            String value = value( event );
+            if( value == null )
+            {
+                value = "";
+            }
+            if( value.length() > m_max )
+            {
+                // like log4j, truncates from the beginning
+                value = value.substring( value.length() - m_max );
+            }
+            int padding = m_min - value.length();
+            if( !m_leftAlign )
+            {
+                pad( sb, padding );
+            }
+            sb.append( value );
+            if( m_leftAlign )
+            {
+                pad( sb, padding );
+            }
+        }
+
+        private static void pad( StringBuilder sb, int padding )
+        {
+            for( int i = 0; i < padding; i++ )
+            {
+                sb.append( ' ' );
+            }
+        }
+
+        private String value( PaxLoggingEvent event )
+        {
+            switch( m_conversion )
+            {
+                case 'd':
+                    return m_dateFormat.format( new Date( event.getTimeStamp() ) );
+                case 'p':
+                    return event.getLevel() == null ? null : event.getLevel().toString();
+                case 'c':
+                    return abbreviate( event.getLoggerName() );
+                case 't':
+                    return event.getThreadName();
+                case 'm':
+                    return event.getRenderedMessage();
+                case 'n':
+                    return LINE_SEP;
+                case 'X':
+                    return mdc( event );
+                default:
+                    PaxLocationInfo location = event.getLocationInformation();
+                    if( location == null )
+                    {
+                        return "?";
+                    }
+                    switch( m_conversion )
+                    {
+                        case 'C':
+                            return abbreviate( location.getClassName() );
+                        case 'M':
+                            return location.getMethodName();
+                        case 'F':
+                            return location.getFileName();
+                        case 'L':
+                            return location.getLineNumber();
+                        default:
+                            return location.getClassName() + "." + location.getMethodName() + "("
+                                   + location.getFileName() + ":" + location.getLineNumber() + ")";
+                    }
+            }
+        }
+
+        private String mdc( PaxLoggingEvent event )
+        {
+            Map properties = event.getProperties();
+            if( properties == null )
+            {
+                return null;
+            }
+            if( m_text != null )
+            {
+                Object value = properties.get( m_text );
+                return value == null ? null : value.toString();
+            }
+            StringBuilder sb = new StringBuilder( "{" );
+            for( Iterator it = properties.entrySet().iterator(); it.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) it.next();
+                sb.append( '{' ).append( entry.getKey() ).append( ',' ).append( entry.getValue() ).append( '}' );
+            }
+            return sb.append( '}' ).toString();
+        }
+
+        /**
+         * @return the last segments of the name, as many as the precision asks for
+         */
+        private String abbreviate( String name )
+        {
+            if( name == null || m_precision <= 0 )
+            {
+                return name;
+            }
+            int end = name.length();
+            for( int i = 0; i < m_precision; i++ )
+            {
+                end = name.lastIndexOf( '.', end - 1 );
+                if( end < 0 )
+                {
+                    return name;
+                }
+            }
+            return name.substring( end + 1 );
+        }
+    }
+}
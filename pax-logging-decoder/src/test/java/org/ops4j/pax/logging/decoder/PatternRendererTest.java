@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.decoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.ops4j.pax.logging.spi.support.BinaryLogWriter;
+
+public class PatternRendererTest extends TestCase
+{
+
+    private static final String NL = System.getProperty( "line.separator" );
+
+    public void testConversions()
+    {
+        PatternRenderer renderer = new PatternRenderer( "%-5p|%5.3t|%c{1}|%C.%M(%F:%L)|%X{bundle.name}|%m%%%n" );
+        assertEquals( "INFO |  ain|Foo|org.example.Foo.bar(Foo.java:42)|org.example|hello%" + NL
+                      + "java.lang.Exception" + NL,
+                      renderer.render( new Event() ) );
+    }
+
+    public void testDecode()
+        throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryLogWriter writer = new BinaryLogWriter( bytes );
+        writer.write( new Event() );
+        writer.write( new Event() );
+        writer.close();
+
+        StringWriter out = new StringWriter();
+        Main.decode( new ByteArrayInputStream( bytes.toByteArray() ), new PatternRenderer( "%p %c %m%n" ), out );
+        String line = "INFO org.example.Foo hello" + NL + "java.lang.Exception" + NL;
+        assertEquals( line + line, out.toString() );
+    }
+
+    private static class Event
+        implements PaxLoggingEvent
+    {
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return new PaxLocationInfo()
+            {
+                public String getFileName()
+                {
+                    return "Foo.java";
+                }
+
+                public String getClassName()
+                {
+                    return "org.example.Foo";
+                }
+
+                public String getLineNumber()
+                {
+                    return "42";
+                }
+
+                public String getMethodName()
+                {
+                    return "bar";
+                }
+            };
+        }
+
+        public PaxLevel getLevel()
+        {
+            return new PaxLevel()
+            {
+                public boolean isGreaterOrEqual( PaxLevel r )
+                {
+                    return toInt() >= r.toInt();
+                }
+
+                public int toInt()
+                {
+                    return 20000;
+                }
+
+                public int getSyslogEquivalent()
+                {
+                    return 6;
+                }
+
+                public String toString()
+                {
+                    return "INFO";
+                }
+            };
+        }
+
+        public String getLoggerName()
+        {
+            return "org.example.Foo";
+        }
+
+        public String getMessage()
+        {
+            return "hello";
+        }
+
+        public String getRenderedMessage()
+        {
+            return "hello";
+        }
+
+        public String getThreadName()
+        {
+            return "main";
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            return new String[]{ "java.lang.Exception" };
+        }
+
+        public boolean locationInformationExists()
+        {
+            return true;
+        }
+
+        public long getTimeStamp()
+        {
+            return 0;
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return null;
+        }
+
+        public Map getProperties()
+        {
+            return Collections.singletonMap( "bundle.name", "org.example" );
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.logging.log4j.core.config.plugins.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.osgi.framework.Bundle;
+
+/**
+ * Remembers which entries of a bundle matched a {@link ResolverUtil.Test}, so that the bundle is not scanned again.
+ *
+ * <p>{@link PluginManager} scans the packages added with {@link PluginManager#addPackage(String)} every time a
+ * configuration collects its plugins, which means listing and loading every class of the package each time the
+ * logging configuration changes. The results are keyed by bundle id and last modification time, so an update or
+ * reinstallation of the bundle invalidates them, and stored in the data area of the bundle, so that later starts of
+ * the framework do not scan either.</p>
+ */
+final class ResolverCache {
+
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    private static final String FILE_NAME = "log4j2-resolver-cache.properties";
+
+    private static ResolverCache instance;
+
+    private final Bundle bundle;
+    private final String revision;
+    private final Properties entries = new Properties();
+
+    private ResolverCache(final Bundle bundle) {
+        this.bundle = bundle;
+        this.revision = bundle.getBundleId() + "@" + bundle.getLastModified();
+        load();
+    }
+
+    /**
+     * @param bundle the bundle that is scanned
+     * @return the cache for the current revision of the bundle
+     */
+    static synchronized ResolverCache getInstance(final Bundle bundle) {
+        if (instance == null || instance.bundle != bundle
+                || !instance.revision.equals(bundle.getBundleId() + "@" + bundle.getLastModified())) {
+            instance = new ResolverCache(bundle);
+        }
+        return instance;
+    }
+
+    /**
+     * The key of a scan is made of the package, the class of the test and the values of its fields, which are the
+     * arguments the test was created with. Tests with a field of another type than a class, a string, a primitive
+     * wrapper or an enum, including the enclosing instance or the captured variables of an inner class, cannot be
+     * cached.
+     *
+     * @param test        the test
+     * @param packageName the package that is scanned
+     * @return the key to cache the matches of a scan with, or {@code null} if the scan cannot be cached
+     */
+    static String key(final ResolverUtil.Test test, final String packageName) {
+        final Map<String, String> arguments = new TreeMap<String, String>();
+        for (Class<?> type = test.getClass(); type != Object.class; type = type.getSuperclass()) {
+            for (final Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                if (field.isSynthetic()) {
+                    return null;
+                }
+                final Object value;
+                try {
+                    field.setAccessible(true);
+                    value = field.get(test);
+                } catch (final Exception e) {
+                    return null;
+                }
+                final String argument = argument(value);
+                if (argument == null) {
+                    return null;
+                }
+                arguments.put(type.getName() + '.' + field.getName(), argument);
+            }
+        }
+        final StringBuilder key = new StringBuilder(packageName).append('|').append(test.getClass().getName());
+        for (final Map.Entry<String, String> argument : arguments.entrySet()) {
+            key.append('|').append(argument.getKey()).append('=').append(argument.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the value as part of a key, or {@code null} if it has no stable text form
+     */
+    private static String argument(final Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Class) {
+            return ((Class<?>) value).getName();
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        if (value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character) {
+            return value.toString();
+        }
+        return null;
+    }
+
+    /**
+     * @param key the key of the scan
+     * @return the names of the matching entries, or {@code null} if the scan has not been done yet
+     */
+    synchronized List<String> get(final String key) {
+        final String value = entries.getProperty(revision + '|' + key);
+        if (value == null) {
+            return null;
+        }
+        if (value.length() == 0) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(value.split(","));
+    }
+
+    /**
+     * @param key     the key of the scan
+     * @param matches the names of the matching entries
+     */
+    synchronized void put(final String key, final List<String> matches) {
+        final StringBuilder value = new StringBuilder();
+        for (final String match : matches) {
+            if (value.length() > 0) {
+                value.append(',');
+            }
+            value.append(match);
+        }
+        entries.setProperty(revision + '|' + key, value.toString());
+        store();
+    }
+
+    private void load() {
+        final File file = getFile();
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                entries.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Could not read the plugin scan cache {}", file, e);
+            entries.clear();
+        }
+        // entries of earlier revisions of the bundle are stale
+        final List<Object> stale = new ArrayList<Object>();
+        for (final Object key : entries.keySet()) {
+            if (!key.toString().startsWith(revision + '|')) {
+                stale.add(key);
+            }
+        }
+        entries.keySet().removeAll(stale);
+    }
+
+    private void store() {
+        final File file = getFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                entries.store(out, "Log4j plugin scan results, see " + ResolverUtil.class.getName());
+            } finally {
+                out.close();
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Could not write the plugin scan cache {}", file, e);
+        }
+    }
+
+    private File getFile() {
+        try {
+            return bundle.getDataFile(FILE_NAME);
+        } catch (final IllegalStateException e) {
+            // the bundle has been uninstalled
+            return null;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
@@ -37,6 +38,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.util.Charsets;
 import org.apache.logging.log4j.core.util.Loader;
 import org.apache.logging.log4j.status.StatusLogger;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.wiring.BundleWiring;
 
@@ -76,7 +78,7 @@ import org.osgi.framework.wiring.BundleWiring;
 
 /**
  * Modified from log4j 2.0.2 ResolverUtil to add support for the bundle: protocol
- * which is used by felix.
+ * which is used by felix. The matches found in the bundle are kept in a {@link ResolverCache}.
  */
 public class ResolverUtil {
     /** An instance of Log to use for logging in this class. */
@@ -241,15 +243,37 @@ public class ResolverUtil {
     }
 
     private void loadImplementationsInBundle(final Test test, final String packageName) {
+        loadImplementationsInBundle(test, packageName, FrameworkUtil.getBundle(ResolverUtil.class));
+    }
+
+    void loadImplementationsInBundle(final Test test, final String packageName, final Bundle bundle) {
+        // the matches are remembered per bundle revision, so the bundle is listed and its classes are loaded once
+        final String key = ResolverCache.key(test, packageName);
+        final ResolverCache cache = key == null ? null : ResolverCache.getInstance(bundle);
+        if (cache != null) {
+            final List<String> cached = cache.get(key);
+            if (cached != null) {
+                for (final String name : cached) {
+                    addIfMatching(test, name);
+                }
+                return;
+            }
+        }
+
         //Do not remove the cast on the next line as removing it will cause a compile error on Java 7.
         @SuppressWarnings("RedundantCast")
-        final BundleWiring wiring = (BundleWiring) FrameworkUtil.getBundle(
-                ResolverUtil.class).adapt(BundleWiring.class);
+        final BundleWiring wiring = (BundleWiring) bundle.adapt(BundleWiring.class);
         @SuppressWarnings("unchecked")
         final Collection<String> list = (Collection<String>) wiring.listResources(packageName, "*.class",
                 BundleWiring.LISTRESOURCES_RECURSE);
+        final List<String> matches = new ArrayList<String>();
         for (final String name : list) {
-            addIfMatching(test, name);
+            if (addMatching(test, name)) {
+                matches.add(name);
+            }
+        }
+        if (cache != null) {
+            cache.put(key, matches);
         }
     }
 
@@ -365,6 +389,14 @@ public class ResolverUtil {
      * @param fqn the fully qualified name of a class
      */
     protected void addIfMatching(final Test test, final String fqn) {
+        addMatching(test, fqn);
+    }
+
+    /**
+     * @return true if the class or resource matched the test and was added
+     */
+    private boolean addMatching(final Test test, final String fqn) {
+        boolean matched = false;
         try {
             final ClassLoader loader = getClassLoader();
             if (test.doesMatchClass()) {
@@ -376,6 +408,7 @@ public class ResolverUtil {
                 final Class<?> type = loader.loadClass(externalName);
                 if (test.matches(type)) {
                     classMatches.add(type);
+                    matched = true;
                 }
             }
             if (test.doesMatchResource()) {
@@ -385,11 +418,13 @@ public class ResolverUtil {
                 }
                 if (url != null && test.matches(url.toURI())) {
                     resourceMatches.add(url.toURI());
+                    matched = true;
                 }
             }
         } catch (final Throwable t) {
             LOGGER.warn("Could not examine class '" + fqn, t);
         }
+        return matched;
     }
 
     /**
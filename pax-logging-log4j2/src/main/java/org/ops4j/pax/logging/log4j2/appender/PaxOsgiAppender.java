@@ -31,6 +31,7 @@ import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.status.StatusLogger;
 import org.ops4j.pax.logging.log4j2.internal.PaxAppenderProxy;
 import org.ops4j.pax.logging.log4j2.internal.PaxLoggingEventImpl;
+import org.ops4j.pax.logging.spi.support.PaxLoggingEventSnapshot;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
@@ -129,8 +130,14 @@ public class PaxOsgiAppender implements Appender {
     @Override
     public void append(LogEvent event) {
         PaxAppenderProxy p = proxy;
-        if (p != null) {
-            p.doAppend(new PaxLoggingEventImpl(event));
+        if (p != null && p.hasAppenders()) {
+            // one snapshot per event, shared with the appenders of the proxy. Async loggers reuse their events, the
+            // message identifies the event instead
+            try {
+                p.doAppend(PaxLoggingEventSnapshot.of(event.getMessage(), new PaxLoggingEventImpl(event)));
+            } finally {
+                PaxLoggingEventSnapshot.clear();
+            }
         }
     }
 
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.log4j2.filter;
+
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.ops4j.pax.logging.spi.support.BurstSuppressor;
+
+/**
+ * <p>
+ * This is a Log4j v2 filter that suppresses bursts of similar messages, and logs "Suppressed N similar messages"
+ * from time to time with the logger and the level of the last message suppressed. See {@link BurstSuppressor} for
+ * the details.
+ * </p>
+ * <p>
+ * For example, as a context-wide filter, which drops the messages before the events are created:
+ * <pre>
+ *   &lt;BurstSuppression key="logger,message" rate="10" burst="100" summaryInterval="30000"/&gt;
+ * </pre>
+ * The key is a comma separated list of <code>logger</code> (the default), <code>level</code>, <code>message</code>
+ * (the format string) and <code>mdc:</code> followed by the name of a context map entry. As with the
+ * <code>BurstFilter</code> of Log4j, the messages within the rate get the onMatch result, NEUTRAL by default, and the
+ * others the onMismatch result, DENY by default.
+ * </p>
+ */
+@Plugin(name = "BurstSuppression", category = "Core", elementType = "filter", printObject = true)
+public final class BurstSuppressionFilter extends AbstractFilter implements BurstSuppressor.Reporter {
+
+    private static final String FQCN = BurstSuppressionFilter.class.getName();
+
+    private final BurstSuppressor.Key key;
+    private final BurstSuppressor suppressor;
+    private final Configuration config;
+
+    private BurstSuppressionFilter(BurstSuppressor.Key key, BurstSuppressor suppressor, Configuration config,
+                                   Result onMatch, Result onMismatch) {
+        super(onMatch, onMismatch);
+        this.key = key;
+        this.suppressor = suppressor;
+        this.config = config;
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object... params) {
+        if (msg == null) {
+            // isEnabled() checks are not events
+            return Result.NEUTRAL;
+        }
+        return filter(logger.getName(), level, msg, null);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Object msg, Throwable t) {
+        if (msg == null) {
+            return Result.NEUTRAL;
+        }
+        return filter(logger.getName(), level, msg.toString(), null);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Message msg, Throwable t) {
+        if (msg == null) {
+            return Result.NEUTRAL;
+        }
+        return filter(logger.getName(), level, msg.getFormat(), null);
+    }
+
+    @Override
+    public Result filter(LogEvent event) {
+        Message msg = event.getMessage();
+        return filter(event.getLoggerName(), event.getLevel(), msg == null ? null : msg.getFormat(),
+                event.getContextMap());
+    }
+
+    private Result filter(String loggerName, Level level, String format, Map<String, String> contextMap) {
+        if (BurstSuppressor.isReporting()) {
+            return Result.NEUTRAL;
+        }
+        long now = System.currentTimeMillis();
+        suppressor.report(this, now);
+        Object[] values = new Object[key.size()];
+        for (int i = 0; i < values.length; i++) {
+            switch (key.getKind(i)) {
+                case BurstSuppressor.Key.LOGGER:
+                    values[i] = loggerName;
+                    break;
+                case BurstSuppressor.Key.LEVEL:
+                    values[i] = level;
+                    break;
+                case BurstSuppressor.Key.MESSAGE:
+                    values[i] = format;
+                    break;
+                default:
+                    values[i] = contextMap != null ? contextMap.get(key.getMdcKey(i))
+                            : ThreadContext.get(key.getMdcKey(i));
+                    break;
+            }
+        }
+        return suppressor.permit(key.of(values), new Sample(loggerName, level), now) ? onMatch : onMismatch;
+    }
+
+    @Override
+    public void stop() {
+        if (isStarted()) {
+            // the summaries are only logged by the next messages otherwise
+            suppressor.flush(this);
+        }
+        super.stop();
+    }
+
+    public void suppressed(Object sample, long count) {
+        Sample s = (Sample) sample;
+        config.getLoggerConfig(s.loggerName).log(s.loggerName, FQCN, null, s.level,
+                new SimpleMessage(BurstSuppressor.summary(count)), null);
+    }
+
+    /**
+     * Create a Burst Suppression Filter.
+     * @param key the properties which make messages similar, defaults to "logger"
+     * @param rate the number of messages per second each key may log in the long run
+     * @param burst the number of messages each key may log at once
+     * @param summaryInterval how many milliseconds apart the suppressed messages are reported
+     * @param maxKeys the number of keys kept
+     * @param match the result of the messages within the rate, defaults to NEUTRAL
+     * @param mismatch the result of the messages beyond the rate, defaults to DENY
+     * @param config The Configuration
+     * @return The BurstSuppressionFilter.
+     */
+    @PluginFactory
+    public static BurstSuppressionFilter createFilter(
+            // @formatter:off
+            @PluginAttribute("key") final String key,
+            @PluginAttribute("rate") final String rate,
+            @PluginAttribute("burst") final String burst,
+            @PluginAttribute("summaryInterval") final String summaryInterval,
+            @PluginAttribute("maxKeys") final String maxKeys,
+            @PluginAttribute("onMatch") final String match,
+            @PluginAttribute("onMismatch") final String mismatch,
+            @PluginConfiguration final Configuration config) {
+            // @formatter:on
+
+        try {
+            BurstSuppressor.Key parsedKey = new BurstSuppressor.Key(key == null ? "logger" : key);
+            BurstSuppressor suppressor = new BurstSuppressor(
+                    rate == null ? BurstSuppressor.DEFAULT_RATE : Double.parseDouble(rate),
+                    burst == null ? BurstSuppressor.DEFAULT_BURST : Integer.parseInt(burst),
+                    summaryInterval == null ? BurstSuppressor.DEFAULT_SUMMARY_INTERVAL : Long.parseLong(summaryInterval),
+                    maxKeys == null ? BurstSuppressor.DEFAULT_MAX_KEYS : Integer.parseInt(maxKeys));
+            return new BurstSuppressionFilter(parsedKey, suppressor, config,
+                    Result.toResult(match, Result.NEUTRAL), Result.toResult(mismatch, Result.DENY));
+        } catch (IllegalArgumentException e) {
+            StatusLogger.getLogger().error("Invalid BurstSuppression filter: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static final class Sample {
+        final String loggerName;
+        final Level level;
+
+        Sample(String loggerName, Level level) {
+            this.loggerName = loggerName;
+            this.level = level;
+        }
+    }
+}
@@ -141,11 +141,15 @@ public class Activator
 
             m_JdkHandler = new JdkHandler( m_PaxLogging );
             rootLogger.addHandler( m_JdkHandler );
+            m_PaxLogging.setJdkHandler( m_JdkHandler );
         }
         m_frameworkHandler = new FrameworkHandler( m_PaxLogging );
-        bundleContext.addBundleListener( m_frameworkHandler );
-        bundleContext.addFrameworkListener( m_frameworkHandler );
-        bundleContext.addServiceListener( m_frameworkHandler );
+        if( m_frameworkHandler.isEnabled() )
+        {
+            bundleContext.addBundleListener( m_frameworkHandler );
+            bundleContext.addFrameworkListener( m_frameworkHandler );
+            bundleContext.addServiceListener( m_frameworkHandler );
+        }
     }
 
     /**
@@ -161,12 +165,14 @@ public class Activator
         bundleContext.removeBundleListener( m_frameworkHandler );
         bundleContext.removeFrameworkListener( m_frameworkHandler );
         bundleContext.removeServiceListener( m_frameworkHandler );
+        m_frameworkHandler.close();
 
         // Remove the global handler for all JDK Logging (java.util.logging).
         if( m_JdkHandler != null )
         {
             Logger rootLogger = LogManager.getLogManager().getLogger( "" );
             rootLogger.removeHandler( m_JdkHandler );
+            m_PaxLogging.setJdkHandler( null );
             m_JdkHandler.flush();
             m_JdkHandler.close();
             m_JdkHandler = null;
@@ -16,6 +16,13 @@
  */
 package org.ops4j.pax.logging.log4j2.internal;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.FrameworkEvent;
@@ -32,17 +39,36 @@ import org.osgi.service.log.LogService;
  *
  * <p>By default, all events log by this class are logged at the DEBUG level.  This can be
  * changed to a different level by setting the system property
- * "org.ops4j.pax.logging.service.frameworkEventsLogLevel" to DEBUG, INFO, WARNING, or ERROR.</p>
+ * "org.ops4j.pax.logging.service.frameworkEventsLogLevel" to DEBUG, INFO, WARNING, or ERROR.
+ * DISABLED turns the logging of framework events off.</p>
+ *
+ * <p>If the system property "org.ops4j.pax.logging.service.frameworkEventsCoalesceWindow" is set
+ * to a number of milliseconds, the listener methods only queue the events. A background thread
+ * formats and logs them once per window, with one summary record for all bundle or service events
+ * of the same type, which keeps the framework's event delivery fast when hundreds of bundles
+ * are installed and started. Framework events, and groups of a single event, are logged
+ * as usual.</p>
  */
 public class FrameworkHandler
-    implements SynchronousBundleListener, FrameworkListener, ServiceListener
+    implements SynchronousBundleListener, FrameworkListener, ServiceListener, Runnable
 {
 
     public static final String FRAMEWORK_EVENTS_LOG_LEVEL_PROP_NAME =
         "org.ops4j.pax.logging.service.frameworkEventsLogLevel";
 
+    public static final String FRAMEWORK_EVENTS_COALESCE_WINDOW_PROP_NAME =
+        "org.ops4j.pax.logging.service.frameworkEventsCoalesceWindow";
+
+    /**
+     * Number of bundles or services listed by name in a summary record.
+     */
+    private static final int MAX_LISTED = 50;
+
     private final PaxLoggingServiceImpl m_service;
     private final int loggingLevel;
+    private final long m_window;
+    private final ConcurrentLinkedQueue<Object> m_events = new ConcurrentLinkedQueue<Object>();
+    private Thread m_thread;
 
     public FrameworkHandler( final PaxLoggingServiceImpl service )
     {
@@ -50,54 +76,252 @@ public class FrameworkHandler
 
         final String levelName = System.getProperty( FRAMEWORK_EVENTS_LOG_LEVEL_PROP_NAME, "DEBUG" ).trim();
         loggingLevel = convertLevel( levelName );
+        final long window = Long.getLong( FRAMEWORK_EVENTS_COALESCE_WINDOW_PROP_NAME, 0 ).longValue();
+        m_window = loggingLevel > 0 ? window : 0;
+        if( m_window > 0 )
+        {
+            m_thread = new Thread( this, "PaxLogging-FrameworkHandler" );
+            m_thread.setDaemon( true );
+            m_thread.start();
+        }
+    }
+
+    /**
+     * @return false if framework events are not logged at all, so the listeners need not be registered
+     */
+    public boolean isEnabled()
+    {
+        return loggingLevel > 0;
+    }
+
+    /**
+     * Stops the background thread, if any, after logging the events still queued.
+     */
+    public void close()
+    {
+        Thread thread;
+        synchronized( this )
+        {
+            thread = m_thread;
+            m_thread = null;
+        }
+        if( thread != null )
+        {
+            thread.interrupt();
+            try
+            {
+                thread.join( m_window + 1000 );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
     }
 
     public void bundleChanged( final BundleEvent bundleEvent )
+    {
+        if( loggingLevel <= 0 )
+        {
+            return;
+        }
+        if( m_window > 0 )
+        {
+            m_events.offer( bundleEvent );
+            return;
+        }
+        logBundleEvent( bundleEvent );
+    }
+
+    public void frameworkEvent( final FrameworkEvent frameworkEvent )
+    {
+        if( loggingLevel <= 0 )
+        {
+            return;
+        }
+        if( m_window > 0 )
+        {
+            m_events.offer( frameworkEvent );
+            return;
+        }
+        logFrameworkEvent( frameworkEvent );
+    }
+
+    public void serviceChanged( final ServiceEvent serviceEvent )
+    {
+        if( loggingLevel <= 0 )
+        {
+            return;
+        }
+        if( m_window > 0 )
+        {
+            m_events.offer( serviceEvent );
+            return;
+        }
+        logServiceEvent( serviceEvent );
+    }
+
+    public void run()
+    {
+        while( !Thread.currentThread().isInterrupted() )
+        {
+            try
+            {
+                Thread.sleep( m_window );
+            }
+            catch( InterruptedException e )
+            {
+                return;
+            }
+            try
+            {
+                flush();
+            }
+            catch( RuntimeException e )
+            {
+                // keep the thread alive, the next window may succeed
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Logs the queued events, one summary record per group of bundle or service events of the same type.
+     */
+    synchronized void flush()
+    {
+        Map<String, List<Object>> groups = new LinkedHashMap<String, List<Object>>();
+        Object event;
+        while( ( event = m_events.poll() ) != null )
+        {
+            String key = null;
+            if( event instanceof BundleEvent )
+            {
+                key = bundleEventType( ( (BundleEvent) event ).getType() );
+            }
+            else if( event instanceof ServiceEvent )
+            {
+                key = serviceEventType( ( (ServiceEvent) event ).getType() );
+            }
+            if( key == null )
+            {
+                // framework events are rare and may carry an exception, they are logged on their own,
+                // as are events of unknown types
+                logGroups( groups );
+                groups.clear();
+                logEvent( event );
+                continue;
+            }
+            List<Object> group = groups.get( key );
+            if( group == null )
+            {
+                group = new ArrayList<Object>();
+                groups.put( key, group );
+            }
+            group.add( event );
+        }
+        logGroups( groups );
+    }
+
+    private void logGroups( final Map<String, List<Object>> groups )
+    {
+        for( Iterator<Map.Entry<String, List<Object>>> iterator = groups.entrySet().iterator(); iterator.hasNext(); )
+        {
+            Map.Entry<String, List<Object>> entry = iterator.next();
+            List<Object> group = entry.getValue();
+            if( group.size() == 1 )
+            {
+                logEvent( group.get( 0 ) );
+                continue;
+            }
+            boolean bundles = group.get( 0 ) instanceof BundleEvent;
+            StringBuilder message = new StringBuilder( entry.getKey() );
+            message.append( " - " ).append( group.size() ).append( bundles ? " bundles: " : " services: " );
+            int listed = Math.min( group.size(), MAX_LISTED );
+            for( int i = 0; i < listed; i++ )
+            {
+                if( i > 0 )
+                {
+                    message.append( ", " );
+                }
+                Object event = group.get( i );
+                if( bundles )
+                {
+                    message.append( ( (BundleEvent) event ).getBundle().getSymbolicName() );
+                }
+                else
+                {
+                    message.append( ( (ServiceEvent) event ).getServiceReference() );
+                }
+            }
+            if( group.size() > listed )
+            {
+                message.append( " and " ).append( group.size() - listed ).append( " more" );
+            }
+            m_service.log( (Bundle) null, loggingLevel, message.toString(), null );
+        }
+    }
+
+    private void logEvent( final Object event )
+    {
+        if( event instanceof BundleEvent )
+        {
+            logBundleEvent( (BundleEvent) event );
+        }
+        else if( event instanceof ServiceEvent )
+        {
+            logServiceEvent( (ServiceEvent) event );
+        }
+        else
+        {
+            logFrameworkEvent( (FrameworkEvent) event );
+        }
+    }
+
+    private void logBundleEvent( final BundleEvent bundleEvent )
     {
         final Bundle bundle = bundleEvent.getBundle();
-        String message;
         final int type = bundleEvent.getType();
+        String message = bundleEventType( type );
+        if( message == null )
+        {
+            message = "BundleEvent [unknown:" + type + "]";
+        }
+        if (bundle != null)
+            message += " - " + bundle.getSymbolicName();
+        m_service.log( bundle, loggingLevel, message, null );
+    }
+
+    private static String bundleEventType( final int type )
+    {
         switch( type )
         {
             case BundleEvent.INSTALLED:
-                message = "BundleEvent INSTALLED";
-                break;
+                return "BundleEvent INSTALLED";
             case BundleEvent.STARTED:
-                message = "BundleEvent STARTED";
-                break;
+                return "BundleEvent STARTED";
             case BundleEvent.STOPPED:
-                message = "BundleEvent STOPPED";
-                break;
+                return "BundleEvent STOPPED";
             case BundleEvent.UPDATED:
-                message = "BundleEvent UPDATED";
-                break;
+                return "BundleEvent UPDATED";
             case BundleEvent.UNINSTALLED:
-                message = "BundleEvent UNINSTALLED";
-                break;
+                return "BundleEvent UNINSTALLED";
             case BundleEvent.RESOLVED:
-                message = "BundleEvent RESOLVED";
-                break;
+                return "BundleEvent RESOLVED";
             case BundleEvent.UNRESOLVED:
-                message = "BundleEvent UNRESOLVED";
-                break;
+                return "BundleEvent UNRESOLVED";
             case BundleEvent.STARTING:
-                message = "BundleEvent STARTING";
-                break;
+                return "BundleEvent STARTING";
             case BundleEvent.STOPPING:
-                message = "BundleEvent STOPPING";
-                break;
+                return "BundleEvent STOPPING";
             default:
-                message = "BundleEvent [unknown:" + type + "]";
-                break;
-        }
-        if (bundle != null)
-            message += " - " + bundle.getSymbolicName();
-        if (loggingLevel > 0) {
-            m_service.log( bundle, loggingLevel, message, null );
+                // unknown types are not grouped, the type is in the message
+                return null;
         }
     }
 
-    public void frameworkEvent( final FrameworkEvent frameworkEvent )
+    private void logFrameworkEvent( final FrameworkEvent frameworkEvent )
     {
         final int type = frameworkEvent.getType();
         String message;
@@ -129,37 +353,37 @@ public class FrameworkHandler
         final Throwable exception = frameworkEvent.getThrowable();
         if (bundle != null)
             message += " - " + bundle.getSymbolicName();
-        if (loggingLevel > 0) {
-            m_service.log( bundle, loggingLevel, message, exception );
-        }
+        m_service.log( bundle, loggingLevel, message, exception );
     }
 
-    public void serviceChanged( final ServiceEvent serviceEvent )
+    private void logServiceEvent( final ServiceEvent serviceEvent )
     {
         final ServiceReference serviceRef = serviceEvent.getServiceReference();
-        String message;
         final int type = serviceEvent.getType();
-        switch( type )
+        String message = serviceEventType( type );
+        if( message == null )
         {
-            case ServiceEvent.MODIFIED:
-                message = "ServiceEvent MODIFIED";
-                break;
-            case ServiceEvent.REGISTERED:
-                message = "ServiceEvent REGISTERED";
-                break;
-            case ServiceEvent.UNREGISTERING:
-                message = "ServiceEvent UNREGISTERING";
-                break;
-            default:
-                message = "ServiceEvent [unknown:" + type + "]";
-                break;
+            message = "ServiceEvent [unknown:" + type + "]";
         }
         message += " - " + serviceRef;
         Bundle bundle = serviceRef.getBundle();
         if (bundle != null)
             message += " - " + bundle.getSymbolicName();
-        if (loggingLevel > 0) {
-            m_service.log( serviceRef, loggingLevel, message );
+        m_service.log( serviceRef, loggingLevel, message );
+    }
+
+    private static String serviceEventType( final int type )
+    {
+        switch( type )
+        {
+            case ServiceEvent.MODIFIED:
+                return "ServiceEvent MODIFIED";
+            case ServiceEvent.REGISTERED:
+                return "ServiceEvent REGISTERED";
+            case ServiceEvent.UNREGISTERING:
+                return "ServiceEvent UNREGISTERING";
+            default:
+                return null;
         }
     }
 
@@ -181,6 +405,10 @@ public class FrameworkHandler
         {
             return LogService.LOG_ERROR;
         }
+        else if( "DISABLED".equals( levelName ) )
+        {
+            return 0;
+        }
         else if("DISABLED".equals( levelName ) )
         {
             return 0;
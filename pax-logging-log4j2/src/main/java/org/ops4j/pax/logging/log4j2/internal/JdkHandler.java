@@ -17,21 +17,50 @@
  */
 package org.ops4j.pax.logging.log4j2.internal;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.SimpleFormatter;
 
+import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingService;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.FrameworkUtil;
 
+/**
+ * Handler installed on the root <tt>java.util.logging</tt> logger, forwarding records to Pax Logging.
+ * <p>
+ * The level of the target category is checked before the caller bundle is looked up or the message is formatted,
+ * and the loggers are cached per (logger name, bundle). The levels of the <tt>java.util.logging</tt> loggers are
+ * set by the service from the configuration, not by this handler. The caches are dropped by {@link #levelsChanged()}
+ * whenever the configuration changes.
+ * </p>
+ */
 public class JdkHandler extends Handler
 {
     private static final SecurityManagerEx securityManager;
-    
+
+    private static final String FQCN = java.util.logging.Logger.class.getName();
+
+    /**
+     * Upper bound for the logger caches, they are cleared when it is exceeded.
+     */
+    private static final int MAX_CACHED_LOGGERS = 4096;
+
     private PaxLoggingService m_logService;
-    
+
+    /**
+     * One logger per category, used for the level check, which does not depend on the bundle.
+     */
+    private final ConcurrentMap<String, PaxLogger> m_categories = new ConcurrentHashMap<String, PaxLogger>();
+
+    /**
+     * Loggers per (logger name, bundle).
+     */
+    private final ConcurrentMap<LoggerKey, PaxLogger> m_loggers = new ConcurrentHashMap<LoggerKey, PaxLogger>();
+
     static
     {
         securityManager = new SecurityManagerEx();
@@ -81,9 +110,13 @@ public class JdkHandler extends Handler
     {
         Level level = record.getLevel();
         String loggerName = record.getLoggerName();
+        int levelInt = level.intValue();
+        if( !isEnabled( getCategory( loggerName ), levelInt ) )
+        {
+            return;
+        }
         Bundle callerBundle = getCallerBundle();
-        String fqcn = java.util.logging.Logger.class.getName();
-        PaxLoggerImpl logger = (PaxLoggerImpl) m_logService.getLogger( callerBundle, loggerName, fqcn );
+        PaxLogger logger = getLogger( loggerName, callerBundle );
         String message;
         try
         {
@@ -94,7 +127,6 @@ public class JdkHandler extends Handler
             message = record.getMessage();
         }
         Throwable throwable = record.getThrown();
-        int levelInt = level.intValue();
         if (levelInt <= Level.FINEST.intValue())
             logger.trace(message, throwable);
         else if (levelInt <= Level.FINE.intValue())
@@ -106,7 +138,66 @@ public class JdkHandler extends Handler
         else
             logger.error(message, throwable);
     }
-    
+
+    /**
+     * Drops the cached loggers, must be called after the logging configuration changed.
+     */
+    public void levelsChanged()
+    {
+        m_categories.clear();
+        m_loggers.clear();
+    }
+
+    private PaxLogger getCategory( String loggerName )
+    {
+        // the anonymous logger has no name, it can neither be cached nor configured
+        if( loggerName == null )
+        {
+            return m_logService.getLogger( null, null, FQCN );
+        }
+        PaxLogger category = m_categories.get( loggerName );
+        if( category == null )
+        {
+            if( m_categories.size() >= MAX_CACHED_LOGGERS )
+            {
+                m_categories.clear();
+            }
+            category = m_logService.getLogger( null, loggerName, FQCN );
+            m_categories.put( loggerName, category );
+        }
+        return category;
+    }
+
+    private PaxLogger getLogger( String loggerName, Bundle bundle )
+    {
+        LoggerKey key = new LoggerKey( loggerName, bundle );
+        PaxLogger logger = m_loggers.get( key );
+        if( logger == null )
+        {
+            if( m_loggers.size() >= MAX_CACHED_LOGGERS )
+            {
+                m_loggers.clear();
+            }
+            logger = m_logService.getLogger( bundle, loggerName, FQCN );
+            m_loggers.put( key, logger );
+        }
+        return logger;
+    }
+
+    private static boolean isEnabled( PaxLogger logger, int levelInt )
+    {
+        if (levelInt <= Level.FINEST.intValue())
+            return logger.isTraceEnabled();
+        else if (levelInt <= Level.FINE.intValue())
+            return logger.isDebugEnabled();
+        else if (levelInt <= Level.INFO.intValue())
+            return logger.isInfoEnabled();
+        else if (levelInt <= Level.WARNING.intValue())
+            return logger.isWarnEnabled();
+        else
+            return logger.isErrorEnabled();
+    }
+
     private Bundle getCallerBundle() {
         Bundle ret = null;
         Class[] classCtx = securityManager.getClassContext();
@@ -128,4 +219,32 @@ public class JdkHandler extends Handler
         }
     }
 
+    private static final class LoggerKey
+    {
+        private final String m_name;
+        private final Bundle m_bundle;
+
+        private LoggerKey( String name, Bundle bundle )
+        {
+            m_name = name;
+            m_bundle = bundle;
+        }
+
+        public boolean equals( Object o )
+        {
+            if( !( o instanceof LoggerKey ) )
+            {
+                return false;
+            }
+            LoggerKey other = (LoggerKey) o;
+            return ( m_name == null ? other.m_name == null : m_name.equals( other.m_name ) )
+                   && m_bundle == other.m_bundle;
+        }
+
+        public int hashCode()
+        {
+            return ( m_name == null ? 0 : m_name.hashCode() ) * 31 + System.identityHashCode( m_bundle );
+        }
+    }
+
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.log4j2.internal;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.impl.LogEventFactory;
+import org.apache.logging.log4j.message.Message;
+
+/**
+ * Adds the bundle attributes and the PaxContext of the calling {@link PaxLoggerImpl} to the context map of the events
+ * log4j creates, without touching the <tt>ThreadContext</tt>.
+ *
+ * <p>
+ * The logger announces itself for the duration of the call with {@link #enter(PaxLoggerImpl)}. Its attributes are
+ * passed to log4j as event properties, which log4j merges into the context map of the event. The announcement is
+ * consumed by the first event created, so that logging done while that event is being appended does not inherit it.
+ * </p>
+ * <p>
+ * Asynchronous loggers create their events without a {@link LoggerConfig}, so they still need the attributes in the
+ * <tt>ThreadContext</tt>, see {@link PaxLoggingServiceImpl#isInjectingContext()}.
+ * </p>
+ */
+class PaxLogEventFactory
+    implements LogEventFactory
+{
+
+    private static final ThreadLocal<PaxLoggerImpl> CURRENT = new ThreadLocal<PaxLoggerImpl>();
+
+    private final LogEventFactory m_delegate;
+
+    private PaxLogEventFactory( LogEventFactory delegate )
+    {
+        m_delegate = delegate;
+    }
+
+    /**
+     * @param logger the logger whose attributes the next event gets
+     * @return the logger announced before, to be passed to {@link #exit(PaxLoggerImpl)}
+     */
+    static PaxLoggerImpl enter( PaxLoggerImpl logger )
+    {
+        PaxLoggerImpl previous = CURRENT.get();
+        CURRENT.set( logger );
+        return previous;
+    }
+
+    static void exit( PaxLoggerImpl previous )
+    {
+        CURRENT.set( previous );
+    }
+
+    public LogEvent createEvent( String loggerName, Marker marker, String fqcn, Level level, Message data,
+                                 List<Property> properties, Throwable t )
+    {
+        PaxLoggerImpl logger = CURRENT.get();
+        if( logger == null )
+        {
+            return m_delegate.createEvent( loggerName, marker, fqcn, level, data, properties, t );
+        }
+        CURRENT.set( null );
+        // the first property of a name wins, the pax attributes take precedence as they did in the ThreadContext
+        List<Property> merged = new ArrayList<Property>();
+        logger.addContextProperties( merged );
+        if( properties != null )
+        {
+            merged.addAll( properties );
+        }
+        return m_delegate.createEvent( loggerName, marker, fqcn, level, data, merged, t );
+    }
+
+    /**
+     * Installs the factory on every logger configuration of the context, now and whenever it is reconfigured.
+     *
+     * @param context the logger context
+     */
+    static void install( LoggerContext context )
+    {
+        install( context.getConfiguration() );
+        context.addPropertyChangeListener( new PropertyChangeListener()
+        {
+            public void propertyChange( PropertyChangeEvent event )
+            {
+                if( LoggerContext.PROPERTY_CONFIG.equals( event.getPropertyName() )
+                    && event.getNewValue() instanceof Configuration )
+                {
+                    install( (Configuration) event.getNewValue() );
+                }
+            }
+        } );
+    }
+
+    private static void install( Configuration configuration )
+    {
+        for( LoggerConfig loggerConfig : configuration.getLoggers().values() )
+        {
+            install( loggerConfig );
+        }
+        install( configuration.getLoggerConfig( LogManager.ROOT_LOGGER_NAME ) );
+    }
+
+    private static void install( LoggerConfig loggerConfig )
+    {
+        LogEventFactory factory = loggerConfig.getLogEventFactory();
+        if( !( factory instanceof PaxLogEventFactory ) )
+        {
+            loggerConfig.setLogEventFactory( new PaxLogEventFactory( factory ) );
+        }
+    }
+}
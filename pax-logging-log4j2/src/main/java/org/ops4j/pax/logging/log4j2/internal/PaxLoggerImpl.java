@@ -17,29 +17,28 @@
  */
 package org.ops4j.pax.logging.log4j2.internal;
 
+import java.util.List;
 import java.util.Map;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.config.Property;
 import org.apache.logging.log4j.spi.ExtendedLogger;
 import org.ops4j.pax.logging.PaxContext;
-import org.ops4j.pax.logging.PaxLogger;
+import org.ops4j.pax.logging.PaxContextLogger;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.service.log.LogService;
 
 public class PaxLoggerImpl
-    implements PaxLogger
+    implements PaxContextLogger
 {
 
-    private ExtendedLogger m_delegate;
+    private volatile ExtendedLogger m_delegate;
     private String m_fqcn;
     private Bundle m_bundle;
-    private BundleRevision m_bundleRevision;
-    private Long m_bundleId;
-    private String m_bundleSymbolicName;
-    private String m_bundleVersion;
+    private volatile BundleAttributes m_bundleAttributes;
     private PaxLoggingServiceImpl m_service;
 
     /**
@@ -92,7 +91,11 @@ public class PaxLoggerImpl
 
     private void setDelegateContext()
     {
-        Map context = getPaxContext().getContext();
+        setDelegateContext( getPaxContext().getContext() );
+    }
+
+    private void setDelegateContext( Map context )
+    {
         if( context != null )
         {
             for (Object o : context.keySet()) {
@@ -103,24 +106,65 @@ public class PaxLoggerImpl
         }
         if (m_bundle != null)
         {
-            BundleRevision rev = m_bundle.adapt(BundleRevision.class);
-            if (rev != m_bundleRevision) {
-                m_bundleId = m_bundle.getBundleId();
-                m_bundleSymbolicName = m_bundle.getSymbolicName();
-                m_bundleVersion = m_bundle.getVersion().toString();
-                m_bundleRevision = rev;
+            BundleAttributes attributes = getBundleAttributes();
+            put("bundle.id", attributes.m_id);
+            put("bundle.name", attributes.m_symbolicName);
+            put("bundle.version", attributes.m_version);
+        }
+    }
+
+    /**
+     * Adds the PaxContext of the current thread and the bundle attributes as event properties, see
+     * {@link PaxLogEventFactory}.
+     */
+    void addContextProperties( List<Property> properties )
+    {
+        Map context = getPaxContext().getContext();
+        if( context != null )
+        {
+            for (Object o : context.keySet()) {
+                String key = (String) o;
+                Object value = context.get(key);
+                add(properties, key, value);
             }
-            put("bundle.id", m_bundleId);
-            put("bundle.name", m_bundleSymbolicName);
-            put("bundle.version", m_bundleVersion);
+        }
+        if (m_bundle != null)
+        {
+            BundleAttributes attributes = getBundleAttributes();
+            add(properties, "bundle.id", attributes.m_id);
+            add(properties, "bundle.name", attributes.m_symbolicName);
+            add(properties, "bundle.version", attributes.m_version);
         }
     }
 
+    /**
+     * @return the attributes of the current revision of the bundle, read again only when the bundle was updated
+     */
+    private BundleAttributes getBundleAttributes()
+    {
+        BundleRevision rev = m_bundle.adapt(BundleRevision.class);
+        BundleAttributes attributes = m_bundleAttributes;
+        if (attributes == null || attributes.m_revision != rev) {
+            attributes = new BundleAttributes(rev, Long.toString(m_bundle.getBundleId()), m_bundle.getSymbolicName(),
+                                              m_bundle.getVersion().toString());
+            m_bundleAttributes = attributes;
+        }
+        return attributes;
+    }
+
     private void put(String name, Object o)
     {
         if (o != null)
         {
-            ThreadContext.put(name, o.toString());
+            ThreadContext.put(name, o instanceof String ? (String) o : o.toString());
+        }
+    }
+
+    private static void add(List<Property> properties, String name, Object o)
+    {
+        if (o != null)
+        {
+            properties.add(Property.createProperty(name, o instanceof String ? (String) o : o.toString()));
         }
     }
 
@@ -131,98 +175,148 @@ public class PaxLoggerImpl
 
     public void trace( String message, Throwable t )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(m_fqcn, Level.TRACE, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        log( Level.TRACE, LogService.LOG_DEBUG, message, t, m_fqcn );
     }
 
     public void debug( String message, Throwable t )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(m_fqcn, Level.DEBUG, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        log( Level.DEBUG, LogService.LOG_DEBUG, message, t, m_fqcn );
     }
 
     public void inform( String message, Throwable t )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(m_fqcn, Level.INFO, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_INFO, message, t );
+        log( Level.INFO, LogService.LOG_INFO, message, t, m_fqcn );
     }
 
     public void warn( String message, Throwable t )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(m_fqcn, Level.WARN, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_WARNING, message, t );
+        log( Level.WARN, LogService.LOG_WARNING, message, t, m_fqcn );
     }
 
     public void error( String message, Throwable t )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(m_fqcn, Level.ERROR, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        log( Level.ERROR, LogService.LOG_ERROR, message, t, m_fqcn );
     }
 
     public void fatal( String message, Throwable t )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(m_fqcn, Level.FATAL, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        log( Level.FATAL, LogService.LOG_ERROR, message, t, m_fqcn );
     }
 
     public void trace( String message, Throwable t, String fqcn )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(fqcn, Level.TRACE, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        log( Level.TRACE, LogService.LOG_DEBUG, message, t, fqcn );
     }
 
     public void debug( String message, Throwable t, String fqcn )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(fqcn, Level.DEBUG, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        log( Level.DEBUG, LogService.LOG_DEBUG, message, t, fqcn );
     }
 
     public void inform( String message, Throwable t, String fqcn )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(fqcn, Level.INFO, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_INFO, message, t );
+        log( Level.INFO, LogService.LOG_INFO, message, t, fqcn );
     }
 
     public void warn( String message, Throwable t, String fqcn )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(fqcn, Level.WARN, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_WARNING, message, t );
+        log( Level.WARN, LogService.LOG_WARNING, message, t, fqcn );
     }
 
     public void error( String message, Throwable t, String fqcn )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(fqcn, Level.ERROR, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        log( Level.ERROR, LogService.LOG_ERROR, message, t, fqcn );
     }
 
     public void fatal( String message, Throwable t, String fqcn )
     {
-        setDelegateContext();
-        m_delegate.logIfEnabled(fqcn, Level.FATAL, null, message, t);
-        clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        log( Level.FATAL, LogService.LOG_ERROR, message, t, fqcn );
+    }
+
+    /**
+     * The context is only set up, and the message only created, if log4j will actually log the event.
+     */
+    private void log( Level level, int logServiceLevel, String message, Throwable t, String fqcn )
+    {
+        ExtendedLogger delegate = m_delegate;
+        if( delegate.isEnabled( level, null, message, t ) )
+        {
+            if( m_service.isInjectingContext() )
+            {
+                PaxLoggerImpl previous = PaxLogEventFactory.enter( this );
+                try
+                {
+                    delegate.logMessage( fqcn, level, null, delegate.getMessageFactory().newMessage( message ), t );
+                }
+                finally
+                {
+                    PaxLogEventFactory.exit( previous );
+                }
+            }
+            else
+            {
+                setDelegateContext();
+                try
+                {
+                    delegate.logMessage( fqcn, level, null, delegate.getMessageFactory().newMessage( message ), t );
+                }
+                finally
+                {
+                    clearDelegateContext();
+                }
+            }
+        }
+        m_service.handleEvents( m_bundle, null, logServiceLevel, message, t );
+    }
+
+    /**
+     * The given context goes through the ThreadContext of log4j, the PaxContext of the thread is not used.
+     */
+    public void log( int level, String message, Throwable t, String fqcn, Map<String, Object> context )
+    {
+        Level log4jLevel;
+        int logServiceLevel;
+        switch( level )
+        {
+            case LEVEL_TRACE:
+                log4jLevel = Level.TRACE;
+                logServiceLevel = LogService.LOG_DEBUG;
+                break;
+            case LEVEL_DEBUG:
+                log4jLevel = Level.DEBUG;
+                logServiceLevel = LogService.LOG_DEBUG;
+                break;
+            case LEVEL_INFO:
+                log4jLevel = Level.INFO;
+                logServiceLevel = LogService.LOG_INFO;
+                break;
+            case LEVEL_WARNING:
+                log4jLevel = Level.WARN;
+                logServiceLevel = LogService.LOG_WARNING;
+                break;
+            case LEVEL_ERROR:
+                log4jLevel = Level.ERROR;
+                logServiceLevel = LogService.LOG_ERROR;
+                break;
+            default:
+                log4jLevel = Level.FATAL;
+                logServiceLevel = LogService.LOG_ERROR;
+                break;
+        }
+        ExtendedLogger delegate = m_delegate;
+        if( delegate.isEnabled( log4jLevel, null, message, t ) )
+        {
+            setDelegateContext( context );
+            try
+            {
+                delegate.logMessage( fqcn, log4jLevel, null, delegate.getMessageFactory().newMessage( message ), t );
+            }
+            finally
+            {
+                clearDelegateContext();
+            }
+        }
+        m_service.handleEvents( m_bundle, null, logServiceLevel, message, t );
     }
 
     public int getLogLevel()
@@ -239,4 +333,24 @@ public class PaxLoggerImpl
     {
         return m_service.getPaxContext();
     }
+
+    /**
+     * The attributes of one revision of the bundle, published as a whole so that a thread logging while the bundle
+     * is updated never mixes the id, name and version of two revisions.
+     */
+    private static final class BundleAttributes
+    {
+        private final BundleRevision m_revision;
+        private final String m_id;
+        private final String m_symbolicName;
+        private final String m_version;
+
+        private BundleAttributes( BundleRevision revision, String id, String symbolicName, String version )
+        {
+            m_revision = revision;
+            m_id = id;
+            m_symbolicName = symbolicName;
+            m_version = version;
+        }
+    }
 }
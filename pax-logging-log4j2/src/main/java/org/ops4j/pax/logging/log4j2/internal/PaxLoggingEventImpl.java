@@ -37,18 +37,25 @@ public class PaxLoggingEventImpl implements PaxLoggingEvent {
 
     private final LogEvent event;
 
+    // computed on first use, as every PaxAppender asks again
+    private PaxLocationInfo location;
+    private String[] throwableStrRep;
+
     public PaxLoggingEventImpl(LogEvent event) {
         this.event = event;
     }
 
     @Override
     public PaxLocationInfo getLocationInformation() {
-        return new PaxLocationInfoImpl(event.getSource());
+        if (location == null) {
+            location = new PaxLocationInfoImpl(event.getSource());
+        }
+        return location;
     }
 
     @Override
     public PaxLevel getLevel() {
-        return new PaxLevelImpl(event.getLevel());
+        return PaxLevelImpl.valueOf(event.getLevel());
     }
 
     @Override
@@ -73,8 +80,42 @@ public class PaxLoggingEventImpl implements PaxLoggingEvent {
 
     @Override
     public String[] getThrowableStrRep() {
-        ThrowableProxy t = event.getThrownProxy();
-        return t != null ? t.getExtendedStackTraceAsString().split("\n") : null;
+        if (throwableStrRep == null) {
+            ThrowableProxy t = event.getThrownProxy();
+            if (t == null) {
+                return null;
+            }
+            throwableStrRep = splitLines(t.getExtendedStackTraceAsString());
+        }
+        return throwableStrRep.clone();
+    }
+
+    /**
+     * Splits on line feeds without going through a regular expression.
+     */
+    static String[] splitLines(String s) {
+        int count = 1;
+        for (int i = s.indexOf('\n'); i >= 0; i = s.indexOf('\n', i + 1)) {
+            count++;
+        }
+        // like String.split(), trailing empty lines are dropped
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == '\n') {
+            end--;
+            count--;
+        }
+        if (end == 0) {
+            return new String[] { "" };
+        }
+        String[] lines = new String[count];
+        int start = 0;
+        for (int n = 0; n < count - 1; n++) {
+            int eol = s.indexOf('\n', start);
+            lines[n] = s.substring(start, eol);
+            start = eol + 1;
+        }
+        lines[count - 1] = s.substring(start, end);
+        return lines;
     }
 
     @Override
@@ -138,12 +179,30 @@ public class PaxLoggingEventImpl implements PaxLoggingEvent {
         public static final int SYSLOG_ERROR = 3;
         public static final int SYSLOG_OFF = 0;
 
+        private static final PaxLevelImpl[] STANDARD = {
+            new PaxLevelImpl(Level.OFF), new PaxLevelImpl(Level.FATAL), new PaxLevelImpl(Level.ERROR),
+            new PaxLevelImpl(Level.WARN), new PaxLevelImpl(Level.INFO), new PaxLevelImpl(Level.DEBUG),
+            new PaxLevelImpl(Level.TRACE), new PaxLevelImpl(Level.ALL)
+        };
+
         private final Level level;
 
         public PaxLevelImpl(Level level) {
             this.level = level;
         }
 
+        /**
+         * @return a shared instance for the standard levels, a new one for custom levels
+         */
+        static PaxLevelImpl valueOf(Level level) {
+            for (PaxLevelImpl standard : STANDARD) {
+                if (standard.level == level) {
+                    return standard;
+                }
+            }
+            return new PaxLevelImpl(level);
+        }
+
         @Override
         public boolean isGreaterOrEqual(PaxLevel r) {
             return getSyslogEquivalent() <= r.getSyslogEquivalent();
@@ -21,6 +21,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -41,6 +42,7 @@ import org.ops4j.pax.logging.PaxContext;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingService;
 import org.ops4j.pax.logging.log4j2.appender.PaxOsgiAppender;
+import org.ops4j.pax.logging.log4j2.filter.BurstSuppressionFilter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceFactory;
@@ -72,6 +74,15 @@ public class PaxLoggingServiceImpl
     private LoggerContext m_log4jContext;
     private int m_logLevel = LOG_DEBUG;
     private boolean closed;
+    private volatile JdkHandler m_jdkHandler;
+
+    /**
+     * The levels of the <tt>java.util.logging</tt> loggers before this service first changed them, null for the loggers
+     * that had no level of their own, put back on shutdown.
+     */
+    private final Map<String, java.util.logging.Level> m_julLevelsBefore =
+        new HashMap<String, java.util.logging.Level>();
+    private volatile boolean m_injectingContext;
 
     public PaxLoggingServiceImpl( BundleContext bundleContext, LogReaderServiceImpl logReader, EventAdminPoster eventAdmin )
     {
@@ -109,6 +120,44 @@ public class PaxLoggingServiceImpl
     protected synchronized void shutdown() {
         m_log4jContext.stop();
         closed = true;
+        restoreJulLevels();
+    }
+
+    /**
+     * Sets the level of a <tt>java.util.logging</tt> logger, remembering the level it had before this service first
+     * changed it.
+     */
+    private void changeJulLevel( java.util.logging.Logger logger, java.util.logging.Level level )
+    {
+        synchronized( m_julLevelsBefore )
+        {
+            java.util.logging.Level before = logger.getLevel();
+            if( before == level )
+            {
+                return;
+            }
+            if( !m_julLevelsBefore.containsKey( logger.getName() ) )
+            {
+                m_julLevelsBefore.put( logger.getName(), before );
+            }
+            logger.setLevel( level );
+        }
+    }
+
+    /**
+     * Puts back the levels of the <tt>java.util.logging</tt> loggers this service changed, as they were before, and
+     * leaves the other loggers alone.
+     */
+    private void restoreJulLevels()
+    {
+        synchronized( m_julLevelsBefore )
+        {
+            for( Map.Entry<String, java.util.logging.Level> entry : m_julLevelsBefore.entrySet() )
+            {
+                java.util.logging.Logger.getLogger( entry.getKey() ).setLevel( entry.getValue() );
+            }
+            m_julLevelsBefore.clear();
+        }
     }
 
     public PaxLogger getLogger( Bundle bundle, String category, String fqcn )
@@ -165,10 +214,13 @@ public class PaxLoggingServiceImpl
 
             m_log4jContext.stop();
             m_log4jContext = new AsyncLoggerContext("pax-logging");
+            PaxLogEventFactory.install(m_log4jContext);
+            m_injectingContext = false;
 
         }
 
         PluginManager.addPackage(PaxOsgiAppender.class.getPackage().getName());
+        PluginManager.addPackage(BurstSuppressionFilter.class.getPackage().getName());
 
         Configuration config = new DefaultConfiguration();
         Object configfile = configuration.get(LOG4J2_CONFIG_FILE_KEY);
@@ -194,6 +246,34 @@ public class PaxLoggingServiceImpl
         configurePax(configuration);
         updateLevels(configuration);
         setLevelToJavaLogging( configuration );
+        notifyJdkHandler();
+    }
+
+    /**
+     * @return true if the PaxContext and bundle attributes are added to the events by the {@link PaxLogEventFactory},
+     *         false if the loggers are asynchronous and the attributes have to be put in the <tt>ThreadContext</tt>
+     */
+    boolean isInjectingContext()
+    {
+        return m_injectingContext;
+    }
+
+    /**
+     * @param jdkHandler the handler forwarding <tt>java.util.logging</tt> records, to be told about configuration
+     *                   changes, or <code>null</code>
+     */
+    void setJdkHandler( JdkHandler jdkHandler )
+    {
+        m_jdkHandler = jdkHandler;
+    }
+
+    private void notifyJdkHandler()
+    {
+        JdkHandler jdkHandler = m_jdkHandler;
+        if( jdkHandler != null )
+        {
+            jdkHandler.levelsChanged();
+        }
     }
 
     private void updateLevels(Dictionary config) {
@@ -239,6 +319,8 @@ public class PaxLoggingServiceImpl
     private void configureDefaults()
     {
         m_log4jContext = new LoggerContext("pax-logging");
+        PaxLogEventFactory.install(m_log4jContext);
+        m_injectingContext = true;
         m_log4jContext.start(new DefaultConfiguration());
 
         String levelName;
@@ -252,6 +334,7 @@ public class PaxLoggingServiceImpl
             levelName = levelName.trim();
         }
         m_logLevel = convertLevel( levelName );
+        notifyJdkHandler();
     }
 
     public int getLogLevel()
@@ -431,11 +514,11 @@ public class PaxLoggingServiceImpl
 	 *
 	 * @param configuration	Properties coming from the configuration.
 	 */
-    private static void setLevelToJavaLogging( final Dictionary configuration )
+    private void setLevelToJavaLogging( final Dictionary configuration )
     {
         for( Enumeration enum_ = java.util.logging.LogManager.getLogManager().getLoggerNames(); enum_.hasMoreElements();) {
             String name = (String) enum_.nextElement();
-            java.util.logging.Logger.getLogger(name).setLevel( null );
+            changeJulLevel( java.util.logging.Logger.getLogger(name), null );
         }
 
         for( Enumeration keys = configuration.keys(); keys.hasMoreElements(); )
@@ -464,13 +547,13 @@ public class PaxLoggingServiceImpl
 	 * @param logger			The logger to configure
 	 * @param log4jLevelConfig	The value contained in the property file. (For example: "ERROR, file")
 	 */
-	private static void setJULLevel( java.util.logging.Logger logger, String log4jLevelConfig )
+	private void setJULLevel( java.util.logging.Logger logger, String log4jLevelConfig )
 	{
 		String crumb[] = log4jLevelConfig.split( "," );
 		if (crumb.length > 0)
 		{
             java.util.logging.Level level = log4jLevelToJULLevel( crumb[0].trim() );
-			logger.setLevel( level );
+			changeJulLevel( logger, level );
 		}
 	}
 
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.logging.log4j.core.config.plugins.util;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import org.jmock.Mock;
+import org.jmock.core.constraint.IsEqual;
+import org.jmock.core.matcher.InvokeOnceMatcher;
+import org.jmock.core.stub.ReturnStub;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class ResolverCacheTest extends TestCase {
+
+    private static final String PACKAGE = "org/apache/logging/log4j/core/config/plugins/util";
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("resolver", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testSameRevisionIsScannedOnce() throws Exception {
+        Mock wiring = new Mock(BundleWiring.class);
+        Mock bundle = new Mock(Bundle.class);
+        bundle.stubs().method("getBundleId").will(new ReturnStub(Long.valueOf(7)));
+        bundle.stubs().method("getLastModified").will(new ReturnStub(Long.valueOf(1000)));
+        bundle.stubs().method("getDataFile").will(new ReturnStub(new File(dir, "cache.properties")));
+        bundle.stubs().method("adapt").with(new IsEqual(BundleWiring.class)).will(new ReturnStub(wiring.proxy()));
+        wiring.expects(new InvokeOnceMatcher()).method("listResources").will(new ReturnStub(Arrays.asList(
+                PACKAGE + "/ResolverCacheTest$Sample.class", PACKAGE + "/ResolverCacheTest.class")));
+
+        ResolverUtil first = new ResolverUtil();
+        first.loadImplementationsInBundle(new ClassTest(Sample.class), PACKAGE, (Bundle) bundle.proxy());
+        assertEquals(Collections.singleton(Sample.class), first.getClasses());
+
+        // the same revision is not listed again
+        ResolverUtil second = new ResolverUtil();
+        second.loadImplementationsInBundle(new ClassTest(Sample.class), PACKAGE, (Bundle) bundle.proxy());
+        assertEquals(Collections.singleton(Sample.class), second.getClasses());
+        wiring.verify();
+
+        // an update of the bundle is
+        bundle.stubs().method("getLastModified").will(new ReturnStub(Long.valueOf(2000)));
+        wiring.expects(new InvokeOnceMatcher()).method("listResources").will(new ReturnStub(Arrays.asList(
+                PACKAGE + "/ResolverCacheTest.class")));
+        ResolverUtil third = new ResolverUtil();
+        third.loadImplementationsInBundle(new ClassTest(Sample.class), PACKAGE, (Bundle) bundle.proxy());
+        assertTrue(third.getClasses().isEmpty());
+        wiring.verify();
+    }
+
+    public void testKeysUseClassAndArguments() throws Exception {
+        assertEquals(ResolverCache.key(new ClassTest(Sample.class), PACKAGE),
+                ResolverCache.key(new ClassTest(Sample.class), PACKAGE));
+        assertFalse(ResolverCache.key(new ClassTest(Sample.class), PACKAGE).equals(
+                ResolverCache.key(new ClassTest(ResolverCacheTest.class), PACKAGE)));
+        assertFalse(ResolverCache.key(new ClassTest(Sample.class), PACKAGE).equals(
+                ResolverCache.key(new ClassTest(Sample.class), "org/example")));
+        // the enclosing instance of an inner class is not an argument that can be keyed
+        assertNull(ResolverCache.key(new InnerTest(), PACKAGE));
+    }
+
+    public static class Sample {
+    }
+
+    private static class ClassTest implements ResolverUtil.Test {
+        private final Class<?> type;
+
+        ClassTest(final Class<?> type) {
+            this.type = type;
+        }
+
+        public boolean matches(final Class<?> type) {
+            return this.type == type;
+        }
+
+        public boolean matches(final URI resource) {
+            return false;
+        }
+
+        public boolean doesMatchClass() {
+            return true;
+        }
+
+        public boolean doesMatchResource() {
+            return false;
+        }
+    }
+
+    private class InnerTest extends ClassTest {
+        InnerTest() {
+            super(Sample.class);
+        }
+    }
+}
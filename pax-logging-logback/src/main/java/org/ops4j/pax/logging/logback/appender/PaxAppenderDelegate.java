@@ -21,6 +21,7 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import org.ops4j.pax.logging.logback.internal.PaxAppenderProxy;
 import org.ops4j.pax.logging.logback.internal.PaxLoggingEventForLogback;
+import org.ops4j.pax.logging.spi.support.PaxLoggingEventSnapshot;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
@@ -100,8 +101,13 @@ public class PaxAppenderDelegate extends UnsynchronizedAppenderBase<ILoggingEven
     @Override
     protected void append(ILoggingEvent event) {
         PaxAppenderProxy p = proxy;
-        if (p != null) {
-            p.doAppend(new PaxLoggingEventForLogback(event));
+        if (p != null && p.hasAppenders()) {
+            // one snapshot per event, shared with the appenders of the proxy
+            try {
+                p.doAppend(PaxLoggingEventSnapshot.of(event, new PaxLoggingEventForLogback(event)));
+            } finally {
+                PaxLoggingEventSnapshot.clear();
+            }
         }
     }
 }
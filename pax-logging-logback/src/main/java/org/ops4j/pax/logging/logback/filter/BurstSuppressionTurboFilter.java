@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.logback.filter;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.ops4j.pax.logging.spi.support.BurstSuppressor;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+/**
+ * <p>
+ * This is a Logback turbo filter that suppresses bursts of similar messages, before the events are created, and logs
+ * "Suppressed N similar messages" from time to time with the logger and the level of the last message suppressed.
+ * See {@link BurstSuppressor} for the details.
+ * </p>
+ * <p>
+ * For example, you can use it like this in your logback.xml file:
+ * <pre>
+ *   &lt;turboFilter class="org.ops4j.pax.logging.logback.filter.BurstSuppressionTurboFilter"&gt;
+ *       &lt;key&gt;logger,message&lt;/key&gt;
+ *       &lt;rate&gt;10&lt;/rate&gt;
+ *       &lt;burst&gt;100&lt;/burst&gt;
+ *       &lt;summaryInterval&gt;30000&lt;/summaryInterval&gt;
+ *   &lt;/turboFilter&gt;
+ * </pre>
+ * The key is a comma separated list of <code>logger</code> (the default), <code>level</code>, <code>message</code>
+ * (the format string) and <code>mdc:</code> followed by the name of an MDC entry.
+ * </p>
+ */
+public class BurstSuppressionTurboFilter extends TurboFilter implements BurstSuppressor.Reporter {
+    private static final String FQCN = BurstSuppressionTurboFilter.class.getName();
+
+    private String key = "logger";
+    private double rate = BurstSuppressor.DEFAULT_RATE;
+    private int burst = BurstSuppressor.DEFAULT_BURST;
+    private long summaryInterval = BurstSuppressor.DEFAULT_SUMMARY_INTERVAL;
+    private int maxKeys = BurstSuppressor.DEFAULT_MAX_KEYS;
+    private volatile BurstSuppressor.Key parsedKey;
+    private volatile BurstSuppressor suppressor;
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public void setSummaryInterval(long summaryInterval) {
+        this.summaryInterval = summaryInterval;
+    }
+
+    public void setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public void start() {
+        try {
+            parsedKey = new BurstSuppressor.Key(key);
+            suppressor = new BurstSuppressor(rate, burst, summaryInterval, maxKeys);
+        } catch (IllegalArgumentException e) {
+            addError("Invalid options: " + e.getMessage());
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        BurstSuppressor current = suppressor;
+        if (isStarted() && current != null) {
+            // the summaries are only logged by the next events otherwise
+            current.flush(this);
+        }
+        super.stop();
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (!isStarted() || BurstSuppressor.isReporting()) {
+            return FilterReply.NEUTRAL;
+        }
+        if (format == null && params == null && t == null) {
+            // isEnabled() checks are not events
+            return FilterReply.NEUTRAL;
+        }
+        BurstSuppressor current = suppressor;
+        long now = System.currentTimeMillis();
+        current.report(this, now);
+        return current.permit(keyOf(logger, level, format), new Sample(logger, level), now)
+            ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    public void suppressed(Object sample, long count) {
+        Sample s = (Sample) sample;
+        s.logger.log(null, FQCN, Level.toLocationAwareLoggerInteger(s.level), BurstSuppressor.summary(count),
+                null, null);
+    }
+
+    private Object keyOf(Logger logger, Level level, String format) {
+        BurstSuppressor.Key k = parsedKey;
+        Object[] values = new Object[k.size()];
+        for (int i = 0; i < values.length; i++) {
+            switch (k.getKind(i)) {
+                case BurstSuppressor.Key.LOGGER:
+                    values[i] = logger.getName();
+                    break;
+                case BurstSuppressor.Key.LEVEL:
+                    values[i] = level;
+                    break;
+                case BurstSuppressor.Key.MESSAGE:
+                    values[i] = format;
+                    break;
+                default:
+                    values[i] = MDC.get(k.getMdcKey(i));
+                    break;
+            }
+        }
+        return k.of(values);
+    }
+
+    private static final class Sample {
+        final Logger logger;
+        final Level level;
+
+        Sample(Logger logger, Level level) {
+            this.logger = logger;
+            this.level = level;
+        }
+    }
+}
@@ -146,11 +146,15 @@ public class Activator implements BundleActivator {
 
             m_JdkHandler = new JdkHandler(m_paxLogging);
             rootLogger.addHandler( m_JdkHandler );
+            m_paxLogging.setJdkHandler( m_JdkHandler );
         }
         m_frameworkHandler = new FrameworkHandler(m_paxLogging);
-        bundleContext.addBundleListener( m_frameworkHandler );
-        bundleContext.addFrameworkListener( m_frameworkHandler );
-        bundleContext.addServiceListener( m_frameworkHandler );
+        if( m_frameworkHandler.isEnabled() )
+        {
+            bundleContext.addBundleListener( m_frameworkHandler );
+            bundleContext.addFrameworkListener( m_frameworkHandler );
+            bundleContext.addServiceListener( m_frameworkHandler );
+        }
     }
 
     /**
@@ -165,12 +169,14 @@ public class Activator implements BundleActivator {
         bundleContext.removeBundleListener( m_frameworkHandler );
         bundleContext.removeFrameworkListener( m_frameworkHandler );
         bundleContext.removeServiceListener( m_frameworkHandler );
+        m_frameworkHandler.close();
 
         // Remove the global handler for all JDK Logging (java.util.logging).
         if( m_JdkHandler != null )
         {
             Logger rootLogger = LogManager.getLogManager().getLogger( "" );
             rootLogger.removeHandler( m_JdkHandler );
+            m_paxLogging.setJdkHandler( null );
             m_JdkHandler.flush();
             m_JdkHandler.close();
             m_JdkHandler = null;
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.logback.internal;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.Context;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.joran.action.Action;
+import ch.qos.logback.core.joran.action.ActionConst;
+import ch.qos.logback.core.joran.action.AppenderAction;
+import ch.qos.logback.core.joran.spi.ActionException;
+import ch.qos.logback.core.joran.spi.ElementPath;
+import ch.qos.logback.core.joran.spi.ElementSelector;
+import ch.qos.logback.core.joran.spi.InterpretationContext;
+import ch.qos.logback.core.joran.spi.RuleStore;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.PropertyContainer;
+import ch.qos.logback.core.util.OptionHelper;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Moves a configuration that was built in a separate, "shadow" {@link LoggerContext} into the live context.
+ *
+ * <p>
+ * The live context is never reset. Each logger first gets the appenders of the new configuration attached and only
+ * then loses the ones it no longer needs, so an event logged while the configuration changes reaches the old or the
+ * new appenders. A configuration that fails to parse never touches the live context at all.
+ * </p>
+ * <p>
+ * Appenders are identified by name and a fingerprint of their configuration, see {@link #fingerprints}. An appender
+ * whose fingerprint did not change is not replaced: the instance that is already running stays attached, keeping its
+ * files and connections open, and the copy created while parsing the new configuration is never started.
+ * </p>
+ * <p>
+ * The appenders of a configuration parsed by a {@link ShadowConfigurator} belong to the live context and are only
+ * started by {@link #install}, after the running appenders of the same name were detached and stopped, so that the
+ * old and the new instance never hold the same file or port at once. Meanwhile, a {@link SwapBuffer} takes the place
+ * of the old instance and keeps the events for the new one.
+ * </p>
+ */
+class ConfigurationInstaller {
+
+    private final LoggerContext m_context;
+
+    private Map<String, String> m_fingerprints = Collections.emptyMap();
+    private List<LoggerContextListener> m_listeners = Collections.emptyList();
+    private List<TurboFilter> m_turboFilters = Collections.emptyList();
+
+    ConfigurationInstaller(LoggerContext context) {
+        m_context = context;
+    }
+
+    /**
+     * Replaces the configuration of the live context with the one of the shadow context, whose appenders were started
+     * already.
+     *
+     * @see #install(LoggerContext, Map, List)
+     */
+    void install(LoggerContext shadow, Map<String, String> fingerprints) {
+        install(shadow, fingerprints, Collections.<Appender<ILoggingEvent>>emptyList());
+    }
+
+    /**
+     * Replaces the configuration of the live context with the one of the shadow context. The shadow context must not
+     * be used afterwards.
+     *
+     * @param shadow       the context holding the new configuration
+     * @param fingerprints the fingerprints of the appenders of the new configuration, by appender name. Appenders
+     *                     without a fingerprint are always replaced.
+     * @param created      the appenders created for the new configuration that are not started yet, in the order
+     *                     they were defined, see {@link ShadowConfigurator#getAppenders()}
+     */
+    void install(LoggerContext shadow, Map<String, String> fingerprints, List<Appender<ILoggingEvent>> created) {
+        Map<String, Appender<ILoggingEvent>> running = new HashMap<String, Appender<ILoggingEvent>>();
+        Set<Appender<ILoggingEvent>> previous = attachedAppenders(m_context, running);
+
+        // pick the running appenders that can stand in for their unchanged copies in the new configuration
+        Map<Appender<ILoggingEvent>, Appender<ILoggingEvent>> reused =
+            new IdentityHashMap<Appender<ILoggingEvent>, Appender<ILoggingEvent>>();
+        List<Appender<ILoggingEvent>> successors = new ArrayList<Appender<ILoggingEvent>>();
+        for (Appender<ILoggingEvent> appender : attachedAppenders(shadow, null)) {
+            String name = appender.getName();
+            String fingerprint = fingerprints.get(name);
+            Appender<ILoggingEvent> current = running.get(name);
+            if (fingerprint != null && current != null && fingerprint.equals(m_fingerprints.get(name))) {
+                reused.put(appender, current);
+            } else {
+                successors.add(appender);
+            }
+        }
+
+        for (Map.Entry<String, String> property : shadow.getCopyOfPropertyMap().entrySet()) {
+            m_context.putProperty(property.getKey(), property.getValue());
+        }
+
+        // the appenders that are replaced stop before their successors start, a buffer keeps the events meanwhile
+        Map<Appender<ILoggingEvent>, SwapBuffer> buffers = new IdentityHashMap<Appender<ILoggingEvent>, SwapBuffer>();
+        for (Appender<ILoggingEvent> successor : successors) {
+            Appender<ILoggingEvent> replaced = running.get(successor.getName());
+            if (replaced != null && replaced != successor) {
+                SwapBuffer buffer = new SwapBuffer();
+                buffer.setContext(m_context);
+                buffer.start();
+                for (Logger logger : m_context.getLoggerList()) {
+                    if (logger.isAttached(replaced)) {
+                        logger.addAppender(buffer);
+                        logger.detachAppender(replaced);
+                    }
+                }
+                buffers.put(successor, buffer);
+                for (Appender<ILoggingEvent> appender : withNested(replaced)) {
+                    appender.stop();
+                }
+            }
+        }
+        Set<Appender<ILoggingEvent>> used = identitySet();
+        for (Appender<ILoggingEvent> successor : successors) {
+            used.addAll(withNested(successor));
+        }
+        // nested appenders are defined, and started, before the appenders referring to them
+        for (Appender<ILoggingEvent> appender : created) {
+            if (used.contains(appender) && !appender.isStarted()) {
+                appender.start();
+            }
+        }
+        for (Map.Entry<Appender<ILoggingEvent>, SwapBuffer> entry : buffers.entrySet()) {
+            entry.getValue().handOver(entry.getKey());
+        }
+
+        // listeners go first, so that a level change propagator sees the level changes made below
+        List<LoggerContextListener> listeners = shadow.getCopyOfListenerList();
+        for (LoggerContextListener listener : listeners) {
+            m_context.addListener(listener);
+        }
+        List<TurboFilter> turboFilters = new ArrayList<TurboFilter>(shadow.getTurboFilterList());
+        m_context.getTurboFilterList().addAll(turboFilters);
+
+        for (Logger shadowLogger : shadow.getLoggerList()) {
+            Logger logger = m_context.getLogger(shadowLogger.getName());
+            Set<Appender<ILoggingEvent>> wanted = identitySet();
+            for (Iterator<Appender<ILoggingEvent>> it = shadowLogger.iteratorForAppenders(); it.hasNext();) {
+                Appender<ILoggingEvent> appender = it.next();
+                Appender<ILoggingEvent> current = reused.get(appender);
+                if (current != null) {
+                    appender = current;
+                }
+                wanted.add(appender);
+                if (!logger.isAttached(appender)) {
+                    logger.addAppender(appender);
+                }
+            }
+            logger.setLevel(shadowLogger.getLevel());
+            logger.setAdditive(shadowLogger.isAdditive());
+            detachAllBut(logger, wanted);
+        }
+        // loggers the new configuration does not mention fall back to their defaults, as after a reset
+        Set<Appender<ILoggingEvent>> none = identitySet();
+        for (Logger logger : m_context.getLoggerList()) {
+            if (shadow.exists(logger.getName()) == null) {
+                detachAllBut(logger, none);
+                logger.setLevel(null);
+                logger.setAdditive(true);
+            }
+        }
+
+        for (LoggerContextListener listener : m_listeners) {
+            m_context.removeListener(listener);
+        }
+        for (TurboFilter filter : m_turboFilters) {
+            m_context.getTurboFilterList().remove(filter);
+            filter.stop();
+        }
+        m_listeners = listeners;
+        m_turboFilters = turboFilters;
+        m_fingerprints = new HashMap<String, String>(fingerprints);
+
+        // the shadow context must not own any appender, as it is never stopped
+        for (Logger shadowLogger : shadow.getLoggerList()) {
+            detachAllBut(shadowLogger, none);
+        }
+        for (Appender<ILoggingEvent> unused : reused.keySet()) {
+            unused.stop();
+        }
+        Set<Appender<ILoggingEvent>> attached = attachedAppenders(m_context, null);
+        for (Appender<ILoggingEvent> appender : previous) {
+            if (!attached.contains(appender) && appender.isStarted()) {
+                appender.stop();
+            }
+        }
+    }
+
+    /**
+     * Takes over the configuration that was applied to the live context directly, after a reset, so that the next
+     * {@link #install} replaces it. None of its appenders is reused.
+     */
+    void adoptCurrent() {
+        List<LoggerContextListener> listeners = new ArrayList<LoggerContextListener>();
+        for (LoggerContextListener listener : m_context.getCopyOfListenerList()) {
+            if (!listener.isResetResistant()) {
+                listeners.add(listener);
+            }
+        }
+        m_fingerprints = Collections.emptyMap();
+        m_listeners = listeners;
+        m_turboFilters = new ArrayList<TurboFilter>(m_context.getTurboFilterList());
+    }
+
+    /**
+     * Computes the fingerprints of the appenders of a Joran configuration.
+     *
+     * <p>
+     * The fingerprint of an appender is a canonical form of its element in the configuration file, with variables
+     * substituted, together with the top level elements that are neither appenders nor loggers, such as conversion
+     * rules, and the appenders it refers to. Appenders that other appenders refer to, and appenders using a variable
+     * that cannot be resolved in the context, get no fingerprint. If the configuration includes other files, no appender gets one.
+     * </p>
+     *
+     * @param content the configuration file
+     * @param context the context the configuration was parsed into, to resolve variables
+     * @return the fingerprints by appender name, empty if the file cannot be parsed
+     */
+    static Map<String, String> fingerprints(byte[] content, PropertyContainer context) {
+        Element root;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(content));
+            root = document.getDocumentElement();
+        } catch (Exception e) {
+            return Collections.emptyMap();
+        }
+
+        StringBuilder global = new StringBuilder();
+        Map<String, Element> appenders = new HashMap<String, Element>();
+        Set<String> referenced = new HashSet<String>();
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!(node instanceof Element)) {
+                continue;
+            }
+            Element element = (Element) node;
+            String tag = element.getTagName();
+            if ("include".equalsIgnoreCase(tag)) {
+                return Collections.emptyMap();
+            } else if ("appender".equalsIgnoreCase(tag)) {
+                appenders.put(element.getAttribute("name"), element);
+                NodeList refs = element.getElementsByTagName("appender-ref");
+                for (int i = 0; i < refs.getLength(); i++) {
+                    referenced.add(((Element) refs.item(i)).getAttribute("ref"));
+                }
+            } else if (!"logger".equalsIgnoreCase(tag) && !"root".equalsIgnoreCase(tag)) {
+                canonicalize(element, global);
+            }
+        }
+
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, Element> appender : appenders.entrySet()) {
+            if (referenced.contains(appender.getKey())) {
+                continue;
+            }
+            StringBuilder text = new StringBuilder(global);
+            canonicalizeAppender(appender.getKey(), appenders, text, new HashSet<String>());
+            try {
+                String fingerprint = OptionHelper.substVars(text.toString(), context);
+                if (!fingerprint.contains(CoreConstants.UNDEFINED_PROPERTY_SUFFIX)) {
+                    result.put(appender.getKey(), fingerprint);
+                }
+            } catch (IllegalArgumentException e) {
+                // malformed variable reference, the appender is simply not reused
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Canonicalizes an appender together with the appenders it refers to, which are reused along with it.
+     */
+    private static void canonicalizeAppender(String name, Map<String, Element> appenders, StringBuilder out,
+                                             Set<String> visited) {
+        Element element = appenders.get(name);
+        if (element == null || !visited.add(name)) {
+            return;
+        }
+        canonicalize(element, out);
+        NodeList refs = element.getElementsByTagName("appender-ref");
+        for (int i = 0; i < refs.getLength(); i++) {
+            canonicalizeAppender(((Element) refs.item(i)).getAttribute("ref"), appenders, out, visited);
+        }
+    }
+
+    private static void canonicalize(Element element, StringBuilder out) {
+        out.append('<').append(element.getTagName().toLowerCase());
+        NamedNodeMap attributes = element.getAttributes();
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            sorted.put(attribute.getName(), attribute.getValue());
+        }
+        for (Map.Entry<String, String> attribute : sorted.entrySet()) {
+            out.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue()).append('"');
+        }
+        out.append('>');
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                canonicalize((Element) node, out);
+            } else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+                out.append(node.getNodeValue().trim());
+            }
+        }
+        out.append("</>");
+    }
+
+    private static Set<Appender<ILoggingEvent>> attachedAppenders(LoggerContext context,
+                                                                  Map<String, Appender<ILoggingEvent>> byName) {
+        Set<Appender<ILoggingEvent>> result = identitySet();
+        for (Logger logger : context.getLoggerList()) {
+            for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext();) {
+                Appender<ILoggingEvent> appender = it.next();
+                result.add(appender);
+                if (byName != null) {
+                    byName.put(appender.getName(), appender);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void detachAllBut(Logger logger, Set<Appender<ILoggingEvent>> wanted) {
+        List<Appender<ILoggingEvent>> detach = new ArrayList<Appender<ILoggingEvent>>();
+        for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext();) {
+            Appender<ILoggingEvent> appender = it.next();
+            if (!wanted.contains(appender)) {
+                detach.add(appender);
+            }
+        }
+        for (Appender<ILoggingEvent> appender : detach) {
+            logger.detachAppender(appender);
+        }
+    }
+
+    /**
+     * @return the appender followed by the appenders nested in it, outermost first
+     */
+    private static List<Appender<ILoggingEvent>> withNested(Appender<ILoggingEvent> appender) {
+        List<Appender<ILoggingEvent>> result = new ArrayList<Appender<ILoggingEvent>>();
+        collectNested(appender, result, identitySet());
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collectNested(Appender<ILoggingEvent> appender, List<Appender<ILoggingEvent>> result,
+                                      Set<Appender<ILoggingEvent>> visited) {
+        if (!visited.add(appender)) {
+            return;
+        }
+        result.add(appender);
+        if (appender instanceof AppenderAttachable) {
+            AppenderAttachable<ILoggingEvent> attachable = (AppenderAttachable<ILoggingEvent>) appender;
+            for (Iterator<Appender<ILoggingEvent>> it = attachable.iteratorForAppenders(); it.hasNext();) {
+                collectNested(it.next(), result, visited);
+            }
+        }
+    }
+
+    private static Set<Appender<ILoggingEvent>> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Appender<ILoggingEvent>, Boolean>());
+    }
+
+    /**
+     * A Joran configurator for a shadow context, whose appenders belong to the live context and are not started, so
+     * that {@link #install} can start them once the appenders they replace are stopped. Logback does not allow an
+     * appender to change its context, so it gets the live one when it is created.
+     */
+    static final class ShadowConfigurator extends JoranConfigurator {
+
+        private final Context m_live;
+        private final List<Appender<ILoggingEvent>> m_appenders = new ArrayList<Appender<ILoggingEvent>>();
+
+        ShadowConfigurator(Context live) {
+            m_live = live;
+        }
+
+        /**
+         * @return the appenders created while parsing, in the order they were defined
+         */
+        List<Appender<ILoggingEvent>> getAppenders() {
+            return m_appenders;
+        }
+
+        @Override
+        public void addInstanceRules(final RuleStore rs) {
+            final Action appenderAction = new DeferredAppenderAction(m_live, m_appenders);
+            super.addInstanceRules(new RuleStore() {
+                public void addRule(ElementSelector elementSelector, String actionClassStr)
+                    throws ClassNotFoundException {
+                    rs.addRule(elementSelector, actionClassStr);
+                }
+
+                public void addRule(ElementSelector elementSelector, Action action) {
+                    rs.addRule(elementSelector, action instanceof AppenderAction ? appenderAction : action);
+                }
+
+                public List<Action> matchActions(ElementPath elementPath) {
+                    return rs.matchActions(elementPath);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates appenders like Joran's {@link AppenderAction}, but leaves them stopped.
+     */
+    private static final class DeferredAppenderAction extends Action {
+
+        private final Context m_live;
+        private final List<Appender<ILoggingEvent>> m_appenders;
+        private Appender<ILoggingEvent> m_appender;
+
+        DeferredAppenderAction(Context live, List<Appender<ILoggingEvent>> appenders) {
+            m_live = live;
+            m_appenders = appenders;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void begin(InterpretationContext ic, String name, Attributes attributes) throws ActionException {
+            m_appender = null;
+            String className = attributes.getValue(CLASS_ATTRIBUTE);
+            if (OptionHelper.isEmpty(className)) {
+                addError("Missing class name for appender [" + attributes.getValue(NAME_ATTRIBUTE) + "]");
+                return;
+            }
+            try {
+                Appender<ILoggingEvent> appender =
+                    (Appender<ILoggingEvent>) OptionHelper.instantiateByClassName(className, Appender.class, context);
+                appender.setContext(m_live);
+                String appenderName = ic.subst(attributes.getValue(NAME_ATTRIBUTE));
+                if (OptionHelper.isEmpty(appenderName)) {
+                    addWarn("No appender name given for appender of type [" + className + "].");
+                } else {
+                    appender.setName(appenderName);
+                }
+                Map<String, Appender<ILoggingEvent>> bag =
+                    (Map<String, Appender<ILoggingEvent>>) ic.getObjectMap().get(ActionConst.APPENDER_BAG);
+                bag.put(appenderName, appender);
+                ic.pushObject(appender);
+                m_appender = appender;
+            } catch (Exception e) {
+                addError("Could not create an Appender of type [" + className + "].", e);
+                throw new ActionException(e);
+            }
+        }
+
+        @Override
+        public void end(InterpretationContext ic, String name) {
+            if (m_appender == null) {
+                return;
+            }
+            m_appenders.add(m_appender);
+            if (ic.peekObject() == m_appender) {
+                ic.popObject();
+            } else {
+                addWarn("The object at the top of the stack is not the appender named [" + m_appender.getName()
+                    + "] pushed earlier.");
+            }
+            m_appender = null;
+        }
+    }
+
+    /**
+     * Takes the place of an appender that is replaced, from the moment it is detached until its successor has
+     * started, and then hands the events it kept, and the ones that still reach it, to the successor. It is never
+     * stopped, as logging threads may still hold on to it after it has been detached.
+     */
+    static final class SwapBuffer extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+        private final List<ILoggingEvent> m_events = new ArrayList<ILoggingEvent>();
+        private Appender<ILoggingEvent> m_successor;
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            Appender<ILoggingEvent> successor;
+            synchronized (this) {
+                successor = m_successor;
+                if (successor == null) {
+                    // the event is appended later, possibly by another thread
+                    event.prepareForDeferredProcessing();
+                    event.getCallerData();
+                    m_events.add(event);
+                    return;
+                }
+            }
+            successor.doAppend(event);
+        }
+
+        synchronized void handOver(Appender<ILoggingEvent> successor) {
+            for (ILoggingEvent event : m_events) {
+                successor.doAppend(event);
+            }
+            m_events.clear();
+            m_successor = successor;
+        }
+    }
+}
@@ -34,12 +34,34 @@ public class PaxLevelForLogback implements PaxLevel {
     public static final int SYSLOG_ERROR = 3;
     public static final int SYSLOG_OFF = 0;
 
-    private Level m_delegate;
+    private static final PaxLevelForLogback[] LEVELS = {
+        new PaxLevelForLogback(Level.OFF), new PaxLevelForLogback(Level.ERROR), new PaxLevelForLogback(Level.WARN),
+        new PaxLevelForLogback(Level.INFO), new PaxLevelForLogback(Level.DEBUG), new PaxLevelForLogback(Level.TRACE),
+        new PaxLevelForLogback(Level.ALL)
+    };
+
+    private final Level m_delegate;
 
     public PaxLevelForLogback(Level delegate) {
         m_delegate = delegate;
     }
 
+    /**
+     * @param level the logback level
+     * @return the shared instance for the level, or null if the level is null
+     */
+    public static PaxLevelForLogback valueOf(Level level) {
+        if (level == null) {
+            return null;
+        }
+        for (PaxLevelForLogback paxLevel : LEVELS) {
+            if (paxLevel.m_delegate == level) {
+                return paxLevel;
+            }
+        }
+        return new PaxLevelForLogback(level);
+    }
+
     public boolean isGreaterOrEqual( PaxLevel r ) {
         if (r instanceof PaxLevelForLogback) {
             return m_delegate.isGreaterOrEqual( ((PaxLevelForLogback) r).m_delegate );
@@ -18,8 +18,11 @@
  */
 package org.ops4j.pax.logging.logback.internal;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.ops4j.pax.logging.PaxContext;
-import org.ops4j.pax.logging.PaxLogger;
+import org.ops4j.pax.logging.PaxContextLogger;
 import org.ops4j.pax.logging.PaxLoggingService;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -28,7 +31,9 @@ import org.slf4j.MDC;
 import org.slf4j.spi.LocationAwareLogger;
 import org.slf4j.spi.MDCAdapter;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
 
 /**
  * A logger implementation specialized for Logback.
@@ -47,7 +52,7 @@ import ch.qos.logback.classic.Logger;
  * @author Raul Kripalani
  */
 public class PaxLoggerImpl
-    implements PaxLogger
+    implements PaxContextLogger
 {
 
     private final Logger m_delegate;
@@ -219,9 +224,66 @@ public class PaxLoggerImpl
         m_eventHandler.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
     }
 
+    /**
+     * Logback takes the MDC of an event from the PaxContext of the thread, the event is built here instead so
+     * that it gets the given context. The turbo filters and the level apply as for an <code>isEnabled()</code> check.
+     */
+    public void log( int level, String message, Throwable t, String fqcn, Map<String, Object> context )
+    {
+        Level logbackLevel;
+        int logServiceLevel;
+        switch( level )
+        {
+            case LEVEL_TRACE:
+                logbackLevel = Level.TRACE;
+                logServiceLevel = LogService.LOG_DEBUG;
+                break;
+            case LEVEL_DEBUG:
+                logbackLevel = Level.DEBUG;
+                logServiceLevel = LogService.LOG_DEBUG;
+                break;
+            case LEVEL_INFO:
+                logbackLevel = Level.INFO;
+                logServiceLevel = LogService.LOG_INFO;
+                break;
+            case LEVEL_WARNING:
+                logbackLevel = Level.WARN;
+                logServiceLevel = LogService.LOG_WARNING;
+                break;
+            default:
+                logbackLevel = Level.ERROR;
+                logServiceLevel = LogService.LOG_ERROR;
+                break;
+        }
+        if( m_delegate.isEnabledFor( null, logbackLevel ) )
+        {
+            Map<String, String> mdc = new HashMap<String, String>();
+            if( context != null )
+            {
+                for( Map.Entry<String, Object> entry : context.entrySet() )
+                {
+                    if( entry.getValue() != null )
+                    {
+                        mdc.put( entry.getKey(), entry.getValue().toString() );
+                    }
+                }
+            }
+            if( m_bundle != null )
+            {
+                mdc.put( "bundle.id", String.valueOf( m_bundle.getBundleId() ) );
+                mdc.put( "bundle.name", m_bundle.getSymbolicName() );
+                mdc.put( "bundle.version", m_bundle.getVersion().toString() );
+            }
+            LoggingEvent event = new LoggingEvent( fqcn, m_delegate, logbackLevel, message, t, null );
+            event.setMDCPropertyMap( mdc );
+            m_delegate.callAppenders( event );
+        }
+        m_eventHandler.handleEvents( m_bundle, null, logServiceLevel, message, t );
+    }
+
     public int getLogLevel()
     {
-        return new PaxLevelForLogback(m_delegate.getEffectiveLevel()).toInt();
+        return PaxLevelForLogback.valueOf(m_delegate.getEffectiveLevel()).toInt();
     }
 
     public String getName()
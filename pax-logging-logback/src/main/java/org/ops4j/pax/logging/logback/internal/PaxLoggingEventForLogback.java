@@ -48,7 +48,7 @@ public class PaxLoggingEventForLogback implements PaxLoggingEvent {
     }
 
     public PaxLevel getLevel() {
-        return new PaxLevelForLogback(event.getLevel());
+        return PaxLevelForLogback.valueOf(event.getLevel());
     }
 
     public String getLoggerName() {
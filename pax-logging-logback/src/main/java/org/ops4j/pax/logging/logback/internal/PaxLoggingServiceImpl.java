@@ -26,8 +26,10 @@ import ch.qos.logback.classic.joran.JoranConfigurator;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.ConsoleAppender;
 import ch.qos.logback.core.joran.spi.JoranException;
+import ch.qos.logback.core.status.InfoStatus;
 import ch.qos.logback.core.status.Status;
 import ch.qos.logback.core.status.StatusListener;
+import ch.qos.logback.core.status.StatusUtil;
 import ch.qos.logback.core.status.WarnStatus;
 import org.ops4j.pax.logging.EventAdminPoster;
 import org.ops4j.pax.logging.PaxContext;
@@ -43,16 +45,26 @@ import org.osgi.service.cm.ManagedService;
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogService;
 import org.slf4j.impl.StaticLoggerBinder;
+import org.w3c.dom.Element;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
 
 /**
  * An implementation of PaxLoggingService that delegates to Logback.
@@ -81,6 +93,10 @@ import java.util.Locale;
  * </pre>
  * This is an important performance optimization, as discussed in the <a href="http://logback.qos.ch/manual/configuration.html#LevelChangePropagator"></a>Logback docs</a>
  * </p>
+ * <p>
+ * The {@link JdkHandler} does not set the levels of the JUL loggers: without the propagator, the records that Logback
+ * would discard are still created by JUL, and only dropped by the handler after checking the level of the category.
+ * </p>
  *
  * @author Chris Dolan
  */
@@ -95,10 +111,20 @@ public class PaxLoggingServiceImpl implements PaxLoggingService, org.knopflerfis
     private final LoggerContext m_logbackContext;
     private final String m_fqcn;
 
+    private final ConfigurationInstaller m_installer;
+    private final Object m_configLock = new Object();
+
+    private volatile JdkHandler m_jdkHandler;
+    // identifies the installed configuration, see configureLogback()
+    private String m_configurationKey;
+    private String m_hostName;
+    private boolean m_hostNameResolved;
+
     private int m_logLevel = LOG_DEBUG;
     private static final String DEFAULT_SERVICE_LOG_LEVEL = "org.ops4j.pax.logging.DefaultServiceLog.level";
     private static final String LOGBACK_CONFIG_FILE_KEY = "org.ops4j.pax.logging.logback.config.file";
     public static final String LOGGER_CONTEXT_BUNDLECONTEXT_KEY = "org.ops4j.pax.logging.logback.bundlecontext";
+    private static final String DEFAULT_CONFIGURATION_KEY = "default";
 
     public PaxLoggingServiceImpl(@Nonnull BundleContext bundleContext, @Nonnull LogReaderServiceAccess logReader,
                                  @Nonnull EventAdminPoster eventAdmin)
@@ -128,13 +154,13 @@ public class PaxLoggingServiceImpl implements PaxLoggingService, org.knopflerfis
             m_logbackContext = new LoggerContext();
             m_logbackContext.start();
         }
+        m_logbackContext.putObject(LOGGER_CONTEXT_BUNDLECONTEXT_KEY, m_bundleContext);
+        addStatusListener(m_logbackContext);
+        m_installer = new ConfigurationInstaller(m_logbackContext);
 
         // not strictly necessary because org.apache.felix.cm.impl.ConfigurationManager will configure us, but this
-        // is a safe precaution. In a typical run, we will reset the logback configuration four times:
-        //  1) here, in the constructor
-        //  2) via Felix when the service is added: updated(null)
-        //  3) again from Felix when the config file is discovered: updated(non-null)
-        //  4) from stop()
+        // is a safe precaution. The live context is never reset: each configuration is built in a shadow context
+        // and swapped in, and the default configuration installed here is kept when Felix calls updated(null).
         configureDefaults();
     }
 
@@ -239,26 +265,44 @@ public class PaxLoggingServiceImpl implements PaxLoggingService, org.knopflerfis
             File f = new File(configfile.toString());
             if (f.exists()) {
                 try {
-                    configureLogback(f);
+                    configureLogback(f, levelSettings(configuration));
                 } catch (RuntimeException e) {
-                    m_logbackContext.getStatusManager().add(new WarnStatus("Error loading Logback configuration from '" + f + "'", m_logbackContext, e));
+                    m_logbackContext.getStatusManager().add(new WarnStatus("Error loading Logback configuration from '" + f + "', keeping the previous configuration", m_logbackContext, e));
                 }
             } else {
                 m_logbackContext.getStatusManager().add(new WarnStatus("Configuration said to load '" + f + "' but that file does not exist", m_logbackContext));
-                configureLogback(null);
+                configureLogback(null, null);
             }
         } else {
-            configureLogback(null);
+            configureLogback(null, null);
         }
 
         configurePax(configuration);
         updateLevels(configuration);
+        notifyJdkHandler();
+    }
+
+    /**
+     * @param jdkHandler the handler forwarding <tt>java.util.logging</tt> records, to be told about configuration
+     *                   changes, or <code>null</code>
+     */
+    void setJdkHandler( JdkHandler jdkHandler )
+    {
+        m_jdkHandler = jdkHandler;
+    }
+
+    private void notifyJdkHandler()
+    {
+        JdkHandler jdkHandler = m_jdkHandler;
+        if( jdkHandler != null )
+        {
+            jdkHandler.levelsChanged();
+        }
     }
 
     private void configureDefaults()
     {
-        ConsoleAppender<ILoggingEvent> consoleAppender = configureLogbackDefaults();
-        consoleAppender.addInfo("default: setting up console logging at WARN level");
+        configureLogback(null, null);
 
         String levelName;
         levelName = m_bundleContext.getProperty( DEFAULT_SERVICE_LOG_LEVEL );
@@ -271,46 +315,161 @@ public class PaxLoggingServiceImpl implements PaxLoggingService, org.knopflerfis
             levelName = levelName.trim();
         }
         m_logLevel = convertLevel( levelName );
+        notifyJdkHandler();
     }
 
-    private void configureLogback(@Nullable File configFile) {
-        ConsoleAppender<ILoggingEvent> consoleAppender = configureLogbackDefaults();
-
-        if (configFile != null) {
+    /**
+     * Builds the configuration in a shadow context and swaps it into the live context, see
+     * {@link ConfigurationInstaller}. Nothing is done if the same file with the same content and the same level
+     * settings was installed last time.
+     *
+     * @param configFile the Joran configuration file, or <code>null</code> for the default console configuration
+     * @param levels     the level settings from the configuration admin that are applied on top of the file
+     */
+    private void configureLogback(@Nullable File configFile, @Nullable String levels) {
+        synchronized (m_configLock) {
+            if (configFile == null) {
+                if (!DEFAULT_CONFIGURATION_KEY.equals(m_configurationKey)) {
+                    LoggerContext shadow = createShadowContext();
+                    ConsoleAppender<ILoggingEvent> consoleAppender = makeConsoleAppender(shadow);
+                    consoleAppender.addInfo("default: setting up console logging at WARN level");
+                    shadow.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).addAppender(consoleAppender);
+                    m_installer.install(shadow, Collections.singletonMap(consoleAppender.getName(), DEFAULT_CONFIGURATION_KEY));
+                    m_configurationKey = DEFAULT_CONFIGURATION_KEY;
+                }
+                return;
+            }
 
-            // get a better representation of the hostname than what Logback provides in the HOSTNAME property
+            byte[] content;
             try {
-                String hostName = InetAddress.getLocalHost().getCanonicalHostName();
-                int n = hostName.indexOf('.');
-                if(n >= 0)
-                    hostName = hostName.substring(0, n);
-                m_logbackContext.putProperty("HOSTNAMENONCANON", hostName.toLowerCase(Locale.ENGLISH));
-            } catch (UnknownHostException e) {
-                // ignore
+                content = readFully(configFile);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(content);
+            String key = configFile.getAbsolutePath() + '#' + checksum.getValue() + '#' + levels;
+            if (key.equals(m_configurationKey)) {
+                m_logbackContext.getStatusManager().add(new InfoStatus("Logback configuration '" + configFile + "' is unchanged", m_logbackContext));
+                return;
+            }
+
+            String hostName = getHostName();
+            if (scans(content)) {
+                // logback's reconfiguration filter always reconfigures the context it was created in, so a scanned
+                // configuration has to live in the live context and is applied in place, as before
+                m_configurationKey = null;
+                configureLogbackInPlace(configFile, hostName);
+                m_configurationKey = key;
+                return;
             }
 
-            JoranConfigurator configurator = new JoranConfigurator();
-            configurator.setContext(m_logbackContext);
+            LoggerContext shadow = createShadowContext();
+            if (hostName != null) {
+                shadow.putProperty("HOSTNAMENONCANON", hostName);
+            }
+            ConfigurationInstaller.ShadowConfigurator configurator =
+                new ConfigurationInstaller.ShadowConfigurator(m_logbackContext);
+            configurator.setContext(shadow);
             try {
                 configurator.doConfigure(configFile);
-                m_logbackContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).detachAppender(consoleAppender);
             } catch (JoranException e) {
+                shadow.stop();
                 throw new RuntimeException(e);
             }
+            if (new StatusUtil(shadow).getHighestLevel(0) >= Status.ERROR) {
+                // a broken configuration must not replace a working one
+                shadow.stop();
+                throw new RuntimeException("Logback configuration '" + configFile + "' has errors");
+            }
+            m_installer.install(shadow, ConfigurationInstaller.fingerprints(content, shadow), configurator.getAppenders());
+            m_configurationKey = key;
         }
     }
 
-    private ConsoleAppender<ILoggingEvent> configureLogbackDefaults() {
-        // simplest possible useful configuration, make sure there's minimal time when there are no appenders!
-        ConsoleAppender<ILoggingEvent> consoleAppender = makeConsoleAppender();
+    private void configureLogbackInPlace(File configFile, @Nullable String hostName) {
+        ConsoleAppender<ILoggingEvent> consoleAppender = makeConsoleAppender(m_logbackContext);
 
-        //System.err.println("reset"); new Exception().printStackTrace(System.err);
+        // simplest possible useful configuration, make sure there's minimal time when there are no appenders!
         m_logbackContext.reset();
         // minimize time between these two lines of code
         m_logbackContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).addAppender(consoleAppender);
-
         m_logbackContext.putObject(LOGGER_CONTEXT_BUNDLECONTEXT_KEY, m_bundleContext);
-        m_logbackContext.getStatusManager().add(new StatusListener() {
+        addStatusListener(m_logbackContext);
+        if (hostName != null) {
+            m_logbackContext.putProperty("HOSTNAMENONCANON", hostName);
+        }
+
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(m_logbackContext);
+        try {
+            configurator.doConfigure(configFile);
+            m_logbackContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).detachAppender(consoleAppender);
+        } catch (JoranException e) {
+            throw new RuntimeException(e);
+        } finally {
+            m_installer.adoptCurrent();
+        }
+    }
+
+    private LoggerContext createShadowContext() {
+        LoggerContext shadow = new LoggerContext();
+        shadow.setName(m_logbackContext.getName());
+        shadow.putObject(LOGGER_CONTEXT_BUNDLECONTEXT_KEY, m_bundleContext);
+        addStatusListener(shadow);
+        shadow.start();
+        return shadow;
+    }
+
+    /**
+     * @return a better representation of the hostname than what Logback provides in the HOSTNAME property, looked up
+     *         only once as the lookup may be slow
+     */
+    @Nullable
+    private String getHostName() {
+        if (!m_hostNameResolved) {
+            m_hostNameResolved = true;
+            try {
+                String hostName = InetAddress.getLocalHost().getCanonicalHostName();
+                int n = hostName.indexOf('.');
+                if(n >= 0)
+                    hostName = hostName.substring(0, n);
+                m_hostName = hostName.toLowerCase(Locale.ENGLISH);
+            } catch (UnknownHostException e) {
+                // ignore
+            }
+        }
+        return m_hostName;
+    }
+
+    private static boolean scans(byte[] content) {
+        try {
+            Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(content)).getDocumentElement();
+            return Boolean.valueOf(root.getAttribute("scan"));
+        } catch (Exception e) {
+            // Joran will report the problem
+            return false;
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void addStatusListener(LoggerContext context) {
+        context.getStatusManager().add(new StatusListener() {
             public void addStatusEvent(Status status) {
                 if (status.getLevel() == Status.ERROR || status.getLevel() == Status.WARN) {
                     String output = String.valueOf(status);
@@ -324,25 +483,23 @@ public class PaxLoggingServiceImpl implements PaxLoggingService, org.knopflerfis
                 }
             }
         });
-
-        return consoleAppender;
     }
 
-    private ConsoleAppender<ILoggingEvent> makeConsoleAppender() {
+    private static ConsoleAppender<ILoggingEvent> makeConsoleAppender(LoggerContext context) {
         // This code is similar to ch.qos.logback.classic.BasicConfigurator, but adds a filter
 
         ThresholdFilter filter = new ThresholdFilter();
-        filter.setContext(m_logbackContext);
+        filter.setContext(context);
         filter.setLevel("WARN");
         filter.start();
 
         PatternLayoutEncoder encoder = new PatternLayoutEncoder();
-        encoder.setContext(m_logbackContext);
+        encoder.setContext(context);
         encoder.setPattern("%d %-5level [%file:%line] %msg - %logger{20}%n");
         encoder.start();
 
         ConsoleAppender<ILoggingEvent> consoleAppender = new ConsoleAppender<ILoggingEvent>();
-        consoleAppender.setContext(m_logbackContext);
+        consoleAppender.setContext(context);
         consoleAppender.setName("DEFAULT-CONSOLE");
         consoleAppender.addFilter(filter);
         consoleAppender.setEncoder(encoder);
@@ -351,6 +508,23 @@ public class PaxLoggingServiceImpl implements PaxLoggingService, org.knopflerfis
         return consoleAppender;
     }
 
+    /**
+     * @return the level settings of the configuration, in a canonical form to compare with those of the previously
+     *         installed configuration
+     */
+    private static String levelSettings(Dictionary config) {
+        Map<String, Object> levels = new TreeMap<String, Object>();
+        for ( Enumeration keys = config.keys(); keys.hasMoreElements(); )
+        {
+            String name = (String) keys.nextElement();
+            if ( name.equals( "log4j.rootLogger" ) || name.startsWith( "log4j.logger." ) )
+            {
+                levels.put( name, config.get( name ) );
+            }
+        }
+        return levels.toString();
+    }
+
     private void updateLevels(Dictionary config) {
       for ( Enumeration keys = config.keys(); keys.hasMoreElements(); )
       {
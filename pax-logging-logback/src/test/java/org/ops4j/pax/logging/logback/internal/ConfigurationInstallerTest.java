@@ -0,0 +1,220 @@
+package org.ops4j.pax.logging.logback.internal;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class ConfigurationInstallerTest {
+
+    @Test
+    public void testUnchangedAppenderIsReused() {
+        LoggerContext live = new LoggerContext();
+        ConfigurationInstaller installer = new ConfigurationInstaller(live);
+
+        ListAppender<ILoggingEvent> first = shadowAppender("LIST");
+        installer.install((LoggerContext) first.getContext(), Collections.singletonMap("LIST", "same"));
+        Logger root = live.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        Assert.assertTrue(root.isAttached(first));
+
+        ListAppender<ILoggingEvent> second = shadowAppender("LIST");
+        installer.install((LoggerContext) second.getContext(), Collections.singletonMap("LIST", "same"));
+        Assert.assertTrue(root.isAttached(first));
+        Assert.assertFalse(root.isAttached(second));
+        Assert.assertTrue(first.isStarted());
+        Assert.assertFalse(second.isStarted());
+
+        ListAppender<ILoggingEvent> third = shadowAppender("LIST");
+        installer.install((LoggerContext) third.getContext(), Collections.singletonMap("LIST", "changed"));
+        Assert.assertTrue(root.isAttached(third));
+        Assert.assertFalse(root.isAttached(first));
+        Assert.assertFalse(first.isStarted());
+
+        root.info("message");
+        Assert.assertEquals(1, third.list.size());
+    }
+
+    @Test
+    public void testReplacedAppenderStopsBeforeItsSuccessorStarts() {
+        LoggerContext live = new LoggerContext();
+        ConfigurationInstaller installer = new ConfigurationInstaller(live);
+        List<String> lifecycle = new ArrayList<String>();
+
+        LoggerContext shadow = new LoggerContext();
+        LifecycleAppender first = deferredAppender(shadow, live, "1", lifecycle);
+        installer.install(shadow, Collections.singletonMap("FILE", "one"),
+            Collections.<Appender<ILoggingEvent>>singletonList(first));
+
+        shadow = new LoggerContext();
+        LifecycleAppender second = deferredAppender(shadow, live, "2", lifecycle);
+        installer.install(shadow, Collections.singletonMap("FILE", "two"),
+            Collections.<Appender<ILoggingEvent>>singletonList(second));
+
+        // an unchanged copy is never started
+        shadow = new LoggerContext();
+        LifecycleAppender third = deferredAppender(shadow, live, "3", lifecycle);
+        installer.install(shadow, Collections.singletonMap("FILE", "two"),
+            Collections.<Appender<ILoggingEvent>>singletonList(third));
+
+        Assert.assertEquals(Arrays.asList("start 1", "stop 1", "start 2"), lifecycle);
+        Assert.assertTrue(live.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).isAttached(second));
+        Assert.assertSame(live, second.getContext());
+    }
+
+    @Test
+    public void testEventsLoggedWhileAnAppenderIsReplacedReachItsSuccessor() {
+        final LoggerContext live = new LoggerContext();
+        ConfigurationInstaller installer = new ConfigurationInstaller(live);
+        final List<String> lifecycle = new ArrayList<String>();
+
+        LoggerContext shadow = new LoggerContext();
+        installer.install(shadow, Collections.singletonMap("FILE", "one"),
+            Collections.<Appender<ILoggingEvent>>singletonList(deferredAppender(shadow, live, "1", lifecycle)));
+
+        shadow = new LoggerContext();
+        LifecycleAppender second = new LifecycleAppender("2", lifecycle) {
+            @Override
+            public void start() {
+                // the previous appender is stopped by now, and this one is not attached yet
+                live.getLogger("a.b").info("swapping");
+                super.start();
+            }
+        };
+        second.setContext(live);
+        second.setName("FILE");
+        shadow.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).addAppender(second);
+        installer.install(shadow, Collections.singletonMap("FILE", "two"),
+            Collections.<Appender<ILoggingEvent>>singletonList(second));
+        live.getLogger("a.b").info("swapped");
+
+        Assert.assertEquals(Arrays.asList("start 1", "stop 1", "start 2", "2: swapping", "2: swapped"), lifecycle);
+    }
+
+    @Test
+    public void testShadowConfiguratorLeavesAppendersStopped() throws Exception {
+        LoggerContext live = new LoggerContext();
+        LoggerContext shadow = new LoggerContext();
+        ConfigurationInstaller.ShadowConfigurator configurator = new ConfigurationInstaller.ShadowConfigurator(live);
+        configurator.setContext(shadow);
+        String xml = "<configuration>"
+            + "<appender name='LIST' class='ch.qos.logback.core.read.ListAppender'/>"
+            + "<root level='INFO'><appender-ref ref='LIST'/></root>"
+            + "</configuration>";
+        configurator.doConfigure(new ByteArrayInputStream(xml.getBytes()));
+
+        List<Appender<ILoggingEvent>> created = configurator.getAppenders();
+        Assert.assertEquals(1, created.size());
+        Assert.assertFalse(created.get(0).isStarted());
+        Assert.assertSame(live, created.get(0).getContext());
+        Assert.assertTrue(shadow.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).isAttached(created.get(0)));
+
+        new ConfigurationInstaller(live).install(shadow, ConfigurationInstaller.fingerprints(xml.getBytes(), shadow),
+            created);
+        Assert.assertTrue(created.get(0).isStarted());
+        live.getLogger("a.b").info("message");
+        Assert.assertEquals(1, ((ListAppender<ILoggingEvent>) created.get(0)).list.size());
+    }
+
+    @Test
+    public void testLoggersMissingFromNewConfigurationAreReset() {
+        LoggerContext live = new LoggerContext();
+        ConfigurationInstaller installer = new ConfigurationInstaller(live);
+
+        LoggerContext shadow = new LoggerContext();
+        shadow.getLogger("a.b").setLevel(Level.ERROR);
+        shadow.getLogger("a.b").setAdditive(false);
+        installer.install(shadow, Collections.<String, String>emptyMap());
+        Assert.assertEquals(Level.ERROR, live.getLogger("a.b").getLevel());
+        Assert.assertFalse(live.getLogger("a.b").isAdditive());
+
+        installer.install(new LoggerContext(), Collections.<String, String>emptyMap());
+        Assert.assertNull(live.getLogger("a.b").getLevel());
+        Assert.assertTrue(live.getLogger("a.b").isAdditive());
+    }
+
+    @Test
+    public void testFingerprints() {
+        LoggerContext context = new LoggerContext();
+        context.putProperty("dir", "/var/log");
+        String xml = "<configuration>"
+            + "<appender name='FILE' class='ch.qos.logback.core.FileAppender'><file>${dir}/a.log</file></appender>"
+            + "<appender name='ASYNC' class='ch.qos.logback.classic.AsyncAppender'><appender-ref ref='INNER'/></appender>"
+            + "<appender name='INNER' class='ch.qos.logback.core.FileAppender'><file>b.log</file></appender>"
+            + "<appender name='UNDEFINED' class='ch.qos.logback.core.FileAppender'><file>${missing}</file></appender>"
+            + "<root level='INFO'><appender-ref ref='FILE'/></root>"
+            + "</configuration>";
+        Map<String, String> fingerprints = ConfigurationInstaller.fingerprints(xml.getBytes(), context);
+        Assert.assertTrue(fingerprints.get("FILE").contains("/var/log/a.log"));
+        Assert.assertTrue(fingerprints.containsKey("ASYNC"));
+        Assert.assertFalse(fingerprints.containsKey("INNER"));
+        Assert.assertFalse(fingerprints.containsKey("UNDEFINED"));
+
+        String otherInner = xml.replace("b.log", "c.log");
+        Assert.assertFalse(fingerprints.get("ASYNC").equals(
+            ConfigurationInstaller.fingerprints(otherInner.getBytes(), context).get("ASYNC")));
+
+        String otherLevel = xml.replace("level='INFO'", "level='DEBUG'");
+        Assert.assertEquals(fingerprints, ConfigurationInstaller.fingerprints(otherLevel.getBytes(), context));
+        Assert.assertTrue(ConfigurationInstaller.fingerprints("<configuration>".getBytes(), context).isEmpty());
+    }
+
+    private static ListAppender<ILoggingEvent> shadowAppender(String name) {
+        LoggerContext shadow = new LoggerContext();
+        ListAppender<ILoggingEvent> appender = new ListAppender<ILoggingEvent>();
+        appender.setContext(shadow);
+        appender.setName(name);
+        appender.start();
+        shadow.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).addAppender(appender);
+        return appender;
+    }
+
+    private static LifecycleAppender deferredAppender(LoggerContext shadow, LoggerContext live, String id,
+                                                      List<String> lifecycle) {
+        LifecycleAppender appender = new LifecycleAppender(id, lifecycle);
+        appender.setContext(live);
+        appender.setName("FILE");
+        shadow.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).addAppender(appender);
+        return appender;
+    }
+
+    private static class LifecycleAppender extends AppenderBase<ILoggingEvent> {
+        private final String id;
+        private final List<String> lifecycle;
+
+        LifecycleAppender(String id, List<String> lifecycle) {
+            this.id = id;
+            this.lifecycle = lifecycle;
+        }
+
+        @Override
+        public void start() {
+            lifecycle.add("start " + id);
+            super.start();
+        }
+
+        @Override
+        public void stop() {
+            if (isStarted()) {
+                lifecycle.add("stop " + id);
+            }
+            super.stop();
+        }
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            lifecycle.add(id + ": " + event.getFormattedMessage());
+        }
+    }
+}
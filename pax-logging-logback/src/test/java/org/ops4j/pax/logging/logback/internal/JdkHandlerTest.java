@@ -13,6 +13,7 @@ import java.util.logging.LogRecord;
 
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
 
 /**
  * @author Chris Dolan
@@ -24,16 +25,19 @@ public class JdkHandlerTest {
         final Bundle bundle = makeBundle();
 
         PaxLogger logger = EasyMock.createStrictMock(PaxLogger.class);
-        logger.trace("all", null); EasyMock.expectLastCall().once();
-        logger.trace("fff", null); EasyMock.expectLastCall().once();
-        logger.debug("ff", null);  EasyMock.expectLastCall().once();
-        logger.debug("f", null);   EasyMock.expectLastCall().once();
-        logger.inform("c", null);  EasyMock.expectLastCall().once(); // pax-logging-log4j skips this, we don't
-        logger.inform("i", null);  EasyMock.expectLastCall().once();
-        logger.warn("w", null);    EasyMock.expectLastCall().once();
-        logger.error("s", null);   EasyMock.expectLastCall().once();
-        logger.error("off", null); EasyMock.expectLastCall().once();
-        logger.error(eq("s"), isA(Throwable.class));   EasyMock.expectLastCall().once();
+        // the level is checked before each record is formatted and forwarded
+        EasyMock.expect(logger.isTraceEnabled()).andReturn(true); logger.trace("all", null); EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isTraceEnabled()).andReturn(true); logger.trace("fff", null); EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isDebugEnabled()).andReturn(true); logger.debug("ff", null);  EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isDebugEnabled()).andReturn(true); logger.debug("f", null);   EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isInfoEnabled()).andReturn(true);  logger.inform("c", null);  EasyMock.expectLastCall().once(); // pax-logging-log4j skips this, we don't
+        EasyMock.expect(logger.isInfoEnabled()).andReturn(true);  logger.inform("i", null);  EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isWarnEnabled()).andReturn(true);  logger.warn("w", null);    EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isErrorEnabled()).andReturn(true); logger.error("s", null);   EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isErrorEnabled()).andReturn(true); logger.error("off", null); EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isErrorEnabled()).andReturn(true); logger.error(eq("s"), isA(Throwable.class));   EasyMock.expectLastCall().once();
+        // disabled records are neither formatted nor forwarded
+        EasyMock.expect(logger.isDebugEnabled()).andReturn(false);
 
         PaxLoggingService logService = EasyMock.createStrictMock(PaxLoggingService.class);
         EasyMock.expect(logService.getLogger(null, null, "java.util.logging.Logger")).andReturn(logger).anyTimes();
@@ -52,6 +56,7 @@ public class JdkHandlerTest {
             handler.publish(mkRecord(Level.SEVERE, "s", null));
             handler.publish(mkRecord(Level.OFF, "off", null));
             handler.publish(mkRecord(Level.SEVERE, "s", new Throwable()));
+            handler.publish(mkRecord(Level.FINE, "disabled", null));
 
             handler.flush(); // no-op
         } finally {
@@ -61,6 +66,47 @@ public class JdkHandlerTest {
         EasyMock.verify(bundle, logger, logService);
     }
 
+    @Test
+    public void testNamedLogger() {
+        java.util.logging.Logger julLogger = java.util.logging.Logger.getLogger("org.example.named");
+        julLogger.setLevel(Level.FINE);
+
+        PaxLogger logger = EasyMock.createStrictMock(PaxLogger.class);
+        EasyMock.expect(logger.isInfoEnabled()).andReturn(true); logger.inform("first", null);  EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isInfoEnabled()).andReturn(true); logger.inform("second", null); EasyMock.expectLastCall().once();
+        EasyMock.expect(logger.isDebugEnabled()).andReturn(false);
+        EasyMock.expect(logger.isInfoEnabled()).andReturn(true); logger.inform("third", null);  EasyMock.expectLastCall().once();
+
+        // outside of OSGi there is no caller bundle, the level check and the bundle lookup both ask for the
+        // logger of that name, once each before and once each after the configuration changed
+        PaxLoggingService logService = EasyMock.createStrictMock(PaxLoggingService.class);
+        EasyMock.expect(logService.getLogger(null, "org.example.named", "java.util.logging.Logger")).andReturn(logger).times(4);
+
+        EasyMock.replay(logger, logService);
+
+        JdkHandler handler = new JdkHandler(logService);
+        try {
+            handler.publish(mkRecord("org.example.named", Level.INFO, "first"));
+            handler.publish(mkRecord("org.example.named", Level.INFO, "second"));
+            handler.publish(mkRecord("org.example.named", Level.FINE, "disabled"));
+            handler.levelsChanged();
+            handler.publish(mkRecord("org.example.named", Level.INFO, "third"));
+        } finally {
+            handler.close();
+        }
+
+        EasyMock.verify(logger, logService);
+        // the levels of java.util.logging are left to the configuration
+        assertEquals(Level.FINE, julLogger.getLevel());
+        julLogger.setLevel(null);
+    }
+
+    private LogRecord mkRecord(@Nonnull String loggerName, @Nonnull Level lvl, @Nonnull String msg) {
+        LogRecord record = new LogRecord(lvl, msg);
+        record.setLoggerName(loggerName);
+        return record;
+    }
+
     private LogRecord mkRecord(@Nonnull Level lvl, @Nonnull String msg, @CheckForNull Throwable t) {
         LogRecord record = new LogRecord(lvl, msg);
         if (t != null)
@@ -4,11 +4,14 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.LoggingEventVO;
 import ch.qos.logback.core.Context;
 import org.ops4j.pax.logging.logback.appender.PaxAppenderDelegate;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.eclipse.osgi.framework.internal.core.FilterImpl;
+import org.junit.Assert;
 import org.junit.Test;
 import org.ops4j.pax.logging.spi.PaxAppender;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
@@ -27,12 +30,14 @@ public class PaxAppenderDelegateTest {
 
     @Test
     public void test() throws InvalidSyntaxException {
-        String filterStr = "(&(objectClass=org.ops4j.pax.logging.spi.PaxAppender)(org.ops4j.pax.logging.appender.name=foo-pax-name))";
+        String filterStr = "(&(|(objectClass=org.ops4j.pax.logging.spi.PaxAppender)"
+            + "(objectClass=org.ops4j.pax.logging.spi.PaxBatchAppender))(org.ops4j.pax.logging.appender.name=foo-pax-name))";
 
         ILoggingEvent evt = new LoggingEventVO();
 
         PaxAppender appender = EasyMock.createStrictMock(PaxAppender.class);
-        appender.doAppend(new PaxLoggingEventForLogback(evt));
+        Capture<PaxLoggingEvent> appended = new Capture<PaxLoggingEvent>();
+        appender.doAppend(EasyMock.capture(appended));
         EasyMock.expectLastCall().once();
 
         ServiceReference sr = EasyMock.createStrictMock(ServiceReference.class);
@@ -70,6 +75,10 @@ public class PaxAppenderDelegateTest {
         }
 
         EasyMock.verify(context, bundlecontext, sr, appender);
+        PaxLoggingEventForLogback expected = new PaxLoggingEventForLogback(evt);
+        Assert.assertEquals(expected.getTimeStamp(), appended.getValue().getTimeStamp());
+        Assert.assertEquals(expected.getLoggerName(), appended.getValue().getLoggerName());
+        Assert.assertEquals(expected.getRenderedMessage(), appended.getValue().getRenderedMessage());
     }
 
     @Test(expected=IllegalArgumentException.class)
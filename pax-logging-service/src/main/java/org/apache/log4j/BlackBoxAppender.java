@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.ops4j.pax.logging.service.internal.PaxLoggingEventImpl;
+import org.ops4j.pax.logging.spi.support.BlackBoxRecorder;
+
+/**
+ * Records the recent events into a memory mapped ring file, which outlives a crash of the process, see
+ * {@link BlackBoxRecorder}. Extract the recording with
+ * <code>java -jar pax-logging-decoder.jar -b [-m megabytes] file</code>.
+ *
+ * <p>
+ * The <b>File</b> option names the ring file, the <b>Size</b> option sets its size, like <code>16MB</code> (the
+ * default). Recording takes no lock, and is meant to stay on: attach the appender to the root logger without a
+ * threshold, and put the threshold on the other appenders instead, so that the recording has the debug events the
+ * log files leave out. Events below the level of their logger never reach any appender.
+ */
+public class BlackBoxAppender extends AppenderSkeleton {
+
+    private String fileName;
+    private long size = BlackBoxRecorder.DEFAULT_CAPACITY;
+    private volatile BlackBoxRecorder recorder;
+
+    public void setFile(String file) {
+        fileName = file == null ? null : file.trim();
+    }
+
+    public String getFile() {
+        return fileName;
+    }
+
+    public void setSize(String value) {
+        size = OptionConverter.toFileSize(value, size);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void activateOptions() {
+        if (fileName == null) {
+            errorHandler.error("File option not set for appender [" + name + "].");
+            return;
+        }
+        BlackBoxRecorder previous = recorder;
+        recorder = null;
+        if (previous != null) {
+            previous.close();
+        }
+        try {
+            recorder = new BlackBoxRecorder(new File(fileName), (int) Math.min(size, Integer.MAX_VALUE));
+        } catch (IOException e) {
+            errorHandler.error("Unable to open the black box [" + fileName + "].", e, ErrorCode.FILE_OPEN_FAILURE);
+        }
+    }
+
+    /**
+     * Not synchronized, unlike the method of {@link AppenderSkeleton}: the recorder takes no lock either.
+     */
+    public void doAppend(LoggingEvent event) {
+        if (closed) {
+            return;
+        }
+
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+
+        Filter f = this.headFilter;
+
+        FILTER_LOOP:
+        while (f != null) {
+            switch (f.decide(event)) {
+            case Filter.DENY: return;
+            case Filter.ACCEPT: break FILTER_LOOP;
+            case Filter.NEUTRAL: f = f.getNext();
+            }
+        }
+
+        this.append(event);
+    }
+
+    protected void append(LoggingEvent event) {
+        BlackBoxRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.doAppend(new PaxLoggingEventImpl(event));
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        BlackBoxRecorder recorder = this.recorder;
+        this.recorder = null;
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+}
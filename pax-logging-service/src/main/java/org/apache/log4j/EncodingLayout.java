@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A layout that can write the representation of an event as UTF-8 bytes, without creating a string. Appenders which
+ * write bytes, like {@link MemoryMappedFileAppender}, use {@link #encode(LoggingEvent, ByteBuffer)} instead of
+ * {@link #format(LoggingEvent)} when they write UTF-8.
+ */
+public abstract class EncodingLayout extends Layout {
+
+    /**
+     * Writes the UTF-8 representation of an event into a buffer, from its position on. If the buffer has not enough
+     * room, the bytes written so far are copied to a larger buffer which is returned instead.
+     *
+     * @param event  the event
+     * @param buffer the buffer
+     * @return the buffer holding the representation, with its position after the last byte written
+     */
+    public abstract ByteBuffer encode(LoggingEvent event, ByteBuffer buffer);
+
+    /**
+     * The layouts of log4j format into a buffer of their own, so the appenders which write in parallel only let one
+     * thread at a time use a layout, unless it says it can do without.
+     *
+     * @return true if the layout may format and encode the events of several threads at once
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Writes the UTF-8 bytes of a string, for the layouts that only have the string.
+     */
+    protected static ByteBuffer encode(String text, ByteBuffer buffer) {
+        byte[] bytes;
+        try {
+            bytes = text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer b = buffer;
+        if (b.remaining() < bytes.length) {
+            b = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes.length));
+            buffer.flip();
+            b.put(buffer);
+        }
+        return b.put(bytes);
+    }
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A file appender which compresses the events as it writes them, to a gzip file.
+ *
+ * <p>
+ * The logging threads format and encode their events and hand them to a compressor thread through a lock-free
+ * queue; the compressor thread writes them into the file. The layouts of log4j format into a buffer of their own,
+ * so only thread safe {@link EncodingLayout}s format the events of several threads at once. When more than <b>BufferSize</b> bytes (8 MB by default)
+ * are waiting, the logging threads wait for the compressor.
+ *
+ * <p>
+ * Every <b>FlushInterval</b> milliseconds (one second by default, 0 for never), the compressor completes the gzip
+ * member it is writing and starts a new one with the next event. A gzip file may hold any number of members, so the
+ * file can be read with <code>zcat</code> while it is being written, up to the last completed member. Appending to an
+ * existing file adds members to it as well.
+ *
+ * <p>
+ * The <b>File</b> option is the name of the file without the <code>.gz</code> suffix. The file is rolled over by size
+ * with the <b>MaxFileSize</b> (of the compressed file) and <b>MaxBackupIndex</b> options, to <code>file.1.gz</code>
+ * and so on, and by date with the <b>DatePattern</b> option, to <code>file</code> followed by the date and
+ * <code>.gz</code>. Rolled files are already compressed, so rolling over only renames the file, on the compressor
+ * thread.
+ */
+public class GzipFileAppender extends AppenderSkeleton {
+
+    private static final String SUFFIX = ".gz";
+
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    private String fileName;
+    private boolean fileAppend = true;
+    private String encoding;
+    private long flushInterval = 1000;
+    private long bufferSize = DEFAULT_BUFFER_SIZE;
+    private long maxFileSize;
+    private int maxBackupIndex = 1;
+    private String datePattern;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+
+    /**
+     * The number of bytes in the queue.
+     */
+    private final AtomicLong queued = new AtomicLong();
+
+    private volatile Charset charset;
+    private volatile Compressor compressor;
+
+    public GzipFileAppender() {
+    }
+
+    public GzipFileAppender(Layout layout, String filename) {
+        this.layout = layout;
+        this.fileName = filename;
+        activateOptions();
+    }
+
+    public void setFile(String file) {
+        fileName = file.trim();
+    }
+
+    public String getFile() {
+        return fileName;
+    }
+
+    public void setAppend(boolean append) {
+        fileAppend = append;
+    }
+
+    public boolean getAppend() {
+        return fileAppend;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @param flushInterval the number of milliseconds after which a gzip member is completed, 0 for never
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * @param value the number of bytes of events waiting to be compressed beyond which the logging threads wait,
+     *              with an optional KB, MB or GB suffix
+     */
+    public void setBufferSize(String value) {
+        bufferSize = OptionConverter.toFileSize(value, bufferSize);
+    }
+
+    public long getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param value the size of the compressed file after which it is rolled over, with an optional KB, MB or GB
+     *              suffix
+     */
+    public void setMaxFileSize(String value) {
+        maxFileSize = OptionConverter.toFileSize(value, maxFileSize + 1);
+    }
+
+    public void setMaximumFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public long getMaximumFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxBackupIndex(int maxBackupIndex) {
+        this.maxBackupIndex = maxBackupIndex;
+    }
+
+    public int getMaxBackupIndex() {
+        return maxBackupIndex;
+    }
+
+    public void setDatePattern(String datePattern) {
+        this.datePattern = datePattern;
+    }
+
+    public String getDatePattern() {
+        return datePattern;
+    }
+
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    public void activateOptions() {
+        if (fileName == null) {
+            LogLog.error("File option not set for appender [" + name + "].");
+            return;
+        }
+        stopCompressor();
+        charset = encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+        Compressor next = new Compressor();
+        try {
+            next.openFile(fileAppend);
+        } catch (IOException e) {
+            errorHandler.error("Could not open file [" + fileName + SUFFIX + "].", e, ErrorCode.FILE_OPEN_FAILURE);
+            return;
+        }
+        compressor = next;
+        next.start();
+    }
+
+    // Unsynchronized version, the logging threads only meet in the queue
+    public void doAppend(LoggingEvent event) {
+        if (closed) {
+            LogLog.error("Attempted to append to closed appender named [" + name + "].");
+            return;
+        }
+
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+
+        Filter f = this.headFilter;
+
+        FILTER_LOOP:
+        while (f != null) {
+            switch (f.decide(event)) {
+            case Filter.DENY: return;
+            case Filter.ACCEPT: break FILTER_LOOP;
+            case Filter.NEUTRAL: f = f.getNext();
+            }
+        }
+
+        this.append(event);
+    }
+
+    protected void append(LoggingEvent event) {
+        if (layout == null) {
+            errorHandler.error("No layout set for the appender named [" + name + "].");
+            return;
+        }
+        Compressor current = compressor;
+        if (current == null) {
+            // the file could not be opened, which has been reported
+            return;
+        }
+        byte[] bytes = format(layout, event).getBytes(charset);
+        while (queued.get() > bufferSize && current.isAlive()) {
+            current.wakeUp();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        queued.addAndGet(bytes.length);
+        queue.add(new Entry(event.getTimeStamp(), bytes));
+        current.wakeUp();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        stopCompressor();
+    }
+
+    private static String format(Layout layout, LoggingEvent event) {
+        String text;
+        if (layout instanceof EncodingLayout && ((EncodingLayout) layout).isThreadSafe()) {
+            text = layout.format(event);
+        } else {
+            synchronized (layout) {
+                text = layout.format(event);
+            }
+        }
+        if (layout.ignoresThrowable()) {
+            String[] lines = event.getThrowableStrRep();
+            if (lines != null) {
+                StringBuilder sb = new StringBuilder(text);
+                for (int i = 0; i < lines.length; i++) {
+                    sb.append(lines[i]).append(Layout.LINE_SEP);
+                }
+                text = sb.toString();
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Lets the compressor write what is queued, and the footer, and close the file.
+     */
+    private void stopCompressor() {
+        Compressor current = compressor;
+        compressor = null;
+        if (current == null) {
+            return;
+        }
+        current.stopping = true;
+        current.wakeUp();
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File backup(int index) {
+        return new File(fileName + '.' + index + SUFFIX);
+    }
+
+    /**
+     * Same as {@link DailyZipRollingFileAppender#computeCheckPeriod()}.
+     */
+    private int computeCheckPeriod() {
+        RollingCalendar rollingCalendar = new RollingCalendar(DailyZipRollingFileAppender.gmtTimeZone,
+                                                              Locale.getDefault());
+        Date epoch = new Date(0);
+        for (int i = DailyZipRollingFileAppender.TOP_OF_MINUTE; i <= DailyZipRollingFileAppender.TOP_OF_MONTH; i++) {
+            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(datePattern);
+            simpleDateFormat.setTimeZone(DailyZipRollingFileAppender.gmtTimeZone);
+            String r0 = simpleDateFormat.format(epoch);
+            rollingCalendar.setType(i);
+            Date next = new Date(rollingCalendar.getNextCheckMillis(epoch));
+            String r1 = simpleDateFormat.format(next);
+            if (!r0.equals(r1)) {
+                return i;
+            }
+        }
+        LogLog.warn("Unknown periodicity for appender [" + name + "].");
+        return DailyZipRollingFileAppender.TOP_OF_DAY;
+    }
+
+    /**
+     * The encoded text of an event.
+     */
+    private static final class Entry {
+
+        final long timeStamp;
+        final byte[] bytes;
+
+        Entry(long timeStamp, byte[] bytes) {
+            this.timeStamp = timeStamp;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Writes the queued events into the file and rolls it over. Owns the file once started.
+     */
+    private final class Compressor extends Thread {
+
+        volatile boolean stopping;
+        private volatile boolean idle;
+        private final long interval = flushInterval;
+        private final SimpleDateFormat sdf;
+        private final RollingCalendar rc;
+        private String scheduledFilename;
+        private long nextCheck = Long.MAX_VALUE;
+        private FileOutputStream out;
+        private GZIPOutputStream gzip;
+        private long lastFlush;
+
+        Compressor() {
+            super("GzipFileAppender compressor [" + name + "]");
+            setDaemon(true);
+            if (datePattern != null) {
+                sdf = new SimpleDateFormat(datePattern);
+                rc = new RollingCalendar();
+                rc.setType(computeCheckPeriod());
+                File current = new File(fileName + SUFFIX);
+                long lastModified = current.exists() ? current.lastModified() : System.currentTimeMillis();
+                scheduledFilename = fileName + sdf.format(new Date(lastModified)) + SUFFIX;
+                // rolls over with the first event if the file is from an earlier period
+                nextCheck = System.currentTimeMillis() - 1;
+            } else {
+                sdf = null;
+                rc = null;
+            }
+        }
+
+        void wakeUp() {
+            if (idle) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        public void run() {
+            lastFlush = System.currentTimeMillis();
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry != null) {
+                    queued.addAndGet(-entry.bytes.length);
+                    write(entry);
+                    continue;
+                }
+                if (stopping) {
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                if (interval > 0 && gzip != null && now - lastFlush >= interval) {
+                    try {
+                        completeMember();
+                    } catch (IOException e) {
+                        errorHandler.error("Failed to flush [" + fileName + SUFFIX + "].", e,
+                                           ErrorCode.FLUSH_FAILURE);
+                    }
+                    lastFlush = now;
+                }
+                // a logging thread which queues an event after the check sees the flag and unparks
+                idle = true;
+                if (queue.isEmpty() && !stopping) {
+                    long wait = interval > 0 && gzip != null ? lastFlush + interval - now : 1000;
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, wait)));
+                }
+                idle = false;
+            }
+            try {
+                if (layout.getFooter() != null) {
+                    writeBytes(layout.getFooter().getBytes(charset));
+                }
+                closeFile();
+            } catch (IOException e) {
+                errorHandler.error("Could not close [" + fileName + SUFFIX + "].", e, ErrorCode.CLOSE_FAILURE);
+            }
+        }
+
+        private void write(Entry entry) {
+            try {
+                if (entry.timeStamp >= nextCheck) {
+                    rollOverByDate(entry.timeStamp);
+                }
+                if (maxFileSize > 0 && out != null && out.getChannel().position() >= maxFileSize) {
+                    rollOverBySize();
+                }
+                writeBytes(entry.bytes);
+            } catch (IOException e) {
+                errorHandler.error("Failed to write to [" + fileName + SUFFIX + "].", e, ErrorCode.WRITE_FAILURE);
+            }
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            if (out == null) {
+                return;
+            }
+            if (gzip == null) {
+                gzip = new GZIPOutputStream(out, 64 * 1024);
+            }
+            gzip.write(bytes);
+        }
+
+        /**
+         * Writes the end of the current gzip member, the next bytes start a new one.
+         */
+        private void completeMember() throws IOException {
+            if (gzip != null) {
+                gzip.finish();
+                gzip = null;
+                out.flush();
+            }
+        }
+
+        void openFile(boolean append) throws IOException {
+            File target = new File(fileName + SUFFIX);
+            File parent = target.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            out = new FileOutputStream(target, append);
+            if ((!append || target.length() == 0) && layout != null && layout.getHeader() != null) {
+                writeBytes(layout.getHeader().getBytes(charset));
+            }
+        }
+
+        private void closeFile() throws IOException {
+            if (out == null) {
+                return;
+            }
+            try {
+                completeMember();
+            } finally {
+                out.close();
+                out = null;
+            }
+        }
+
+        private void rollOverByDate(long timeStamp) throws IOException {
+            Date now = new Date(timeStamp);
+            nextCheck = rc.getNextCheckMillis(now);
+            String datedFilename = fileName + sdf.format(now) + SUFFIX;
+            if (!datedFilename.equals(scheduledFilename)) {
+                rollOverTo(new File(scheduledFilename));
+            }
+            scheduledFilename = datedFilename;
+        }
+
+        private void rollOverBySize() throws IOException {
+            if (maxBackupIndex <= 0) {
+                closeFile();
+                openFile(false);
+                return;
+            }
+            File oldest = backup(maxBackupIndex);
+            if (oldest.exists()) {
+                oldest.delete();
+            }
+            for (int i = maxBackupIndex - 1; i >= 1; i--) {
+                File backup = backup(i);
+                if (backup.exists()) {
+                    backup.renameTo(backup(i + 1));
+                }
+            }
+            rollOverTo(backup(1));
+        }
+
+        private void rollOverTo(File target) throws IOException {
+            closeFile();
+            if (target.exists()) {
+                target.delete();
+            }
+            File current = new File(fileName + SUFFIX);
+            if (current.renameTo(target)) {
+                LogLog.debug(current + " -> " + target);
+            } else {
+                LogLog.error("Failed to rename [" + current + "] to [" + target + "].");
+            }
+            openFile(false);
+            lastFlush = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.spi.LoggingEvent;
+import org.ops4j.pax.logging.service.internal.PaxLoggingEventImpl;
+
+/**
+ * Lays events out as JSON objects, one per line, with their MDC, bundle attributes and stack trace. See
+ * {@link org.ops4j.pax.logging.spi.support.JsonLayout} for the members.
+ *
+ * <p>
+ * Set the <b>LocationInfo</b> option to <code>true</code> to include the location of the events, which is
+ * expensive.
+ */
+public class JsonLayout extends EncodingLayout {
+
+    private boolean locationInfo;
+    private org.ops4j.pax.logging.spi.support.JsonLayout layout = new org.ops4j.pax.logging.spi.support.JsonLayout();
+
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+
+    public void activateOptions() {
+        layout = new org.ops4j.pax.logging.spi.support.JsonLayout(locationInfo);
+    }
+
+    public ByteBuffer encode(LoggingEvent event, ByteBuffer buffer) {
+        return layout.encode(new PaxLoggingEventImpl(event), buffer);
+    }
+
+    public String format(LoggingEvent event) {
+        return layout.doLayout(new PaxLoggingEventImpl(event));
+    }
+
+    public String getContentType() {
+        return layout.getContentType();
+    }
+
+    /**
+     * The events are written into a buffer of the calling thread.
+     */
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * The stack trace is part of the JSON object.
+     */
+    public boolean ignoresThrowable() {
+        return false;
+    }
+}
@@ -0,0 +1,844 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A file appender which writes into a memory mapped region of the file.
+ *
+ * <p>
+ * Logging threads encode their events into a buffer of their own, reserve room in the mapped region and copy the
+ * bytes there, without waiting for each other. Only moving the mapping to the next region of the file and rolling
+ * the file over are exclusive, as is formatting with a layout which is not a thread safe {@link EncodingLayout}:
+ * the layouts of log4j format into a buffer of their own. Whether the data is forced to the disk is a matter of the
+ * <b>SyncInterval</b> (milliseconds) and <b>SyncEvents</b> options; by default it is left to the operating system.
+ * When it is forced, it is forced for all events written so far at once. Either way, an event is in the file as soon
+ * as it has been appended, unlike with a buffered {@link FileAppender}, so it is not lost if the process dies.
+ *
+ * <p>
+ * The file is rolled over by size with the <b>MaxFileSize</b> and <b>MaxBackupIndex</b> options, as
+ * {@link RollingFileAppender} does, and by date with the <b>DatePattern</b> option, as
+ * {@link DailyRollingFileAppender} does. Rolled files are compressed when <b>CompressBackups</b> is set, to
+ * <code>gz</code> or <code>zip</code> files according to <b>TypeOfCompression</b>, as
+ * {@link DailyZipRollingFileAppender} does.
+ *
+ * <p>
+ * Layouts which extend {@link EncodingLayout}, like {@link JsonLayout}, write the events straight into the buffer
+ * when the encoding of the appender is UTF-8.
+ *
+ * <p>
+ * The mapped region is <b>RegionLength</b> bytes long, 32 MB by default. The file grows by that much whenever the
+ * mapping moves on and is cut down to its content when the appender is closed; a file that has not been closed
+ * properly is cut down when the appender opens it again.
+ */
+public class MemoryMappedFileAppender extends AppenderSkeleton {
+
+    private static final int DEFAULT_REGION_LENGTH = 32 * 1024 * 1024;
+
+    private String fileName;
+    private boolean fileAppend = true;
+    private String encoding;
+    private int regionLength = DEFAULT_REGION_LENGTH;
+    private long syncInterval;
+    private int syncEvents;
+    private long maxFileSize;
+    private int maxBackupIndex = 1;
+    private String datePattern;
+    private String compressBackups = "false";
+    private String typeOfCompression = "gz";
+
+    /**
+     * Writing into the region is shared, moving the region, rolling and closing are exclusive.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The position in the region up to which room has been reserved.
+     */
+    private final AtomicInteger position = new AtomicInteger();
+
+    /**
+     * The events written since the data was last forced, for the SyncEvents option.
+     */
+    private final AtomicInteger unsynced = new AtomicInteger();
+
+    /**
+     * The encoders of the logging threads, shared by all instances so that the appenders a reconfiguration replaces
+     * leave none behind.
+     */
+    private static final ThreadLocal<Encoder> ENCODERS = new ThreadLocal<Encoder>();
+
+    private volatile Charset charset;
+    private volatile boolean isUtf8;
+    private volatile MappedByteBuffer region;
+    private volatile long regionStart;
+    private volatile long nextCheck = Long.MAX_VALUE;
+    private volatile boolean dirty;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private SimpleDateFormat sdf;
+    private RollingCalendar rc;
+    private String scheduledFilename;
+    private Thread syncer;
+    private volatile Thread compressor;
+
+    public MemoryMappedFileAppender() {
+    }
+
+    public MemoryMappedFileAppender(Layout layout, String filename) {
+        this.layout = layout;
+        this.fileName = filename;
+        activateOptions();
+    }
+
+    public void setFile(String file) {
+        fileName = file.trim();
+    }
+
+    public String getFile() {
+        return fileName;
+    }
+
+    public void setAppend(boolean append) {
+        fileAppend = append;
+    }
+
+    public boolean getAppend() {
+        return fileAppend;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @param regionLength the number of bytes mapped at a time
+     */
+    public void setRegionLength(int regionLength) {
+        this.regionLength = regionLength;
+    }
+
+    public int getRegionLength() {
+        return regionLength;
+    }
+
+    /**
+     * @param syncInterval the number of milliseconds after which written data is forced to the disk, 0 for never
+     */
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    public long getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * @param syncEvents the number of events after which written data is forced to the disk, 0 for never
+     */
+    public void setSyncEvents(int syncEvents) {
+        this.syncEvents = syncEvents;
+    }
+
+    public int getSyncEvents() {
+        return syncEvents;
+    }
+
+    /**
+     * @param value the size after which the file is rolled over, with an optional KB, MB or GB suffix
+     */
+    public void setMaxFileSize(String value) {
+        maxFileSize = OptionConverter.toFileSize(value, maxFileSize + 1);
+    }
+
+    public void setMaximumFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public long getMaximumFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxBackupIndex(int maxBackupIndex) {
+        this.maxBackupIndex = maxBackupIndex;
+    }
+
+    public int getMaxBackupIndex() {
+        return maxBackupIndex;
+    }
+
+    public void setDatePattern(String datePattern) {
+        this.datePattern = datePattern;
+    }
+
+    public String getDatePattern() {
+        return datePattern;
+    }
+
+    public void setCompressBackups(String compressBackups) {
+        this.compressBackups = compressBackups;
+    }
+
+    public String getCompressBackups() {
+        return compressBackups;
+    }
+
+    public void setTypeOfCompression(String typeOfCompression) {
+        this.typeOfCompression = typeOfCompression;
+    }
+
+    public String getTypeOfCompression() {
+        return typeOfCompression;
+    }
+
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    public void activateOptions() {
+        if (fileName == null) {
+            LogLog.error("File option not set for appender [" + name + "].");
+            return;
+        }
+        if (regionLength <= 0) {
+            LogLog.warn("Invalid RegionLength " + regionLength + " for appender [" + name + "], using the default.");
+            regionLength = DEFAULT_REGION_LENGTH;
+        }
+        charset = encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+        isUtf8 = "UTF-8".equals(charset.name());
+        if (datePattern != null) {
+            sdf = new SimpleDateFormat(datePattern);
+            rc = new RollingCalendar();
+            rc.setType(computeCheckPeriod());
+        } else {
+            sdf = null;
+            rc = null;
+        }
+        lock.writeLock().lock();
+        try {
+            closeFile();
+            if (sdf != null) {
+                File current = new File(fileName);
+                long lastModified = current.exists() ? current.lastModified() : System.currentTimeMillis();
+                scheduledFilename = fileName + sdf.format(new Date(lastModified));
+                // rolls over with the first event if the file is from an earlier period
+                nextCheck = System.currentTimeMillis() - 1;
+            } else {
+                nextCheck = Long.MAX_VALUE;
+            }
+            openFile(fileAppend);
+        } catch (IOException e) {
+            errorHandler.error("Could not open file [" + fileName + "].", e, ErrorCode.FILE_OPEN_FAILURE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        startSyncer();
+    }
+
+    // Unsynchronized version, the logging threads write in parallel
+    public void doAppend(LoggingEvent event) {
+        if (closed) {
+            LogLog.error("Attempted to append to closed appender named [" + name + "].");
+            return;
+        }
+
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+
+        Filter f = this.headFilter;
+
+        FILTER_LOOP:
+        while (f != null) {
+            switch (f.decide(event)) {
+            case Filter.DENY: return;
+            case Filter.ACCEPT: break FILTER_LOOP;
+            case Filter.NEUTRAL: f = f.getNext();
+            }
+        }
+
+        this.append(event);
+    }
+
+    protected void append(LoggingEvent event) {
+        if (layout == null) {
+            errorHandler.error("No layout set for the appender named [" + name + "].");
+            return;
+        }
+        Encoder encoder = encoder();
+        try {
+            ByteBuffer bytes = encode(encoder, event);
+            long timeStamp = event.getTimeStamp();
+            if (timeStamp >= nextCheck
+                || (maxFileSize > 0 && regionStart + position.get() + bytes.remaining() > maxFileSize)) {
+                rollOver(timeStamp, bytes.remaining());
+            }
+            write(bytes);
+        } catch (IOException e) {
+            errorHandler.error("Failed to write to [" + fileName + "].", e, ErrorCode.WRITE_FAILURE, event);
+            return;
+        } finally {
+            encoder.release();
+        }
+        dirty = true;
+        if (syncEvents > 0) {
+            int count = unsynced.incrementAndGet();
+            // the thread that resets the count forces the data of all threads
+            if (count >= syncEvents && unsynced.compareAndSet(count, 0)) {
+                force();
+            }
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (layout != null && layout.getFooter() != null) {
+            try {
+                write(layout.getFooter());
+            } catch (IOException e) {
+                errorHandler.error("Failed to write the footer to [" + fileName + "].", e, ErrorCode.WRITE_FAILURE);
+            }
+        }
+        closed = true;
+        stopSyncer();
+        lock.writeLock().lock();
+        try {
+            closeFile();
+        } catch (IOException e) {
+            errorHandler.error("Could not close [" + fileName + "].", e, ErrorCode.CLOSE_FAILURE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ByteBuffer encode(Encoder encoder, LoggingEvent event) {
+        Layout current = layout;
+        if (current instanceof EncodingLayout && isUtf8) {
+            // the stack trace of a layout which ignores it is added to its text
+            if (!current.ignoresThrowable() || event.getThrowableStrRep() == null) {
+                EncodingLayout encodingLayout = (EncodingLayout) current;
+                if (encodingLayout.isThreadSafe()) {
+                    return encoder.encode(encodingLayout, event);
+                }
+                synchronized (current) {
+                    return encoder.encode(encodingLayout, event);
+                }
+            }
+        }
+        return encoder.encode(format(current, event));
+    }
+
+    private static String format(Layout layout, LoggingEvent event) {
+        String text;
+        if (layout instanceof EncodingLayout && ((EncodingLayout) layout).isThreadSafe()) {
+            text = layout.format(event);
+        } else {
+            synchronized (layout) {
+                text = layout.format(event);
+            }
+        }
+        if (layout.ignoresThrowable()) {
+            String[] lines = event.getThrowableStrRep();
+            if (lines != null) {
+                StringBuilder sb = new StringBuilder(text);
+                for (int i = 0; i < lines.length; i++) {
+                    sb.append(lines[i]).append(Layout.LINE_SEP);
+                }
+                text = sb.toString();
+            }
+        }
+        return text;
+    }
+
+    private void write(String text) throws IOException {
+        Encoder encoder = encoder();
+        try {
+            write(encoder.encode(text));
+        } finally {
+            encoder.release();
+        }
+    }
+
+    /**
+     * @return the encoder of the current thread, to be released once its buffer has been written
+     */
+    private Encoder encoder() {
+        Encoder encoder = ENCODERS.get();
+        Charset cs = charset;
+        if (encoder == null || !encoder.charset.equals(cs)) {
+            encoder = new Encoder(cs);
+            ENCODERS.set(encoder);
+        } else if (encoder.busy) {
+            // a layout which logs to another of these appenders while it formats
+            encoder = new Encoder(cs);
+        }
+        encoder.busy = true;
+        return encoder;
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        int length = bytes.remaining();
+        while (!tryWrite(bytes, length)) {
+            lock.writeLock().lock();
+            try {
+                if (region == null) {
+                    return;
+                }
+                long end = regionStart + position.get();
+                if (length > regionLength) {
+                    // too large for a region, written through the channel
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes, end + length - bytes.remaining());
+                    }
+                    map(end + length);
+                    return;
+                }
+                if (position.get() + length > regionLength) {
+                    map(end);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return false if the region has no room left for the bytes
+     */
+    private boolean tryWrite(ByteBuffer bytes, int length) {
+        lock.readLock().lock();
+        try {
+            MappedByteBuffer current = region;
+            if (current == null) {
+                // closed, or the file could not be opened, which has been reported
+                return true;
+            }
+            int start;
+            do {
+                start = position.get();
+                if (start + length > regionLength) {
+                    return false;
+                }
+            } while (!position.compareAndSet(start, start + length));
+            ByteBuffer target = current.duplicate();
+            target.position(start);
+            target.put(bytes);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void force() {
+        lock.readLock().lock();
+        try {
+            MappedByteBuffer current = region;
+            if (current != null) {
+                dirty = false;
+                current.force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the mapping to the region starting at the given position. Requires the write lock.
+     */
+    private void map(long start) throws IOException {
+        unmap();
+        regionStart = start;
+        position.set(0);
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionLength);
+    }
+
+    private void unmap() {
+        MappedByteBuffer current = region;
+        if (current == null) {
+            return;
+        }
+        region = null;
+        if (syncInterval > 0 || syncEvents > 0) {
+            current.force();
+        }
+        // release the mapping now rather than when the buffer is collected, renaming a mapped file fails on Windows
+        try {
+            Method cleanerMethod = current.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(current);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            LogLog.debug("Could not release the mapping of [" + fileName + "] explicitly.");
+        }
+    }
+
+    /**
+     * Opens the file and maps the region after its content. Requires the write lock.
+     */
+    private void openFile(boolean append) throws IOException {
+        File target = new File(fileName);
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        file = new RandomAccessFile(target, "rw");
+        channel = file.getChannel();
+        long length = 0;
+        if (append) {
+            length = contentLength(channel);
+        }
+        channel.truncate(length);
+        map(length);
+        if (length == 0 && layout != null && layout.getHeader() != null) {
+            write(layout.getHeader());
+        }
+    }
+
+    /**
+     * Unmaps the region and cuts the file down to its content. Requires the write lock.
+     */
+    private void closeFile() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        long end = regionStart + position.get();
+        try {
+            unmap();
+            channel.truncate(end);
+        } finally {
+            channel = null;
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * @return the length of the file without the zeros left over from a mapping that has not been cut down
+     */
+    private static long contentLength(FileChannel channel) throws IOException {
+        long end = channel.size();
+        ByteBuffer block = ByteBuffer.allocate(8192);
+        while (end > 0) {
+            int length = (int) Math.min(block.capacity(), end);
+            block.clear();
+            block.limit(length);
+            long start = end - length;
+            while (block.hasRemaining()) {
+                if (channel.read(block, start + block.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = block.position() - 1; i >= 0; i--) {
+                if (block.get(i) != 0) {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private void rollOver(long timeStamp, int length) {
+        lock.writeLock().lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            if (timeStamp >= nextCheck) {
+                Date now = new Date(timeStamp);
+                nextCheck = rc.getNextCheckMillis(now);
+                String datedFilename = fileName + sdf.format(now);
+                if (!datedFilename.equals(scheduledFilename)) {
+                    rollOverTo(new File(scheduledFilename));
+                }
+                scheduledFilename = datedFilename;
+            }
+            long size = regionStart + position.get();
+            if (maxFileSize > 0 && size > 0 && size + length > maxFileSize) {
+                rollOverBySize();
+            }
+        } catch (IOException e) {
+            errorHandler.error("rollOver() failed for [" + fileName + "].", e, ErrorCode.FILE_OPEN_FAILURE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rollOverTo(File target) throws IOException {
+        closeFile();
+        if (target.exists()) {
+            target.delete();
+        }
+        File current = new File(fileName);
+        if (current.renameTo(target)) {
+            LogLog.debug(fileName + " -> " + target);
+            compress(target);
+        } else {
+            LogLog.error("Failed to rename [" + fileName + "] to [" + target + "].");
+        }
+        openFile(false);
+    }
+
+    private void rollOverBySize() throws IOException {
+        if (maxBackupIndex <= 0) {
+            closeFile();
+            openFile(false);
+            return;
+        }
+        awaitCompression();
+        String[] suffixes = isCompressing() ? new String[] { "", "." + typeOfCompression } : new String[] { "" };
+        for (int i = maxBackupIndex; i >= 1; i--) {
+            for (int j = 0; j < suffixes.length; j++) {
+                File backup = new File(fileName + '.' + i + suffixes[j]);
+                if (!backup.exists()) {
+                    continue;
+                }
+                if (i == maxBackupIndex) {
+                    backup.delete();
+                } else {
+                    backup.renameTo(new File(fileName + '.' + (i + 1) + suffixes[j]));
+                }
+            }
+        }
+        rollOverTo(new File(fileName + ".1"));
+    }
+
+    /**
+     * Waits for the compression of the previous backup, which is about to be renamed.
+     */
+    private void awaitCompression() {
+        Thread current = compressor;
+        if (current != null) {
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean isCompressing() {
+        return "true".equalsIgnoreCase(compressBackups) || "yes".equalsIgnoreCase(compressBackups);
+    }
+
+    private void compress(final File rolled) {
+        if (!isCompressing()) {
+            return;
+        }
+        final String type = typeOfCompression;
+        compressor = new Thread(new Runnable() {
+            public void run() {
+                File archive = new File(rolled.getParentFile(), rolled.getName() + "." + type);
+                try {
+                    InputStream in = new FileInputStream(rolled);
+                    try {
+                        OutputStream out;
+                        if ("zip".equals(type)) {
+                            ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+                            zip.putNextEntry(new ZipEntry(rolled.getName()));
+                            out = zip;
+                        } else {
+                            out = new GZIPOutputStream(new FileOutputStream(archive));
+                        }
+                        try {
+                            byte[] buffer = new byte[8192];
+                            int read;
+                            while ((read = in.read(buffer)) != -1) {
+                                out.write(buffer, 0, read);
+                            }
+                        } finally {
+                            out.close();
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    rolled.delete();
+                } catch (IOException e) {
+                    LogLog.error("Error during compression of file " + rolled + ".", e);
+                    archive.delete();
+                }
+            }
+        }, "MemoryMappedFileAppender compressor");
+        compressor.start();
+    }
+
+    private void startSyncer() {
+        stopSyncer();
+        if (syncInterval <= 0) {
+            return;
+        }
+        final long interval = syncInterval;
+        syncer = new Thread(new Runnable() {
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (dirty) {
+                        force();
+                    }
+                }
+                if (dirty) {
+                    force();
+                }
+            }
+        }, "MemoryMappedFileAppender sync [" + name + "]");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    private void stopSyncer() {
+        Thread current = syncer;
+        syncer = null;
+        if (current != null) {
+            current.interrupt();
+            try {
+                current.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Same as {@link DailyZipRollingFileAppender#computeCheckPeriod()}.
+     */
+    private int computeCheckPeriod() {
+        RollingCalendar rollingCalendar = new RollingCalendar(DailyZipRollingFileAppender.gmtTimeZone,
+                                                              Locale.getDefault());
+        Date epoch = new Date(0);
+        for (int i = DailyZipRollingFileAppender.TOP_OF_MINUTE; i <= DailyZipRollingFileAppender.TOP_OF_MONTH; i++) {
+            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(datePattern);
+            simpleDateFormat.setTimeZone(DailyZipRollingFileAppender.gmtTimeZone);
+            String r0 = simpleDateFormat.format(epoch);
+            rollingCalendar.setType(i);
+            Date next = new Date(rollingCalendar.getNextCheckMillis(epoch));
+            String r1 = simpleDateFormat.format(next);
+            if (!r0.equals(r1)) {
+                return i;
+            }
+        }
+        LogLog.warn("Unknown periodicity for appender [" + name + "].");
+        return DailyZipRollingFileAppender.TOP_OF_DAY;
+    }
+
+    /**
+     * Encodes the text of the events of a thread, reusing its buffer.
+     */
+    static final class Encoder {
+
+        static final int INITIAL_CAPACITY = 1024;
+
+        /**
+         * A buffer that an oversized event grew beyond this is dropped once the event has been written.
+         */
+        static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+        final Charset charset;
+        private final CharsetEncoder encoder;
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        boolean busy;
+
+        Encoder(Charset charset) {
+            this.charset = charset;
+            this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        ByteBuffer encode(String text) {
+            CharBuffer in = CharBuffer.wrap(text);
+            buffer.clear();
+            encoder.reset();
+            while (true) {
+                CoderResult result = in.hasRemaining() ? encoder.encode(in, buffer, true) : CoderResult.UNDERFLOW;
+                if (result.isUnderflow()) {
+                    result = encoder.flush(buffer);
+                }
+                if (result.isUnderflow()) {
+                    break;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        ByteBuffer encode(EncodingLayout layout, LoggingEvent event) {
+            buffer.clear();
+            buffer = layout.encode(event, buffer);
+            buffer.flip();
+            return buffer;
+        }
+
+        void release() {
+            busy = false;
+            if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+                buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+            }
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+    }
+}
@@ -20,16 +20,21 @@ package org.apache.log4j;
 
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
 import org.apache.log4j.config.PaxPropertySetter;
 import org.apache.log4j.config.PropertySetter;
+import org.apache.log4j.filter.BurstSuppressionFilter;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.helpers.OptionConverter;
 import org.apache.log4j.spi.AppenderAttachable;
@@ -72,6 +77,382 @@ public class PaxLoggingConfigurator extends PropertyConfigurator
         super.doConfigure(properties, hierarchy);
     }
 
+    /**
+     * Applies the differences between the previous and the new configuration to the repository, without resetting
+     * it first. Level and additivity changes are applied to the existing loggers, appenders whose properties
+     * changed are rebuilt and replace the old instance wherever it was attached, and all other appenders, with
+     * their open files and service trackers, are kept as they are.
+     * <p>
+     * Changes that cannot be applied in place, such as a new threshold, renderer or logger factory, or appenders
+     * nested in other appenders or error handlers, are not applied at all and <code>false</code> is returned.
+     * </p>
+     *
+     * @param previous   the configuration the repository was configured with
+     * @param properties the new configuration
+     * @param hierarchy  the repository
+     *
+     * @return false if the repository has to be reset and configured from scratch
+     */
+    public boolean doConfigureIncrementally( Properties previous, Properties properties, LoggerRepository hierarchy )
+    {
+        Set changedLoggers = new HashSet();
+        Set changedAppenders = new HashSet();
+        Set referenced = new HashSet();
+        referencedAppenders( previous, referenced );
+        referencedAppenders( properties, referenced );
+        for( Iterator iterator = changedKeys( previous, properties ).iterator(); iterator.hasNext(); )
+        {
+            String key = (String) iterator.next();
+            if( key.equals( ROOT_LOGGER_PREFIX ) || key.equals( ROOT_CATEGORY_PREFIX ) )
+            {
+                // the root logger is recorded as null, any name could be a regular logger
+                changedLoggers.add( null );
+            }
+            else if( key.startsWith( LOGGER_PREFIX ) )
+            {
+                changedLoggers.add( key.substring( LOGGER_PREFIX.length() ) );
+            }
+            else if( key.startsWith( CATEGORY_PREFIX ) )
+            {
+                changedLoggers.add( key.substring( CATEGORY_PREFIX.length() ) );
+            }
+            else if( key.startsWith( ADDITIVITY_PREFIX ) )
+            {
+                changedLoggers.add( key.substring( ADDITIVITY_PREFIX.length() ) );
+            }
+            else if( key.startsWith( APPENDER_PREFIX ) )
+            {
+                if( hasNestedAppenders( previous ) || hasNestedAppenders( properties ) )
+                {
+                    return false;
+                }
+                String appenderName = appenderName( key, referenced );
+                // appenders no logger refers to are never instantiated, so there is nothing to update
+                if( appenderName != null )
+                {
+                    changedAppenders.add( appenderName );
+                }
+            }
+            else
+            {
+                return false;
+            }
+        }
+        if( changedLoggers.isEmpty() && changedAppenders.isEmpty() )
+        {
+            return true;
+        }
+
+        Map attached = attachedAppenders( hierarchy );
+        Map byName = new HashMap();
+        for( Iterator iterator = attached.keySet().iterator(); iterator.hasNext(); )
+        {
+            Appender appender = (Appender) iterator.next();
+            byName.put( appender.getName(), appender );
+        }
+        Set stillReferenced = new HashSet();
+        referencedAppenders( properties, stillReferenced );
+        for( Iterator iterator = changedAppenders.iterator(); iterator.hasNext(); )
+        {
+            String appenderName = (String) iterator.next();
+            // an appender that failed before may be referenced by loggers that did not change
+            if( !byName.containsKey( appenderName ) && stillReferenced.contains( appenderName ) )
+            {
+                return false;
+            }
+        }
+
+        repository = hierarchy;
+        configureLoggerFactory( properties );
+
+        for( Iterator iterator = changedAppenders.iterator(); iterator.hasNext(); )
+        {
+            String appenderName = (String) iterator.next();
+            Appender old = (Appender) byName.remove( appenderName );
+            if( old == null )
+            {
+                continue;
+            }
+            // an appender no logger refers to any more is only detached
+            Appender replacement = null;
+            if( stillReferenced.contains( appenderName ) )
+            {
+                LogLog.debug( "Rebuilding appender \"" + appenderName + "\"." );
+                replacement = parseAppender( properties, appenderName );
+            }
+            if( replacement != null )
+            {
+                byName.put( appenderName, replacement );
+            }
+            replaceAppender( hierarchy, old, replacement );
+        }
+
+        for( Iterator iterator = changedLoggers.iterator(); iterator.hasNext(); )
+        {
+            String loggerName = (String) iterator.next();
+            Logger logger;
+            String value;
+            boolean root = loggerName == null;
+            if( root )
+            {
+                logger = hierarchy.getRootLogger();
+                value = OptionConverter.findAndSubst( ROOT_LOGGER_PREFIX, properties );
+                if( value == null )
+                {
+                    value = OptionConverter.findAndSubst( ROOT_CATEGORY_PREFIX, properties );
+                }
+            }
+            else
+            {
+                logger = loggerFactory == null ? hierarchy.getLogger( loggerName )
+                                               : hierarchy.getLogger( loggerName, loggerFactory );
+                value = OptionConverter.findAndSubst( LOGGER_PREFIX + loggerName, properties );
+                if( value == null )
+                {
+                    value = OptionConverter.findAndSubst( CATEGORY_PREFIX + loggerName, properties );
+                }
+                String additivity = OptionConverter.findAndSubst( ADDITIVITY_PREFIX + loggerName, properties );
+                logger.setAdditivity( OptionConverter.toBoolean( additivity, true ) );
+            }
+            LogLog.debug( "Updating logger \"" + logger.getName() + "\" to \"" + value + "\"." );
+            updateLogger( logger, root, value, properties, byName );
+        }
+
+        // close what is no longer in use
+        Map stillAttached = attachedAppenders( hierarchy );
+        for( Iterator iterator = attached.keySet().iterator(); iterator.hasNext(); )
+        {
+            Appender appender = (Appender) iterator.next();
+            if( !stillAttached.containsKey( appender ) )
+            {
+                LogLog.debug( "Closing appender \"" + appender.getName() + "\"." );
+                flushFilters( appender );
+                appender.close();
+            }
+        }
+        return true;
+    }
+
+    private void updateLogger( Logger logger, boolean root, String value, Properties props, Map byName )
+    {
+        String levelStr = null;
+        List names = new ArrayList();
+        if( value != null )
+        {
+            StringTokenizer st = new StringTokenizer( value, "," );
+            if( !( value.startsWith( "," ) || value.equals( "" ) ) && st.hasMoreTokens() )
+            {
+                levelStr = st.nextToken().trim();
+            }
+            while( st.hasMoreTokens() )
+            {
+                String appenderName = st.nextToken().trim();
+                if( appenderName.length() > 0 && !appenderName.equals( "," ) )
+                {
+                    names.add( appenderName );
+                }
+            }
+        }
+
+        // a reset leaves the root logger at DEBUG and all other loggers without a level
+        if( levelStr == null || INHERITED.equalsIgnoreCase( levelStr ) || NULL.equalsIgnoreCase( levelStr ) )
+        {
+            logger.setLevel( root ? Level.DEBUG : null );
+        }
+        else
+        {
+            logger.setLevel( OptionConverter.toLevel( levelStr, Level.DEBUG ) );
+        }
+
+        // detach without closing, the appender may still be attached elsewhere
+        List current = new ArrayList();
+        for( Enumeration e = logger.getAllAppenders(); e.hasMoreElements(); )
+        {
+            current.add( e.nextElement() );
+        }
+        for( Iterator iterator = current.iterator(); iterator.hasNext(); )
+        {
+            Appender appender = (Appender) iterator.next();
+            if( !names.contains( appender.getName() ) || byName.get( appender.getName() ) != appender )
+            {
+                logger.removeAppender( appender );
+            }
+        }
+        for( Iterator iterator = names.iterator(); iterator.hasNext(); )
+        {
+            String appenderName = (String) iterator.next();
+            Appender appender = (Appender) byName.get( appenderName );
+            if( appender == null )
+            {
+                appender = parseAppender( props, appenderName );
+                if( appender == null )
+                {
+                    continue;
+                }
+                byName.put( appenderName, appender );
+            }
+            if( logger.getAppender( appenderName ) == null )
+            {
+                logger.addAppender( appender );
+            }
+        }
+    }
+
+    /**
+     * Attaches the replacement to all loggers the old appender was attached to, and detaches the old appender.
+     */
+    private static void replaceAppender( LoggerRepository hierarchy, Appender old, Appender replacement )
+    {
+        List loggers = new ArrayList();
+        loggers.add( hierarchy.getRootLogger() );
+        for( Enumeration e = hierarchy.getCurrentLoggers(); e.hasMoreElements(); )
+        {
+            loggers.add( e.nextElement() );
+        }
+        for( Iterator iterator = loggers.iterator(); iterator.hasNext(); )
+        {
+            Logger logger = (Logger) iterator.next();
+            if( logger.isAttached( old ) )
+            {
+                logger.removeAppender( old );
+                if( replacement != null )
+                {
+                    logger.addAppender( replacement );
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs what the burst suppression filters of the attached appenders have left to report, before the repository
+     * is reset.
+     *
+     * @param hierarchy the repository
+     */
+    public static void flushFilters( LoggerRepository hierarchy )
+    {
+        for( Iterator iterator = attachedAppenders( hierarchy ).keySet().iterator(); iterator.hasNext(); )
+        {
+            flushFilters( (Appender) iterator.next() );
+        }
+    }
+
+    private static void flushFilters( Appender appender )
+    {
+        for( Filter filter = appender.getFilter(); filter != null; filter = filter.getNext() )
+        {
+            if( filter instanceof BurstSuppressionFilter )
+            {
+                ( (BurstSuppressionFilter) filter ).flush();
+            }
+        }
+    }
+
+    /**
+     * @return the appenders attached to any logger, as keys of an identity map
+     */
+    private static Map attachedAppenders( LoggerRepository hierarchy )
+    {
+        Map attached = new IdentityHashMap();
+        List loggers = new ArrayList();
+        loggers.add( hierarchy.getRootLogger() );
+        for( Enumeration e = hierarchy.getCurrentLoggers(); e.hasMoreElements(); )
+        {
+            loggers.add( e.nextElement() );
+        }
+        for( Iterator iterator = loggers.iterator(); iterator.hasNext(); )
+        {
+            Logger logger = (Logger) iterator.next();
+            for( Enumeration e = logger.getAllAppenders(); e.hasMoreElements(); )
+            {
+                attached.put( e.nextElement(), Boolean.TRUE );
+            }
+        }
+        return attached;
+    }
+
+    private static Set changedKeys( Properties previous, Properties properties )
+    {
+        Set keys = new HashSet( previous.keySet() );
+        keys.addAll( properties.keySet() );
+        for( Iterator iterator = keys.iterator(); iterator.hasNext(); )
+        {
+            Object key = iterator.next();
+            Object before = previous.get( key );
+            Object after = properties.get( key );
+            if( before == null ? after == null : before.equals( after ) )
+            {
+                iterator.remove();
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Collects the names of all appenders referred to by a logger.
+     */
+    private static void referencedAppenders( Properties props, Set names )
+    {
+        for( Iterator iterator = props.keySet().iterator(); iterator.hasNext(); )
+        {
+            String key = (String) iterator.next();
+            if( key.equals( ROOT_LOGGER_PREFIX ) || key.equals( ROOT_CATEGORY_PREFIX )
+                || key.startsWith( LOGGER_PREFIX ) || key.startsWith( CATEGORY_PREFIX ) )
+            {
+                String value = OptionConverter.findAndSubst( key, props );
+                if( value == null )
+                {
+                    continue;
+                }
+                StringTokenizer st = new StringTokenizer( value, "," );
+                if( !value.startsWith( "," ) && st.hasMoreTokens() )
+                {
+                    st.nextToken();
+                }
+                while( st.hasMoreTokens() )
+                {
+                    names.add( st.nextToken().trim() );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the longest referenced appender name the key belongs to, or <code>null</code>
+     */
+    private static String appenderName( String key, Set referenced )
+    {
+        String result = null;
+        for( Iterator iterator = referenced.iterator(); iterator.hasNext(); )
+        {
+            String name = (String) iterator.next();
+            String prefix = APPENDER_PREFIX + name;
+            if( ( key.equals( prefix ) || key.startsWith( prefix + "." ) )
+                && ( result == null || name.length() > result.length() ) )
+            {
+                result = name;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if an appender refers to other appenders, directly or through its error handler
+     */
+    private static boolean hasNestedAppenders( Properties props )
+    {
+        for( Iterator iterator = props.keySet().iterator(); iterator.hasNext(); )
+        {
+            String key = (String) iterator.next();
+            if( key.startsWith( APPENDER_PREFIX )
+                && ( key.endsWith( ".appenders" ) || key.endsWith( APPENDER_REF_TAG ) ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     Appender parseAppender( Properties props, String appenderName )
     {
         Appender appender = registryGet( appenderName );
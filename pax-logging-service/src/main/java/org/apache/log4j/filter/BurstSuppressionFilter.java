@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.filter;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.ops4j.pax.logging.spi.support.BurstSuppressor;
+
+
+/**
+  The BurstSuppressionFilter denies the events beyond a rate, per
+  group of similar events, and logs how many it has denied from
+  time to time.
+
+  <p>The filter admits the options <b>Key</b>, <b>Rate</b>,
+  <b>Burst</b>, <b>SummaryInterval</b> and <b>MaxKeys</b>.
+
+  <p>The value of the <b>Key</b> property is a comma separated list
+  of what makes events similar: <code>logger</code>,
+  <code>level</code>, <code>message</code>, or <code>mdc:</code>
+  followed by the name of an MDC entry. It is <code>logger</code>
+  by default.
+
+  <p>Each group may log <b>Burst</b> events at once (100 by
+  default) and <b>Rate</b> events per second in the long run (10
+  by default). Every <b>SummaryInterval</b> milliseconds (30
+  seconds by default), the filter logs "Suppressed N similar
+  messages" with the logger and the level of the last event it
+  denied in each group. <b>MaxKeys</b> groups are kept at most,
+  10000 by default. What is left to report is logged when the
+  filter is configured again or its appender is closed by the
+  Pax Logging configuration, see {@link #flush()}.
+
+  <p>The events within the rate are passed on to the next filter.
+  See {@link BurstSuppressor} for the details.
+*/
+public class BurstSuppressionFilter extends Filter
+    implements BurstSuppressor.Reporter {
+  String key = "logger";
+
+  double rate = BurstSuppressor.DEFAULT_RATE;
+
+  int burst = BurstSuppressor.DEFAULT_BURST;
+
+  long summaryInterval = BurstSuppressor.DEFAULT_SUMMARY_INTERVAL;
+
+  int maxKeys = BurstSuppressor.DEFAULT_MAX_KEYS;
+
+  private volatile BurstSuppressor.Key parsedKey =
+    new BurstSuppressor.Key(key);
+
+  private volatile BurstSuppressor suppressor = createSuppressor();
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setRate(double rate) {
+    this.rate = rate;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public void setBurst(int burst) {
+    this.burst = burst;
+  }
+
+  public int getBurst() {
+    return burst;
+  }
+
+  public void setSummaryInterval(long summaryInterval) {
+    this.summaryInterval = summaryInterval;
+  }
+
+  public long getSummaryInterval() {
+    return summaryInterval;
+  }
+
+  public void setMaxKeys(int maxKeys) {
+    this.maxKeys = maxKeys;
+  }
+
+  public int getMaxKeys() {
+    return maxKeys;
+  }
+
+  public void activateOptions() {
+    try {
+      parsedKey = new BurstSuppressor.Key(key);
+      BurstSuppressor previous = suppressor;
+      suppressor = createSuppressor();
+      previous.flush(this);
+    } catch (IllegalArgumentException e) {
+      LogLog.error("invalid options of BurstSuppressionFilter: " + e.getMessage());
+    }
+  }
+
+  public int decide(LoggingEvent event) {
+    if (BurstSuppressor.isReporting()) {
+      return NEUTRAL;
+    }
+    BurstSuppressor current = suppressor;
+    long now = System.currentTimeMillis();
+    current.report(this, now);
+    return current.permit(keyOf(event), event, now) ? NEUTRAL : DENY;
+  }
+
+  /**
+     Logs the summaries of the events denied since the last ones
+     right away. log4j does not tell filters when they are no longer
+     used, so PaxLoggingConfigurator calls it before it closes or
+     resets the appenders.
+   */
+  public void flush() {
+    suppressor.flush(this);
+  }
+
+  public void suppressed(Object sample, long count) {
+    LoggingEvent event = (LoggingEvent) sample;
+    Logger.getLogger(event.getLoggerName()).log(event.getLevel(),
+      BurstSuppressor.summary(count));
+  }
+
+  private BurstSuppressor createSuppressor() {
+    return new BurstSuppressor(rate, burst, summaryInterval, maxKeys);
+  }
+
+  private Object keyOf(LoggingEvent event) {
+    BurstSuppressor.Key k = parsedKey;
+    Object[] values = new Object[k.size()];
+    for (int i = 0; i < values.length; i++) {
+      switch (k.getKind(i)) {
+      case BurstSuppressor.Key.LOGGER:
+        values[i] = event.getLoggerName();
+        break;
+      case BurstSuppressor.Key.LEVEL:
+        values[i] = event.getLevel();
+        break;
+      case BurstSuppressor.Key.MESSAGE:
+        values[i] = event.getMessage();
+        break;
+      default:
+        values[i] = event.getMDC(k.getMdcKey(i));
+        break;
+      }
+    }
+    return k.of(values);
+  }
+}
@@ -33,6 +33,7 @@ import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogReaderService;
 import org.osgi.service.log.LogService;
 import org.ops4j.pax.logging.EventAdminPoster;
+import org.ops4j.pax.logging.PaxLogReaderService;
 import org.ops4j.pax.logging.PaxLoggingService;
 import org.ops4j.pax.logging.internal.eventadmin.EventAdminTracker;
 
@@ -86,10 +87,10 @@ public class Activator
 
         // register the LogReaderService
         LogReaderServiceImpl logReader = new LogReaderServiceImpl( 100 );
-        String readerServiceName = LogReaderService.class.getName();
+        String[] readerServiceNames = { LogReaderService.class.getName(), PaxLogReaderService.class.getName() };
         Hashtable serviceProperties = new Hashtable();
         serviceProperties.put( Constants.SERVICE_RANKING, ranking );
-        m_registrationLogReaderService = bundleContext.registerService( readerServiceName, logReader, serviceProperties );
+        m_registrationLogReaderService = bundleContext.registerService( readerServiceNames, logReader, serviceProperties );
 
         // Tracking for the EventAdmin
         try
@@ -139,11 +140,15 @@ public class Activator
 
             m_JdkHandler = new JdkHandler( m_PaxLogging );
             rootLogger.addHandler( m_JdkHandler );
+            m_PaxLogging.setJdkHandler( m_JdkHandler );
         }
         m_frameworkHandler = new FrameworkHandler( m_PaxLogging );
-        bundleContext.addBundleListener( m_frameworkHandler );
-        bundleContext.addFrameworkListener( m_frameworkHandler );
-        bundleContext.addServiceListener( m_frameworkHandler );
+        if( m_frameworkHandler.isEnabled() )
+        {
+            bundleContext.addBundleListener( m_frameworkHandler );
+            bundleContext.addFrameworkListener( m_frameworkHandler );
+            bundleContext.addServiceListener( m_frameworkHandler );
+        }
     }
 
     /**
@@ -159,12 +164,14 @@ public class Activator
         bundleContext.removeBundleListener( m_frameworkHandler );
         bundleContext.removeFrameworkListener( m_frameworkHandler );
         bundleContext.removeServiceListener( m_frameworkHandler );
+        m_frameworkHandler.close();
 
         // Remove the global handler for all JDK Logging (java.util.logging).
         if( m_JdkHandler != null )
         {
             Logger rootLogger = LogManager.getLogManager().getLogger( "" );
             rootLogger.removeHandler( m_JdkHandler );
+            m_PaxLogging.setJdkHandler( null );
             m_JdkHandler.flush();
             m_JdkHandler.close();
             m_JdkHandler = null;
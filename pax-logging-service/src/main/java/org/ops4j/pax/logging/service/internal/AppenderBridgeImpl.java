@@ -23,6 +23,7 @@ import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.ops4j.pax.logging.spi.support.PaxLoggingEventSnapshot;
 
 public class AppenderBridgeImpl extends AppenderSkeleton
     implements Appender
@@ -47,24 +48,41 @@ public class AppenderBridgeImpl extends AppenderSkeleton
             return;
         }
 
-        Filter f = this.headFilter;
+        if(!m_delegate.hasAppenders()) {
+            return;
+        }
 
-        FILTER_LOOP:
-        while(f != null) {
-            switch(f.decide(event)) {
-            case Filter.DENY: return;
-            case Filter.ACCEPT: break FILTER_LOOP;
-            case Filter.NEUTRAL: f = f.getNext();
+        // one snapshot per event, shared with the filters and layouts the event goes through
+        PaxLoggingEventSnapshot.of( event, new PaxLoggingEventImpl( event ) );
+        try {
+            Filter f = this.headFilter;
+
+            FILTER_LOOP:
+            while(f != null) {
+                switch(f.decide(event)) {
+                case Filter.DENY: return;
+                case Filter.ACCEPT: break FILTER_LOOP;
+                case Filter.NEUTRAL: f = f.getNext();
+                }
             }
-        }
 
-        this.append(event);
+            this.append(event);
+        } finally {
+            PaxLoggingEventSnapshot.clear();
+        }
     }
 
     protected void append( LoggingEvent event )
     {
-        PaxLoggingEvent paxEvent = new PaxLoggingEventImpl( event );
-        m_delegate.doAppend( paxEvent );
+        PaxLoggingEvent paxEvent = PaxLoggingEventSnapshot.of( event, new PaxLoggingEventImpl( event ) );
+        try
+        {
+            m_delegate.doAppend( paxEvent );
+        }
+        finally
+        {
+            PaxLoggingEventSnapshot.clear();
+        }
     }
 
     public void close()
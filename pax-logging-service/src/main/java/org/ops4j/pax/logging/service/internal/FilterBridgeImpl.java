@@ -21,6 +21,7 @@ import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.varia.DenyAllFilter;
 import org.ops4j.pax.logging.PaxLoggingService;
 import org.ops4j.pax.logging.spi.PaxFilter;
+import org.ops4j.pax.logging.spi.support.PaxLoggingEventSnapshot;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
@@ -58,7 +59,20 @@ public class FilterBridgeImpl extends Filter
         PaxFilter filter = (PaxFilter) m_tracker.getService();
         if (filter != null)
         {
-            return filter.doFilter( new PaxLoggingEventImpl( event ) );
+            // the snapshot is shared when the event goes through an OSGi appender, and only kept for this call
+            // otherwise
+            boolean shared = PaxLoggingEventSnapshot.isShared( event );
+            try
+            {
+                return filter.doFilter( PaxLoggingEventSnapshot.of( event, new PaxLoggingEventImpl( event ) ) );
+            }
+            finally
+            {
+                if( !shared )
+                {
+                    PaxLoggingEventSnapshot.clear();
+                }
+            }
         }
         return m_fallback.decide( event );
     }
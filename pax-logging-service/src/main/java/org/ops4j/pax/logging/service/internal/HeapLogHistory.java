@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.service.internal;
+
+import org.ops4j.pax.logging.PaxLogEntry;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * Keeps a number of entries as they are, in a ring.
+ */
+class HeapLogHistory
+    implements LogHistory
+{
+
+    /**
+     * The entry with sequence s is at s % length, a {@link LogEntryEvent} or a {@link LogEntryImpl} of its own.
+     */
+    private final Object[] m_entries;
+    private int m_size;
+    private long m_lastSequence;
+
+    HeapLogHistory( int maxEntries )
+    {
+        m_entries = new Object[Math.max( maxEntries, 0 )];
+    }
+
+    /**
+     * Takes over the latest entries of another history.
+     */
+    HeapLogHistory( int maxEntries, LogHistory previous, long lastSequence )
+    {
+        this( maxEntries );
+        m_lastSequence = lastSequence;
+        long first = Math.max( previous.getFirstSequence(), lastSequence - m_entries.length + 1 );
+        for( long sequence = first; sequence <= lastSequence; sequence++ )
+        {
+            PaxLoggingEvent event = previous.getEvent( sequence );
+            if( event instanceof LogEntryEvent )
+            {
+                m_entries[(int) ( sequence % m_entries.length )] = (LogEntryEvent) event;
+                m_size++;
+            }
+            else
+            {
+                // entries which are not on the heap are not brought back
+                m_size = 0;
+            }
+        }
+    }
+
+    public void add( LogEntryImpl entry )
+    {
+        add( entry, entry.getSequence() );
+    }
+
+    public void add( LogEntryEvent event )
+    {
+        add( event, event.getEntry().getSequence() );
+    }
+
+    private void add( Object entry, long sequence )
+    {
+        m_lastSequence = sequence;
+        if( m_entries.length > 0 )
+        {
+            m_entries[(int) ( sequence % m_entries.length )] = entry;
+            m_size = Math.min( m_size + 1, m_entries.length );
+        }
+    }
+
+    public long getFirstSequence()
+    {
+        return m_lastSequence - m_size + 1;
+    }
+
+    public PaxLogEntry getEntry( long sequence )
+    {
+        Object entry = m_entries[(int) ( sequence % m_entries.length )];
+        return entry instanceof LogEntryEvent ? ( (LogEntryEvent) entry ).getEntry() : (LogEntryImpl) entry;
+    }
+
+    public PaxLoggingEvent getEvent( long sequence )
+    {
+        Object entry = m_entries[(int) ( sequence % m_entries.length )];
+        return entry instanceof LogEntryEvent ? (LogEntryEvent) entry : new LogEntryEvent( (LogEntryImpl) entry );
+    }
+}
@@ -16,18 +16,23 @@
  */
 package org.ops4j.pax.logging.service.internal;
 
+import java.nio.ByteBuffer;
+
+import org.apache.log4j.EncodingLayout;
 import org.apache.log4j.Layout;
 import org.apache.log4j.SimpleLayout;
 import org.apache.log4j.spi.LoggingEvent;
 import org.ops4j.pax.logging.PaxLoggingService;
+import org.ops4j.pax.logging.spi.PaxEncodingLayout;
 import org.ops4j.pax.logging.spi.PaxLayout;
+import org.ops4j.pax.logging.spi.support.PaxLoggingEventSnapshot;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.util.tracker.ServiceTracker;
 
-public class LayoutBridgeImpl extends Layout
+public class LayoutBridgeImpl extends EncodingLayout
 {
 
     private ServiceTracker m_tracker;
@@ -59,11 +64,50 @@ public class LayoutBridgeImpl extends Layout
         PaxLayout layout = (PaxLayout) m_tracker.getService();
         if (layout != null)
         {
-            return layout.doLayout( new PaxLoggingEventImpl( event ) );
+            // the snapshot is shared when the event goes through an OSGi appender, and only kept for this call
+            // otherwise
+            boolean shared = PaxLoggingEventSnapshot.isShared( event );
+            try
+            {
+                return layout.doLayout( PaxLoggingEventSnapshot.of( event, new PaxLoggingEventImpl( event ) ) );
+            }
+            finally
+            {
+                if( !shared )
+                {
+                    PaxLoggingEventSnapshot.clear();
+                }
+            }
         }
         return m_fallback.format(event);
     }
 
+    public ByteBuffer encode(LoggingEvent event, ByteBuffer buffer)
+    {
+        PaxLayout layout = (PaxLayout) m_tracker.getService();
+        if (layout instanceof PaxEncodingLayout)
+        {
+            boolean shared = PaxLoggingEventSnapshot.isShared( event );
+            try
+            {
+                PaxLoggingEventSnapshot snapshot = PaxLoggingEventSnapshot.of( event, new PaxLoggingEventImpl( event ) );
+                return ( (PaxEncodingLayout) layout ).encode( snapshot, buffer );
+            }
+            finally
+            {
+                if( !shared )
+                {
+                    PaxLoggingEventSnapshot.clear();
+                }
+            }
+        }
+        if (layout == null && m_fallback instanceof EncodingLayout)
+        {
+            return ( (EncodingLayout) m_fallback ).encode( event, buffer );
+        }
+        return encode( format( event ), buffer );
+    }
+
     public boolean ignoresThrowable()
     {
         return true;
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.service.internal;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.log4j.Level;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.osgi.framework.Bundle;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * A {@link LogEntry} of the LogReaderService, seen as a {@link PaxLoggingEvent}, so that it can be kept in the
+ * log store and matched by queries. The bundle, the logger name, the thread and the MDC are taken when the entry is
+ * created.
+ */
+class LogEntryEvent
+    implements PaxLoggingEvent
+{
+
+    private final LogEntryImpl m_entry;
+    private final String m_loggerName;
+    private final String m_threadName;
+    private final Map<String, Object> m_context;
+    private Map<String, Object> m_properties;
+    private String[] m_throwableStrRep;
+
+    /**
+     * @param entry      the entry
+     * @param loggerName the name of the logger, or null
+     * @param context    a copy of the MDC of the logging thread, or null
+     */
+    LogEntryEvent( LogEntryImpl entry, String loggerName, Map<String, Object> context )
+    {
+        m_entry = entry;
+        m_loggerName = loggerName;
+        m_threadName = Thread.currentThread().getName();
+        m_context = context;
+    }
+
+    /**
+     * A view of an entry that was kept without its logger name, thread and MDC.
+     */
+    LogEntryEvent( LogEntryImpl entry )
+    {
+        m_entry = entry;
+        m_loggerName = null;
+        m_threadName = null;
+        m_context = null;
+    }
+
+    LogEntryImpl getEntry()
+    {
+        return m_entry;
+    }
+
+    public PaxLocationInfo getLocationInformation()
+    {
+        return null;
+    }
+
+    public PaxLevel getLevel()
+    {
+        switch( m_entry.getLevel() )
+        {
+            case LogService.LOG_ERROR:
+                return PaxLevelImpl.valueOf( Level.ERROR );
+            case LogService.LOG_WARNING:
+                return PaxLevelImpl.valueOf( Level.WARN );
+            case LogService.LOG_INFO:
+                return PaxLevelImpl.valueOf( Level.INFO );
+            default:
+                return PaxLevelImpl.valueOf( Level.DEBUG );
+        }
+    }
+
+    public String getLoggerName()
+    {
+        return m_loggerName;
+    }
+
+    public String getMessage()
+    {
+        return m_entry.getMessage();
+    }
+
+    public String getRenderedMessage()
+    {
+        return m_entry.getMessage();
+    }
+
+    public String getThreadName()
+    {
+        return m_threadName;
+    }
+
+    public synchronized String[] getThrowableStrRep()
+    {
+        Throwable exception = m_entry.getException();
+        if( m_throwableStrRep == null && exception != null )
+        {
+            StringWriter writer = new StringWriter();
+            exception.printStackTrace( new PrintWriter( writer ) );
+            List<String> lines = new ArrayList<String>();
+            StringTokenizer tokenizer = new StringTokenizer( writer.toString(), "\r\n" );
+            while( tokenizer.hasMoreTokens() )
+            {
+                lines.add( tokenizer.nextToken() );
+            }
+            m_throwableStrRep = lines.toArray( new String[lines.size()] );
+        }
+        return m_throwableStrRep;
+    }
+
+    public boolean locationInformationExists()
+    {
+        return false;
+    }
+
+    public long getTimeStamp()
+    {
+        return m_entry.getTime();
+    }
+
+    public String getFQNOfLoggerClass()
+    {
+        return null;
+    }
+
+    public synchronized Map getProperties()
+    {
+        if( m_properties == null )
+        {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            if( m_context != null )
+            {
+                properties.putAll( m_context );
+            }
+            Bundle bundle = m_entry.getBundle();
+            if( bundle != null )
+            {
+                properties.put( "bundle.id", bundle.getBundleId() );
+                if( bundle.getSymbolicName() != null )
+                {
+                    properties.put( "bundle.name", bundle.getSymbolicName() );
+                }
+                properties.put( "bundle.version", bundle.getVersion().toString() );
+            }
+            m_properties = properties;
+        }
+        return m_properties;
+    }
+}
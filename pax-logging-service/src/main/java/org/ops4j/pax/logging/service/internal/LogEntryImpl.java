@@ -17,12 +17,12 @@
 package org.ops4j.pax.logging.service.internal;
 
 import java.lang.ref.WeakReference;
+import org.ops4j.pax.logging.PaxLogEntry;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceReference;
-import org.osgi.service.log.LogEntry;
 
 public class LogEntryImpl
-    implements LogEntry
+    implements PaxLogEntry
 {
 
     private long m_time;
@@ -31,6 +31,7 @@ public class LogEntryImpl
     private int m_level;
     private String m_message;
     private Throwable m_exception;
+    private volatile long m_sequence;
 
     public LogEntryImpl( Bundle bundle, ServiceReference service, int level, String message, Throwable exception )
     {
@@ -85,4 +86,17 @@ public class LogEntryImpl
     {
         return m_time;
     }
+
+    public long getSequence()
+    {
+        return m_sequence;
+    }
+
+    /**
+     * Called by the LogReaderService when it adds the entry.
+     */
+    void setSequence( long sequence )
+    {
+        m_sequence = sequence;
+    }
 }
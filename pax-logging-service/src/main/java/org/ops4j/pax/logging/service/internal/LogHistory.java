@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.service.internal;
+
+import org.ops4j.pax.logging.PaxLogEntry;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+
+/**
+ * The recent entries of the LogReaderService, by sequence. Implementations are guarded by the LogReaderService.
+ */
+interface LogHistory
+{
+
+    /**
+     * Adds an entry, the sequence of which follows the one of the last entry added, and drops the oldest entries
+     * that no longer fit.
+     */
+    void add( LogEntryImpl entry );
+
+    /**
+     * Adds an entry with its logger name, thread and MDC, like {@link #add(LogEntryImpl)}.
+     */
+    void add( LogEntryEvent event );
+
+    /**
+     * @return the sequence of the oldest entry kept, the sequence after the last entry if there is none
+     */
+    long getFirstSequence();
+
+    /**
+     * @param sequence the sequence of an entry kept
+     */
+    PaxLogEntry getEntry( long sequence );
+
+    /**
+     * @param sequence the sequence of an entry kept
+     */
+    PaxLoggingEvent getEvent( long sequence );
+
+}
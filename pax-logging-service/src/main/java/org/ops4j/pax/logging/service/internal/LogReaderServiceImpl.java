@@ -16,31 +16,49 @@
  */
 package org.ops4j.pax.logging.service.internal;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import org.ops4j.pax.logging.LogEntryBatch;
+import org.ops4j.pax.logging.LogQuery;
+import org.ops4j.pax.logging.PaxLogEntry;
+import org.ops4j.pax.logging.PaxLogReaderService;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.ops4j.pax.logging.spi.support.BatchingAppender;
+import org.ops4j.pax.logging.spi.support.LogStore;
+import org.osgi.framework.BundleContext;
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
-import org.osgi.service.log.LogReaderService;
 
 /**
  * @noinspection SynchronizeOnNonFinalField
  */
 public class LogReaderServiceImpl
-    implements LogReaderService
+    implements PaxLogReaderService
 {
 
     private List m_listeners;
-    private final LinkedList m_entries;
+    /**
+     * The recent entries. Guarded by m_entriesLock, like the fields below.
+     */
+    private LogHistory m_history;
     private int m_maxEntries;
+    private long m_maxBytes;
+    private long m_lastSequence;
+    private int m_waiting;
+    private final Object m_entriesLock = new Object();
+    private String m_storeSettings;
+    private LogStore m_store;
+    private volatile BatchingAppender m_storeAppender;
 
     public LogReaderServiceImpl( int maxEntries )
     {
         m_maxEntries = maxEntries;
-        m_entries = new LinkedList();
+        m_history = new HeapLogHistory( maxEntries );
     }
 
     public void addLogListener( LogListener logListener )
@@ -92,27 +110,141 @@ public class LogReaderServiceImpl
     {
         // Need to do a copy to avoid a ConcurrentModificationException if
         // a new event is logged while the enumeration is iterated.
-        synchronized (m_entries)
+        synchronized( m_entriesLock )
+        {
+            long first = m_history.getFirstSequence();
+            ArrayList entries = new ArrayList( (int) ( m_lastSequence - first + 1 ) );
+            for( long sequence = m_lastSequence; sequence >= first; sequence-- )
+            {
+                entries.add( m_history.getEntry( sequence ) );
+            }
+            return Collections.enumeration( entries );
+        }
+    }
+
+    public long getLastSequence()
+    {
+        synchronized( m_entriesLock )
+        {
+            return m_lastSequence;
+        }
+    }
+
+    public LogEntryBatch getEntries( long after, int max, long timeout )
+        throws InterruptedException
+    {
+        synchronized( m_entriesLock )
         {
-            return Collections.enumeration( new ArrayList( m_entries ) );
+            if( m_lastSequence <= after && timeout > 0 )
+            {
+                long deadline = System.currentTimeMillis() + timeout;
+                m_waiting++;
+                try
+                {
+                    long remaining = timeout;
+                    while( m_lastSequence <= after && remaining > 0 )
+                    {
+                        m_entriesLock.wait( remaining );
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                }
+                finally
+                {
+                    m_waiting--;
+                }
+            }
+            long first = Math.max( after + 1, m_history.getFirstSequence() );
+            long missed = Math.max( 0, first - after - 1 );
+            long last = Math.min( m_lastSequence, first + max - 1 );
+            List<PaxLogEntry> entries = new ArrayList<PaxLogEntry>( (int) Math.max( 0, last - first + 1 ) );
+            for( long sequence = first; sequence <= last; sequence++ )
+            {
+                entries.add( m_history.getEntry( sequence ) );
+            }
+            return new LogEntryBatch( entries, entries.isEmpty() ? after + missed : last, missed );
         }
     }
 
-    private void cleanUp()
+    public List<PaxLoggingEvent> getLog( LogQuery query )
     {
-        // caller must synchronize on m_entries
-        while( m_entries.size() > m_maxEntries )
+        LogStore store;
+        synchronized( this )
+        {
+            store = m_store;
+        }
+        if( store != null )
+        {
+            try
+            {
+                return store.query( query );
+            }
+            catch( IOException e )
+            {
+                System.err.println( "PaxLogging: Failed to query the log store, using the recent entries: " + e );
+            }
+        }
+        List<PaxLoggingEvent> result = new ArrayList<PaxLoggingEvent>();
+        synchronized( m_entriesLock )
         {
-            m_entries.removeLast();
+            for( long sequence = m_history.getFirstSequence();
+                 sequence <= m_lastSequence && result.size() < query.getLimit(); sequence++ )
+            {
+                PaxLoggingEvent event = m_history.getEvent( sequence );
+                if( query.matches( event ) )
+                {
+                    result.add( event );
+                }
+            }
         }
+        return result;
     }
 
     final void fireEvent( LogEntry entry )
     {
-        synchronized( m_entries )
+        if( m_storeAppender != null )
+        {
+            fireEvent( new LogEntryEvent( (LogEntryImpl) entry, null, null ) );
+            return;
+        }
+        fireEvent( (LogEntryImpl) entry, null );
+    }
+
+    final void fireEvent( LogEntryEvent event )
+    {
+        fireEvent( event.getEntry(), event );
+    }
+
+    /**
+     * @return whether the entries are kept in the log store, with their logger name and MDC
+     */
+    final boolean isStoring()
+    {
+        return m_storeAppender != null;
+    }
+
+    private void fireEvent( LogEntryImpl entry, LogEntryEvent event )
+    {
+        synchronized( m_entriesLock )
+        {
+            long sequence = ++m_lastSequence;
+            entry.setSequence( sequence );
+            if( event != null )
+            {
+                m_history.add( event );
+            }
+            else
+            {
+                m_history.add( entry );
+            }
+            if( m_waiting > 0 )
+            {
+                m_entriesLock.notifyAll();
+            }
+        }
+        BatchingAppender store = m_storeAppender;
+        if( store != null && event != null )
         {
-            m_entries.addFirst( entry );
-            cleanUp();
+            store.doAppend( event );
         }
         final List listeners = m_listeners;
         if( listeners == null )
@@ -148,9 +280,95 @@ public class LogReaderServiceImpl
      */
     final void setMaxEntries( int maxSize )
     {
-        synchronized (m_entries)
+        synchronized( m_entriesLock )
         {
             m_maxEntries = maxSize;
+            if( m_maxBytes <= 0 )
+            {
+                m_history = new HeapLogHistory( maxSize, m_history, m_lastSequence );
+            }
+        }
+    }
+
+    /**
+     * Keeps the entries encoded in direct memory, bounded by their size rather than their number, or on the heap
+     * again.
+     *
+     * @param maxBytes the maximum number of bytes of direct memory, 0 to keep the entries on the heap
+     * @param context  the context to look the bundles of the entries up with
+     */
+    final void setMaxBytes( long maxBytes, BundleContext context )
+    {
+        synchronized( m_entriesLock )
+        {
+            if( maxBytes == m_maxBytes )
+            {
+                return;
+            }
+            m_maxBytes = maxBytes;
+            LogHistory previous = m_history;
+            if( maxBytes > 0 )
+            {
+                m_history = new OffHeapLogHistory( maxBytes, context, previous, m_lastSequence );
+            }
+            else
+            {
+                m_history = new HeapLogHistory( m_maxEntries, previous, m_lastSequence );
+            }
+            if( previous instanceof OffHeapLogHistory )
+            {
+                ( (OffHeapLogHistory) previous ).release();
+            }
+        }
+    }
+
+    /**
+     * Opens the log store in a directory, or closes it.
+     *
+     * @param dir             the directory of the store, or null to close it
+     * @param partitionMillis the time span of a segment
+     * @param blockSize       the number of events of a block
+     * @param retentionMillis how long the segments are kept
+     * @param maxBytes        the maximum size of the store
+     */
+    final synchronized void setStore( String dir, long partitionMillis, int blockSize, long retentionMillis,
+                                      long maxBytes )
+    {
+        String settings = dir == null ? null
+                          : dir + "," + partitionMillis + "," + blockSize + "," + retentionMillis + "," + maxBytes;
+        if( settings == null ? m_storeSettings == null : settings.equals( m_storeSettings ) )
+        {
+            return;
+        }
+        closeStore();
+        m_storeSettings = settings;
+        if( dir == null )
+        {
+            return;
+        }
+        try
+        {
+            m_store = new LogStore( new File( dir ), partitionMillis, blockSize, retentionMillis, maxBytes );
+            m_storeAppender = new BatchingAppender( m_store, "LogStore", 100, 500, 10000 );
+        }
+        catch( IOException e )
+        {
+            System.err.println( "PaxLogging: Unable to open the log store in " + dir + ": " + e );
+        }
+    }
+
+    /**
+     * Delivers the pending events to the log store and closes it.
+     */
+    final synchronized void closeStore()
+    {
+        BatchingAppender appender = m_storeAppender;
+        m_storeAppender = null;
+        m_store = null;
+        m_storeSettings = null;
+        if( appender != null )
+        {
+            appender.close();
         }
     }
 }
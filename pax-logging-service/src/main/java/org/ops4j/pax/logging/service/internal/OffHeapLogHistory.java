@@ -0,0 +1,520 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.logging.service.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ops4j.pax.logging.PaxLogEntry;
+import org.ops4j.pax.logging.spi.PaxLevel;
+import org.ops4j.pax.logging.spi.PaxLocationInfo;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.ops4j.pax.logging.spi.support.BinaryLogReader;
+import org.ops4j.pax.logging.spi.support.BinaryLogWriter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogService;
+
+/**
+ * Keeps the entries encoded in direct memory, in the format of {@link BinaryLogWriter}, up to a number of bytes.
+ *
+ * <p>
+ * The entries are written to segments of direct memory one after the other; when the next segment does not fit,
+ * the oldest one is dropped. Every entry is written with all its strings, and with its exception as text, so that
+ * the history does not hold on to exceptions, bundles and the objects they refer to. The {@link PaxLogEntry} and
+ * {@link PaxLoggingEvent} views decode their entry when they are first asked for its content; the bundle is looked
+ * up by its id then, and the exception is replaced by one which prints the stack trace of the original. The service
+ * reference of an entry is not kept.
+ * </p>
+ * <p>
+ * An entry that does not fit into a segment is kept with its strings cut short, and without its exception lines
+ * but the first and its properties, so that the history never takes more than its number of bytes, or one segment
+ * of 4 KiB if that is less. The memory of the dropped segments is released right away where the JVM allows it,
+ * the views copy the bytes of their entry for that reason.
+ * </p>
+ */
+class OffHeapLogHistory
+    implements LogHistory
+{
+
+    private static final int MAX_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int MIN_SEGMENT_SIZE = 4096;
+
+    private final BundleContext m_context;
+    private final long m_maxBytes;
+    private final int m_segmentSize;
+    private final List<Segment> m_segments = new ArrayList<Segment>();
+    private long m_bytes;
+    private long m_nextSequence = 1;
+
+    private final Bytes m_record = new Bytes();
+    private final BinaryLogWriter m_writer;
+
+    /**
+     * @param maxBytes the maximum number of bytes of direct memory
+     * @param context  the context to look the bundles of the entries up with, or null
+     */
+    OffHeapLogHistory( long maxBytes, BundleContext context )
+    {
+        m_context = context;
+        m_maxBytes = maxBytes;
+        m_segmentSize = (int) Math.max( MIN_SEGMENT_SIZE, Math.min( MAX_SEGMENT_SIZE, maxBytes / 8 ) );
+        try
+        {
+            m_writer = new BinaryLogWriter( m_record );
+        }
+        catch( IOException e )
+        {
+            // not thrown by the in-memory stream
+            throw new IllegalStateException( e.getMessage() );
+        }
+    }
+
+    /**
+     * Takes over the latest entries of another history.
+     */
+    OffHeapLogHistory( long maxBytes, BundleContext context, LogHistory previous, long lastSequence )
+    {
+        this( maxBytes, context );
+        for( long sequence = previous.getFirstSequence(); sequence <= lastSequence; sequence++ )
+        {
+            add( previous.getEvent( sequence ), sequence );
+        }
+        m_nextSequence = lastSequence + 1;
+    }
+
+    public void add( LogEntryImpl entry )
+    {
+        add( new LogEntryEvent( entry ), entry.getSequence() );
+    }
+
+    public void add( LogEntryEvent event )
+    {
+        add( event, event.getEntry().getSequence() );
+    }
+
+    private void add( PaxLoggingEvent event, long sequence )
+    {
+        encode( event );
+        int chars = m_segmentSize;
+        while( m_record.size() > m_segmentSize && chars > 0 )
+        {
+            chars /= 2;
+            encode( new Truncated( event, chars ) );
+        }
+        int length = m_record.size();
+        Segment segment = m_segments.isEmpty() ? null : m_segments.get( m_segments.size() - 1 );
+        if( segment == null || segment.m_buffer.remaining() < length )
+        {
+            while( !m_segments.isEmpty() && m_bytes + m_segmentSize > m_maxBytes )
+            {
+                ByteBuffer dropped = m_segments.remove( 0 ).m_buffer;
+                m_bytes -= dropped.capacity();
+                release( dropped );
+            }
+            segment = new Segment( ByteBuffer.allocateDirect( m_segmentSize ), sequence );
+            m_segments.add( segment );
+            m_bytes += m_segmentSize;
+        }
+        segment.add( m_record.bytes(), length );
+        m_nextSequence = sequence + 1;
+    }
+
+    private void encode( PaxLoggingEvent event )
+    {
+        m_record.reset();
+        try
+        {
+            m_writer.startSegment();
+            m_writer.write( event );
+        }
+        catch( IOException e )
+        {
+            throw new IllegalStateException( e.getMessage() );
+        }
+    }
+
+    /**
+     * Releases the direct memory of all the segments, once the history has been replaced.
+     */
+    void release()
+    {
+        for( Segment segment : m_segments )
+        {
+            release( segment.m_buffer );
+        }
+        m_segments.clear();
+        m_bytes = 0;
+    }
+
+    /**
+     * Frees the memory of a direct buffer now rather than when the buffer is collected, which may be long after the
+     * history dropped it. Nothing may use the buffer afterwards.
+     */
+    private static void release( ByteBuffer buffer )
+    {
+        try
+        {
+            Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+            cleanerMethod.setAccessible( true );
+            Object cleaner = cleanerMethod.invoke( buffer );
+            if( cleaner != null )
+            {
+                cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+            }
+        }
+        catch( Exception e )
+        {
+            // not allowed by this JVM, the memory is freed by the garbage collector
+        }
+    }
+
+    public long getFirstSequence()
+    {
+        return m_segments.isEmpty() ? m_nextSequence : m_segments.get( 0 ).m_firstSequence;
+    }
+
+    public PaxLogEntry getEntry( long sequence )
+    {
+        return new Entry( sequence, record( sequence ) );
+    }
+
+    public PaxLoggingEvent getEvent( long sequence )
+    {
+        return new Entry( sequence, record( sequence ) ).getEvent();
+    }
+
+    /**
+     * @return the number of bytes of direct memory in use
+     */
+    long getBytes()
+    {
+        return m_bytes;
+    }
+
+    /**
+     * @return a copy of the bytes of the record of an entry
+     */
+    private byte[] record( long sequence )
+    {
+        int low = 0;
+        int high = m_segments.size() - 1;
+        while( low < high )
+        {
+            int middle = ( low + high + 1 ) >>> 1;
+            if( m_segments.get( middle ).m_firstSequence <= sequence )
+            {
+                low = middle;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        ByteBuffer record = m_segments.get( low ).record( (int) ( sequence - m_segments.get( low ).m_firstSequence ) );
+        byte[] bytes = new byte[record.remaining()];
+        record.get( bytes );
+        return bytes;
+    }
+
+    /**
+     * A block of direct memory with the records of consecutive entries.
+     */
+    private static class Segment
+    {
+
+        final ByteBuffer m_buffer;
+        final long m_firstSequence;
+        private int[] m_offsets = new int[256];
+        private int m_count;
+
+        Segment( ByteBuffer buffer, long firstSequence )
+        {
+            m_buffer = buffer;
+            m_firstSequence = firstSequence;
+        }
+
+        void add( byte[] bytes, int length )
+        {
+            if( m_count == m_offsets.length )
+            {
+                int[] offsets = new int[m_count * 2];
+                System.arraycopy( m_offsets, 0, offsets, 0, m_count );
+                m_offsets = offsets;
+            }
+            m_offsets[m_count++] = m_buffer.position();
+            m_buffer.put( bytes, 0, length );
+        }
+
+        /**
+         * @return a buffer with the bytes of the record, which must not be used once the segment is dropped
+         */
+        ByteBuffer record( int index )
+        {
+            ByteBuffer record = m_buffer.duplicate();
+            record.limit( index + 1 < m_count ? m_offsets[index + 1] : m_buffer.position() );
+            record.position( m_offsets[index] );
+            return record.slice();
+        }
+    }
+
+    /**
+     * A view of an entry, decoded when it is first needed.
+     */
+    private class Entry
+        implements PaxLogEntry
+    {
+
+        private final long m_sequence;
+        private byte[] m_bytes;
+        private PaxLoggingEvent m_event;
+
+        Entry( long sequence, byte[] bytes )
+        {
+            m_sequence = sequence;
+            m_bytes = bytes;
+        }
+
+        synchronized PaxLoggingEvent getEvent()
+        {
+            if( m_event == null )
+            {
+                try
+                {
+                    m_event = new BinaryLogReader( new ByteArrayInputStream( m_bytes ) ).read();
+                    m_bytes = null;
+                }
+                catch( IOException e )
+                {
+                    throw new IllegalStateException( "Corrupt log entry " + m_sequence + ": " + e.getMessage() );
+                }
+            }
+            return m_event;
+        }
+
+        public long getSequence()
+        {
+            return m_sequence;
+        }
+
+        public Bundle getBundle()
+        {
+            Object id = getEvent().getProperties().get( "bundle.id" );
+            if( m_context == null || id == null )
+            {
+                return null;
+            }
+            try
+            {
+                return m_context.getBundle( Long.parseLong( id.toString() ) );
+            }
+            catch( RuntimeException e )
+            {
+                // the context is no longer valid
+                return null;
+            }
+        }
+
+        public ServiceReference getServiceReference()
+        {
+            return null;
+        }
+
+        public int getLevel()
+        {
+            PaxLevel level = getEvent().getLevel();
+            int syslog = level == null ? 7 : level.getSyslogEquivalent();
+            if( syslog <= 3 )
+            {
+                return LogService.LOG_ERROR;
+            }
+            if( syslog == 4 )
+            {
+                return LogService.LOG_WARNING;
+            }
+            return syslog <= 6 ? LogService.LOG_INFO : LogService.LOG_DEBUG;
+        }
+
+        public String getMessage()
+        {
+            return getEvent().getMessage();
+        }
+
+        public Throwable getException()
+        {
+            String[] lines = getEvent().getThrowableStrRep();
+            return lines == null ? null : new RenderedException( lines );
+        }
+
+        public long getTime()
+        {
+            return getEvent().getTimeStamp();
+        }
+    }
+
+    /**
+     * An event with its strings cut short, without its properties and with the first line of its exception only.
+     */
+    private static class Truncated
+        implements PaxLoggingEvent
+    {
+
+        private final PaxLoggingEvent m_event;
+        private final int m_chars;
+
+        Truncated( PaxLoggingEvent event, int chars )
+        {
+            m_event = event;
+            m_chars = chars;
+        }
+
+        private String cut( String value )
+        {
+            return value == null || value.length() <= m_chars ? value : value.substring( 0, m_chars );
+        }
+
+        public PaxLocationInfo getLocationInformation()
+        {
+            return null;
+        }
+
+        public PaxLevel getLevel()
+        {
+            return m_event.getLevel();
+        }
+
+        public String getLoggerName()
+        {
+            return cut( m_event.getLoggerName() );
+        }
+
+        public String getMessage()
+        {
+            return cut( m_event.getMessage() );
+        }
+
+        public String getRenderedMessage()
+        {
+            return cut( m_event.getRenderedMessage() );
+        }
+
+        public String getThreadName()
+        {
+            return cut( m_event.getThreadName() );
+        }
+
+        public String[] getThrowableStrRep()
+        {
+            String[] lines = m_event.getThrowableStrRep();
+            return lines == null || lines.length == 0 ? lines : new String[]{ cut( lines[0] ) };
+        }
+
+        public boolean locationInformationExists()
+        {
+            return false;
+        }
+
+        public long getTimeStamp()
+        {
+            return m_event.getTimeStamp();
+        }
+
+        public String getFQNOfLoggerClass()
+        {
+            return cut( m_event.getFQNOfLoggerClass() );
+        }
+
+        public Map getProperties()
+        {
+            return Collections.EMPTY_MAP;
+        }
+    }
+
+    /**
+     * Stands for the exception of an entry, of which only the stack trace has been kept.
+     */
+    private static class RenderedException
+        extends Exception
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] m_lines;
+
+        RenderedException( String[] lines )
+        {
+            super( lines[0] );
+            m_lines = lines;
+        }
+
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+
+        public String toString()
+        {
+            return m_lines[0];
+        }
+
+        public void printStackTrace( PrintStream s )
+        {
+            for( int i = 0; i < m_lines.length; i++ )
+            {
+                s.println( m_lines[i] );
+            }
+        }
+
+        public void printStackTrace( PrintWriter s )
+        {
+            for( int i = 0; i < m_lines.length; i++ )
+            {
+                s.println( m_lines[i] );
+            }
+        }
+    }
+
+    /**
+     * A byte array stream whose bytes can be read without a copy.
+     */
+    private static class Bytes
+        extends ByteArrayOutputStream
+    {
+
+        Bytes()
+        {
+            super( 512 );
+        }
+
+        byte[] bytes()
+        {
+            return buf;
+        }
+    }
+}
@@ -17,20 +17,38 @@
  */
 package org.ops4j.pax.logging.service.internal;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.helpers.LogLog;
 import org.ops4j.pax.logging.PaxLoggingService;
 import org.ops4j.pax.logging.spi.PaxAppender;
+import org.ops4j.pax.logging.spi.PaxBatchAppender;
 import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.ops4j.pax.logging.spi.support.BatchingAppender;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
+/**
+ * Forwards the events to the {@link PaxAppender} services of a name.
+ *
+ * <p>
+ * The tracked appenders are kept in an array which is replaced as a whole when an appender comes or goes, so that
+ * appending is a plain loop without locks or calls to the tracker. An appender that throws does not keep the event
+ * from the other appenders, its failures are counted and reported.
+ * </p>
+ */
 public class PaxAppenderProxy extends ServiceTracker implements PaxAppender
 {
 
-    private volatile int count = -1;
-    private Object[] appenders = null;
+    private static final TrackedAppender[] NO_APPENDERS = new TrackedAppender[0];
+
+    private volatile TrackedAppender[] appenders = NO_APPENDERS;
+
+    private volatile boolean closing;
 
     public PaxAppenderProxy(BundleContext bundleContext, String name)
     {
@@ -42,7 +60,8 @@ public class PaxAppenderProxy extends ServiceTracker implements PaxAppender
         try
         {
             return bundleContext.createFilter(
-                        "(&(" + Constants.OBJECTCLASS + "=" + PaxAppender.class.getName() + ")" +
+                        "(&(|(" + Constants.OBJECTCLASS + "=" + PaxAppender.class.getName() + ")" +
+                                "(" + Constants.OBJECTCLASS + "=" + PaxBatchAppender.class.getName() + "))" +
                             "(" + PaxLoggingService.APPENDER_NAME_PROPERTY + "=" + name + "))");
         }
         catch (InvalidSyntaxException e)
@@ -51,17 +70,139 @@ public class PaxAppenderProxy extends ServiceTracker implements PaxAppender
         }
     }
 
+    /**
+     * Batch appenders are tracked through a {@link BatchingAppender}, which buffers their events and delivers them
+     * from a thread of its own. The proxies of all configurations share the one of each service.
+     */
+    public Object addingService( ServiceReference reference )
+    {
+        Object service = super.addingService( reference );
+        if( service == null )
+        {
+            return null;
+        }
+        PaxAppender appender = service instanceof PaxBatchAppender
+                               ? BatchingAppender.acquire( reference, (PaxBatchAppender) service )
+                               : (PaxAppender) service;
+        TrackedAppender tracked = new TrackedAppender( appender );
+        add( tracked );
+        return tracked;
+    }
+
+    public void removedService( ServiceReference reference, Object service )
+    {
+        TrackedAppender tracked = (TrackedAppender) service;
+        remove( tracked );
+        if( tracked.appender instanceof BatchingAppender )
+        {
+            // the service is closed once it is unregistered, not when a proxy stops tracking it
+            boolean unregistered = !closing && filter.match( reference );
+            ( (BatchingAppender) tracked.appender ).release( unregistered );
+        }
+        super.removedService( reference, service );
+    }
+
+    public void close()
+    {
+        closing = true;
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            closing = false;
+        }
+    }
+
+    /**
+     * @return true if there is at least one appender service to forward events to, so that callers can skip
+     *         creating the event
+     */
+    public boolean hasAppenders()
+    {
+        return appenders.length > 0;
+    }
 
     public void doAppend( PaxLoggingEvent event )
     {
-        if (count != getTrackingCount()) {
-            count = getTrackingCount();
-            appenders = getServices();
+        TrackedAppender[] current = appenders;
+        for( TrackedAppender tracked : current )
+        {
+            try
+            {
+                tracked.appender.doAppend( event );
+            }
+            catch( RuntimeException e )
+            {
+                failed( tracked, e );
+            }
+            catch( LinkageError e )
+            {
+                // typically the appender of a bundle that has been refreshed
+                failed( tracked, e );
+            }
+        }
+    }
+
+    /**
+     * @return the number of times the appenders currently tracked have failed
+     */
+    public long getErrorCount()
+    {
+        long errors = 0;
+        for( TrackedAppender tracked : appenders )
+        {
+            errors += tracked.errors.get();
         }
-        if (appenders != null) {
-            for (Object appender : appenders) {
-                ((PaxAppender) appender).doAppend(event);
+        return errors;
+    }
+
+    private synchronized void add( TrackedAppender tracked )
+    {
+        TrackedAppender[] current = appenders;
+        TrackedAppender[] copy = new TrackedAppender[current.length + 1];
+        System.arraycopy( current, 0, copy, 0, current.length );
+        copy[current.length] = tracked;
+        appenders = copy;
+    }
+
+    private synchronized void remove( TrackedAppender tracked )
+    {
+        TrackedAppender[] current = appenders;
+        for( int i = 0; i < current.length; i++ )
+        {
+            if( current[i] == tracked )
+            {
+                TrackedAppender[] copy = new TrackedAppender[current.length - 1];
+                System.arraycopy( current, 0, copy, 0, i );
+                System.arraycopy( current, i + 1, copy, i, copy.length - i );
+                appenders = copy;
+                return;
             }
         }
     }
+
+    private static void failed( TrackedAppender tracked, Throwable t )
+    {
+        long errors = tracked.errors.incrementAndGet();
+        // a broken appender fails for every event, report the first failure and then less and less often
+        if( ( errors & ( errors - 1 ) ) == 0 )
+        {
+            String message = "Appender " + tracked.appender + " failed, " + errors + " failure(s) so far";
+            LogLog.error( message, t );
+        }
+    }
+
+    private static final class TrackedAppender
+    {
+
+        final PaxAppender appender;
+        final AtomicLong errors = new AtomicLong();
+
+        TrackedAppender( PaxAppender appender )
+        {
+            this.appender = appender;
+        }
+    }
 }
@@ -24,13 +24,35 @@ public class PaxLevelImpl
     implements PaxLevel
 {
 
-    private Level m_delegate;
+    private final Level m_delegate;
+
+    private static final PaxLevelImpl[] STANDARD_LEVELS = {
+        new PaxLevelImpl( Level.OFF ), new PaxLevelImpl( Level.FATAL ), new PaxLevelImpl( Level.ERROR ),
+        new PaxLevelImpl( Level.WARN ), new PaxLevelImpl( Level.INFO ), new PaxLevelImpl( Level.DEBUG ),
+        new PaxLevelImpl( Level.TRACE ), new PaxLevelImpl( Level.ALL )
+    };
 
     public PaxLevelImpl( Level delegate )
     {
         m_delegate = delegate;
     }
 
+    /**
+     * @param level the log4j level
+     * @return a shared instance for the standard levels, a new one for custom levels
+     */
+    public static PaxLevelImpl valueOf( Level level )
+    {
+        for( int i = 0; i < STANDARD_LEVELS.length; i++ )
+        {
+            if( STANDARD_LEVELS[i].m_delegate == level )
+            {
+                return STANDARD_LEVELS[i];
+            }
+        }
+        return new PaxLevelImpl( level );
+    }
+
     public boolean isGreaterOrEqual( PaxLevel r )
     {
         if (r instanceof PaxLevelImpl)
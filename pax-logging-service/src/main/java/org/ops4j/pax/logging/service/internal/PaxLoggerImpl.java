@@ -24,13 +24,13 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 import org.apache.log4j.Priority;
 import org.ops4j.pax.logging.PaxContext;
-import org.ops4j.pax.logging.PaxLogger;
+import org.ops4j.pax.logging.PaxContextLogger;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.service.log.LogService;
 
 public class PaxLoggerImpl
-    implements PaxLogger
+    implements PaxContextLogger
 {
 
     private org.apache.log4j.Logger m_delegate;
@@ -88,7 +88,11 @@ public class PaxLoggerImpl
 
     private void setDelegateContext()
     {
-        Map context = getPaxContext().getContext();
+        setDelegateContext( getPaxContext().getContext() );
+    }
+
+    private void setDelegateContext( Map context )
+    {
         if( context != null )
         {
             for (Object o : context.keySet()) {
@@ -135,7 +139,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( m_fqcn, Level.TRACE, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_DEBUG, message, t );
     }
 
     public void debug( String message, Throwable t )
@@ -143,7 +147,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( m_fqcn, Level.DEBUG, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_DEBUG, message, t );
     }
 
     public void inform( String message, Throwable t )
@@ -151,7 +155,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( m_fqcn, Level.INFO, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_INFO, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_INFO, message, t );
     }
 
     public void warn( String message, Throwable t )
@@ -159,7 +163,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( m_fqcn, Level.WARN, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_WARNING, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_WARNING, message, t );
     }
 
     public void error( String message, Throwable t )
@@ -167,7 +171,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( m_fqcn, Level.ERROR, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_ERROR, message, t );
     }
 
     public void fatal( String message, Throwable t )
@@ -175,7 +179,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( m_fqcn, Level.FATAL, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_ERROR, message, t );
     }
 
     public void trace( String message, Throwable t, String fqcn )
@@ -183,7 +187,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( fqcn, Level.TRACE, message, t);
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_DEBUG, message, t );
     }
 
     public void debug( String message, Throwable t, String fqcn )
@@ -191,7 +195,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( fqcn, Level.DEBUG, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_DEBUG, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_DEBUG, message, t );
     }
 
     public void inform( String message, Throwable t, String fqcn )
@@ -199,7 +203,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( fqcn, Level.INFO, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_INFO, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_INFO, message, t );
     }
 
     public void warn( String message, Throwable t, String fqcn )
@@ -207,7 +211,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( fqcn, Level.WARN, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_WARNING, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_WARNING, message, t );
     }
 
     public void error( String message, Throwable t, String fqcn )
@@ -215,7 +219,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( fqcn, Level.ERROR, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_ERROR, message, t );
     }
 
     public void fatal( String message, Throwable t, String fqcn )
@@ -223,7 +227,7 @@ public class PaxLoggerImpl
         setDelegateContext();
         m_delegate.log( fqcn, Level.FATAL, message, t );
         clearDelegateContext();
-        m_service.handleEvents( m_bundle, null, LogService.LOG_ERROR, message, t );
+        m_service.handleEvents( m_bundle, getName(), null, LogService.LOG_ERROR, message, t );
     }
 
     public int getLogLevel()
@@ -236,6 +240,43 @@ public class PaxLoggerImpl
         return m_delegate.getName();
     }
 
+    public void log( int level, String message, Throwable t, String fqcn, Map<String, Object> context )
+    {
+        Level log4jLevel;
+        int logServiceLevel;
+        switch( level )
+        {
+            case LEVEL_TRACE:
+                log4jLevel = Level.TRACE;
+                logServiceLevel = LogService.LOG_DEBUG;
+                break;
+            case LEVEL_DEBUG:
+                log4jLevel = Level.DEBUG;
+                logServiceLevel = LogService.LOG_DEBUG;
+                break;
+            case LEVEL_INFO:
+                log4jLevel = Level.INFO;
+                logServiceLevel = LogService.LOG_INFO;
+                break;
+            case LEVEL_WARNING:
+                log4jLevel = Level.WARN;
+                logServiceLevel = LogService.LOG_WARNING;
+                break;
+            case LEVEL_ERROR:
+                log4jLevel = Level.ERROR;
+                logServiceLevel = LogService.LOG_ERROR;
+                break;
+            default:
+                log4jLevel = Level.FATAL;
+                logServiceLevel = LogService.LOG_ERROR;
+                break;
+        }
+        setDelegateContext( context );
+        m_delegate.log( fqcn, log4jLevel, message, t );
+        clearDelegateContext();
+        m_service.handleEvents( m_bundle, getName(), null, logServiceLevel, message, t );
+    }
+
     //Fixed bug instead of the fully qualified class name of the logger was given the name of the caller
     public void log( Priority level, Object message, Throwable t )
     {
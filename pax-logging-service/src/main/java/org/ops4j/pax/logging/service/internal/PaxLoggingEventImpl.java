@@ -89,7 +89,7 @@ public class PaxLoggingEventImpl
     public PaxLevel getLevel()
     {
         Level level = m_delegate.getLevel();
-        return new PaxLevelImpl( level );
+        return PaxLevelImpl.valueOf( level );
     }
 
     /**
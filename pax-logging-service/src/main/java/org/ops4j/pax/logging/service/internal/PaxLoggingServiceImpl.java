@@ -19,6 +19,7 @@ package org.ops4j.pax.logging.service.internal;
 
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,11 +32,13 @@ import java.util.logging.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PaxLoggingConfigurator;
+import org.apache.log4j.helpers.OptionConverter;
 import org.knopflerfish.service.log.LogService;
 import org.ops4j.pax.logging.EventAdminPoster;
 import org.ops4j.pax.logging.PaxContext;
 import org.ops4j.pax.logging.PaxLogger;
 import org.ops4j.pax.logging.PaxLoggingService;
+import org.ops4j.pax.logging.spi.support.LogStore;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceFactory;
@@ -43,7 +46,6 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
-import org.osgi.service.log.LogEntry;
 
 public class PaxLoggingServiceImpl
     implements PaxLoggingService, LogService, ManagedService, ServiceFactory
@@ -56,6 +58,15 @@ public class PaxLoggingServiceImpl
     private ReadWriteLock m_configLock;
     private LinkedList m_julLoggers;
 
+    /**
+     * The levels of the <tt>java.util.logging</tt> loggers before this service first changed them, null for the loggers
+     * that had no level of their own, put back on shutdown.
+     */
+    private final Map<String, Level> m_julLevelsBefore = new HashMap<String, Level>();
+    // The log4j properties the repository was last configured with, null when it has the default configuration
+    private Properties m_configuration;
+    private volatile JdkHandler m_jdkHandler;
+
     private int m_logLevel = LOG_DEBUG;
     private static final String DEFAULT_SERVICE_LOG_LEVEL = "org.ops4j.pax.logging.DefaultServiceLog.level";
 
@@ -75,7 +86,47 @@ public class PaxLoggingServiceImpl
      * used just before disposing of the service instance.
      */
     protected void shutdown() {
+        PaxLoggingConfigurator.flushFilters( LogManager.getLoggerRepository() );
         LogManager.resetConfiguration();
+        m_logReader.closeStore();
+        restoreJulLevels();
+    }
+
+    /**
+     * Sets the level of a <tt>java.util.logging</tt> logger, remembering the level it had before this service first
+     * changed it.
+     */
+    private void changeJulLevel( java.util.logging.Logger logger, Level level )
+    {
+        synchronized( m_julLevelsBefore )
+        {
+            Level before = logger.getLevel();
+            if( before == level )
+            {
+                return;
+            }
+            if( !m_julLevelsBefore.containsKey( logger.getName() ) )
+            {
+                m_julLevelsBefore.put( logger.getName(), before );
+            }
+            logger.setLevel( level );
+        }
+    }
+
+    /**
+     * Puts back the levels of the <tt>java.util.logging</tt> loggers this service changed, as they were before, and
+     * leaves the other loggers alone.
+     */
+    private void restoreJulLevels()
+    {
+        synchronized( m_julLevelsBefore )
+        {
+            for( Map.Entry<String, Level> entry : m_julLevelsBefore.entrySet() )
+            {
+                java.util.logging.Logger.getLogger( entry.getKey() ).setLevel( entry.getValue() );
+            }
+            m_julLevelsBefore.clear();
+        }
     }
 
     ReadWriteLock getConfigLock() {
@@ -174,10 +225,19 @@ public class PaxLoggingServiceImpl
         }
     }
 
-    void handleEvents( Bundle bundle, ServiceReference sr, int level, String message, Throwable exception )
+    void handleEvents( Bundle bundle, String loggerName, ServiceReference sr, int level, String message,
+                       Throwable exception )
     {
-        LogEntry entry = new LogEntryImpl( bundle, sr, level, message, exception );
-        m_logReader.fireEvent( entry );
+        LogEntryImpl entry = new LogEntryImpl( bundle, sr, level, message, exception );
+        if( m_logReader.isStoring() )
+        {
+            // only the log store keeps the logger name and the MDC
+            m_logReader.fireEvent( new LogEntryEvent( entry, loggerName, getPaxContext().getCopyOfContextMap() ) );
+        }
+        else
+        {
+            m_logReader.fireEvent( entry );
+        }
 
         // This should only be null for TestCases.
         if( m_eventAdmin != null )
@@ -195,6 +255,8 @@ public class PaxLoggingServiceImpl
             return;
         }
         Properties extracted = extractKeys( configuration );
+        configureStore( configuration );
+        configureHistory( configuration );
 
         getConfigLock().writeLock().lock();
         ClassLoader loader = null;
@@ -202,16 +264,25 @@ public class PaxLoggingServiceImpl
         try {
             loader = Thread.currentThread().getContextClassLoader();
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-            LogManager.resetConfiguration();
-            // If the updated() method is called without any log4j properties,
-            // then keep the default/previous configuration.
-            if( extracted.size() == 0 )
+            PaxLoggingConfigurator configurator = new PaxLoggingConfigurator( m_bundleContext );
+            // Apply the differences to the previous configuration in place when possible, so that
+            // unchanged appenders keep their files and trackers open and no events are dropped
+            if( m_configuration == null || extracted.size() == 0
+                || !configurator.doConfigureIncrementally( m_configuration, extracted, LogManager.getLoggerRepository() ) )
             {
-                configureDefaults();
-                return;
+                PaxLoggingConfigurator.flushFilters( LogManager.getLoggerRepository() );
+                LogManager.resetConfiguration();
+                // If the updated() method is called without any log4j properties,
+                // then keep the default/previous configuration.
+                if( extracted.size() == 0 )
+                {
+                    configureDefaults();
+                    return;
+                }
+                configurator = new PaxLoggingConfigurator( m_bundleContext );
+                configurator.doConfigure( extracted, LogManager.getLoggerRepository() );
             }
-            PaxLoggingConfigurator configurator = new PaxLoggingConfigurator( m_bundleContext );
-            configurator.doConfigure( extracted, LogManager.getLoggerRepository() );
+            m_configuration = extracted;
             proxies = configurator.getProxies();
         } finally {
             getConfigLock().writeLock().unlock();
@@ -227,6 +298,25 @@ public class PaxLoggingServiceImpl
         LinkedList loggers = setLevelToJavaLogging( configuration );
         m_julLoggers.clear();
         m_julLoggers.addAll( loggers );
+        notifyJdkHandler();
+    }
+
+    /**
+     * @param jdkHandler the handler forwarding <tt>java.util.logging</tt> records, to be told about configuration
+     *                   changes, or <code>null</code>
+     */
+    void setJdkHandler( JdkHandler jdkHandler )
+    {
+        m_jdkHandler = jdkHandler;
+    }
+
+    private void notifyJdkHandler()
+    {
+        JdkHandler jdkHandler = m_jdkHandler;
+        if( jdkHandler != null )
+        {
+            jdkHandler.levelsChanged();
+        }
     }
 
     private Properties extractKeys( Dictionary configuration )
@@ -268,6 +358,49 @@ public class PaxLoggingServiceImpl
         }
     }
 
+    /**
+     * Opens or closes the log store of the LogReaderService, after the <code>pax.logging.store.*</code> properties.
+     */
+    private void configureStore( Dictionary configuration )
+    {
+        Object dir = configuration.get( "pax.logging.store.dir" );
+        m_logReader.setStore( dir == null ? null : dir.toString(),
+                              getLong( configuration, "pax.logging.store.partition", LogStore.DEFAULT_PARTITION ),
+                              (int) getLong( configuration, "pax.logging.store.blockSize",
+                                             LogStore.DEFAULT_BLOCK_SIZE ),
+                              getLong( configuration, "pax.logging.store.retention", LogStore.DEFAULT_RETENTION ),
+                              getLong( configuration, "pax.logging.store.maxSize", LogStore.DEFAULT_MAX_BYTES ) );
+    }
+
+    /**
+     * Keeps the recent entries of the LogReaderService in direct memory if <code>pax.logging.entries.memory</code>
+     * is set, like <code>64MB</code>.
+     */
+    private void configureHistory( Dictionary configuration )
+    {
+        Object memory = configuration.get( "pax.logging.entries.memory" );
+        long maxBytes = memory == null ? 0 : OptionConverter.toFileSize( memory.toString().trim(), 0 );
+        m_logReader.setMaxBytes( maxBytes, m_bundleContext );
+    }
+
+    private static long getLong( Dictionary configuration, String key, long defaultValue )
+    {
+        Object value = configuration.get( key );
+        if( value == null )
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Long.parseLong( value.toString().trim() );
+        }
+        catch( NumberFormatException e )
+        {
+            System.err.println( "PaxLogging: Invalid value of " + key + ": " + value );
+            return defaultValue;
+        }
+    }
+
     private void configureDefaults()
     {
         String levelName;
@@ -288,6 +421,7 @@ public class PaxLoggingServiceImpl
             }
         }
         m_logLevel = convertLevel( levelName );
+        m_configuration = null;
 
         PaxLoggingConfigurator configurator = new PaxLoggingConfigurator( m_bundleContext );
         Properties defaultProperties = new Properties();
@@ -298,7 +432,8 @@ public class PaxLoggingServiceImpl
         defaultProperties.put( "log4j.appender.A1.layout", "org.apache.log4j.TTCCLayout" );
         configurator.doConfigure( defaultProperties, LogManager.getLoggerRepository() );
         final java.util.logging.Logger rootLogger = java.util.logging.Logger.getLogger( "" );
-        rootLogger.setLevel( Level.FINE );
+        changeJulLevel( rootLogger, Level.FINE );
+        notifyJdkHandler();
     }
 
     private void extractSystemProperties( Properties output )
@@ -435,11 +570,11 @@ public class PaxLoggingServiceImpl
 	 *
 	 * @param configuration	Properties coming from the configuration.
 	 */
-    private static LinkedList setLevelToJavaLogging( final Dictionary configuration )
+    private LinkedList setLevelToJavaLogging( final Dictionary configuration )
     {
         for( Enumeration enum_ = java.util.logging.LogManager.getLogManager().getLoggerNames(); enum_.hasMoreElements();) {
             String name = (String) enum_.nextElement();
-            java.util.logging.Logger.getLogger(name).setLevel( null );
+            changeJulLevel( java.util.logging.Logger.getLogger(name), null );
         }
 
         LinkedList loggers  = new LinkedList();
@@ -471,13 +606,13 @@ public class PaxLoggingServiceImpl
 	 * @param logger			The logger to configure
 	 * @param log4jLevelConfig	The value contained in the property file. (For example: "ERROR, file")
 	 */
-	private static void setJULLevel( java.util.logging.Logger logger, String log4jLevelConfig )
+	private void setJULLevel( java.util.logging.Logger logger, String log4jLevelConfig )
 	{
 		String crumb[] = log4jLevelConfig.split( "," );
 		if (crumb.length > 0)
 		{
 			Level level = log4jLevelToJULLevel( crumb[0].trim() );
-			logger.setLevel( level );
+			changeJulLevel( logger, level );
 		}
 	}
 
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import org.apache.log4j.spi.LoggingEvent;
+
+public class GzipFileAppenderTest extends TestCase {
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("gzip", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testEventsAreCompressed() throws Exception {
+        File file = new File(dir, "test.log");
+        GzipFileAppender appender = createAppender(file);
+        appender.activateOptions();
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(event("message " + i));
+        }
+        appender.close();
+
+        List<String> lines = readLines(new File(dir, "test.log.gz"));
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("INFO - message " + i, lines.get(i));
+        }
+        assertTrue(new File(dir, "test.log.gz").length() < 1000 * "INFO - message 999".length() / 4);
+    }
+
+    public void testFileIsReadableWhileWritten() throws Exception {
+        File file = new File(dir, "test.log");
+        GzipFileAppender appender = createAppender(file);
+        appender.setFlushInterval(10);
+        appender.activateOptions();
+        appender.doAppend(event("first"));
+        appender.doAppend(event("second"));
+        Thread.sleep(200);
+
+        List<String> lines = readLines(new File(dir, "test.log.gz"));
+        assertEquals(2, lines.size());
+        assertEquals("INFO - second", lines.get(1));
+
+        appender.doAppend(event("third"));
+        appender.close();
+        assertEquals(3, readLines(new File(dir, "test.log.gz")).size());
+    }
+
+    public void testAppendingAddsMembers() throws Exception {
+        File file = new File(dir, "test.log");
+        GzipFileAppender appender = createAppender(file);
+        appender.activateOptions();
+        appender.doAppend(event("first"));
+        appender.close();
+
+        appender = createAppender(file);
+        appender.activateOptions();
+        appender.doAppend(event("second"));
+        appender.close();
+
+        List<String> lines = readLines(new File(dir, "test.log.gz"));
+        assertEquals(2, lines.size());
+        assertEquals("INFO - first", lines.get(0));
+        assertEquals("INFO - second", lines.get(1));
+    }
+
+    public void testRollOverBySize() throws Exception {
+        File file = new File(dir, "test.log");
+        GzipFileAppender appender = createAppender(file);
+        appender.setFlushInterval(0);
+        appender.setMaximumFileSize(2000);
+        appender.setMaxBackupIndex(2);
+        appender.activateOptions();
+        for (int i = 0; i < 50000; i++) {
+            appender.doAppend(event("message " + Integer.toHexString(i * 7919)));
+        }
+        appender.close();
+
+        assertTrue(new File(dir, "test.log.1.gz").exists());
+        assertTrue(new File(dir, "test.log.2.gz").exists());
+        assertFalse(new File(dir, "test.log.3.gz").exists());
+        List<String> lines = readLines(new File(dir, "test.log.gz"));
+        assertEquals("INFO - message " + Integer.toHexString(49999 * 7919), lines.get(lines.size() - 1));
+        List<String> backup = readLines(new File(dir, "test.log.1.gz"));
+        assertFalse(backup.isEmpty());
+    }
+
+    public void testConcurrentWriters() throws Exception {
+        File file = new File(dir, "test.log");
+        final GzipFileAppender appender = createAppender(file);
+        appender.setBufferSize("4096");
+        appender.activateOptions();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        appender.doAppend(event(id + "-" + i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        appender.close();
+
+        List<String> lines = readLines(new File(dir, "test.log.gz"));
+        assertEquals(threads.length * 2000, lines.size());
+        assertEquals(lines.size(), new HashSet<String>(lines).size());
+        // the layout formats one event at a time
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("INFO - "));
+        }
+    }
+
+    private static GzipFileAppender createAppender(File file) {
+        GzipFileAppender appender = new GzipFileAppender();
+        appender.setName("test");
+        appender.setLayout(new SimpleLayout());
+        appender.setFile(file.getPath());
+        return appender;
+    }
+
+    private static LoggingEvent event(String message) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getLogger("test"), System.currentTimeMillis(),
+                                Level.INFO, message, null);
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new GZIPInputStream(new FileInputStream(file))));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Compares the throughput of {@link MemoryMappedFileAppender} with a buffered {@link FileAppender}.
+ *
+ * <p>
+ * Not run with the tests. Run it with the test classpath, optionally passing the number of threads and the number
+ * of events per thread:
+ * <pre>
+ * java -cp ... org.apache.log4j.MemoryMappedFileAppenderBenchmark 4 500000
+ * </pre>
+ */
+public class MemoryMappedFileAppenderBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        File dir = File.createTempFile("benchmark", "");
+        dir.delete();
+        dir.mkdirs();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            // the first round warms up
+            File file = new File(dir, "buffered.log");
+            FileAppender buffered = new FileAppender();
+            buffered.setName("buffered");
+            buffered.setLayout(new PatternLayout("%d %-5p [%t] %c - %m%n"));
+            buffered.setFile(file.getPath());
+            buffered.setAppend(false);
+            buffered.setBufferedIO(true);
+            buffered.activateOptions();
+            report(round, "FileAppender, BufferedIO", run(buffered, threads, events), threads * events);
+            file.delete();
+
+            file = new File(dir, "mapped.log");
+            MemoryMappedFileAppender mapped = new MemoryMappedFileAppender();
+            mapped.setName("mapped");
+            mapped.setLayout(new PatternLayout("%d %-5p [%t] %c - %m%n"));
+            mapped.setFile(file.getPath());
+            mapped.setAppend(false);
+            mapped.activateOptions();
+            report(round, "MemoryMappedFileAppender", run(mapped, threads, events), threads * events);
+            file.delete();
+
+            mapped = new MemoryMappedFileAppender();
+            mapped.setName("mapped-sync");
+            mapped.setLayout(new PatternLayout("%d %-5p [%t] %c - %m%n"));
+            mapped.setFile(file.getPath());
+            mapped.setAppend(false);
+            mapped.setSyncInterval(100);
+            mapped.activateOptions();
+            report(round, "MemoryMappedFileAppender, SyncInterval 100", run(mapped, threads, events),
+                   threads * events);
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static long run(final Appender appender, int threads, final int events) throws InterruptedException {
+        final Logger logger = Logger.getLogger(MemoryMappedFileAppenderBenchmark.class);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < events; i++) {
+                            appender.doAppend(new LoggingEvent(Logger.class.getName(), logger,
+                                                               System.currentTimeMillis(), Level.INFO,
+                                                               "benchmark message " + i, null));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "benchmark-" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        appender.close();
+        return System.nanoTime() - begin;
+    }
+
+    private static void report(int round, String name, long nanos, int events) {
+        System.out.println((round == 0 ? "warm-up  " : "round " + round + "  ") + name + ": "
+                           + (events * 1000000000L / nanos) + " events/s");
+    }
+}
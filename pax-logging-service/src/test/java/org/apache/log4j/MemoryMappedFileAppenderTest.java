@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.apache.log4j.spi.LoggingEvent;
+
+public class MemoryMappedFileAppenderTest extends TestCase {
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("mmap", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testEventsAreWrittenAndFileIsCutDownOnClose() throws Exception {
+        File file = new File(dir, "test.log");
+        MemoryMappedFileAppender appender = createAppender(file, 4096);
+        appender.activateOptions();
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(event("message " + i));
+        }
+        appender.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("INFO - message " + i, lines.get(i));
+        }
+        assertEquals(file.length(), contentLength(lines));
+    }
+
+    public void testAppendingToAFileThatWasNotClosed() throws Exception {
+        File file = new File(dir, "test.log");
+        MemoryMappedFileAppender appender = createAppender(file, 4096);
+        appender.activateOptions();
+        appender.doAppend(event("first"));
+        appender.close();
+        // what a crash leaves behind: the rest of the mapped region
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() + 4096);
+        raf.close();
+
+        appender = createAppender(file, 4096);
+        appender.activateOptions();
+        appender.doAppend(event("second"));
+        appender.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(2, lines.size());
+        assertEquals("INFO - first", lines.get(0));
+        assertEquals("INFO - second", lines.get(1));
+    }
+
+    public void testRollOverBySize() throws Exception {
+        File file = new File(dir, "test.log");
+        MemoryMappedFileAppender appender = createAppender(file, 1024);
+        appender.setMaximumFileSize(2000);
+        appender.setMaxBackupIndex(2);
+        appender.activateOptions();
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(event("message " + i));
+        }
+        appender.close();
+
+        assertTrue(file.length() <= 2000);
+        assertTrue(new File(dir, "test.log.1").length() <= 2000);
+        assertTrue(new File(dir, "test.log.2").exists());
+        assertFalse(new File(dir, "test.log.3").exists());
+        List<String> lines = readLines(file);
+        assertEquals("INFO - message 999", lines.get(lines.size() - 1));
+    }
+
+    public void testConcurrentWriters() throws Exception {
+        File file = new File(dir, "test.log");
+        final MemoryMappedFileAppender appender = createAppender(file, 8192);
+        appender.setSyncEvents(100);
+        appender.activateOptions();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        appender.doAppend(event(id + "-" + i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        appender.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(threads.length * 2000, lines.size());
+        assertEquals(lines.size(), new HashSet<String>(lines).size());
+        // the layout formats one event at a time
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("INFO - "));
+        }
+    }
+
+    public void testOversizedEventsDoNotKeepTheirBuffer() throws Exception {
+        MemoryMappedFileAppender.Encoder encoder = new MemoryMappedFileAppender.Encoder(Charset.forName("UTF-8"));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append("message ");
+        }
+        assertEquals(text.length(), encoder.encode(text.toString()).remaining());
+        assertTrue(encoder.capacity() > MemoryMappedFileAppender.Encoder.MAX_RETAINED_CAPACITY);
+        encoder.release();
+        assertEquals(MemoryMappedFileAppender.Encoder.INITIAL_CAPACITY, encoder.capacity());
+
+        // buffers of the usual size are kept
+        encoder.encode("INFO - message");
+        encoder.encode(text.substring(0, 4000));
+        encoder.release();
+        assertEquals(4 * MemoryMappedFileAppender.Encoder.INITIAL_CAPACITY, encoder.capacity());
+    }
+
+    private static MemoryMappedFileAppender createAppender(File file, int regionLength) {
+        MemoryMappedFileAppender appender = new MemoryMappedFileAppender();
+        appender.setName("test");
+        appender.setLayout(new SimpleLayout());
+        appender.setFile(file.getPath());
+        appender.setRegionLength(regionLength);
+        return appender;
+    }
+
+    private static LoggingEvent event(String message) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getLogger("test"), System.currentTimeMillis(),
+                                Level.INFO, message, null);
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static long contentLength(List<String> lines) {
+        long length = 0;
+        for (String line : lines) {
+            length += line.length() + Layout.LINE_SEP.length();
+        }
+        return length;
+    }
+}
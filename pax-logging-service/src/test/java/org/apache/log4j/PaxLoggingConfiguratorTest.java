@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 OPS4J.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+import org.apache.log4j.spi.LoggerRepository;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.RootLogger;
+
+public class PaxLoggingConfiguratorTest extends TestCase {
+
+    private static final String APPENDER = RecordingAppender.class.getName();
+
+    private LoggerRepository hierarchy;
+
+    protected void setUp() throws Exception {
+        hierarchy = new Hierarchy(new RootLogger(Level.DEBUG));
+    }
+
+    public void testLevelChangeKeepsAppenders() throws Exception {
+        Properties previous = configuration();
+        configure(previous);
+        RecordingAppender a = appender(hierarchy.getRootLogger(), "A");
+        hierarchy.getLogger("org.example").info("before");
+
+        Properties properties = configuration();
+        properties.setProperty("log4j.logger.org.example", "WARN, B");
+        assertTrue(configurator().doConfigureIncrementally(previous, properties, hierarchy));
+
+        assertEquals(Level.WARN, hierarchy.getLogger("org.example").getLevel());
+        assertSame(a, appender(hierarchy.getRootLogger(), "A"));
+        assertFalse(a.closed);
+        hierarchy.getLogger("org.example").info("filtered");
+        hierarchy.getLogger("org.example").warn("after");
+        assertEquals(2, a.messages.size());
+        assertEquals("a:after", a.messages.get(1));
+    }
+
+    public void testChangedAppenderIsReplaced() throws Exception {
+        Properties previous = configuration();
+        configure(previous);
+        RecordingAppender a = appender(hierarchy.getRootLogger(), "A");
+        RecordingAppender b = appender(hierarchy.getLogger("org.example"), "B");
+        hierarchy.getLogger("org.example").info("before");
+
+        Properties properties = configuration();
+        properties.setProperty("log4j.appender.A.prefix", "changed");
+        assertTrue(configurator().doConfigureIncrementally(previous, properties, hierarchy));
+
+        RecordingAppender replacement = appender(hierarchy.getRootLogger(), "A");
+        assertNotSame(a, replacement);
+        assertTrue(a.closed);
+        assertFalse(replacement.closed);
+        // the other appender keeps what it logged so far
+        assertSame(b, appender(hierarchy.getLogger("org.example"), "B"));
+        assertFalse(b.closed);
+        hierarchy.getLogger("org.example").info("after");
+        assertEquals(1, a.messages.size());
+        assertEquals("changed:after", replacement.messages.get(0));
+        assertEquals(2, b.messages.size());
+        assertEquals("b:after", b.messages.get(1));
+    }
+
+    public void testRemovedLoggerAndAppender() throws Exception {
+        Properties previous = configuration();
+        configure(previous);
+        RecordingAppender b = appender(hierarchy.getLogger("org.example"), "B");
+
+        Properties properties = configuration();
+        properties.remove("log4j.logger.org.example");
+        properties.remove("log4j.appender.B");
+        properties.remove("log4j.appender.B.prefix");
+        assertTrue(configurator().doConfigureIncrementally(previous, properties, hierarchy));
+
+        Logger logger = hierarchy.getLogger("org.example");
+        assertNull(logger.getLevel());
+        assertFalse(logger.getAllAppenders().hasMoreElements());
+        assertTrue(b.closed);
+        assertFalse(appender(hierarchy.getRootLogger(), "A").closed);
+    }
+
+    public void testFallsBackToReset() throws Exception {
+        Properties previous = configuration();
+        configure(previous);
+
+        Properties threshold = configuration();
+        threshold.setProperty("log4j.threshold", "WARN");
+        assertFalse(configurator().doConfigureIncrementally(previous, threshold, hierarchy));
+
+        Properties nested = configuration();
+        nested.setProperty("log4j.appender.B.appenders", "A");
+        assertFalse(configurator().doConfigureIncrementally(previous, nested, hierarchy));
+
+        // nothing was changed
+        assertNull(hierarchy.getLogger("org.example").getAppender("A"));
+        assertEquals(Level.INFO, hierarchy.getLogger("org.example").getLevel());
+        assertFalse(appender(hierarchy.getRootLogger(), "A").closed);
+    }
+
+    private static Properties configuration() {
+        Properties properties = new Properties();
+        properties.setProperty("log4j.rootLogger", "DEBUG, A");
+        properties.setProperty("log4j.logger.org.example", "INFO, B");
+        properties.setProperty("log4j.appender.A", APPENDER);
+        properties.setProperty("log4j.appender.A.prefix", "a");
+        properties.setProperty("log4j.appender.B", APPENDER);
+        properties.setProperty("log4j.appender.B.prefix", "b");
+        return properties;
+    }
+
+    private void configure(Properties properties) {
+        configurator().doConfigure(properties, hierarchy);
+    }
+
+    private static PaxLoggingConfigurator configurator() {
+        return new PaxLoggingConfigurator(null);
+    }
+
+    private static RecordingAppender appender(Logger logger, String name) {
+        RecordingAppender appender = (RecordingAppender) logger.getAppender(name);
+        assertNotNull(appender);
+        return appender;
+    }
+
+    public static class RecordingAppender extends AppenderSkeleton {
+
+        final List<String> messages = new ArrayList<String>();
+        boolean closed;
+        private String prefix;
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        protected void append(LoggingEvent event) {
+            messages.add(prefix + ":" + event.getRenderedMessage());
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+}
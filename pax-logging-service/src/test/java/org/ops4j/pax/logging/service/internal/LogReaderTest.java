@@ -18,11 +18,23 @@
 package org.ops4j.pax.logging.service.internal;
 
 import junit.framework.TestCase;
+import org.ops4j.pax.logging.LogCursor;
+import org.ops4j.pax.logging.LogEntryBatch;
+import org.ops4j.pax.logging.LogQuery;
+import org.ops4j.pax.logging.PaxLogEntry;
 import org.ops4j.pax.logging.service.internal.LogReaderServiceImpl;
 import org.ops4j.pax.logging.service.internal.LogEntryImpl;
+import org.ops4j.pax.logging.spi.PaxLoggingEvent;
+import org.ops4j.pax.logging.spi.support.LogStore;
 import org.osgi.service.log.LogListener;
 import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class LogReaderTest extends TestCase
 {
@@ -47,6 +59,214 @@ public class LogReaderTest extends TestCase
         assertEquals( 4, listener.entries.size() );
     }
 
+    public void testQueryRecentEntries()
+    {
+        LogReaderServiceImpl underTest = new LogReaderServiceImpl( 10 );
+        underTest.fireEvent( event( LogService.LOG_INFO, "first", "org.example.Foo", "alice" ) );
+        underTest.fireEvent( event( LogService.LOG_ERROR, "second", "org.example.Foo", "bob" ) );
+        underTest.fireEvent( event( LogService.LOG_ERROR, "third", "com.acme.Bar", "alice" ) );
+
+        List<PaxLoggingEvent> events = underTest.getLog( new LogQuery().minimumLevel( LogService.LOG_WARNING ) );
+        assertEquals( 2, events.size() );
+        assertEquals( "second", events.get( 0 ).getMessage() );
+        assertEquals( "third", events.get( 1 ).getMessage() );
+        events = underTest.getLog( new LogQuery().loggerPrefix( "org.example" ).mdc( "user", "alice" ) );
+        assertEquals( 1, events.size() );
+        assertEquals( "first", events.get( 0 ).getMessage() );
+    }
+
+    public void testEntriesWithoutEvent()
+        throws Exception
+    {
+        LogReaderServiceImpl underTest = new LogReaderServiceImpl( 10 );
+        assertFalse( underTest.isStoring() );
+        underTest.fireEvent( new LogEntryImpl( null, null, LogService.LOG_INFO, "plain", null ) );
+        underTest.fireEvent( event( LogService.LOG_ERROR, "with event", "org.example.Foo", "alice" ) );
+
+        List<PaxLoggingEvent> events = underTest.getLog( new LogQuery() );
+        assertEquals( 2, events.size() );
+        assertEquals( "plain", events.get( 0 ).getMessage() );
+        assertNull( events.get( 0 ).getLoggerName() );
+        assertEquals( "with event", events.get( 1 ).getMessage() );
+        assertEquals( 2, underTest.getEntries( 0, 10, 0 ).getEntries().size() );
+
+        underTest.setMaxBytes( 64 * 1024, null );
+        assertEquals( "plain", underTest.getEntries( 0, 10, 0 ).getEntries().get( 0 ).getMessage() );
+    }
+
+    public void testQueryStore()
+        throws Exception
+    {
+        File dir = File.createTempFile( "logstore", "" );
+        dir.delete();
+        try
+        {
+            LogReaderServiceImpl underTest = new LogReaderServiceImpl( 1 );
+            underTest.setStore( dir.getPath(), LogStore.DEFAULT_PARTITION, 10, LogStore.DEFAULT_RETENTION,
+                                LogStore.DEFAULT_MAX_BYTES );
+            for( int i = 0; i < 25; i++ )
+            {
+                underTest.fireEvent( event( i % 5 == 0 ? LogService.LOG_ERROR : LogService.LOG_DEBUG, "m" + i,
+                                            "org.example.Foo", "alice" ) );
+            }
+            underTest.closeStore();
+
+            LogStore store = new LogStore( dir );
+            List<PaxLoggingEvent> events = store.query( new LogQuery().minimumLevel( LogService.LOG_ERROR ) );
+            store.close();
+            assertEquals( 5, events.size() );
+            assertEquals( "m5", events.get( 1 ).getMessage() );
+            assertEquals( "org.example.Foo", events.get( 1 ).getLoggerName() );
+            assertEquals( "alice", events.get( 1 ).getProperties().get( "user" ) );
+        }
+        finally
+        {
+            File[] files = dir.listFiles();
+            for( int i = 0; files != null && i < files.length; i++ )
+            {
+                files[i].delete();
+            }
+            dir.delete();
+        }
+    }
+
+    public void testEntriesAfterSequence()
+        throws Exception
+    {
+        LogReaderServiceImpl underTest = new LogReaderServiceImpl( 5 );
+        for( int i = 1; i <= 3; i++ )
+        {
+            underTest.fireEvent( event( LogService.LOG_INFO, "m" + i, "org.example.Foo", "alice" ) );
+        }
+        LogEntryBatch batch = underTest.getEntries( 0, 10, 0 );
+        assertEquals( 3, batch.getEntries().size() );
+        assertEquals( 3, batch.getLastSequence() );
+        assertEquals( 0, batch.getMissed() );
+
+        for( int i = 4; i <= 8; i++ )
+        {
+            underTest.fireEvent( event( LogService.LOG_INFO, "m" + i, "org.example.Foo", "alice" ) );
+        }
+        batch = underTest.getEntries( 1, 2, 0 );
+        assertEquals( 2, batch.getMissed() );
+        assertEquals( 5, batch.getLastSequence() );
+        assertEquals( "m4", batch.getEntries().get( 0 ).getMessage() );
+        assertEquals( 4, batch.getEntries().get( 0 ).getSequence() );
+        assertEquals( "m5", batch.getEntries().get( 1 ).getMessage() );
+
+        underTest.setMaxEntries( 2 );
+        batch = underTest.getEntries( 5, 10, 0 );
+        assertEquals( 1, batch.getMissed() );
+        assertEquals( 2, batch.getEntries().size() );
+        assertEquals( "m8", batch.getEntries().get( 1 ).getMessage() );
+        assertEquals( 2, Collections.list( underTest.getLog() ).size() );
+    }
+
+    public void testCursorWaitsForEntries()
+        throws Exception
+    {
+        final LogReaderServiceImpl underTest = new LogReaderServiceImpl( 10 );
+        underTest.fireEvent( event( LogService.LOG_INFO, "before", "org.example.Foo", "alice" ) );
+        LogCursor cursor = new LogCursor( underTest );
+        assertTrue( cursor.next( 10, 0 ).isEmpty() );
+        assertTrue( cursor.next( 10, 50 ).isEmpty() );
+
+        new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 100 );
+                }
+                catch( InterruptedException ignore )
+                {
+                }
+                underTest.fireEvent( event( LogService.LOG_INFO, "after", "org.example.Foo", "alice" ) );
+            }
+        }.start();
+        List<PaxLogEntry> entries = cursor.next( 10, 10000 );
+        assertEquals( 1, entries.size() );
+        assertEquals( "after", entries.get( 0 ).getMessage() );
+        assertEquals( 2, cursor.getPosition() );
+        assertEquals( 0, cursor.getMissed() );
+    }
+
+    public void testOffHeapHistory()
+        throws Exception
+    {
+        LogReaderServiceImpl underTest = new LogReaderServiceImpl( 10 );
+        underTest.fireEvent( event( LogService.LOG_INFO, "on the heap", "org.example.Foo", "alice" ) );
+        underTest.setMaxBytes( 64 * 1024, null );
+        Exception boom = new IllegalStateException( "boom" );
+        underTest.fireEvent( new LogEntryEvent( new LogEntryImpl( null, null, LogService.LOG_WARNING, "failed", boom ),
+                                                "org.example.Foo", null ) );
+
+        LogEntryBatch batch = underTest.getEntries( 0, 10, 0 );
+        assertEquals( 2, batch.getEntries().size() );
+        assertEquals( "on the heap", batch.getEntries().get( 0 ).getMessage() );
+        PaxLogEntry failed = batch.getEntries().get( 1 );
+        assertEquals( 2, failed.getSequence() );
+        assertEquals( LogService.LOG_WARNING, failed.getLevel() );
+        assertEquals( "java.lang.IllegalStateException: boom", failed.getException().toString() );
+        StringWriter trace = new StringWriter();
+        failed.getException().printStackTrace( new PrintWriter( trace ) );
+        assertTrue( trace.toString().contains( "testOffHeapHistory" ) );
+
+        StringBuilder message = new StringBuilder();
+        for( int i = 0; i < 100; i++ )
+        {
+            message.append( "0123456789" );
+        }
+        for( int i = 0; i < 1000; i++ )
+        {
+            underTest.fireEvent( event( LogService.LOG_DEBUG, i + " " + message, "org.example.Foo", "bob" ) );
+        }
+        batch = underTest.getEntries( 0, 1000, 0 );
+        assertTrue( batch.getMissed() > 0 );
+        assertEquals( 1002, batch.getLastSequence() );
+        assertEquals( 1002 - batch.getMissed(), batch.getEntries().size() );
+        assertTrue( batch.getEntries().get( batch.getEntries().size() - 1 ).getMessage().startsWith( "999 " ) );
+        List<PaxLoggingEvent> events = underTest.getLog( new LogQuery().mdc( "user", "bob" ).limit( 1 ) );
+        assertEquals( "org.example.Foo", events.get( 0 ).getLoggerName() );
+
+        underTest.setMaxBytes( 0, null );
+        assertFalse( underTest.getLog().hasMoreElements() );
+        underTest.fireEvent( event( LogService.LOG_INFO, "back on the heap", "org.example.Foo", "alice" ) );
+        assertEquals( 1003, underTest.getLastSequence() );
+        assertEquals( 1, Collections.list( underTest.getLog() ).size() );
+    }
+
+    public void testOffHeapHistoryCutsEntriesLargerThanASegment()
+        throws Exception
+    {
+        OffHeapLogHistory history = new OffHeapLogHistory( 16 * 1024, null );
+        StringBuilder message = new StringBuilder();
+        for( int i = 0; i < 10000; i++ )
+        {
+            message.append( "0123456789" );
+        }
+        for( int sequence = 1; sequence <= 100; sequence++ )
+        {
+            LogEntryImpl entry = new LogEntryImpl( null, null, LogService.LOG_INFO, sequence + " " + message, null );
+            entry.setSequence( sequence );
+            history.add( entry );
+            assertTrue( history.getBytes() <= 16 * 1024 );
+        }
+        PaxLogEntry last = history.getEntry( 100 );
+        assertTrue( last.getMessage().startsWith( "100 0123456789" ) );
+        assertTrue( last.getMessage().length() < 4096 );
+        history.release();
+        assertEquals( 0, history.getBytes() );
+        assertTrue( last.getMessage().startsWith( "100 " ) );
+    }
+
+    private static LogEntryEvent event( int level, String message, String logger, String user )
+    {
+        return new LogEntryEvent( new LogEntryImpl( null, null, level, message, null ), logger,
+                                  Collections.<String, Object>singletonMap( "user", user ) );
+    }
+
     private class MyTestListener
         implements LogListener
     {